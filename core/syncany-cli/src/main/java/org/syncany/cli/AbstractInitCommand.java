@@ -302,7 +302,9 @@ public abstract class AbstractInitCommand extends Command implements UserInterac
 		TransferPluginOptionCallback optionCallback = createOptionCallback(settings, option.getCallback());
 		TransferPluginOptionConverter optionConverter = createOptionConverter(settings, option.getConverter());
 
-		if (!isInteractive && !knownPluginSettings.containsKey(nestPrefix + option.getName())) {
+		boolean optionalHiddenOption = !option.isRequired() && !option.isVisible();
+
+		if (!isInteractive && !optionalHiddenOption && !knownPluginSettings.containsKey(nestPrefix + option.getName())) {
 			throw new IllegalArgumentException("Missing plugin option (" + nestPrefix + option.getName() + ") in non-interactive mode.");
 		}
 		else if (knownPluginSettings.containsKey(nestPrefix + option.getName())) {
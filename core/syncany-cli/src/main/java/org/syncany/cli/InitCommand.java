@@ -26,7 +26,6 @@ import java.util.Map;
 import org.syncany.config.to.ConfigTO;
 import org.syncany.config.to.DefaultRepoTOFactory;
 import org.syncany.config.to.RepoTO;
-import org.syncany.config.to.RepoTOFactory;
 import org.syncany.crypto.CipherSpec;
 import org.syncany.crypto.CipherSpecs;
 import org.syncany.crypto.CipherUtil;
@@ -90,6 +89,10 @@ public class InitCommand extends AbstractInitCommand {
 		OptionSpec<Void> optionCreateTargetPath = parser.acceptsAll(asList("t", "create-target"));
 		OptionSpec<Void> optionAdvanced = parser.acceptsAll(asList("a", "advanced"));
 		OptionSpec<Void> optionNoCompression = parser.acceptsAll(asList("G", "no-compression"));
+		OptionSpec<String> optionCompression = parser.acceptsAll(asList("compression")).withRequiredArg();
+		OptionSpec<Void> optionBypassIncompressible = parser.acceptsAll(asList("bypass-incompressible"));
+		OptionSpec<Void> optionIndexedMultiChunks = parser.acceptsAll(asList("indexed-multichunks"));
+		OptionSpec<String> optionChunker = parser.acceptsAll(asList("chunker")).withRequiredArg();
 		OptionSpec<Void> optionNoEncryption = parser.acceptsAll(asList("E", "no-encryption"));
 		OptionSpec<String> optionPlugin = parser.acceptsAll(asList("P", "plugin")).withRequiredArg();
 		OptionSpec<String> optionPluginOpts = parser.acceptsAll(asList("o", "plugin-option")).withRequiredArg();
@@ -114,13 +117,30 @@ public class InitCommand extends AbstractInitCommand {
 		boolean advancedModeEnabled = options.has(optionAdvanced);
 		boolean encryptionEnabled = !options.has(optionNoEncryption);
 		boolean compressionEnabled = !options.has(optionNoCompression);
+		boolean bypassIncompressible = options.has(optionBypassIncompressible);
+		boolean indexedMultiChunks = options.has(optionIndexedMultiChunks);
 
 		// Cipher specs: --no-encryption, --advanced
 		List<CipherSpec> cipherSpecs = getCipherSpecs(encryptionEnabled, advancedModeEnabled);
 
-		// Compression: --no-compression
-		// DefaultRepoTOFactory also creates default chunkers
-		RepoTOFactory repoTOFactory = new DefaultRepoTOFactory(compressionEnabled, cipherSpecs);
+		// Compression: --no-compression, --compression=<gzip|lz4>, --bypass-incompressible
+		// Multichunks: --indexed-multichunks
+		// Chunker: --chunker=<fixed|fast-cdc>
+		DefaultRepoTOFactory repoTOFactory = new DefaultRepoTOFactory(compressionEnabled, cipherSpecs);
+		repoTOFactory.setBypassIncompressible(bypassIncompressible);
+		repoTOFactory.setIndexedMultiChunks(indexedMultiChunks);
+
+		if (options.has(optionCompression)) {
+			if (!compressionEnabled) {
+				throw new IllegalArgumentException("Cannot provide --compression and --no-compression. Conflicting options.");
+			}
+
+			repoTOFactory.setCompressionType(options.valueOf(optionCompression));
+		}
+
+		if (options.has(optionChunker)) {
+			repoTOFactory.setChunkerType(options.valueOf(optionChunker));
+		}
 
 		// Genlink options: --short
 		GenlinkOperationOptions genlinkOptions = new GenlinkOperationOptions();
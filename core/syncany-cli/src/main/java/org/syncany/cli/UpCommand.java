@@ -71,6 +71,7 @@ public class UpCommand extends Command {
 
 		OptionSpec<Void> optionForceUpload = parser.acceptsAll(asList("F", "force-upload"));
 		OptionSpec<Void> optionNoResumeUpload = parser.acceptsAll(asList("R", "no-resume"));
+		OptionSpec<Void> optionPipelinedUpload = parser.acceptsAll(asList("P", "pipelined"));
 
 		OptionSet options = parser.parse(operationArgs);
 
@@ -83,6 +84,9 @@ public class UpCommand extends Command {
 		// -R, --no-resume
 		operationOptions.setResume(!options.has(optionNoResumeUpload));
 
+		// -P, --pipelined
+		operationOptions.setPipelinedUpload(options.has(optionPipelinedUpload));
+
 		return operationOptions;
 	}
 
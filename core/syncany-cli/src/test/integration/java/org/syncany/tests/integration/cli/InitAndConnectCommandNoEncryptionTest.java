@@ -17,6 +17,8 @@
  */
 package org.syncany.tests.integration.cli;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.junit.contrib.java.lang.system.TextFromStandardInputStream.emptyStandardInputStream;
 
@@ -28,8 +30,14 @@ import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.contrib.java.lang.system.TextFromStandardInputStream;
+import org.syncany.chunk.FastCdcChunker;
+import org.syncany.chunk.Lz4Transformer;
 import org.syncany.cli.CommandLineClient;
 import org.syncany.cli.util.InitConsole;
+import org.syncany.config.Config;
+import org.syncany.config.ConfigHelper;
+import org.syncany.config.to.ConfigTO;
+import org.syncany.config.to.RepoTO;
 import org.syncany.tests.unit.util.TestCliUtil;
 import org.syncany.tests.unit.util.TestFileUtil;
 import org.syncany.tests.util.TestConfigUtil;
@@ -83,6 +91,84 @@ public class InitAndConnectCommandNoEncryptionTest {
 		TestFileUtil.deleteDirectory(tempDir);
 	}
 
+	@Test
+	public void testCliInitCommandWithFastCdcChunker() throws Exception {
+		// Setup
+		File tempDir = TestFileUtil.createTempDirectoryInSystemTemp();
+		TestCliUtil.setCurrentDirectory(tempDir);
+
+		Map<String, String> connectionSettings = TestConfigUtil.createTestLocalConnectionSettings();
+		Map<String, String> clientA = TestCliUtil.createLocalTestEnv("A", connectionSettings);
+
+		// Run
+		String[] initArgs = new String[] {
+				"init",
+				"--plugin", "local",
+				"--plugin-option", "path=" + clientA.get("repopath"),
+				"--no-encryption",
+				"--chunker", "fast-cdc"
+		};
+
+		new CommandLineClient(initArgs).start();
+
+		// Test
+		ConfigTO configTO = ConfigHelper.loadConfigTO(tempDir);
+		RepoTO repoTO = ConfigHelper.loadRepoTO(tempDir, configTO);
+
+		assertEquals(FastCdcChunker.TYPE, repoTO.getChunkerTO().getType());
+		assertTrue(new Config(tempDir, configTO, repoTO).getChunker() instanceof FastCdcChunker);
+
+		// Tear down
+		TestCliUtil.setCurrentDirectory(originalWorkingDirectory);
+
+		TestCliUtil.deleteTestLocalConfigAndData(clientA);
+		TestFileUtil.deleteDirectory(tempDir);
+	}
+
+	@Test
+	public void testCliInitCommandWithLz4Compression() throws Exception {
+		// Setup
+		Map<String, String> connectionSettings = TestConfigUtil.createTestLocalConnectionSettings();
+		Map<String, String> clientA = TestCliUtil.createLocalTestEnv("A", connectionSettings);
+
+		File localDirA = new File(clientA.get("localdir"));
+
+		// Run
+		String[] initArgs = new String[] {
+				"--localdir", localDirA.getAbsolutePath(),
+				"init",
+				"--plugin", "local",
+				"--plugin-option", "path=" + clientA.get("repopath"),
+				"--no-encryption",
+				"--compression", "lz4"
+		};
+
+		new CommandLineClient(initArgs).start();
+
+		Map<String, String> clientB = TestCliUtil.createLocalTestEnvAndConnect("B", connectionSettings);
+		File localDirB = new File(clientB.get("localdir"));
+
+		TestFileUtil.createRandomFile(new File(localDirA, "file1"), 200 * 1024);
+
+		new CommandLineClient(new String[] { "--localdir", localDirA.getAbsolutePath(), "up" }).start();
+		new CommandLineClient(new String[] { "--localdir", localDirB.getAbsolutePath(), "down" }).start();
+
+		// Test
+		ConfigTO configTO = ConfigHelper.loadConfigTO(localDirA);
+		RepoTO repoTO = ConfigHelper.loadRepoTO(localDirA, configTO);
+
+		assertEquals(1, repoTO.getTransformers().size());
+		assertEquals(Lz4Transformer.TYPE, repoTO.getTransformers().get(0).getType());
+		assertTrue(new Config(localDirA, configTO, repoTO).getTransformer() instanceof Lz4Transformer);
+
+		assertTrue(new File(localDirB, "file1").exists());
+		assertArrayEquals(TestFileUtil.createChecksum(new File(localDirA, "file1")), TestFileUtil.createChecksum(new File(localDirB, "file1")));
+
+		// Tear down
+		TestCliUtil.deleteTestLocalConfigAndData(clientA);
+		TestCliUtil.deleteTestLocalConfigAndData(clientB);
+	}
+
 	@Test
 	public void testCliInitCommandInteractive() throws Exception {
 		// Setup
@@ -21,17 +21,28 @@ package org.syncany.chunk;
  * A chunk represents a certain part of a file. It is created during the
  * deduplication process by a {@link Chunker}. 
  * 
+ * <p>The chunk contents are a slice of a byte array: {@link #getSize()} bytes,
+ * starting at {@link #getOffset()}. To avoid copying, chunkers may hand out slices 
+ * of their internal buffers; the contents are hence only valid until the next chunk
+ * is requested from the chunker.
+ * 
  * @author Philipp C. Heckel <philipp.heckel@gmail.com>
  */
 public class Chunk {
     private byte[] checksum;
     private byte[] contents;
+    private int offset;
     private int size;
     private byte[] fileChecksum;
 
     /*package*/ Chunk(byte[] checksum, byte[] contents, int size, byte[] fileChecksum) {
+        this(checksum, contents, 0, size, fileChecksum);
+    }
+
+    /*package*/ Chunk(byte[] checksum, byte[] contents, int offset, int size, byte[] fileChecksum) {
         this.checksum = checksum;
         this.contents = contents;
+        this.offset = offset;
         this.size = size;
         this.fileChecksum = fileChecksum;
     }
@@ -44,6 +55,10 @@ public class Chunk {
         return contents;
     }
 
+    public int getOffset() {
+        return offset;
+    }
+
     public byte[] getFileChecksum() {
         return fileChecksum;
     }
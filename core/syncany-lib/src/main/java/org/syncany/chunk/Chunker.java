@@ -20,6 +20,11 @@ package org.syncany.chunk;
 import java.io.File;
 import java.io.IOException;
 import java.util.Enumeration;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.syncany.util.StringUtil;
 
 /**
  * The chunker implements a core part of the deduplication process by breaking
@@ -32,11 +37,29 @@ import java.util.Enumeration;
  * @author Philipp C. Heckel <philipp.heckel@gmail.com>
  */
 public abstract class Chunker {	
+	private static final Logger logger = Logger.getLogger(Chunker.class.getSimpleName());
+
 	/**
 	 * Property used by the config to indicate the exact or 
 	 * approximate size of a chunk. In bytes. 
 	 */
 	public static final String PROPERTY_SIZE = "size";
+
+	/**
+	 * Property used by the config to indicate the algorithm used 
+	 * to calculate the chunk and file checksums. Optional.
+	 */
+	public static final String PROPERTY_DIGEST = "digest";
+
+	/**
+	 * Initializes a chunker created by {@link #getInstance(String) getInstance()} 
+	 * using a settings map. Required and optional settings depend on the implementation,
+	 * but all chunkers require {@link #PROPERTY_SIZE}.
+	 * 
+	 * @param settings Chunker settings, as stored in the repository config
+	 * @throws IllegalArgumentException If required settings are missing or invalid
+	 */
+	public abstract void init(Map<String, String> settings);
 	
     /**
      * Opens the given file and creates enumeration of {@link Chunk}s. This method 
@@ -63,6 +86,60 @@ public abstract class Chunker {
      * the checksum algorithms of all chunkers must be equal. 
      */
     public abstract String getChecksumAlgorithm();
+
+	/**
+	 * Instantiates a chunker by its name using the default constructor. 
+	 * <br>
+	 * After creating a new chunker, it must be initialized using the 
+	 * {@link #init(Map) init()} method. The given type attribute is mapped to fully 
+	 * qualified class name (FQCN) of the form <tt>org.syncany.chunk.XChunker</tt>, 
+	 * where <tt>X</tt> is the camel-cased type attribute.  
+	 * 
+	 * @param type Type/name of the chunker (corresponds to its camel case class name)
+	 * @return a new chunker, or <tt>null</tt> if the type is unknown
+	 */
+	public static Chunker getInstance(String type) {
+		String thisPackage = Chunker.class.getPackage().getName();
+		String camelCaseName = StringUtil.toCamelCase(type);
+		String fqClassName = thisPackage + "." + camelCaseName + Chunker.class.getSimpleName();
+
+		// Try to load!
+		try {
+			Class<?> clazz = Class.forName(fqClassName);
+			return (Chunker) clazz.newInstance();
+		}
+		catch (Exception ex) {
+			logger.log(Level.INFO, "Could not find chunker FQCN " + fqClassName, ex);
+			return null;
+		}
+	}
+
+	/**
+	 * Parses the mandatory integer setting with the given key, and
+	 * throws an {@link IllegalArgumentException} if it is missing or invalid.
+	 */
+	protected static int getIntSetting(Map<String, String> settings, String key) {
+		String value = (settings != null) ? settings.get(key) : null;
+
+		if (value == null) {
+			throw new IllegalArgumentException(String.format("Property %s must not be null.", key));
+		}
+
+		try {
+			return Integer.parseInt(value);
+		}
+		catch (NumberFormatException nfe) {
+			throw new IllegalArgumentException(String.format("Property %s could not be parsed as Integer.", key));
+		}
+	}
+
+	/**
+	 * Returns the setting with the given key, or the default value if it is not set.
+	 */
+	protected static String getSetting(Map<String, String> settings, String key, String defaultValue) {
+		String value = (settings != null) ? settings.get(key) : null;
+		return (value != null) ? value : defaultValue;
+	}
     
     /**
      * The chunk enumeration is implemented by the actual chunkers and emits a new
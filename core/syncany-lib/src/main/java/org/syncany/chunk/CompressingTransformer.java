@@ -0,0 +1,145 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2015 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.chunk;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Base class for {@link Transformer}s that compress the data, e.g. the {@link GzipTransformer}
+ * and the {@link Lz4Transformer}.
+ *
+ * <p>Compressing transformers can skip the compression for data that is known to be
+ * incompressible (see {@link #createUncompressedOutputStream(OutputStream)}). Such streams
+ * are marked with a {@link #UNCOMPRESSED_MAGIC magic header} instead of the compressed stream,
+ * so that {@link #createInputStream(InputStream)} can tell them apart from compressed streams.
+ * Streams written before this mechanism existed start with the magic number of the compression
+ * format, and are hence read as before.
+ *
+ * <p>Because older clients cannot read uncompressed streams, skipping the compression is a
+ * setting of the repository: It is only enabled if the transformer is initialized with the
+ * {@link #PROPERTY_BYPASS_INCOMPRESSIBLE} setting, so that all clients of a repository agree
+ * on the multichunk format.
+ */
+public abstract class CompressingTransformer extends Transformer {
+	/**
+	 * Header of an uncompressed stream. It must differ from the magic number of
+	 * all compression formats (e.g. <tt>1f 8b</tt> for Gzip, <tt>04 22 4d 18</tt> for LZ4).
+	 */
+	public static final byte[] UNCOMPRESSED_MAGIC = new byte[] { 'S', 'y', 'R', 'w' };
+
+	/**
+	 * Setting to skip the compression for incompressible data (<tt>true</tt> or <tt>false</tt>,
+	 * default is <tt>false</tt>). Reading such streams works regardless of this setting.
+	 */
+	public static final String PROPERTY_BYPASS_INCOMPRESSIBLE = "bypassIncompressible";
+
+	private boolean bypassIncompressible;
+
+	public CompressingTransformer() {
+		super();
+	}
+
+	public CompressingTransformer(Transformer nextTransformer) {
+		super(nextTransformer);
+	}
+
+	/**
+	 * Reads the {@link #PROPERTY_BYPASS_INCOMPRESSIBLE} setting. Must be called
+	 * by the {@link #init(Map) init()} method of the subclasses.
+	 */
+	protected void initBypassIncompressible(Map<String, String> settings) {
+		String bypassIncompressibleStr = (settings != null) ? settings.get(PROPERTY_BYPASS_INCOMPRESSIBLE) : null;
+		bypassIncompressible = Boolean.parseBoolean(bypassIncompressibleStr);
+	}
+
+	/**
+	 * Creates the compressing output stream, writing to the given (already transformed)
+	 * output stream of the next transformer.
+	 */
+	protected abstract OutputStream createCompressingOutputStream(OutputStream out) throws IOException;
+
+	/**
+	 * Creates the decompressing input stream, reading from the given (already transformed)
+	 * input stream of the next transformer.
+	 */
+	protected abstract InputStream createDecompressingInputStream(InputStream in) throws IOException;
+
+	@Override
+	public OutputStream createOutputStream(OutputStream out) throws IOException {
+		return createCompressingOutputStream(createNextOutputStream(out));
+	}
+
+	/**
+	 * Skips the compression, but still applies the next transformers (e.g. encryption).
+	 */
+	@Override
+	public OutputStream createUncompressedOutputStream(OutputStream out) throws IOException {
+		OutputStream nextOutputStream = createNextOutputStream(out);
+		nextOutputStream.write(UNCOMPRESSED_MAGIC);
+
+		return nextOutputStream;
+	}
+
+	@Override
+	public InputStream createInputStream(InputStream in) throws IOException {
+		PushbackInputStream nextInputStream = new PushbackInputStream(createNextInputStream(in), UNCOMPRESSED_MAGIC.length);
+
+		byte[] header = new byte[UNCOMPRESSED_MAGIC.length];
+		int headerLength = 0;
+		int read;
+
+		while (headerLength < header.length && (read = nextInputStream.read(header, headerLength, header.length - headerLength)) != -1) {
+			headerLength += read;
+		}
+
+		if (Arrays.equals(UNCOMPRESSED_MAGIC, header)) {
+			return nextInputStream;
+		}
+		else {
+			nextInputStream.unread(header, 0, headerLength);
+			return createDecompressingInputStream(nextInputStream);
+		}
+	}
+
+	@Override
+	public boolean isCompressing() {
+		return true;
+	}
+
+	@Override
+	public boolean isBypassIncompressible() {
+		return bypassIncompressible;
+	}
+
+	public void setBypassIncompressible(boolean bypassIncompressible) {
+		this.bypassIncompressible = bypassIncompressible;
+	}
+
+	private OutputStream createNextOutputStream(OutputStream out) throws IOException {
+		return (nextTransformer == null) ? out : nextTransformer.createOutputStream(out);
+	}
+
+	private InputStream createNextInputStream(InputStream in) throws IOException {
+		return (nextTransformer == null) ? in : nextTransformer.createInputStream(in);
+	}
+}
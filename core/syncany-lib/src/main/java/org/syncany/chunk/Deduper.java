@@ -20,9 +20,11 @@ package org.syncany.chunk;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.List;
 
 import org.syncany.chunk.Chunker.ChunkEnumeration;
+import org.syncany.chunk.ParallelFileChunker.ChunkedFile;
 import org.syncany.database.MultiChunkEntry.MultiChunkId;
 
 /**
@@ -36,6 +38,20 @@ import org.syncany.database.MultiChunkEntry.MultiChunkId;
  * <p>This class does not maintain a chunk index itself. Instead, it calls a listener to
  * lookup a chunk, and skips further chunk processing if the chunk already exists. 
  * 
+ * <p>If more than one indexer thread is given, files are chunked and hashed concurrently
+ * by a {@link ParallelFileChunker}. If transformer threads are given, completed multichunks
+ * are transformed (compressed/encrypted) by a {@link ParallelMultiChunkTransformer} while
+ * the next multichunk is filled. All other steps (chunk lookup, filling multichunks, 
+ * and all listener callbacks) still happen on the calling thread, in the original order 
+ * of the files, so that the result is the same as with a single thread. Only 
+ * {@link DeduperListener#onMultiChunkClose(MultiChunk) onMultiChunkClose()} may then be 
+ * called after the next multichunk has been opened, i.e. once its file is written.
+ * 
+ * <p>If enabled in the repository (see {@link Transformer#isBypassIncompressible()}), chunks
+ * that are most likely incompressible (as estimated by the {@link EntropyEstimator}) are 
+ * written to separate multichunks, for which the compression is skipped (see 
+ * {@link CompressingTransformer}). In this case, two multichunks may be open at the same time.
+ * 
  * <p>For a detailed description of the algorithm, please refer to chapter 5.3 of the thesis:
  * <i>"Minimizing remote storage usage and synchronization time using deduplication and
  * multichunking: Syncany as an example"</i>
@@ -47,11 +63,27 @@ public class Deduper {
 	private Chunker chunker;
 	private MultiChunker multiChunker;
 	private Transformer transformer;
+	private int indexerThreads;
+	private int transformerThreads;
+	private boolean bypassIncompressible;
 
 	public Deduper(Chunker chunker, MultiChunker multiChunker, Transformer transformer) {		
+		this(chunker, multiChunker, transformer, 1, 0);
+	}
+
+	/**
+	 * Creates a new deduper.
+	 * 
+	 * @param indexerThreads Number of threads chunking files; 1 to chunk on the calling thread
+	 * @param transformerThreads Number of multichunks transformed in the background; 0 to transform them on the calling thread
+	 */
+	public Deduper(Chunker chunker, MultiChunker multiChunker, Transformer transformer, int indexerThreads, int transformerThreads) {
 		this.chunker = chunker;
 		this.multiChunker = multiChunker;
 		this.transformer = transformer;
+		this.indexerThreads = indexerThreads;
+		this.transformerThreads = transformerThreads;
+		this.bypassIncompressible = transformer.isBypassIncompressible();
 	}
 	
 	/**
@@ -65,8 +97,30 @@ public class Deduper {
 	 * @throws IOException If a file cannot be read or an unexpected exception occurs
 	 */
 	public void deduplicate(List<File> files, DeduperListener listener) throws IOException {
+		ParallelFileChunker parallelFileChunker = (indexerThreads > 1) ? new ParallelFileChunker(chunker, files, indexerThreads) : null;
+		ParallelMultiChunkTransformer parallelTransformer = (transformerThreads > 0) ? new ParallelMultiChunkTransformer(transformer, listener,
+				transformerThreads) : null;
+		
+		try {
+			deduplicate(files, listener, parallelFileChunker, parallelTransformer);
+		}
+		finally {
+			if (parallelFileChunker != null) {
+				parallelFileChunker.shutdown();
+			}
+			
+			if (parallelTransformer != null) {
+				parallelTransformer.shutdown();
+			}
+		}
+	}
+	
+	private void deduplicate(List<File> files, DeduperListener listener, ParallelFileChunker parallelFileChunker,
+			ParallelMultiChunkTransformer parallelTransformer) throws IOException {
+
 		Chunk chunk = null;
-		MultiChunk multiChunk = null;
+		MultiChunk compressedMultiChunk = null;
+		MultiChunk uncompressedMultiChunk = null;
 		
 		listener.onStart(files.size());
 		
@@ -76,6 +130,10 @@ public class Deduper {
 			// Filter ignored files
 			boolean fileAccepted = listener.onFileFilter(file);
 			
+			// Take chunks created ahead of time; this must happen after the listener captured 
+			// the file properties, so that changes are either detected here or by the listener
+			ChunkedFile chunkedFile = (parallelFileChunker != null) ? parallelFileChunker.take(i) : null;
+			
 			if (!fileAccepted) {
 				continue;
 			}
@@ -84,8 +142,8 @@ public class Deduper {
 			boolean dedupContents = listener.onFileStart(file, i);
 
 			if (dedupContents) {
-				// Create chunks from file
-				ChunkEnumeration chunksEnum = chunker.createChunks(file);
+				// Create chunks from file (or use the ones created ahead of time)
+				ChunkEnumeration chunksEnum = (chunkedFile != null) ? chunkedFile.createChunks() : chunker.createChunks(file);
 
 				while (chunksEnum.hasMoreElements()) {
 					chunk = chunksEnum.nextElement();
@@ -98,28 +156,31 @@ public class Deduper {
 
 					// new chunk
 					else {					
+						// - Choose multichunk (incompressible chunks skip compression)
+						boolean compress = !bypassIncompressible || !EntropyEstimator.isIncompressible(chunk);
+						MultiChunk multiChunk = (compress) ? compressedMultiChunk : uncompressedMultiChunk;
+						
 						// - Check if multichunk full
 						if (multiChunk != null && multiChunk.isFull()) {
-							multiChunk.close();
-							listener.onMultiChunkClose(multiChunk);
-
+							closeMultiChunk(multiChunk, listener, parallelTransformer);
 							multiChunk = null;
 						}
 
 						// - Open new multichunk if non-existent
 						if (multiChunk == null) {
-							MultiChunkId newMultiChunkId = listener.createNewMultiChunkId(chunk);
-							File multiChunkFile = listener.getMultiChunkFile(newMultiChunkId);
-							
-							multiChunk = multiChunker.createMultiChunk(newMultiChunkId, 
-								transformer.createOutputStream(new FileOutputStream(multiChunkFile)));
-
-							listener.onMultiChunkOpen(multiChunk);
+							multiChunk = openMultiChunk(chunk, compress, listener, parallelTransformer);
 						}
 
 						// - Add chunk data
 						multiChunk.write(chunk);						
-						listener.onMultiChunkWrite(multiChunk, chunk);						
+						listener.onMultiChunkWrite(multiChunk, chunk);
+						
+						if (compress) {
+							compressedMultiChunk = multiChunk;
+						}
+						else {
+							uncompressedMultiChunk = multiChunk;
+						}
 					}
 
 					listener.onFileAddChunk(file, chunk);										
@@ -140,15 +201,56 @@ public class Deduper {
 			chunk = null;
 		}
 
-		// Close and add last multichunk
-		if (multiChunk != null) {
-			// Data
-			multiChunk.close();
-			listener.onMultiChunkClose(multiChunk);
-
-			multiChunk = null;
+		// Close and add last multichunk(s)
+		if (compressedMultiChunk != null) {
+			closeMultiChunk(compressedMultiChunk, listener, parallelTransformer);
+			compressedMultiChunk = null;
+		}	
+		
+		if (uncompressedMultiChunk != null) {
+			closeMultiChunk(uncompressedMultiChunk, listener, parallelTransformer);
+			uncompressedMultiChunk = null;
 		}	
 		
+		// Wait for multichunks transformed in the background
+		if (parallelTransformer != null) {
+			parallelTransformer.finish();
+		}
+		
 		listener.onFinish();
 	}	
+	
+	private MultiChunk openMultiChunk(Chunk firstChunk, boolean compress, DeduperListener listener,
+			ParallelMultiChunkTransformer parallelTransformer) throws IOException {
+
+		MultiChunkId newMultiChunkId = listener.createNewMultiChunkId(firstChunk);
+		File multiChunkFile = listener.getMultiChunkFile(newMultiChunkId);
+		
+		OutputStream multiChunkOutputStream;
+		
+		if (parallelTransformer != null) {
+			multiChunkOutputStream = parallelTransformer.createOutputStream(newMultiChunkId, multiChunkFile, compress);
+		}
+		else if (compress) {
+			multiChunkOutputStream = transformer.createOutputStream(new FileOutputStream(multiChunkFile));
+		}
+		else {
+			multiChunkOutputStream = transformer.createUncompressedOutputStream(new FileOutputStream(multiChunkFile));
+		}
+		
+		MultiChunk multiChunk = multiChunker.createMultiChunk(newMultiChunkId, multiChunkOutputStream);
+		listener.onMultiChunkOpen(multiChunk);
+		
+		return multiChunk;
+	}
+	
+	private void closeMultiChunk(MultiChunk multiChunk, DeduperListener listener, ParallelMultiChunkTransformer parallelTransformer) throws IOException {
+		if (parallelTransformer != null) {
+			parallelTransformer.close(multiChunk); // Calls listener when done
+		}
+		else {
+			multiChunk.close();
+			listener.onMultiChunkClose(multiChunk);
+		}
+	}
 }
@@ -0,0 +1,100 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2015 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.chunk;
+
+/**
+ * Estimates the compressibility of chunks by sampling their byte entropy (Shannon
+ * entropy of the byte histogram, in bits per byte). Already compressed or encrypted
+ * data (JPEG and PNG images, audio and video files, archives, etc.) has an entropy
+ * close to 8 bits per byte, whereas text and most binaries are well below 7.
+ *
+ * <p>To keep the estimation cheap compared to hashing and compressing, only up to
+ * {@link #SAMPLE_SIZE} bytes of each chunk are sampled, in a few windows spread evenly
+ * across the chunk.
+ */
+public class EntropyEstimator {
+	public static final int SAMPLE_SIZE = 4 * 1024;
+	public static final int SAMPLE_WINDOWS = 4;
+	public static final int MIN_SAMPLE_SIZE = 512;
+
+	// Data above this entropy is not worth compressing; random data samples at ~7.95
+	public static final double INCOMPRESSIBLE_ENTROPY = 7.5;
+
+	private static final double LOG_2 = Math.log(2);
+
+	/**
+	 * Returns whether the chunk's content is most likely incompressible. Chunks
+	 * smaller than {@link #MIN_SAMPLE_SIZE} are always considered compressible.
+	 */
+	public static boolean isIncompressible(Chunk chunk) {
+		return isIncompressible(chunk.getContent(), chunk.getOffset(), chunk.getSize());
+	}
+
+	/**
+	 * Returns whether the given data is most likely incompressible. Data
+	 * smaller than {@link #MIN_SAMPLE_SIZE} is always considered compressible.
+	 */
+	public static boolean isIncompressible(byte[] data, int offset, int length) {
+		return length >= MIN_SAMPLE_SIZE && estimateEntropy(data, offset, length) >= INCOMPRESSIBLE_ENTROPY;
+	}
+
+	/**
+	 * Estimates the entropy of the given data in bits per byte (0-8), sampling
+	 * at most {@link #SAMPLE_SIZE} bytes.
+	 */
+	public static double estimateEntropy(byte[] data, int offset, int length) {
+		if (length == 0) {
+			return 0;
+		}
+
+		int[] histogram = new int[256];
+		int sampleLength;
+
+		if (length <= SAMPLE_SIZE) {
+			addToHistogram(histogram, data, offset, length);
+			sampleLength = length;
+		}
+		else {
+			int windowLength = SAMPLE_SIZE / SAMPLE_WINDOWS;
+			int windowDistance = (length - windowLength) / (SAMPLE_WINDOWS - 1);
+
+			for (int i = 0; i < SAMPLE_WINDOWS; i++) {
+				addToHistogram(histogram, data, offset + i * windowDistance, windowLength);
+			}
+
+			sampleLength = SAMPLE_WINDOWS * windowLength;
+		}
+
+		double entropy = 0;
+
+		for (int count : histogram) {
+			if (count > 0) {
+				double probability = (double) count / sampleLength;
+				entropy -= probability * Math.log(probability);
+			}
+		}
+
+		return entropy / LOG_2;
+	}
+
+	private static void addToHistogram(int[] histogram, byte[] data, int offset, int length) {
+		for (int i = offset; i < offset + length; i++) {
+			histogram[data[i] & 0xFF]++;
+		}
+	}
+}
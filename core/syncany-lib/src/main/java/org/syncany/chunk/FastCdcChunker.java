@@ -0,0 +1,374 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2015 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.chunk;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The FastCDC chunker is a content-based {@link Chunker} based on the paper of Wen Xia et al., 2016.
+ *
+ * <p>Instead of a window-based rolling checksum (like Adler-32 in the {@link TttdChunker}), it
+ * uses the <i>Gear</i> hash: For each byte, the fingerprint is shifted left by one bit and a
+ * random value (looked up in a table by the byte value) is added, i.e. <tt>fp = (fp &lt;&lt; 1) + G[b]</tt>.
+ * Because of the shift, bytes automatically drop out of the 64-bit fingerprint after 64 steps,
+ * so no explicit window is needed. A breakpoint is found if the masked high bits of the
+ * fingerprint are zero.
+ *
+ * <p>In addition, FastCDC applies two techniques:
+ * <ul>
+ *  <li><b>Cut-point skipping:</b> The first <tt>minSize</tt> bytes of a chunk are not hashed
+ *      at all, since no breakpoint can be found there anyway.</li>
+ *  <li><b>Normalized chunking:</b> Before the average chunk size is reached, a stricter mask
+ *      (more bits) is used; afterwards, a looser mask (fewer bits). This pulls the chunk sizes
+ *      towards the average, resulting in a narrower chunk size distribution.</li>
+ * </ul>
+ *
+ * <p>Chunks are between <tt>avgSize/4</tt> and <tt>avgSize*8</tt> bytes (except for the last
+ * chunk of a file). The Gear table and the masks are part of the chunk format: Changing
+ * them changes all chunk boundaries and thereby breaks deduplication against existing data.
+ *
+ * @see <a href="https://www.usenix.org/conference/atc16/technical-sessions/presentation/xia">FastCDC: a Fast and Efficient Content-Defined Chunking Approach for Data Deduplication (2016, Wen Xia et al.)</a>
+ */
+public class FastCdcChunker extends Chunker {
+	private static final Logger logger = Logger.getLogger(FastCdcChunker.class.getSimpleName());
+
+	public static final String DEFAULT_DIGEST_ALG = "SHA1";
+	public static final String FINGERPRINT_ALG = "Gear";
+	public static final String TYPE = "fast-cdc";
+
+	private static final int NORMALIZATION_LEVEL = 2;
+	private static final int MIN_SIZE_DIVISOR = 4;
+	private static final int MAX_SIZE_FACTOR = 8;
+	private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+	private static final long GEAR_SEED = 0x53796e63616e7921L;
+	private static final long[] GEAR = createGearTable(GEAR_SEED);
+
+	private int avgSize;
+	private int minSize;
+	private int maxSize;
+	private long maskSmall;
+	private long maskLarge;
+	private String checksumAlgorithm;
+	private Queue<ChunkingState> chunkingStatePool;
+
+	/**
+	 * Creates a new FastCDC chunker. The chunker must be initialized
+	 * using {@link #init(Map) init()}.
+	 */
+	public FastCdcChunker() {
+		this.chunkingStatePool = new ConcurrentLinkedQueue<ChunkingState>();
+	}
+
+	/**
+	 * Creates a new FastCDC chunker with the default checksum algorithm SHA1.
+	 *
+	 * @param avgSize Average chunk size in bytes
+	 */
+	public FastCdcChunker(int avgSize) {
+		this(avgSize, DEFAULT_DIGEST_ALG);
+	}
+
+	/**
+	 * Creates a new FastCDC chunker.
+	 *
+	 * @param avgSize Average chunk size in bytes
+	 * @param checksumAlgorithm Algorithm to calculate the chunk and file checksums (e.g. SHA1, MD5)
+	 */
+	public FastCdcChunker(int avgSize, String checksumAlgorithm) {
+		this();
+		init(avgSize, checksumAlgorithm);
+	}
+
+	/**
+	 * Initializes the chunker using a settings map.
+	 * <br>
+	 * Required settings are:
+	 * <ul>
+	 *  <li> key: {@link Chunker#PROPERTY_SIZE}, value: average chunk size in bytes
+	 * </ul>
+	 * Optional settings are:
+	 * <ul>
+	 *  <li> key: {@link Chunker#PROPERTY_DIGEST}, value: checksum algorithm (default: {@link #DEFAULT_DIGEST_ALG})
+	 * </ul>
+	 */
+	@Override
+	public void init(Map<String, String> settings) {
+		init(getIntSetting(settings, PROPERTY_SIZE), getSetting(settings, PROPERTY_DIGEST, DEFAULT_DIGEST_ALG));
+	}
+
+	private void init(int avgSize, String checksumAlgorithm) {
+		int maskBits = 31 - Integer.numberOfLeadingZeros(avgSize); // floor(log2(avgSize))
+
+		if (maskBits - NORMALIZATION_LEVEL < 1 || avgSize > Integer.MAX_VALUE / (2 * MAX_SIZE_FACTOR)) {
+			throw new IllegalArgumentException("Invalid average chunk size: " + avgSize);
+		}
+
+		this.avgSize = avgSize;
+		this.minSize = avgSize / MIN_SIZE_DIVISOR;
+		this.maxSize = avgSize * MAX_SIZE_FACTOR;
+		this.maskSmall = createMask(maskBits + NORMALIZATION_LEVEL);
+		this.maskLarge = createMask(maskBits - NORMALIZATION_LEVEL);
+		this.checksumAlgorithm = checksumAlgorithm;
+	}
+
+	@Override
+	public ChunkEnumeration createChunks(File file) throws IOException {
+		return new FastCdcEnumeration(new FileInputStream(file));
+	}
+
+	@Override
+	public String getChecksumAlgorithm() {
+		return checksumAlgorithm;
+	}
+
+	@Override
+	public String toString() {
+		return "FastCDC-" + avgSize + "-" + checksumAlgorithm + "-" + FINGERPRINT_ALG;
+	}
+
+	/**
+	 * Returns the position (relative to the given offset) at which the chunk starting
+	 * at the offset ends, i.e. the size of the chunk. If no breakpoint is found, the chunk
+	 * ends after <tt>length</tt> bytes (max. chunk size or end of input).
+	 */
+	private int findBreakpoint(byte[] buffer, int offset, int length) {
+		if (length <= minSize) {
+			return length;
+		}
+
+		int normalLength = Math.min(length, avgSize);
+		long fingerprint = 0;
+		int pos = minSize;
+
+		for (; pos < normalLength; pos++) {
+			fingerprint = (fingerprint << 1) + GEAR[buffer[offset + pos] & 0xff];
+
+			if ((fingerprint & maskSmall) == 0) {
+				return pos + 1;
+			}
+		}
+
+		for (; pos < length; pos++) {
+			fingerprint = (fingerprint << 1) + GEAR[buffer[offset + pos] & 0xff];
+
+			if ((fingerprint & maskLarge) == 0) {
+				return pos + 1;
+			}
+		}
+
+		return length;
+	}
+
+	/**
+	 * Creates a mask of the given number of bits. The mask checks the highest bits
+	 * of the fingerprint, because (due to the shift) the lower bits only depend on
+	 * the last few bytes.
+	 */
+	private static long createMask(int bits) {
+		return (-1L) << (64 - bits);
+	}
+
+	/**
+	 * Creates the table of 256 pseudo-random 64-bit values using SplitMix64. The
+	 * generator is implemented here (and not taken from {@link java.util.Random}),
+	 * because the values must never change.
+	 */
+	private static long[] createGearTable(long seed) {
+		long[] gear = new long[256];
+		long state = seed;
+
+		for (int i = 0; i < gear.length; i++) {
+			state += 0x9e3779b97f4a7c15L;
+
+			long value = state;
+			value = (value ^ (value >>> 30)) * 0xbf58476d1ce4e5b9L;
+			value = (value ^ (value >>> 27)) * 0x94d049bb133111ebL;
+
+			gear[i] = value ^ (value >>> 31);
+		}
+
+		return gear;
+	}
+
+	private ChunkingState takeChunkingState() {
+		ChunkingState chunkingState = chunkingStatePool.poll();
+		return (chunkingState != null) ? chunkingState : new ChunkingState();
+	}
+
+	/**
+	 * The chunking state holds the buffer and the digests of an enumeration, and
+	 * is reused for the next file once an enumeration is closed.
+	 */
+	private class ChunkingState {
+		private final byte[] buffer;
+		private final MessageDigest chunkDigest;
+		private final MessageDigest fileDigest;
+
+		public ChunkingState() {
+			try {
+				this.buffer = new byte[2 * maxSize + READ_BUFFER_SIZE];
+				this.chunkDigest = MessageDigest.getInstance(checksumAlgorithm);
+				this.fileDigest = MessageDigest.getInstance(checksumAlgorithm);
+			}
+			catch (Exception e) {
+				throw new RuntimeException(e);
+			}
+		}
+	}
+
+	/**
+	 * The enumeration reads the input stream into a sliding buffer, and hands out
+	 * chunks as slices of this buffer (no copy). The contents of a chunk are therefore
+	 * only valid until the next call to {@link #nextElement()}.
+	 *
+	 * <p>Like the {@link FixedChunker}, the enumeration does not emit any chunks
+	 * for empty files.
+	 */
+	public class FastCdcEnumeration implements ChunkEnumeration {
+		private InputStream in;
+		private boolean closed;
+		private boolean eof;
+
+		private ChunkingState chunkingState;
+		private byte[] buffer;
+		private int start;
+		private int limit;
+
+		public FastCdcEnumeration(InputStream in) {
+			this.in = in;
+			this.closed = false;
+			this.eof = false;
+
+			this.chunkingState = takeChunkingState();
+			this.buffer = chunkingState.buffer;
+			this.start = 0;
+			this.limit = 0;
+
+			chunkingState.fileDigest.reset();
+		}
+
+		@Override
+		public boolean hasMoreElements() {
+			if (closed) {
+				return false;
+			}
+
+			try {
+				fill();
+				return limit > start;
+			}
+			catch (IOException ex) {
+				logger.log(Level.WARNING, "Error while reading from file input stream.", ex);
+				return false;
+			}
+		}
+
+		@Override
+		public Chunk nextElement() {
+			if (!hasMoreElements()) {
+				return null;
+			}
+
+			try {
+				int available = limit - start;
+				int chunkSize = findBreakpoint(buffer, start, Math.min(available, maxSize));
+
+				boolean lastChunk = eof && chunkSize == available;
+
+				if (lastChunk) {
+					in.close();
+					closed = true;
+				}
+
+				MessageDigest chunkDigest = chunkingState.chunkDigest;
+
+				chunkDigest.reset();
+				chunkDigest.update(buffer, start, chunkSize);
+
+				byte[] chunkChecksum = chunkDigest.digest();
+				byte[] fileChecksum = (lastChunk) ? chunkingState.fileDigest.digest() : null;
+
+				Chunk chunk = new Chunk(chunkChecksum, buffer, start, chunkSize, fileChecksum);
+				start += chunkSize;
+
+				return chunk;
+			}
+			catch (IOException ex) {
+				logger.log(Level.SEVERE, "Error while retrieving next chunk.", ex);
+				return null;
+			}
+		}
+
+		@Override
+		public void close() {
+			try {
+				in.close();
+			}
+			catch (IOException e) {
+				logger.log(Level.INFO, "Error while closing", e);
+			}
+
+			// Hand the buffer to the next enumeration; the last chunk must not be used afterwards
+
+			if (chunkingState != null) {
+				chunkingStatePool.offer(chunkingState);
+
+				chunkingState = null;
+				buffer = null;
+				closed = true;
+			}
+		}
+
+		/**
+		 * Makes sure that more than <tt>maxSize</tt> bytes are available behind the chunk
+		 * start (unless the end of the input is reached), compacting the buffer if
+		 * there is not enough room left. Reading one more byte than a chunk can hold
+		 * ensures that the last chunk of a file is always recognized as such.
+		 */
+		private void fill() throws IOException {
+			if (start + maxSize >= buffer.length) {
+				System.arraycopy(buffer, start, buffer, 0, limit - start);
+
+				limit -= start;
+				start = 0;
+			}
+
+			while (!eof && limit - start <= maxSize) {
+				int read = in.read(buffer, limit, buffer.length - limit);
+
+				if (read == -1) {
+					eof = true;
+				}
+				else {
+					chunkingState.fileDigest.update(buffer, limit, read);
+					limit += read;
+				}
+			}
+		}
+	}
+}
@@ -22,6 +22,7 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.security.MessageDigest;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -47,6 +48,14 @@ public class FixedChunker extends Chunker {
 	private int chunkSize;
 	private String checksumAlgorithm;
 
+	/**
+	 * Creates a new fixed offset chunker. The chunker must be 
+	 * initialized using {@link #init(Map) init()}.
+	 */
+	public FixedChunker() {
+		// Nothing.
+	}
+
 	/**
 	 * Creates a new fixed offset chunker with the default file/chunk 
 	 * checksum algorithm SHA1.
@@ -68,6 +77,28 @@ public class FixedChunker extends Chunker {
 		this.checksumAlgorithm = checksumAlgorithm;
 	}
 
+	/**
+	 * Initializes the chunker using a settings map. 
+	 * <br>
+	 * Required settings are: 
+	 * <ul>
+	 *  <li> key: {@link Chunker#PROPERTY_SIZE}, value: chunk size in bytes
+	 * </ul>
+	 * Optional settings are:
+	 * <ul>
+	 *  <li> key: {@link Chunker#PROPERTY_DIGEST}, value: checksum algorithm (default: {@link #DEFAULT_DIGEST_ALG})
+	 * </ul>
+	 */
+	@Override
+	public void init(Map<String, String> settings) {
+		this.chunkSize = getIntSetting(settings, PROPERTY_SIZE);
+		this.checksumAlgorithm = getSetting(settings, PROPERTY_DIGEST, DEFAULT_DIGEST_ALG);
+
+		if (chunkSize <= 0) {
+			throw new IllegalArgumentException("Chunk size must be positive: " + chunkSize);
+		}
+	}
+
 	@Override
 	public ChunkEnumeration createChunks(File file) throws IOException {
 		return new FixedChunkEnumeration(new FileInputStream(file));
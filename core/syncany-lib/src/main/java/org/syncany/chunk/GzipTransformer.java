@@ -31,8 +31,10 @@ import java.util.zip.GZIPOutputStream;
  * 
  * @author Philipp C. Heckel <philipp.heckel@gmail.com>
  */
-public class GzipTransformer extends Transformer {
+public class GzipTransformer extends CompressingTransformer {
     public static final String TYPE = "gzip";
+    public static final String PROPERTY_LEVEL = "level";
+    
 	private int level;
     
     public GzipTransformer() {
@@ -48,29 +50,34 @@ public class GzipTransformer extends Transformer {
         this.level = level;
     }
     
+    /**
+     * Initializes the Gzip transformer using a settings map. The (optional) settings
+     * are {@link #PROPERTY_LEVEL}, from 1 (best speed) to 9 (best compression), and
+     * {@link #PROPERTY_BYPASS_INCOMPRESSIBLE}.
+     */
     @Override
     public void init(Map<String, String> settings) throws Exception {
-    	// Nothing here    	
+    	initBypassIncompressible(settings);
+    	
+    	String levelStr = (settings != null) ? settings.get(PROPERTY_LEVEL) : null;
+    	
+    	if (levelStr != null) {
+    		level = Integer.parseInt(levelStr);
+    		
+    		if (level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION) {
+    			throw new Exception("Setting '" + PROPERTY_LEVEL + "' must be between " + Deflater.BEST_SPEED + " and " + Deflater.BEST_COMPRESSION + ".");
+    		}
+    	}
     }
     
     @Override
-    public OutputStream createOutputStream(OutputStream out) throws IOException {
-        if (nextTransformer == null) {
-            return new GZIPOutputStreamEx(out, level);
-        }
-        else {
-            return new GZIPOutputStreamEx(nextTransformer.createOutputStream(out), level);
-        }
+    protected OutputStream createCompressingOutputStream(OutputStream out) throws IOException {
+        return new GZIPOutputStreamEx(out, level);
     }
 
     @Override
-    public InputStream createInputStream(InputStream in) throws IOException {
-        if (nextTransformer == null) {
-            return new GZIPInputStream(in);
-        }
-        else {
-            return new GZIPInputStream(nextTransformer.createInputStream(in));
-        }
+    protected InputStream createDecompressingInputStream(InputStream in) throws IOException {
+        return new GZIPInputStream(in);
     }
     
     public static class GZIPOutputStreamEx extends GZIPOutputStream {
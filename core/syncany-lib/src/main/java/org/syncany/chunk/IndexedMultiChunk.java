@@ -0,0 +1,403 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2015 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.chunk;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.syncany.database.MultiChunkEntry.MultiChunkId;
+import org.syncany.util.FileUtil;
+
+/**
+ * The indexed multichunk is a simple container format that stores the chunks back to back
+ * and appends a compact binary index of all chunks. The index is sorted by chunk checksum,
+ * so that a single chunk can be found with a binary search and read with one positioned read.
+ *
+ * <p>The format is as follows (all numbers big endian):
+ *
+ * <pre>
+ *   header:  magic "SyMC" (4 bytes), version (1 byte), checksum length n (1 byte)
+ *   chunks:  chunk size (4 bytes), checksum (n bytes), chunk data -- repeated for every chunk
+ *   end:     -1 (4 bytes)
+ *   index:   checksum (n bytes), data offset (8 bytes), chunk size (4 bytes) -- sorted by checksum
+ *   trailer: index offset (8 bytes), number of chunks (4 bytes), magic "SyMC" (4 bytes)
+ * </pre>
+ *
+ * <p>When opened from a file, {@link #getChunkBuffer(byte[])} returns slices of the memory-mapped
+ * file, i.e. the chunk data is not copied at all.
+ *
+ * <p>The chunk records carry their own size and checksum, so the multichunk can also be read
+ * sequentially from a stream (see {@link #read()}), e.g. without storing it to disk first.
+ *
+ * @see IndexedMultiChunker
+ */
+public class IndexedMultiChunk extends MultiChunk {
+	public static final int MAGIC = 0x53794D43; // "SyMC"
+	public static final int VERSION = 1;
+
+	private static final int HEADER_LENGTH = 6;
+	private static final int TRAILER_LENGTH = 16;
+	private static final int END_OF_CHUNKS = -1;
+
+	// Write mode
+	private DataOutputStream out;
+	private long position;
+	private List<IndexEntry> indexEntries;
+
+	// Read mode (sequential)
+	private File file;
+	private DataInputStream in;
+
+	// Read mode (random access)
+	private RandomAccessFile randomAccessFile;
+	private FileChannel fileChannel;
+	private ByteBuffer index;
+	private int indexEntryCount;
+	private MappedByteBuffer mappedFile;
+
+	private int checksumLength = -1;
+
+	public IndexedMultiChunk(InputStream is) {
+		super(0);
+		this.in = new DataInputStream(is);
+	}
+
+	public IndexedMultiChunk(File file) throws IOException {
+		super(0);
+
+		this.file = file;
+		this.randomAccessFile = new RandomAccessFile(file, "r");
+		this.fileChannel = randomAccessFile.getChannel();
+
+		try {
+			readIndex();
+		}
+		catch (IOException e) {
+			randomAccessFile.close();
+			throw e;
+		}
+	}
+
+	public IndexedMultiChunk(MultiChunkId id, int minSize, OutputStream os) {
+		super(id, minSize);
+
+		this.out = new DataOutputStream(new BufferedOutputStream(os));
+		this.position = 0;
+		this.indexEntries = new ArrayList<IndexEntry>();
+	}
+
+	@Override
+	public boolean isFull() {
+		return size >= minSize * 1024; // minSize is in KB!
+	}
+
+	@Override
+	public void write(Chunk chunk) throws IOException {
+		byte[] checksum = chunk.getChecksum();
+
+		if (checksumLength < 0) {
+			writeHeader(checksum.length);
+		}
+		else if (checksum.length != checksumLength) {
+			throw new IOException("Invalid checksum length " + checksum.length + "; all chunks must have checksum length " + checksumLength);
+		}
+
+		out.writeInt(chunk.getSize());
+		out.write(checksum);
+		position += 4 + checksumLength;
+
+		indexEntries.add(new IndexEntry(checksum, position, chunk.getSize()));
+
+		out.write(chunk.getContent(), chunk.getOffset(), chunk.getSize());
+		position += chunk.getSize();
+
+		size += chunk.getSize();
+	}
+
+	@Override
+	public InputStream getChunkInputStream(byte[] checksum) throws IOException {
+		if (fileChannel == null) {
+			throw new IOException("Random access is only possible if the multichunk is opened from a file.");
+		}
+
+		int entryPosition = findIndexEntry(checksum);
+
+		if (entryPosition < 0) {
+			return null;
+		}
+
+		long chunkOffset = index.getLong(entryPosition + checksumLength);
+		int chunkSize = index.getInt(entryPosition + checksumLength + 8);
+
+		return new ByteArrayInputStream(readFully(chunkOffset, chunkSize).array());
+	}
+
+	/**
+	 * Returns the chunk data as a read-only slice of the memory-mapped multichunk file. The
+	 * slice is only valid until the multichunk is closed.
+	 */
+	@Override
+	public ByteBuffer getChunkBuffer(byte[] checksum) throws IOException {
+		if (fileChannel == null) {
+			throw new IOException("Random access is only possible if the multichunk is opened from a file.");
+		}
+
+		if (fileChannel.size() > Integer.MAX_VALUE) {
+			return super.getChunkBuffer(checksum); // Too large to be mapped at once
+		}
+
+		int entryPosition = findIndexEntry(checksum);
+
+		if (entryPosition < 0) {
+			return null;
+		}
+
+		long chunkOffset = index.getLong(entryPosition + checksumLength);
+		int chunkSize = index.getInt(entryPosition + checksumLength + 8);
+
+		if (mappedFile == null) {
+			mappedFile = fileChannel.map(MapMode.READ_ONLY, 0, fileChannel.size());
+		}
+
+		ByteBuffer chunkBuffer = mappedFile.duplicate();
+
+		chunkBuffer.position((int) chunkOffset);
+		chunkBuffer.limit((int) chunkOffset + chunkSize);
+
+		return chunkBuffer.slice();
+	}
+
+	@Override
+	public Chunk read() throws IOException {
+		if (in == null) { // Opened from file
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			readHeader(in);
+		}
+		else if (checksumLength < 0) { // Opened from stream
+			readHeader(in);
+		}
+
+		int chunkSize = in.readInt();
+
+		if (chunkSize == END_OF_CHUNKS) {
+			return null;
+		}
+
+		byte[] checksum = new byte[checksumLength];
+		byte[] content = new byte[chunkSize];
+
+		in.readFully(checksum);
+		in.readFully(content);
+
+		return new Chunk(checksum, content, chunkSize, null);
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (out != null) {
+			writeIndex();
+			out.close();
+		}
+
+		if (in != null) {
+			in.close();
+		}
+
+		if (mappedFile != null) {
+			FileUtil.unmap(mappedFile);
+			mappedFile = null;
+		}
+
+		if (randomAccessFile != null) {
+			randomAccessFile.close();
+		}
+	}
+
+	private void writeHeader(int checksumLength) throws IOException {
+		this.checksumLength = checksumLength;
+
+		out.writeInt(MAGIC);
+		out.writeByte(VERSION);
+		out.writeByte(checksumLength);
+
+		position += HEADER_LENGTH;
+	}
+
+	private void readHeader(DataInput headerInput) throws IOException {
+		int magic = headerInput.readInt();
+		int version = headerInput.readUnsignedByte();
+
+		if (magic != MAGIC) {
+			throw new IOException("Invalid multichunk: magic number mismatch.");
+		}
+		else if (version != VERSION) {
+			throw new IOException("Unsupported multichunk version " + version);
+		}
+
+		checksumLength = headerInput.readUnsignedByte();
+	}
+
+	private void writeIndex() throws IOException {
+		if (checksumLength < 0) {
+			writeHeader(0); // Empty multichunk
+		}
+
+		out.writeInt(END_OF_CHUNKS);
+		position += 4;
+
+		long indexOffset = position;
+		Collections.sort(indexEntries, new IndexEntryComparator());
+
+		for (IndexEntry indexEntry : indexEntries) {
+			out.write(indexEntry.checksum);
+			out.writeLong(indexEntry.offset);
+			out.writeInt(indexEntry.size);
+		}
+
+		out.writeLong(indexOffset);
+		out.writeInt(indexEntries.size());
+		out.writeInt(MAGIC);
+	}
+
+	private void readIndex() throws IOException {
+		long fileLength = fileChannel.size();
+
+		if (fileLength < HEADER_LENGTH + 4 + TRAILER_LENGTH) {
+			throw new IOException("Invalid multichunk " + file + ": file too short.");
+		}
+
+		readHeader(randomAccessFile);
+
+		ByteBuffer trailer = readFully(fileLength - TRAILER_LENGTH, TRAILER_LENGTH);
+		long indexOffset = trailer.getLong();
+
+		indexEntryCount = trailer.getInt();
+
+		int indexEntryLength = checksumLength + 12;
+		long indexLength = (long) indexEntryCount * indexEntryLength;
+
+		if (trailer.getInt() != MAGIC || indexEntryCount < 0 || indexOffset + indexLength != fileLength - TRAILER_LENGTH) {
+			throw new IOException("Invalid multichunk " + file + ": corrupt index.");
+		}
+
+		index = readFully(indexOffset, (int) indexLength);
+	}
+
+	private ByteBuffer readFully(long offset, int length) throws IOException {
+		byte[] bytes = new byte[length];
+		ByteBuffer buffer = ByteBuffer.wrap(bytes);
+
+		while (buffer.hasRemaining()) {
+			if (fileChannel.read(buffer, offset + buffer.position()) < 0) {
+				throw new EOFException("Unexpected end of multichunk " + file + " at offset " + offset);
+			}
+		}
+
+		return ByteBuffer.wrap(bytes);
+	}
+
+	/**
+	 * Binary search over the sorted index; returns the position of the
+	 * matching index entry within the index buffer, or -1 if not found.
+	 */
+	private int findIndexEntry(byte[] checksum) {
+		if (checksum.length != checksumLength) {
+			return -1;
+		}
+
+		int indexEntryLength = checksumLength + 12;
+		int low = 0;
+		int high = indexEntryCount - 1;
+
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			int entryPosition = middle * indexEntryLength;
+			int comparison = compareChecksum(entryPosition, checksum);
+
+			if (comparison < 0) {
+				low = middle + 1;
+			}
+			else if (comparison > 0) {
+				high = middle - 1;
+			}
+			else {
+				return entryPosition;
+			}
+		}
+
+		return -1;
+	}
+
+	private int compareChecksum(int entryPosition, byte[] checksum) {
+		for (int i = 0; i < checksumLength; i++) {
+			int difference = (index.get(entryPosition + i) & 0xff) - (checksum[i] & 0xff);
+
+			if (difference != 0) {
+				return difference;
+			}
+		}
+
+		return 0;
+	}
+
+	private static class IndexEntry {
+		private byte[] checksum;
+		private long offset;
+		private int size;
+
+		public IndexEntry(byte[] checksum, long offset, int size) {
+			this.checksum = checksum;
+			this.offset = offset;
+			this.size = size;
+		}
+	}
+
+	private static class IndexEntryComparator implements Comparator<IndexEntry> {
+		@Override
+		public int compare(IndexEntry entry1, IndexEntry entry2) {
+			for (int i = 0; i < entry1.checksum.length; i++) {
+				int difference = (entry1.checksum[i] & 0xff) - (entry2.checksum[i] & 0xff);
+
+				if (difference != 0) {
+					return difference;
+				}
+			}
+
+			return 0;
+		}
+	}
+}
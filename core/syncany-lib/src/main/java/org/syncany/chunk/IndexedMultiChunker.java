@@ -0,0 +1,65 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2015 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.chunk;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.syncany.database.MultiChunkEntry.MultiChunkId;
+
+/**
+ * Creates and reads {@link IndexedMultiChunk}s. Compared to the {@link ZipMultiChunker},
+ * reading a single chunk only requires a binary search in the multichunk's index and one
+ * positioned read -- instead of parsing the ZIP central directory.
+ *
+ * <p>The multichunker is selected by its type in the repository config, so existing
+ * repositories using the {@link ZipMultiChunker} are not affected.
+ */
+public class IndexedMultiChunker extends MultiChunker {
+	public static final String TYPE = "indexed";
+
+	public IndexedMultiChunker() {
+		// Nothing
+	}
+
+	public IndexedMultiChunker(int minMultiChunkSize) {
+		super(minMultiChunkSize);
+	}
+
+	@Override
+	public MultiChunk createMultiChunk(InputStream is) {
+		return new IndexedMultiChunk(is);
+	}
+
+	@Override
+	public MultiChunk createMultiChunk(File file) throws IOException {
+		return new IndexedMultiChunk(file);
+	}
+
+	@Override
+	public MultiChunk createMultiChunk(MultiChunkId id, OutputStream os) throws IOException {
+		return new IndexedMultiChunk(id, minMultiChunkSize, os);
+	}
+
+	@Override
+	public String toString() {
+		return "Indexed-" + minMultiChunkSize;
+	}
+}
@@ -0,0 +1,288 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2015 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.chunk;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Compresses and decompresses single blocks in the LZ4 block format. The compressor
+ * is a greedy single-pass matcher with a small hash table, identical in spirit to the
+ * reference LZ4 "fast" compressor: it trades compression ratio for speed, and the
+ * acceleration parameter trades even more ratio for speed by skipping faster over
+ * data without matches.
+ *
+ * <p>Blocks are compressed independently, i.e. matches never refer to previous blocks.
+ *
+ * @see <a href="https://github.com/lz4/lz4/blob/dev/doc/lz4_Block_format.md">LZ4 block format</a>
+ */
+class Lz4Block {
+	private static final int HASH_LOG = 12;
+	public static final int HASH_TABLE_SIZE = 1 << HASH_LOG;
+
+	private static final int MIN_MATCH = 4;
+	private static final int MAX_DISTANCE = 65535;
+	private static final int LAST_LITERALS = 5; // Last bytes of a block are always literals
+	private static final int MF_LIMIT = 12; // Last match must start before this
+	private static final int SKIP_TRIGGER = 6; // Increase step every 2^6 failed searches
+
+	private static final int RUN_MASK = 15;
+	private static final int ML_MASK = 15;
+
+	/**
+	 * Returns the maximum size of a compressed block of the given size, i.e.
+	 * the minimum size of the destination buffer passed to
+	 * {@link #compress(byte[], int, int, byte[], int, int, int[]) compress()}.
+	 */
+	public static int maxCompressedLength(int length) {
+		return length + length / 255 + 16;
+	}
+
+	/**
+	 * Compresses <tt>length</tt> bytes of <tt>src</tt> to <tt>dest</tt>, and returns the
+	 * compressed length. The hash table must have {@link #HASH_TABLE_SIZE} entries; it is
+	 * only passed in to be reused across blocks.
+	 */
+	public static int compress(byte[] src, int srcOffset, int length, byte[] dest, int destOffset, int acceleration, int[] hashTable) {
+		int srcEnd = srcOffset + length;
+		int matchLimit = srcEnd - LAST_LITERALS;
+		int mfLimit = srcEnd - MF_LIMIT;
+
+		int anchor = srcOffset;
+		int destPos = destOffset;
+
+		if (length > MF_LIMIT) {
+			Arrays.fill(hashTable, -1);
+
+			int pos = srcOffset;
+
+			searchLoop: while (true) {
+				int step = 1;
+				int searchMatchNb = acceleration << SKIP_TRIGGER;
+				int match;
+
+				// Find a match
+				while (true) {
+					if (pos > mfLimit) {
+						break searchLoop;
+					}
+
+					int hash = hash(XxHash32.readIntLE(src, pos));
+
+					match = hashTable[hash];
+					hashTable[hash] = pos;
+
+					if (match >= srcOffset && pos - match <= MAX_DISTANCE && XxHash32.readIntLE(src, match) == XxHash32.readIntLE(src, pos)) {
+						break;
+					}
+
+					pos += step;
+					step = searchMatchNb++ >>> SKIP_TRIGGER;
+				}
+
+				// Extend backwards and forward
+				while (pos > anchor && match > srcOffset && src[pos - 1] == src[match - 1]) {
+					pos--;
+					match--;
+				}
+
+				int matchLength = MIN_MATCH;
+
+				while (pos + matchLength < matchLimit && src[pos + matchLength] == src[match + matchLength]) {
+					matchLength++;
+				}
+
+				// Write sequence
+				destPos = writeSequence(src, anchor, pos - anchor, pos - match, matchLength, dest, destPos);
+
+				pos += matchLength;
+				anchor = pos;
+
+				if (pos > mfLimit) {
+					break;
+				}
+
+				hashTable[hash(XxHash32.readIntLE(src, pos - 2))] = pos - 2;
+			}
+		}
+
+		// Last literals
+		return writeLastLiterals(src, anchor, srcEnd - anchor, dest, destPos) - destOffset;
+	}
+
+	/**
+	 * Decompresses a compressed block of <tt>length</tt> bytes from <tt>src</tt> to
+	 * <tt>dest</tt>, and returns the decompressed length.
+	 *
+	 * @throws IOException If the block is malformed or decompresses to more than <tt>maxDestLength</tt> bytes
+	 */
+	public static int decompress(byte[] src, int srcOffset, int length, byte[] dest, int destOffset, int maxDestLength) throws IOException {
+		int srcEnd = srcOffset + length;
+		int destEnd = destOffset + maxDestLength;
+
+		int srcPos = srcOffset;
+		int destPos = destOffset;
+
+		while (true) {
+			if (srcPos >= srcEnd) {
+				throw new IOException("Malformed LZ4 block: Unexpected end of block.");
+			}
+
+			int token = src[srcPos++] & 0xFF;
+
+			// Literals
+			int literalLength = token >>> 4;
+
+			if (literalLength == RUN_MASK) {
+				int lengthByte;
+
+				do {
+					if (srcPos >= srcEnd) {
+						throw new IOException("Malformed LZ4 block: Unexpected end of literal length.");
+					}
+
+					lengthByte = src[srcPos++] & 0xFF;
+					literalLength += lengthByte;
+				}
+				while (lengthByte == 255);
+			}
+
+			if (literalLength > srcEnd - srcPos || literalLength > destEnd - destPos) {
+				throw new IOException("Malformed LZ4 block: Literals exceed block.");
+			}
+
+			System.arraycopy(src, srcPos, dest, destPos, literalLength);
+
+			srcPos += literalLength;
+			destPos += literalLength;
+
+			if (srcPos == srcEnd) {
+				break; // Last sequence has no match
+			}
+
+			// Match
+			if (srcEnd - srcPos < 2) {
+				throw new IOException("Malformed LZ4 block: Unexpected end of match offset.");
+			}
+
+			int offset = (src[srcPos] & 0xFF) | (src[srcPos + 1] & 0xFF) << 8;
+			srcPos += 2;
+
+			if (offset == 0 || offset > destPos - destOffset) {
+				throw new IOException("Malformed LZ4 block: Invalid match offset " + offset + ".");
+			}
+
+			int matchLength = token & ML_MASK;
+
+			if (matchLength == ML_MASK) {
+				int lengthByte;
+
+				do {
+					if (srcPos >= srcEnd) {
+						throw new IOException("Malformed LZ4 block: Unexpected end of match length.");
+					}
+
+					lengthByte = src[srcPos++] & 0xFF;
+					matchLength += lengthByte;
+				}
+				while (lengthByte == 255);
+			}
+
+			matchLength += MIN_MATCH;
+
+			if (matchLength > destEnd - destPos) {
+				throw new IOException("Malformed LZ4 block: Match exceeds block.");
+			}
+
+			if (offset >= matchLength) {
+				System.arraycopy(dest, destPos - offset, dest, destPos, matchLength);
+				destPos += matchLength;
+			}
+			else {
+				// Overlapping match, e.g. a run of the same byte
+				for (int i = 0; i < matchLength; i++) {
+					dest[destPos] = dest[destPos - offset];
+					destPos++;
+				}
+			}
+		}
+
+		return destPos - destOffset;
+	}
+
+	private static int hash(int sequence) {
+		return (sequence * -1640531535) >>> (32 - HASH_LOG); // -1640531535 = 2654435761 (Knuth) as int
+	}
+
+	private static int writeSequence(byte[] src, int literalOffset, int literalLength, int matchOffset, int matchLength, byte[] dest, int destPos) {
+		int tokenPos = destPos++;
+		int token;
+
+		// Literals
+		if (literalLength >= RUN_MASK) {
+			token = RUN_MASK << 4;
+			destPos = writeLength(literalLength - RUN_MASK, dest, destPos);
+		}
+		else {
+			token = literalLength << 4;
+		}
+
+		System.arraycopy(src, literalOffset, dest, destPos, literalLength);
+		destPos += literalLength;
+
+		// Match
+		dest[destPos++] = (byte) matchOffset;
+		dest[destPos++] = (byte) (matchOffset >>> 8);
+
+		int remainingMatchLength = matchLength - MIN_MATCH;
+
+		if (remainingMatchLength >= ML_MASK) {
+			token |= ML_MASK;
+			destPos = writeLength(remainingMatchLength - ML_MASK, dest, destPos);
+		}
+		else {
+			token |= remainingMatchLength;
+		}
+
+		dest[tokenPos] = (byte) token;
+		return destPos;
+	}
+
+	private static int writeLastLiterals(byte[] src, int literalOffset, int literalLength, byte[] dest, int destPos) {
+		if (literalLength >= RUN_MASK) {
+			dest[destPos++] = (byte) (RUN_MASK << 4);
+			destPos = writeLength(literalLength - RUN_MASK, dest, destPos);
+		}
+		else {
+			dest[destPos++] = (byte) (literalLength << 4);
+		}
+
+		System.arraycopy(src, literalOffset, dest, destPos, literalLength);
+		return destPos + literalLength;
+	}
+
+	private static int writeLength(int length, byte[] dest, int destPos) {
+		while (length >= 255) {
+			dest[destPos++] = (byte) 255;
+			length -= 255;
+		}
+
+		dest[destPos++] = (byte) length;
+		return destPos;
+	}
+}
@@ -0,0 +1,222 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2015 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.chunk;
+
+import static org.syncany.chunk.Lz4OutputStream.BLOCK_UNCOMPRESSED;
+import static org.syncany.chunk.Lz4OutputStream.FLAG_BLOCK_CHECKSUM;
+import static org.syncany.chunk.Lz4OutputStream.FLAG_BLOCK_INDEPENDENCE;
+import static org.syncany.chunk.Lz4OutputStream.FLAG_CONTENT_CHECKSUM;
+import static org.syncany.chunk.Lz4OutputStream.FLAG_CONTENT_SIZE;
+import static org.syncany.chunk.Lz4OutputStream.FLAG_DICTIONARY_ID;
+import static org.syncany.chunk.Lz4OutputStream.FLAG_VERSION;
+import static org.syncany.chunk.Lz4OutputStream.MAGIC;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Input stream reading a single frame in the LZ4 frame format, as written by the
+ * {@link Lz4OutputStream}. Frames written by other LZ4 implementations can be read
+ * as long as their blocks are independent and no dictionary is used. All checksums
+ * present in the frame are verified.
+ *
+ * @see <a href="https://github.com/lz4/lz4/blob/dev/doc/lz4_Frame_format.md">LZ4 frame format</a>
+ */
+class Lz4InputStream extends InputStream {
+	private final DataInputStream in;
+
+	private boolean blockChecksumFlag;
+	private boolean contentChecksumFlag;
+	private int maxBlockSize;
+
+	private byte[] buffer;
+	private byte[] compressedBuffer;
+	private XxHash32 contentChecksum;
+
+	private int bufferOffset;
+	private int bufferLength;
+	private boolean endOfFrame;
+
+	public Lz4InputStream(InputStream in) throws IOException {
+		this.in = new DataInputStream(in);
+
+		this.bufferOffset = 0;
+		this.bufferLength = 0;
+		this.endOfFrame = false;
+
+		readFrameHeader();
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (!fillBuffer()) {
+			return -1;
+		}
+
+		return buffer[bufferOffset++] & 0xFF;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+
+		if (!fillBuffer()) {
+			return -1;
+		}
+
+		int readLength = Math.min(len, bufferLength - bufferOffset);
+		System.arraycopy(buffer, bufferOffset, b, off, readLength);
+
+		bufferOffset += readLength;
+		return readLength;
+	}
+
+	@Override
+	public int available() throws IOException {
+		return bufferLength - bufferOffset;
+	}
+
+	@Override
+	public void close() throws IOException {
+		in.close();
+	}
+
+	private void readFrameHeader() throws IOException {
+		if (readIntLE() != MAGIC) {
+			throw new IOException("Invalid LZ4 frame: Magic number does not match.");
+		}
+
+		byte[] frameDescriptor = new byte[2 + 8];
+
+		in.readFully(frameDescriptor, 0, 2);
+
+		int flags = frameDescriptor[0] & 0xFF;
+		int blockDescriptor = frameDescriptor[1] & 0xFF;
+
+		if ((flags & 0xC0) != FLAG_VERSION) {
+			throw new IOException("Invalid LZ4 frame: Unsupported version.");
+		}
+		else if ((flags & FLAG_BLOCK_INDEPENDENCE) == 0) {
+			throw new IOException("Unsupported LZ4 frame: Linked blocks are not supported.");
+		}
+		else if ((flags & FLAG_DICTIONARY_ID) != 0) {
+			throw new IOException("Unsupported LZ4 frame: Dictionaries are not supported.");
+		}
+
+		int frameDescriptorLength = 2;
+
+		if ((flags & FLAG_CONTENT_SIZE) != 0) {
+			in.readFully(frameDescriptor, 2, 8); // Content size is not needed
+			frameDescriptorLength += 8;
+		}
+
+		int expectedHeaderChecksum = (XxHash32.hash(frameDescriptor, 0, frameDescriptorLength, 0) >>> 8) & 0xFF;
+
+		if (in.readUnsignedByte() != expectedHeaderChecksum) {
+			throw new IOException("Invalid LZ4 frame: Header checksum does not match.");
+		}
+
+		int blockSizeId = (blockDescriptor >>> 4) & 0x07;
+
+		if (blockSizeId < 4) {
+			throw new IOException("Invalid LZ4 frame: Invalid block size ID " + blockSizeId + ".");
+		}
+
+		blockChecksumFlag = (flags & FLAG_BLOCK_CHECKSUM) != 0;
+		contentChecksumFlag = (flags & FLAG_CONTENT_CHECKSUM) != 0;
+		maxBlockSize = 1 << (2 * blockSizeId + 8); // 4 = 64 KB, ..., 7 = 4 MB
+
+		buffer = new byte[maxBlockSize];
+		compressedBuffer = new byte[maxBlockSize];
+		contentChecksum = (contentChecksumFlag) ? new XxHash32(0) : null;
+	}
+
+	private boolean fillBuffer() throws IOException {
+		while (bufferOffset == bufferLength) {
+			if (endOfFrame) {
+				return false;
+			}
+
+			readBlock();
+		}
+
+		return true;
+	}
+
+	private void readBlock() throws IOException {
+		int blockHeader = readIntLE();
+
+		bufferOffset = 0;
+		bufferLength = 0;
+
+		if (blockHeader == 0) {
+			readEndOfFrame();
+			return;
+		}
+
+		boolean uncompressed = (blockHeader & BLOCK_UNCOMPRESSED) != 0;
+		int blockLength = blockHeader & ~BLOCK_UNCOMPRESSED;
+
+		if (blockLength > maxBlockSize) {
+			throw new IOException("Invalid LZ4 frame: Block size " + blockLength + " exceeds maximum block size.");
+		}
+
+		byte[] blockBuffer = (uncompressed) ? buffer : compressedBuffer;
+		in.readFully(blockBuffer, 0, blockLength);
+
+		if (blockChecksumFlag && readIntLE() != XxHash32.hash(blockBuffer, 0, blockLength, 0)) {
+			throw new IOException("Invalid LZ4 frame: Block checksum does not match.");
+		}
+
+		if (uncompressed) {
+			bufferLength = blockLength;
+		}
+		else {
+			bufferLength = Lz4Block.decompress(compressedBuffer, 0, blockLength, buffer, 0, maxBlockSize);
+		}
+
+		if (contentChecksumFlag) {
+			contentChecksum.update(buffer, 0, bufferLength);
+		}
+	}
+
+	private void readEndOfFrame() throws IOException {
+		endOfFrame = true;
+
+		if (contentChecksumFlag && readIntLE() != contentChecksum.getValue()) {
+			throw new IOException("Invalid LZ4 frame: Content checksum does not match.");
+		}
+	}
+
+	private int readIntLE() throws IOException {
+		int b0 = in.read();
+		int b1 = in.read();
+		int b2 = in.read();
+		int b3 = in.read();
+
+		if ((b0 | b1 | b2 | b3) < 0) {
+			throw new EOFException("Invalid LZ4 frame: Unexpected end of stream.");
+		}
+
+		return b0 | b1 << 8 | b2 << 16 | b3 << 24;
+	}
+}
@@ -0,0 +1,156 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2015 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.chunk;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Output stream writing a single frame in the LZ4 frame format, with independent
+ * blocks of up to {@link #BLOCK_SIZE} bytes and a content checksum. Blocks that
+ * cannot be compressed are stored uncompressed.
+ *
+ * <p>Like the {@link java.util.zip.GZIPOutputStream GZIPOutputStream}, {@link #flush()}
+ * does not write the currently buffered block, so that the block boundaries (and
+ * thereby the output) only depend on the data written.
+ *
+ * @see <a href="https://github.com/lz4/lz4/blob/dev/doc/lz4_Frame_format.md">LZ4 frame format</a>
+ */
+class Lz4OutputStream extends OutputStream {
+	public static final int MAGIC = 0x184D2204;
+	public static final int BLOCK_SIZE = 256 * 1024;
+
+	public static final int FLAG_VERSION = 0x40;
+	public static final int FLAG_BLOCK_INDEPENDENCE = 0x20;
+	public static final int FLAG_BLOCK_CHECKSUM = 0x10;
+	public static final int FLAG_CONTENT_SIZE = 0x08;
+	public static final int FLAG_CONTENT_CHECKSUM = 0x04;
+	public static final int FLAG_DICTIONARY_ID = 0x01;
+
+	public static final int BLOCK_SIZE_ID = 5; // = 256 KB, see frame format
+	public static final int BLOCK_UNCOMPRESSED = 0x80000000;
+
+	private final OutputStream out;
+	private final int acceleration;
+
+	private final byte[] buffer;
+	private final byte[] compressedBuffer;
+	private final int[] hashTable;
+	private final XxHash32 contentChecksum;
+
+	private int bufferLength;
+	private boolean closed;
+
+	public Lz4OutputStream(OutputStream out, int acceleration) throws IOException {
+		this.out = out;
+		this.acceleration = acceleration;
+
+		this.buffer = new byte[BLOCK_SIZE];
+		this.compressedBuffer = new byte[Lz4Block.maxCompressedLength(BLOCK_SIZE)];
+		this.hashTable = new int[Lz4Block.HASH_TABLE_SIZE];
+		this.contentChecksum = new XxHash32(0);
+
+		this.bufferLength = 0;
+		this.closed = false;
+
+		writeFrameHeader();
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		if (bufferLength == BLOCK_SIZE) {
+			writeBlock();
+		}
+
+		buffer[bufferLength++] = (byte) b;
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		while (len > 0) {
+			if (bufferLength == BLOCK_SIZE) {
+				writeBlock();
+			}
+
+			int copyLength = Math.min(len, BLOCK_SIZE - bufferLength);
+			System.arraycopy(b, off, buffer, bufferLength, copyLength);
+
+			bufferLength += copyLength;
+			off += copyLength;
+			len -= copyLength;
+		}
+	}
+
+	@Override
+	public void flush() throws IOException {
+		out.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (!closed) {
+			closed = true;
+
+			try {
+				writeBlock();
+
+				writeIntLE(0); // End mark
+				writeIntLE(contentChecksum.getValue());
+			}
+			finally {
+				out.close();
+			}
+		}
+	}
+
+	private void writeFrameHeader() throws IOException {
+		byte[] frameDescriptor = new byte[] { (byte) (FLAG_VERSION | FLAG_BLOCK_INDEPENDENCE | FLAG_CONTENT_CHECKSUM), (byte) (BLOCK_SIZE_ID << 4) };
+		int headerChecksum = (XxHash32.hash(frameDescriptor, 0, frameDescriptor.length, 0) >>> 8) & 0xFF;
+
+		writeIntLE(MAGIC);
+		out.write(frameDescriptor);
+		out.write(headerChecksum);
+	}
+
+	private void writeBlock() throws IOException {
+		if (bufferLength == 0) {
+			return;
+		}
+
+		contentChecksum.update(buffer, 0, bufferLength);
+		int compressedLength = Lz4Block.compress(buffer, 0, bufferLength, compressedBuffer, 0, acceleration, hashTable);
+
+		if (compressedLength < bufferLength) {
+			writeIntLE(compressedLength);
+			out.write(compressedBuffer, 0, compressedLength);
+		}
+		else {
+			writeIntLE(bufferLength | BLOCK_UNCOMPRESSED);
+			out.write(buffer, 0, bufferLength);
+		}
+
+		bufferLength = 0;
+	}
+
+	private void writeIntLE(int value) throws IOException {
+		out.write(value);
+		out.write(value >>> 8);
+		out.write(value >>> 16);
+		out.write(value >>> 24);
+	}
+}
@@ -0,0 +1,92 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2015 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.chunk;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+
+/**
+ * Implements a {@link Transformer} that transforms the input/output stream
+ * using the LZ4 compression algorithm (LZ4 frame format).
+ *
+ * <p>LZ4 compresses and decompresses many times faster than the {@link GzipTransformer},
+ * at the cost of a lower compression ratio. It is hence a good choice if the CPU (and
+ * not the network) is the bottleneck.
+ *
+ * <p>The compression speed can be tuned with the {@link #PROPERTY_ACCELERATION acceleration}
+ * setting: 1 (default) gives the best compression; higher values compress faster, but less.
+ * The setting does not affect the output format, i.e. repositories can change it anytime.
+ */
+public class Lz4Transformer extends CompressingTransformer {
+	public static final String TYPE = "lz4";
+	public static final String PROPERTY_ACCELERATION = "acceleration";
+
+	public static final int DEFAULT_ACCELERATION = 1;
+	public static final int MAX_ACCELERATION = 65537;
+
+	private int acceleration;
+
+	public Lz4Transformer() {
+		this(DEFAULT_ACCELERATION, null);
+	}
+
+	public Lz4Transformer(Transformer nextTransformer) {
+		this(DEFAULT_ACCELERATION, nextTransformer);
+	}
+
+	public Lz4Transformer(int acceleration, Transformer nextTransformer) {
+		super(nextTransformer);
+		this.acceleration = acceleration;
+	}
+
+	/**
+	 * Initializes the LZ4 transformer using a settings map. The (optional) settings
+	 * are {@link #PROPERTY_ACCELERATION} and {@link #PROPERTY_BYPASS_INCOMPRESSIBLE}.
+	 */
+	@Override
+	public void init(Map<String, String> settings) throws Exception {
+		initBypassIncompressible(settings);
+
+		String accelerationStr = (settings != null) ? settings.get(PROPERTY_ACCELERATION) : null;
+
+		if (accelerationStr != null) {
+			acceleration = Integer.parseInt(accelerationStr);
+
+			if (acceleration < 1 || acceleration > MAX_ACCELERATION) {
+				throw new Exception("Setting '" + PROPERTY_ACCELERATION + "' must be between 1 and " + MAX_ACCELERATION + ".");
+			}
+		}
+	}
+
+	@Override
+	protected OutputStream createCompressingOutputStream(OutputStream out) throws IOException {
+		return new Lz4OutputStream(out, acceleration);
+	}
+
+	@Override
+	protected InputStream createDecompressingInputStream(InputStream in) throws IOException {
+		return new Lz4InputStream(in);
+	}
+
+	@Override
+	public String toString() {
+		return (nextTransformer == null) ? "Lz4" : "Lz4-" + nextTransformer;
+	}
+}
@@ -19,7 +19,9 @@ package org.syncany.chunk;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 
+import org.apache.commons.io.IOUtils;
 import org.syncany.database.MultiChunkEntry.MultiChunkId;
 
 /**
@@ -117,6 +119,32 @@ public abstract class MultiChunk {
 	// TODO [low] Method should be named 'read(checksum)' and return a Chunk object, not an input stream, right?!
 	public abstract InputStream getChunkInputStream(byte[] checksum) throws IOException;
 
+	/**
+	 * In read mode, this method returns the data of a single chunk as a buffer, using a chunk checksum
+	 * as identifier. Implementations that can access the chunk data directly (e.g. via a memory-mapped
+	 * file) should override this method to avoid copying the data.
+	 *
+	 * <p>The returned buffer must not be used after the multichunk has been closed.
+	 *
+	 * @param checksum The checksum identifying a chunk instance
+	 * @return Returns a buffer with the chunk data if the chunk can be found in the multichunk, or <tt>null</tt> otherwise
+	 * @throws IOException If an exception occurs when reading from the multichunk
+	 */
+	public ByteBuffer getChunkBuffer(byte[] checksum) throws IOException {
+		InputStream chunkInputStream = getChunkInputStream(checksum);
+
+		if (chunkInputStream == null) {
+			return null;
+		}
+
+		try {
+			return ByteBuffer.wrap(IOUtils.toByteArray(chunkInputStream));
+		}
+		finally {
+			chunkInputStream.close();
+		}
+	}
+
 	/**
 	 * Closes a multichunk after writing/reading.
 	 *
@@ -0,0 +1,287 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2015 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.chunk;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.syncany.chunk.Chunker.ChunkEnumeration;
+
+/**
+ * The parallel file chunker chunks and hashes the files handed to the {@link Deduper}
+ * ahead of time, using a pool of worker threads. The deduper then takes the results
+ * in the original file order, so that all {@link DeduperListener} callbacks (and thereby
+ * the resulting database version) are the same as when chunking sequentially.
+ *
+ * <p>Workers hold the contents of all chunks of a file in memory until the deduper
+ * takes them. To bound memory usage, only regular files up to {@link #MAX_FILE_SIZE}
+ * are chunked ahead, and at most {@link #MAX_BUFFERED_BYTES} are read ahead in total.
+ * All other files are chunked by the deduper itself.
+ *
+ * <p>A file is only pre-chunked if its size and modification date did not change while
+ * it was read, and have not changed since. Otherwise, {@link #take(int)} returns
+ * <tt>null</tt> and the deduper chunks the file again, so that the listener's change
+ * detection works exactly like in the sequential case.
+ */
+class ParallelFileChunker {
+	private static final Logger logger = Logger.getLogger(ParallelFileChunker.class.getSimpleName());
+
+	public static final long MAX_FILE_SIZE = 4 * 1024 * 1024;
+	public static final long MAX_BUFFERED_BYTES = 64 * 1024 * 1024;
+
+	private final Chunker chunker;
+	private final List<File> files;
+	private final int maxPendingFiles;
+	private final ExecutorService executor;
+
+	private final List<Future<ChunkedFile>> pendingFiles;
+	private int nextFileIndex;
+	private int pendingFileCount;
+	private long pendingBytes;
+
+	public ParallelFileChunker(Chunker chunker, List<File> files, int threads) {
+		this.chunker = chunker;
+		this.files = files;
+		this.maxPendingFiles = 4 * threads;
+		this.executor = Executors.newFixedThreadPool(threads, new ChunkerThreadFactory());
+
+		this.pendingFiles = new ArrayList<Future<ChunkedFile>>(files.size());
+		this.nextFileIndex = 0;
+		this.pendingFileCount = 0;
+		this.pendingBytes = 0;
+	}
+
+	/**
+	 * Returns the pre-chunked file with the given index, waiting for the worker if necessary,
+	 * or <tt>null</tt> if the file was not pre-chunked (not a regular file, too large, changed
+	 * or unreadable). Files must be taken in order, each file exactly once.
+	 */
+	public ChunkedFile take(int fileIndex) throws IOException {
+		submitFiles(fileIndex);
+
+		Future<ChunkedFile> pendingFile = pendingFiles.set(fileIndex, null);
+
+		if (pendingFile == null) {
+			return null;
+		}
+
+		try {
+			ChunkedFile chunkedFile = pendingFile.get();
+
+			pendingFileCount--;
+			pendingBytes -= chunkedFile.size;
+
+			if (!chunkedFile.complete) {
+				return null;
+			}
+
+			// The file might have changed after it was chunked
+			BasicFileAttributes fileAttributes = readAttributes(chunkedFile.file);
+
+			if (fileAttributes == null || !chunkedFile.matches(fileAttributes)) {
+				logger.log(Level.FINE, "File {0} changed after it was chunked; chunking again.", chunkedFile.file);
+				return null;
+			}
+
+			return chunkedFile;
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for file to be chunked.");
+		}
+		catch (ExecutionException e) {
+			throw new IOException("Cannot chunk file " + files.get(fileIndex), e.getCause());
+		}
+	}
+
+	/**
+	 * Stops all workers. Must be called at the end of the deduplication.
+	 */
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+
+	private void submitFiles(int fileIndex) {
+		// Make sure the file itself is submitted (or skipped), then
+		// read ahead as far as the limits allow
+
+		while (nextFileIndex < files.size() && (nextFileIndex <= fileIndex || canSubmitMoreFiles())) {
+			File file = files.get(nextFileIndex);
+			BasicFileAttributes fileAttributes = readAttributes(file);
+
+			if (fileAttributes != null && fileAttributes.isRegularFile() && fileAttributes.size() <= MAX_FILE_SIZE) {
+				if (nextFileIndex > fileIndex && pendingBytes + fileAttributes.size() > MAX_BUFFERED_BYTES) {
+					break;
+				}
+
+				pendingFiles.add(executor.submit(new ChunkFileTask(file, fileAttributes)));
+
+				pendingFileCount++;
+				pendingBytes += fileAttributes.size();
+			}
+			else {
+				pendingFiles.add(null);
+			}
+
+			nextFileIndex++;
+		}
+	}
+
+	private boolean canSubmitMoreFiles() {
+		return pendingFileCount < maxPendingFiles && pendingBytes < MAX_BUFFERED_BYTES;
+	}
+
+	private static BasicFileAttributes readAttributes(File file) {
+		try {
+			return Files.readAttributes(file.toPath(), BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+		}
+		catch (IOException e) {
+			return null;
+		}
+	}
+
+	private class ChunkFileTask implements Callable<ChunkedFile> {
+		private final File file;
+		private final BasicFileAttributes fileAttributes;
+
+		public ChunkFileTask(File file, BasicFileAttributes fileAttributes) {
+			this.file = file;
+			this.fileAttributes = fileAttributes;
+		}
+
+		@Override
+		public ChunkedFile call() throws Exception {
+			ChunkedFile chunkedFile = new ChunkedFile(file, fileAttributes);
+			ChunkEnumeration chunkEnumeration;
+
+			try {
+				chunkEnumeration = chunker.createChunks(file);
+			}
+			catch (IOException e) {
+				return incomplete(chunkedFile, e);
+			}
+
+			try {
+				while (chunkEnumeration.hasMoreElements()) {
+					Chunk chunk = chunkEnumeration.nextElement();
+
+					if (chunk == null) {
+						return incomplete(chunkedFile, null);
+					}
+
+					// Chunk contents are only valid until the next chunk is created
+					byte[] chunkContents = Arrays.copyOfRange(chunk.getContent(), chunk.getOffset(), chunk.getOffset() + chunk.getSize());
+					chunkedFile.chunks.add(new Chunk(chunk.getChecksum(), chunkContents, chunk.getSize(), chunk.getFileChecksum()));
+				}
+			}
+			finally {
+				chunkEnumeration.close();
+			}
+
+			BasicFileAttributes afterFileAttributes = readAttributes(file);
+
+			if (afterFileAttributes == null || !chunkedFile.matches(afterFileAttributes)) {
+				return incomplete(chunkedFile, null);
+			}
+
+			chunkedFile.complete = true;
+			return chunkedFile;
+		}
+
+		private ChunkedFile incomplete(ChunkedFile chunkedFile, IOException e) {
+			logger.log(Level.FINE, "Cannot chunk file " + file + " ahead; deduper will chunk it.", e);
+
+			chunkedFile.chunks.clear();
+			return chunkedFile;
+		}
+	}
+
+	/**
+	 * A file that was chunked by a worker, along with the attributes it had
+	 * while it was chunked. Its chunks are handed out by {@link #createChunks()}.
+	 */
+	static class ChunkedFile {
+		private final File file;
+		private final long size;
+		private final long lastModified;
+		private final List<Chunk> chunks;
+		private volatile boolean complete;
+
+		public ChunkedFile(File file, BasicFileAttributes fileAttributes) {
+			this.file = file;
+			this.size = fileAttributes.size();
+			this.lastModified = fileAttributes.lastModifiedTime().toMillis();
+			this.chunks = new ArrayList<Chunk>();
+			this.complete = false;
+		}
+
+		public ChunkEnumeration createChunks() {
+			final Iterator<Chunk> chunkIterator = chunks.iterator();
+
+			return new ChunkEnumeration() {
+				@Override
+				public boolean hasMoreElements() {
+					return chunkIterator.hasNext();
+				}
+
+				@Override
+				public Chunk nextElement() {
+					return (chunkIterator.hasNext()) ? chunkIterator.next() : null;
+				}
+
+				@Override
+				public void close() {
+					chunks.clear();
+				}
+			};
+		}
+
+		private boolean matches(BasicFileAttributes fileAttributes) {
+			return size == fileAttributes.size() && lastModified == fileAttributes.lastModifiedTime().toMillis();
+		}
+	}
+
+	private static class ChunkerThreadFactory implements ThreadFactory {
+		private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "Chunker-" + threadNumber.getAndIncrement());
+			thread.setDaemon(true);
+
+			return thread;
+		}
+	}
+}
@@ -0,0 +1,202 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2015 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.chunk;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.syncany.database.MultiChunkEntry.MultiChunkId;
+
+/**
+ * The parallel multichunk transformer runs the {@link Transformer} chain (e.g. compression
+ * and encryption) for completed multichunks on a pool of worker threads, while the
+ * {@link Deduper} fills the next multichunk.
+ *
+ * <p>Multichunks are first written to memory (see {@link #createOutputStream(MultiChunkId, File, boolean)}). Once
+ * a multichunk is closed, its contents are transformed and written to the multichunk file
+ * by a worker. {@link DeduperListener#onMultiChunkClose(MultiChunk) onMultiChunkClose()}
+ * is called on the deduper's thread after the file is written, in the order in which the
+ * multichunks were closed.
+ *
+ * <p>At most <tt>threads</tt> multichunks are waiting for or in transformation at any time.
+ * If this limit is reached, the deduper waits for the oldest one. Memory usage is hence
+ * bounded by roughly <tt>threads + 1</tt> times the multichunk size.
+ */
+class ParallelMultiChunkTransformer {
+	private final Transformer transformer;
+	private final DeduperListener listener;
+	private final int maxPendingMultiChunks;
+	private final ExecutorService executor;
+
+	private final Queue<PendingMultiChunk> pendingMultiChunks;
+	private final Map<MultiChunkId, MultiChunkBuffer> openBuffers;
+
+	public ParallelMultiChunkTransformer(Transformer transformer, DeduperListener listener, int threads) {
+		this.transformer = transformer;
+		this.listener = listener;
+		this.maxPendingMultiChunks = threads;
+		this.executor = Executors.newFixedThreadPool(threads, new TransformerThreadFactory());
+
+		this.pendingMultiChunks = new LinkedList<PendingMultiChunk>();
+		this.openBuffers = new HashMap<MultiChunkId, MultiChunkBuffer>();
+	}
+
+	/**
+	 * Creates the in-memory output stream for a new multichunk. Its contents are transformed 
+	 * and written to the given file when {@link #close(MultiChunk)} is called. If <tt>compress</tt>
+	 * is false, compression is skipped (see {@link Transformer#createUncompressedOutputStream(OutputStream)}).
+	 */
+	public OutputStream createOutputStream(MultiChunkId multiChunkId, File multiChunkFile, boolean compress) {
+		MultiChunkBuffer buffer = new MultiChunkBuffer(multiChunkFile, compress);
+		openBuffers.put(multiChunkId, buffer);
+
+		return buffer;
+	}
+
+	/**
+	 * Closes the given multichunk (which must have been created with an output stream 
+	 * returned by {@link #createOutputStream(MultiChunkId, File, boolean)}), and hands it 
+	 * to a worker. Waits for the oldest multichunk if too many are pending.
+	 */
+	public void close(MultiChunk multiChunk) throws IOException {
+		multiChunk.close();
+
+		while (pendingMultiChunks.size() >= maxPendingMultiChunks) {
+			completeOldest();
+		}
+
+		MultiChunkBuffer buffer = openBuffers.remove(multiChunk.getId());
+
+		Future<Void> future = executor.submit(new TransformTask(buffer));
+		pendingMultiChunks.add(new PendingMultiChunk(multiChunk, future));
+
+		completeDone();
+	}
+
+	/**
+	 * Waits for all pending multichunks to be written.
+	 */
+	public void finish() throws IOException {
+		while (!pendingMultiChunks.isEmpty()) {
+			completeOldest();
+		}
+	}
+
+	/**
+	 * Stops all workers. Must be called at the end of the deduplication.
+	 */
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+
+	private void completeDone() throws IOException {
+		while (!pendingMultiChunks.isEmpty() && pendingMultiChunks.peek().future.isDone()) {
+			completeOldest();
+		}
+	}
+
+	private void completeOldest() throws IOException {
+		PendingMultiChunk pendingMultiChunk = pendingMultiChunks.poll();
+
+		try {
+			pendingMultiChunk.future.get();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for multichunk " + pendingMultiChunk.multiChunk.getId());
+		}
+		catch (ExecutionException e) {
+			throw new IOException("Cannot write multichunk " + pendingMultiChunk.multiChunk.getId(), e.getCause());
+		}
+
+		listener.onMultiChunkClose(pendingMultiChunk.multiChunk);
+	}
+
+	private class TransformTask implements Callable<Void> {
+		private final MultiChunkBuffer buffer;
+
+		public TransformTask(MultiChunkBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		public Void call() throws Exception {
+			FileOutputStream fileOutputStream = new FileOutputStream(buffer.multiChunkFile);
+			OutputStream multiChunkOutputStream = (buffer.compress) ? transformer.createOutputStream(fileOutputStream) : transformer
+					.createUncompressedOutputStream(fileOutputStream);
+
+			try {
+				buffer.writeTo(multiChunkOutputStream);
+			}
+			finally {
+				multiChunkOutputStream.close();
+			}
+
+			return null;
+		}
+	}
+
+	private static class MultiChunkBuffer extends ByteArrayOutputStream {
+		private final File multiChunkFile;
+		private final boolean compress;
+
+		public MultiChunkBuffer(File multiChunkFile, boolean compress) {
+			super(64 * 1024);
+
+			this.multiChunkFile = multiChunkFile;
+			this.compress = compress;
+		}
+	}
+
+	private static class PendingMultiChunk {
+		private final MultiChunk multiChunk;
+		private final Future<Void> future;
+
+		public PendingMultiChunk(MultiChunk multiChunk, Future<Void> future) {
+			this.multiChunk = multiChunk;
+			this.future = future;
+		}
+	}
+
+	private static class TransformerThreadFactory implements ThreadFactory {
+		private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "Transformer-" + threadNumber.getAndIncrement());
+			thread.setDaemon(true);
+
+			return thread;
+		}
+	}
+}
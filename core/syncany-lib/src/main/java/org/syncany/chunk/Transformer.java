@@ -91,6 +91,40 @@ public abstract class Transformer {
 	 */
 	public abstract InputStream createInputStream(InputStream in) throws IOException;
 
+	/**
+	 * Creates a stream-transforming {@link OutputStream} for data that is known to be 
+	 * incompressible. Compressing transformers (see {@link CompressingTransformer}) skip the 
+	 * compression and mark the stream accordingly, so that {@link #createInputStream(InputStream)} 
+	 * can read it. All other transformers return the same stream as 
+	 * {@link #createOutputStream(OutputStream) createOutputStream()}. 
+	 *
+	 * @param out Original output stream which is transformed by this transformer
+	 * @return Returns a transformed output stream
+	 * @throws IOException If an exception occurs when instantiating or writing to the stream
+	 */
+	public OutputStream createUncompressedOutputStream(OutputStream out) throws IOException {
+		return createOutputStream(out);
+	}
+
+	/**
+	 * Returns whether this transformer compresses the data, i.e. whether 
+	 * {@link #createUncompressedOutputStream(OutputStream) createUncompressedOutputStream()}
+	 * makes a difference.
+	 */
+	public boolean isCompressing() {
+		return false;
+	}
+
+	/**
+	 * Returns whether the compression is skipped for incompressible data, i.e. whether
+	 * {@link #createUncompressedOutputStream(OutputStream) createUncompressedOutputStream()}
+	 * may be used when writing to the repository. This is a setting of the repository,
+	 * see {@link CompressingTransformer#PROPERTY_BYPASS_INCOMPRESSIBLE}.
+	 */
+	public boolean isBypassIncompressible() {
+		return false;
+	}
+
 	/**
 	 * An implementation of a transformer must override this method to identify the 
 	 * type of transformer and/or its settings.
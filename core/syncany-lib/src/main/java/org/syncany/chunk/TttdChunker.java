@@ -22,6 +22,9 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.security.MessageDigest;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -59,6 +62,15 @@ public class TttdChunker extends Chunker {
 	public static final int DEFAULT_WINDOW_SIZE = 48; // like LBFS
 	public static final String DEFAULT_DIGEST_ALG = "SHA1";
 	public static final String DEFAULT_FINGERPRINT_ALG = "Adler32";
+	public static final String TYPE = "tttd";
+
+	/**
+	 * Property used by the config to indicate the fingerprinting 
+	 * algorithm (see {@link Fingerprinter}). Optional.
+	 */
+	public static final String PROPERTY_FINGERPRINT = "fingerprint";
+
+	private static final int READ_BUFFER_SIZE = 64 * 1024;
 
 	private int Tmin;
 	private int Tmax;
@@ -68,6 +80,15 @@ public class TttdChunker extends Chunker {
 	private String checksumAlgorithm;
 	private String fingerprintAlgorithm;
 	private String name;
+	private Queue<ChunkingState> chunkingStatePool;
+
+	/**
+	 * Creates a new TTTD chunker. The chunker must be initialized 
+	 * using {@link #init(Map) init()}.
+	 */
+	public TttdChunker() {
+		this.chunkingStatePool = new ConcurrentLinkedQueue<ChunkingState>();
+	}
 
 	public TttdChunker(int Tmin, int Tmax, int D, int Ddash, int windowSize) {
 		this(Tmin, Tmax, D, Ddash, windowSize, DEFAULT_DIGEST_ALG, DEFAULT_FINGERPRINT_ALG);
@@ -86,12 +107,8 @@ public class TttdChunker extends Chunker {
 	 * LBFS: avg. chunk size = 1015 bytes --> Tmin = 460, Tmax = 2800, D = 540, Ddash = 270
 	 */
 	public TttdChunker(int avgChunkSize, int windowSize, String digestAlg, String fingerprintAlg) {
-		this(
-				/* Tmin */(int) Math.round(460.0 * avgChunkSize / 1015.0),
-				/* Tmax */(int) Math.round(2800.0 * avgChunkSize / 1015.0),
-				/*   D  */(int) Math.round(540.0 * avgChunkSize / 1015.0),
-				/*   D  */(int) Math.round(270.0 * avgChunkSize / 1015.0),
-				/* rest */windowSize, digestAlg, fingerprintAlg, "TTTD-" + avgChunkSize + "-" + digestAlg + "-" + fingerprintAlg);
+		this();
+		init(avgChunkSize, windowSize, digestAlg, fingerprintAlg);
 	}
 
 	public TttdChunker(int Tmin, int Tmax, int D, int Ddash, int windowSize, String digestAlg, String fingerprintAlg) {
@@ -100,6 +117,46 @@ public class TttdChunker extends Chunker {
 	}
 
 	private TttdChunker(int Tmin, int Tmax, int D, int Ddash, int windowSize, String digestAlg, String fingerprintAlg, String name) {
+		this();
+		init(Tmin, Tmax, D, Ddash, windowSize, digestAlg, fingerprintAlg, name);
+	}
+
+	/**
+	 * Initializes the chunker using a settings map. 
+	 * <br>
+	 * Required settings are: 
+	 * <ul>
+	 *  <li> key: {@link Chunker#PROPERTY_SIZE}, value: average chunk size in bytes
+	 * </ul>
+	 * Optional settings are:
+	 * <ul>
+	 *  <li> key: {@link Chunker#PROPERTY_DIGEST}, value: checksum algorithm (default: {@link #DEFAULT_DIGEST_ALG})
+	 *  <li> key: {@link #PROPERTY_FINGERPRINT}, value: fingerprinting algorithm (default: {@link #DEFAULT_FINGERPRINT_ALG})
+	 * </ul>
+	 */
+	@Override
+	public void init(Map<String, String> settings) {
+		int avgChunkSize = getIntSetting(settings, PROPERTY_SIZE);
+		String digestAlg = getSetting(settings, PROPERTY_DIGEST, DEFAULT_DIGEST_ALG);
+		String fingerprintAlg = getSetting(settings, PROPERTY_FINGERPRINT, DEFAULT_FINGERPRINT_ALG);
+
+		init(avgChunkSize, DEFAULT_WINDOW_SIZE, digestAlg, fingerprintAlg);
+	}
+
+	/**
+	 * Derives Tmin, Tmax, D and D' from the average chunk size, 
+	 * see {@link #TttdChunker(int, int, String, String)}.
+	 */
+	private void init(int avgChunkSize, int windowSize, String digestAlg, String fingerprintAlg) {
+		init(
+				/* Tmin */(int) Math.round(460.0 * avgChunkSize / 1015.0),
+				/* Tmax */(int) Math.round(2800.0 * avgChunkSize / 1015.0),
+				/*   D  */(int) Math.round(540.0 * avgChunkSize / 1015.0),
+				/*   D  */(int) Math.round(270.0 * avgChunkSize / 1015.0),
+				/* rest */windowSize, digestAlg, fingerprintAlg, "TTTD-" + avgChunkSize + "-" + digestAlg + "-" + fingerprintAlg);
+	}
+
+	private void init(int Tmin, int Tmax, int D, int Ddash, int windowSize, String digestAlg, String fingerprintAlg, String name) {
 		this.Tmin = Tmin;
 		this.Tmax = Tmax;
 		this.D = D;
@@ -129,34 +186,73 @@ public class TttdChunker extends Chunker {
 		return name;
 	}
 
+	private ChunkingState takeChunkingState() {
+		ChunkingState chunkingState = chunkingStatePool.poll();
+		return (chunkingState != null) ? chunkingState : new ChunkingState();
+	}
+
+	/**
+	 * The chunking state holds the buffer, the digests and the fingerprinter of an
+	 * enumeration. Creating them is relatively expensive (the buffer is a few times 
+	 * the maximum chunk size), so they are reused for the next file once an 
+	 * enumeration is closed.
+	 */
+	private class ChunkingState {
+		private final byte[] buffer;
+		private final MessageDigest chunkDigest;
+		private final MessageDigest fileDigest;
+		private final Fingerprinter fingerprinter;
+
+		public ChunkingState() {
+			try {
+				this.buffer = new byte[2 * Tmax + READ_BUFFER_SIZE];
+				this.fingerprinter = Fingerprinter.getInstance(fingerprintAlgorithm);
+				this.chunkDigest = MessageDigest.getInstance(checksumAlgorithm);
+				this.fileDigest = MessageDigest.getInstance(checksumAlgorithm);
+			}
+			catch (Exception e) {
+				throw new RuntimeException(e);
+			}
+		}
+	}
+
+	/**
+	 * The enumeration reads the input stream into a sliding buffer, and runs the
+	 * rolling fingerprint directly over this buffer. Chunks are handed out as slices of
+	 * the buffer (no copy), so their contents are only valid until the next call to
+	 * {@link #nextElement()}. The buffer is compacted (i.e. the unprocessed bytes are
+	 * moved to its beginning) only if less than {@link TttdChunker#Tmax Tmax} bytes
+	 * are left behind the current chunk start.
+	 *
+	 * <p>Chunk boundaries are identical to the ones of the previous byte-by-byte
+	 * implementation: A chunk ends at the first position <tt>p &gt;= Tmin</tt> at which
+	 * the fingerprint matches <i>D</i>, at <tt>Tmax</tt> bytes, or at the end of the input.
+	 * Note that the fingerprint window at <tt>Tmin</tt> excludes the byte at
+	 * <tt>Tmin</tt>, and that the backup divisor <i>D'</i> has never been applied.
+	 * Changing either would change the chunks of existing repositories, and hence
+	 * break deduplication against them.
+	 */
 	public class TTTDEnumeration implements ChunkEnumeration {
 		private InputStream in;
 		private boolean closed;
-		private byte[] c;
-		private int clen;
-		private int cpos;
+		private boolean eof;
 
-		private MessageDigest chunkDigest;
-		private MessageDigest fileDigest;
-		private Fingerprinter fingerprinter;
+		private ChunkingState chunkingState;
+		private byte[] buffer;
+		private int start;
+		private int limit;
 
 		public TTTDEnumeration(InputStream in) throws IOException {
 			this.in = in;
 			this.closed = false;
-			this.c = new byte[8192];
-			this.clen = -1;
-			this.cpos = -1;
+			this.eof = false;
 
-			try {
-				fingerprinter = Fingerprinter.getInstance(fingerprintAlgorithm);
-				chunkDigest = MessageDigest.getInstance(checksumAlgorithm);
-				fileDigest = MessageDigest.getInstance(checksumAlgorithm);
+			this.chunkingState = takeChunkingState();
+			this.buffer = chunkingState.buffer;
+			this.start = 0;
+			this.limit = 0;
 
-				fileDigest.reset();
-			}
-			catch (Exception e) {
-				throw new RuntimeException(e);
-			}
+			chunkingState.fileDigest.reset();
 		}
 
 		@Override
@@ -170,91 +266,34 @@ public class TttdChunker extends Chunker {
 				return null;
 			}
 
-			chunkDigest.reset();
-			fingerprinter.reset();
-
 			try {
-				int backupBreak = 0;
-				int breakpoint = -1;
-
-				byte[] buf = new byte[Tmax];
-				int bufpos = -1;
-
-				while (bufpos < buf.length - 1) {
-					if (cpos == -1 || cpos == clen - 1) {
-						cpos = -1;
-						clen = readFromInputStreamFixed(c, in);//in.read(c);
-
-						if (clen == -1) {
-							break;
-						}
-
-						fileDigest.update(c, 0, clen);
-					}
-
-					bufpos++;
-					cpos++;
-					buf[bufpos] = c[cpos];
-
-					if (bufpos < Tmin) {
-						continue;
-					}
-					else if (bufpos == Tmin) {
-						fingerprinter.check(buf, bufpos - windowSize, windowSize);
-					}
-					else {
-						fingerprinter.roll(buf[bufpos]);
-					}
-
-					int hash = fingerprinter.getValue();
-
-					// The value of r (right side) plays no role! #39  
-					if ((hash % Ddash) == Ddash - 1) {
-						backupBreak = bufpos;
-					}
-
-					if ((hash % D) == D - 1) {
-						breakpoint = bufpos;
-						break;
-					}
-
-					if (bufpos < Tmax) {
-						continue;
-					}
-
-					if (backupBreak != 0) {
-						breakpoint = backupBreak;
-						break;
-					}
-					else {
-						breakpoint = bufpos;
-						break;
-					}
-				}
+				fill();
+
+				int available = limit - start;
+				int chunkSize = findBreakpoint(Math.min(available, Tmax)) + 1;
+
+				// Last chunk: no breakpoint before the end of the input
+				boolean lastChunk = eof && chunkSize > available;
+
+				if (lastChunk) {
+					chunkSize = available;
 
-				// Close if this was the last bytes
-				if (clen == -1) {
 					in.close();
 					closed = true;
 				}
 
-				// EOF as breakpoint
-				if (breakpoint == -1) {
-					breakpoint = bufpos;
-				}
+				MessageDigest chunkDigest = chunkingState.chunkDigest;
 
-				// Increase breakpoint
-				breakpoint++;
-
-				// Create chunk
-				chunkDigest.update(buf, 0, breakpoint);
+				chunkDigest.reset();
+				chunkDigest.update(buffer, start, chunkSize);
 
 				byte[] chunkChecksum = chunkDigest.digest();
-				byte[] chunkContents = buf;
-				int chunkSize = breakpoint;
-				byte[] fileChecksum = (clen == -1) ? fileDigest.digest() : null;
+				byte[] fileChecksum = (lastChunk) ? chunkingState.fileDigest.digest() : null;
+
+				Chunk chunk = new Chunk(chunkChecksum, buffer, start, chunkSize, fileChecksum);
+				start += chunkSize;
 
-				return new Chunk(chunkChecksum, chunkContents, chunkSize, fileChecksum);
+				return chunk;
 			}
 			catch (IOException ex) {
 				logger.log(Level.SEVERE, "Error while retrieving next chunk.", ex);
@@ -270,27 +309,73 @@ public class TttdChunker extends Chunker {
 			catch (IOException e) {
 				logger.log(Level.INFO, "Error while closing", e);
 			}
+
+			// Hand the buffer to the next enumeration; the last chunk must not be used afterwards
+
+			if (chunkingState != null) {
+				chunkingStatePool.offer(chunkingState);
+
+				chunkingState = null;
+				buffer = null;
+				closed = true;
+			}
 		}
 
 		/**
-		 * Fixes the read errors occurring with Cipher streams in the standard
-		 * Java read implementation.
+		 * Returns the position (relative to the chunk start) of the first regular breakpoint
+		 * within the given length, or <tt>length-1</tt> if the length is <tt>Tmax</tt>, or
+		 * <tt>length</tt> if the end of the input is reached without a breakpoint.
 		 */
-		private int readFromInputStreamFixed(byte[] readToBuffer, InputStream inputStream) throws IOException {
-			int bytesRead = 0;
+		private int findBreakpoint(int length) {
+			if (length <= Tmin) {
+				return length; // End of input before Tmin
+			}
 
-			while (bytesRead < readToBuffer.length) {
-				int byteRead = inputStream.read();
+			Fingerprinter fingerprinter = chunkingState.fingerprinter;
+			byte[] buffer = this.buffer;
+			int end = start + length;
 
-				if (byteRead == -1) {
-					return (bytesRead != 0) ? bytesRead : -1;
+			fingerprinter.reset();
+			fingerprinter.check(buffer, start + Tmin - windowSize, windowSize);
+
+			for (int pos = start + Tmin; pos < end; pos++) {
+				if (pos > start + Tmin) {
+					fingerprinter.roll(buffer[pos]);
 				}
 
-				readToBuffer[bytesRead] = (byte) byteRead;
-				bytesRead++;
+				// The value of r (right side) plays no role! #39
+				if ((fingerprinter.getValue() % D) == D - 1) {
+					return pos - start;
+				}
 			}
 
-			return (bytesRead != 0) ? bytesRead : -1;
+			return (length == Tmax) ? length - 1 : length;
+		}
+
+		/**
+		 * Makes sure that at least <tt>Tmax</tt> bytes are available behind the chunk
+		 * start (unless the end of the input is reached), compacting the buffer if
+		 * there is not enough room left.
+		 */
+		private void fill() throws IOException {
+			if (start + Tmax > buffer.length) {
+				System.arraycopy(buffer, start, buffer, 0, limit - start);
+
+				limit -= start;
+				start = 0;
+			}
+
+			while (!eof && limit - start < Tmax) {
+				int read = in.read(buffer, limit, buffer.length - limit);
+
+				if (read == -1) {
+					eof = true;
+				}
+				else {
+					chunkingState.fileDigest.update(buffer, limit, read);
+					limit += read;
+				}
+			}
 		}
 	}
 }
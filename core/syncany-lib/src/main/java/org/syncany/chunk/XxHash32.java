@@ -0,0 +1,144 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2015 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.chunk;
+
+/**
+ * Streaming implementation of the 32-bit xxHash checksum, as used by the
+ * LZ4 frame format for the header and content checksums.
+ *
+ * @see <a href="https://github.com/Cyan4973/xxHash">xxHash</a>
+ */
+class XxHash32 {
+	private static final int PRIME1 = 0x9E3779B1;
+	private static final int PRIME2 = 0x85EBCA77;
+	private static final int PRIME3 = 0xC2B2AE3D;
+	private static final int PRIME4 = 0x27D4EB2F;
+	private static final int PRIME5 = 0x165667B1;
+
+	private final int seed;
+	private final byte[] stripe;
+
+	private int v1, v2, v3, v4;
+	private int stripeLength;
+	private long totalLength;
+
+	public XxHash32(int seed) {
+		this.seed = seed;
+		this.stripe = new byte[16];
+
+		reset();
+	}
+
+	public void reset() {
+		v1 = seed + PRIME1 + PRIME2;
+		v2 = seed + PRIME2;
+		v3 = seed;
+		v4 = seed - PRIME1;
+
+		stripeLength = 0;
+		totalLength = 0;
+	}
+
+	public void update(byte[] buffer, int offset, int length) {
+		int end = offset + length;
+		totalLength += length;
+
+		// Complete stripe from previous update
+		if (stripeLength > 0) {
+			int fillLength = Math.min(16 - stripeLength, length);
+
+			System.arraycopy(buffer, offset, stripe, stripeLength, fillLength);
+			stripeLength += fillLength;
+			offset += fillLength;
+
+			if (stripeLength < 16) {
+				return;
+			}
+
+			processStripe(stripe, 0);
+			stripeLength = 0;
+		}
+
+		// Process full stripes directly from buffer
+		while (offset + 16 <= end) {
+			processStripe(buffer, offset);
+			offset += 16;
+		}
+
+		// Remember the rest
+		if (offset < end) {
+			System.arraycopy(buffer, offset, stripe, 0, end - offset);
+			stripeLength = end - offset;
+		}
+	}
+
+	public int getValue() {
+		int hash;
+
+		if (totalLength >= 16) {
+			hash = Integer.rotateLeft(v1, 1) + Integer.rotateLeft(v2, 7) + Integer.rotateLeft(v3, 12) + Integer.rotateLeft(v4, 18);
+		}
+		else {
+			hash = seed + PRIME5;
+		}
+
+		hash += (int) totalLength;
+
+		int offset = 0;
+
+		while (offset + 4 <= stripeLength) {
+			hash = Integer.rotateLeft(hash + readIntLE(stripe, offset) * PRIME3, 17) * PRIME4;
+			offset += 4;
+		}
+
+		while (offset < stripeLength) {
+			hash = Integer.rotateLeft(hash + (stripe[offset] & 0xFF) * PRIME5, 11) * PRIME1;
+			offset++;
+		}
+
+		hash ^= hash >>> 15;
+		hash *= PRIME2;
+		hash ^= hash >>> 13;
+		hash *= PRIME3;
+		hash ^= hash >>> 16;
+
+		return hash;
+	}
+
+	public static int hash(byte[] buffer, int offset, int length, int seed) {
+		XxHash32 xxHash = new XxHash32(seed);
+		xxHash.update(buffer, offset, length);
+
+		return xxHash.getValue();
+	}
+
+	private void processStripe(byte[] buffer, int offset) {
+		v1 = round(v1, readIntLE(buffer, offset));
+		v2 = round(v2, readIntLE(buffer, offset + 4));
+		v3 = round(v3, readIntLE(buffer, offset + 8));
+		v4 = round(v4, readIntLE(buffer, offset + 12));
+	}
+
+	private static int round(int accumulator, int lane) {
+		return Integer.rotateLeft(accumulator + lane * PRIME2, 13) * PRIME1;
+	}
+
+	static int readIntLE(byte[] buffer, int offset) {
+		return (buffer[offset] & 0xFF) | (buffer[offset + 1] & 0xFF) << 8 | (buffer[offset + 2] & 0xFF) << 16 | (buffer[offset + 3] & 0xFF) << 24;
+	}
+}
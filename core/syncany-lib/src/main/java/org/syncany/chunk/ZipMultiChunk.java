@@ -70,7 +70,7 @@ public class ZipMultiChunk extends MultiChunk {
         entry.setSize(chunk.getSize());
 
         zipOut.putNextEntry(entry);
-        zipOut.write(chunk.getContent(), 0, chunk.getSize());
+        zipOut.write(chunk.getContent(), chunk.getOffset(), chunk.getSize());
         zipOut.closeEntry();
     }    
     
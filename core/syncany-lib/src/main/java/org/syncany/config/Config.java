@@ -29,6 +29,7 @@ import org.syncany.chunk.NoTransformer;
 import org.syncany.chunk.Transformer;
 import org.syncany.config.to.ConfigTO;
 import org.syncany.config.to.RepoTO;
+import org.syncany.config.to.RepoTO.ChunkerTO;
 import org.syncany.config.to.RepoTO.MultiChunkerTO;
 import org.syncany.config.to.RepoTO.TransformerTO;
 import org.syncany.crypto.SaltedSecretKey;
@@ -65,14 +66,30 @@ public class Config {
 	public static final String FILE_REPO = "syncany";
 	public static final String FILE_MASTER = "master";
 
-	// File in .syncany/db
+	// Files in .syncany/db
 	public static final String FILE_DATABASE = "local.db";
+	public static final String FILE_CHUNK_INDEX = "local.chunkindex";
 
 	// Files in .syncany/state
 	public static final String FILE_PORT = "port.xml";
 	public static final String FILE_TRANSACTION = "transaction-actions.xml";
 	public static final String FILE_TRANSACTION_DATABASE = "transaction-database.xml";
 
+	// Number of parallel transfers, if not configured otherwise
+	public static final int DEFAULT_TRANSFER_THREADS = 1;
+
+	// Number of files chunked in parallel while indexing, if not configured otherwise
+	public static final int DEFAULT_INDEXER_THREADS = 1;
+
+	// Number of multichunks compressed/encrypted in the background while indexing (0 = none), if not configured otherwise
+	public static final int DEFAULT_TRANSFORMER_THREADS = 0;
+
+	// Number of files reconstructed in parallel while applying remote changes, if not configured otherwise
+	public static final int DEFAULT_ASSEMBLER_THREADS = 1;
+
+	// Chunk size for repositories with a 'fixed' chunker, regardless of the recorded size
+	public static final int LEGACY_FIXED_CHUNK_SIZE = 512 * 1024;
+
 	private byte[] repoId;
 	private String machineName;
 	private String displayName;
@@ -86,6 +103,10 @@ public class Config {
 	private SaltedSecretKey masterKey;
 
 	private Cache cache;
+	private int transferThreads;
+	private int indexerThreads;
+	private int transformerThreads;
+	private int assemblerThreads;
 	private TransferPlugin plugin;
 	private TransferSettings transferSettings;
 	private Chunker chunker;
@@ -107,6 +128,10 @@ public class Config {
 		initMasterKey(configTO);
 		initDirectories(aLocalDir);
 		initCache(configTO);
+		initTransferThreads(configTO);
+		initIndexerThreads(configTO);
+		initTransformerThreads(configTO);
+		initAssemblerThreads(configTO);
 		initIgnoredFile();
 		initRepo(repoTO);
 		initConnection(configTO);
@@ -138,6 +163,42 @@ public class Config {
 		}
 	}
 
+	private void initTransferThreads(ConfigTO configTO) {
+		if (configTO.getTransferThreads() != null && configTO.getTransferThreads() > 0) {
+			transferThreads = configTO.getTransferThreads();
+		}
+		else {
+			transferThreads = DEFAULT_TRANSFER_THREADS;
+		}
+	}
+
+	private void initIndexerThreads(ConfigTO configTO) {
+		if (configTO.getIndexerThreads() != null && configTO.getIndexerThreads() > 0) {
+			indexerThreads = configTO.getIndexerThreads();
+		}
+		else {
+			indexerThreads = DEFAULT_INDEXER_THREADS;
+		}
+	}
+
+	private void initTransformerThreads(ConfigTO configTO) {
+		if (configTO.getTransformerThreads() != null && configTO.getTransformerThreads() >= 0) {
+			transformerThreads = configTO.getTransformerThreads();
+		}
+		else {
+			transformerThreads = DEFAULT_TRANSFORMER_THREADS;
+		}
+	}
+
+	private void initAssemblerThreads(ConfigTO configTO) {
+		if (configTO.getAssemblerThreads() != null && configTO.getAssemblerThreads() > 0) {
+			assemblerThreads = configTO.getAssemblerThreads();
+		}
+		else {
+			assemblerThreads = DEFAULT_ASSEMBLER_THREADS;
+		}
+	}
+
 	private void initIgnoredFile() throws ConfigException {
 		File ignoreFile = new File(localDir, FILE_IGNORE);
 		ignoredFiles = new IgnoredFiles(ignoreFile);
@@ -159,11 +220,29 @@ public class Config {
 		repoId = repoTO.getRepoId();
 	}
 
-	private void initChunker(RepoTO repoTO) throws Exception {
-		// TODO [feature request] make chunking options configurable, something like described in #29
-		// See: https://github.com/syncany/syncany/issues/29#issuecomment-43425647
+	private void initChunker(RepoTO repoTO) throws ConfigException {
+		ChunkerTO chunkerTO = repoTO.getChunkerTO();
+
+		// Repositories created before the chunker was configurable record a 'fixed' chunker
+		// (with varying sizes), but have always been chunked with 512 KB fixed-size chunks.
+		// Honoring the recorded size would break deduplication against existing data, and
+		// make this client produce different chunks than older clients of the same repo.
 
-		chunker = new FixedChunker(512 * 1024, "SHA1");
+		if (chunkerTO == null || FixedChunker.TYPE.equals(chunkerTO.getType())) {
+			chunker = new FixedChunker(LEGACY_FIXED_CHUNK_SIZE, FixedChunker.DEFAULT_DIGEST_ALG);
+		}
+		else {
+			// Never fall back to a different chunker: All clients of a repository
+			// must produce identical chunks, so unknown chunkers are an error
+
+			chunker = Chunker.getInstance(chunkerTO.getType());
+
+			if (chunker == null) {
+				throw new ConfigException("Unknown chunker type '" + chunkerTO.getType() + "'; refusing to mix chunkers within one repository.");
+			}
+
+			chunker.init(chunkerTO.getSettings());
+		}
 	}
 
 	private void initMultiChunker(RepoTO repoTO) throws ConfigException {
@@ -289,6 +368,60 @@ public class Config {
 		return cache;
 	}
 
+	/**
+	 * Returns the maximum number of files that are transferred to/from the
+	 * remote storage in parallel. This applies to transaction uploads as well as
+	 * to multichunk downloads. Values greater than one require a thread-safe
+	 * {@link TransferPlugin}.
+	 */
+	public int getTransferThreads() {
+		return transferThreads;
+	}
+
+	public void setTransferThreads(int transferThreads) {
+		this.transferThreads = transferThreads;
+	}
+
+	/**
+	 * Returns the number of threads used to chunk and hash files while
+	 * indexing. With more than one thread, several files are chunked concurrently;
+	 * the resulting database version is the same as with a single thread.
+	 */
+	public int getIndexerThreads() {
+		return indexerThreads;
+	}
+
+	public void setIndexerThreads(int indexerThreads) {
+		this.indexerThreads = indexerThreads;
+	}
+
+	/**
+	 * Returns the number of multichunks that are transformed (compressed and
+	 * encrypted) and written in the background while indexing, i.e. while the next
+	 * multichunk is filled. This also bounds the number of multichunks held in memory.
+	 * If zero, multichunks are transformed on the indexing thread.
+	 */
+	public int getTransformerThreads() {
+		return transformerThreads;
+	}
+
+	public void setTransformerThreads(int transformerThreads) {
+		this.transformerThreads = transformerThreads;
+	}
+
+	/**
+	 * Returns the number of threads used to reconstruct files from their chunks
+	 * when remote changes are applied. With more than one thread, files are assembled
+	 * ahead of time; the file system actions themselves are still applied in order.
+	 */
+	public int getAssemblerThreads() {
+		return assemblerThreads;
+	}
+
+	public void setAssemblerThreads(int assemblerThreads) {
+		this.assemblerThreads = assemblerThreads;
+	}
+
 	public IgnoredFiles getIgnoredFiles() {
 		return ignoredFiles;
 	}
@@ -329,6 +462,10 @@ public class Config {
 		return new File(databaseDir, FILE_DATABASE);
 	}
 
+	public File getChunkIndexFile() {
+		return new File(databaseDir, FILE_CHUNK_INDEX);
+	}
+
 	public File getPortFile() {
 		return new File(stateDir, FILE_PORT);
 	}
@@ -63,6 +63,18 @@ public class ConfigTO {
 	@Element(name = "cacheKeepBytes", required = false)
 	private Long cacheKeepBytes;
 
+	@Element(name = "transferThreads", required = false)
+	private Integer transferThreads;
+
+	@Element(name = "indexerThreads", required = false)
+	private Integer indexerThreads;
+
+	@Element(name = "transformerThreads", required = false)
+	private Integer transformerThreads;
+
+	@Element(name = "assemblerThreads", required = false)
+	private Integer assemblerThreads;
+
 	public static ConfigTO load(File file) throws ConfigException {
 		try {
 			Registry registry = new Registry();
@@ -144,4 +156,36 @@ public class ConfigTO {
 		this.cacheKeepBytes = cacheKeepBytes;
 	}
 
+	public Integer getTransferThreads() {
+		return transferThreads;
+	}
+
+	public void setTransferThreads(Integer transferThreads) {
+		this.transferThreads = transferThreads;
+	}
+
+	public Integer getIndexerThreads() {
+		return indexerThreads;
+	}
+
+	public void setIndexerThreads(Integer indexerThreads) {
+		this.indexerThreads = indexerThreads;
+	}
+
+	public Integer getTransformerThreads() {
+		return transformerThreads;
+	}
+
+	public void setTransformerThreads(Integer transformerThreads) {
+		this.transformerThreads = transformerThreads;
+	}
+
+	public Integer getAssemblerThreads() {
+		return assemblerThreads;
+	}
+
+	public void setAssemblerThreads(Integer assemblerThreads) {
+		this.assemblerThreads = assemblerThreads;
+	}
+
 }
@@ -25,8 +25,12 @@ import java.util.Map;
 
 import org.syncany.chunk.Chunker;
 import org.syncany.chunk.CipherTransformer;
+import org.syncany.chunk.CompressingTransformer;
+import org.syncany.chunk.FastCdcChunker;
 import org.syncany.chunk.FixedChunker;
 import org.syncany.chunk.GzipTransformer;
+import org.syncany.chunk.IndexedMultiChunker;
+import org.syncany.chunk.Lz4Transformer;
 import org.syncany.chunk.MultiChunker;
 import org.syncany.chunk.ZipMultiChunker;
 import org.syncany.config.to.RepoTO.ChunkerTO;
@@ -44,25 +48,90 @@ import org.syncany.util.StringUtil.StringJoinListener;
  * @author Pim Otte <otte.pim@gmail.com>
  */
 public class DefaultRepoTOFactory implements RepoTOFactory {
-	private ChunkerTO chunkerTO;
-	private MultiChunkerTO multiChunkerTO;
-	private List<TransformerTO> transformersTO;
-
-	public DefaultRepoTOFactory(boolean gzipEnabled, List<CipherSpec> cipherSpecs) {
-		chunkerTO = getDefaultChunkerTO();
-		multiChunkerTO = getDefaultMultiChunkerTO();
-		transformersTO = getTransformersTO(gzipEnabled, cipherSpecs);
+	private static final int FAST_CDC_AVERAGE_CHUNK_SIZE = 16 * 1024;
+
+	private boolean compressionEnabled;
+	private List<CipherSpec> cipherSpecs;
+
+	private String compressionType;
+	private String chunkerType;
+	private boolean bypassIncompressible;
+	private boolean indexedMultiChunks;
+
+	public DefaultRepoTOFactory(boolean compressionEnabled, List<CipherSpec> cipherSpecs) {
+		this.compressionEnabled = compressionEnabled;
+		this.cipherSpecs = cipherSpecs;
+
+		this.compressionType = GzipTransformer.TYPE;
+		this.chunkerType = FixedChunker.TYPE;
+		this.bypassIncompressible = false;
+		this.indexedMultiChunks = false;
+	}
+
+	/**
+	 * Sets the compression transformer of the new repository (if compression is enabled),
+	 * either {@link GzipTransformer#TYPE} (default) or {@link Lz4Transformer#TYPE}. Clients
+	 * that do not know about the LZ4 transformer cannot connect to an LZ4 repository.
+	 */
+	public void setCompressionType(String compressionType) {
+		if (!GzipTransformer.TYPE.equals(compressionType) && !Lz4Transformer.TYPE.equals(compressionType)) {
+			throw new IllegalArgumentException("Invalid compression type: " + compressionType + " (valid: " + GzipTransformer.TYPE + ", " + Lz4Transformer.TYPE + ")");
+		}
+
+		this.compressionType = compressionType;
+	}
+
+	/**
+	 * Sets the chunker of the new repository, either {@link FixedChunker#TYPE} (default)
+	 * or {@link FastCdcChunker#TYPE}. Clients that do not know about the FastCDC chunker
+	 * fall back to the fixed chunker, so they must not be connected to a FastCDC repository.
+	 */
+	public void setChunkerType(String chunkerType) {
+		if (!FixedChunker.TYPE.equals(chunkerType) && !FastCdcChunker.TYPE.equals(chunkerType)) {
+			throw new IllegalArgumentException("Invalid chunker type: " + chunkerType + " (valid: " + FixedChunker.TYPE + ", " + FastCdcChunker.TYPE + ")");
+		}
+
+		this.chunkerType = chunkerType;
+	}
+
+	/**
+	 * Makes the compression transformer (if enabled) skip the compression for incompressible data.
+	 * Repositories created with this option cannot be used by clients that do not know it.
+	 */
+	public void setBypassIncompressible(boolean bypassIncompressible) {
+		this.bypassIncompressible = bypassIncompressible;
+	}
+
+	/**
+	 * Uses the {@link IndexedMultiChunker} instead of the default {@link ZipMultiChunker}.
+	 * Repositories created with this option cannot be used by clients that do not know it.
+	 */
+	public void setIndexedMultiChunks(boolean indexedMultiChunks) {
+		this.indexedMultiChunks = indexedMultiChunks;
 	}
 
 	public RepoTO createRepoTO() {
+		ChunkerTO chunkerTO = (FastCdcChunker.TYPE.equals(chunkerType)) ? getFastCdcChunkerTO() : getDefaultChunkerTO();
+		MultiChunkerTO multiChunkerTO = (indexedMultiChunks) ? getIndexedMultiChunkerTO() : getDefaultMultiChunkerTO();
+		List<TransformerTO> transformersTO = getTransformersTO((compressionEnabled) ? compressionType : null, bypassIncompressible, cipherSpecs);
+
 		return createRepoTO(chunkerTO, multiChunkerTO, transformersTO);
 	}
 
 	public List<TransformerTO> getTransformersTO(boolean gzipEnabled, List<CipherSpec> cipherSpecs) {
+		return getTransformersTO((gzipEnabled) ? GzipTransformer.TYPE : null, false, cipherSpecs);
+	}
+
+	/**
+	 * Creates the transformer list of a repository: the compression transformer of the given
+	 * type (or none if <tt>compressionType</tt> is <tt>null</tt>), followed by the cipher
+	 * transformer (if any cipher specs are given).
+	 */
+	public List<TransformerTO> getTransformersTO(String compressionType, boolean bypassIncompressible, List<CipherSpec> cipherSpecs) {
 		List<TransformerTO> transformersTO = new ArrayList<TransformerTO>();
 
-		if (gzipEnabled) {
-			transformersTO.add(getGzipTransformerTO());
+		if (compressionType != null) {
+			transformersTO.add(getCompressionTransformerTO(compressionType, bypassIncompressible));
 		}
 
 		if (cipherSpecs.size() > 0) {
@@ -101,6 +170,16 @@ public class DefaultRepoTOFactory implements RepoTOFactory {
 		return chunkerTO;
 	}
 
+	protected ChunkerTO getFastCdcChunkerTO() {
+		ChunkerTO chunkerTO = new ChunkerTO();
+
+		chunkerTO.setType(FastCdcChunker.TYPE);
+		chunkerTO.setSettings(new HashMap<String, String>());
+		chunkerTO.getSettings().put(Chunker.PROPERTY_SIZE, Integer.toString(FAST_CDC_AVERAGE_CHUNK_SIZE));
+
+		return chunkerTO;
+	}
+
 	protected MultiChunkerTO getDefaultMultiChunkerTO() {
 		MultiChunkerTO multichunkerTO = new MultiChunkerTO();
 
@@ -111,11 +190,26 @@ public class DefaultRepoTOFactory implements RepoTOFactory {
 		return multichunkerTO;
 	}
 
-	protected TransformerTO getGzipTransformerTO() {
-		TransformerTO gzipTransformerTO = new TransformerTO();
-		gzipTransformerTO.setType(GzipTransformer.TYPE);
+	protected MultiChunkerTO getIndexedMultiChunkerTO() {
+		MultiChunkerTO multichunkerTO = new MultiChunkerTO();
+
+		multichunkerTO.setType(IndexedMultiChunker.TYPE);
+		multichunkerTO.setSettings(new HashMap<String, String>());
+		multichunkerTO.getSettings().put(MultiChunker.PROPERTY_SIZE, "4096");
+
+		return multichunkerTO;
+	}
+
+	protected TransformerTO getCompressionTransformerTO(String compressionType, boolean bypassIncompressible) {
+		TransformerTO compressionTransformerTO = new TransformerTO();
+		compressionTransformerTO.setType(compressionType);
+
+		if (bypassIncompressible) {
+			compressionTransformerTO.setSettings(new HashMap<String, String>());
+			compressionTransformerTO.getSettings().put(CompressingTransformer.PROPERTY_BYPASS_INCOMPRESSIBLE, "true");
+		}
 
-		return gzipTransformerTO;
+		return compressionTransformerTO;
 	}
 
 	protected TransformerTO getCipherTransformerTO(List<CipherSpec> cipherSpec) {
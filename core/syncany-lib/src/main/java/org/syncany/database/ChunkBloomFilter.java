@@ -0,0 +1,92 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2015 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.database;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Blocked Bloom filter over chunk checksums, used by the {@link ChunkIndex} to answer
+ * lookups for unknown chunks without touching the (much larger) hash table.
+ *
+ * <p>All bits of a checksum are set in the same {@link #BLOCK_SIZE 64 byte} block, so that
+ * a lookup touches a single cache line (or page) only. Since checksums are uniformly
+ * distributed, the block and bit positions are taken directly from the checksum bytes
+ * (bytes 4-15; bytes 0-3 are used by the index for the slot position).
+ *
+ * <p>The filter does not support removals. The bits are stored in the given buffer,
+ * which is typically a memory-mapped region of the index file.
+ */
+class ChunkBloomFilter {
+	public static final int BLOCK_SIZE = 64;
+	public static final int HASH_FUNCTIONS = 7;
+
+	private static final int BLOCK_BITS_MASK = BLOCK_SIZE * 8 - 1;
+
+	private ByteBuffer bits;
+	private int blockMask;
+
+	public ChunkBloomFilter(ByteBuffer bits) {
+		if (Integer.bitCount(bits.capacity()) != 1 || bits.capacity() < BLOCK_SIZE) {
+			throw new IllegalArgumentException("Filter size must be a power of two, and at least " + BLOCK_SIZE + " bytes.");
+		}
+
+		this.bits = bits;
+		this.blockMask = bits.capacity() / BLOCK_SIZE - 1;
+	}
+
+	public void add(byte[] key) {
+		int blockOffset = getBlockOffset(key);
+		int hash1 = readInt(key, 8);
+		int hash2 = readInt(key, 12) | 1;
+
+		for (int i = 0; i < HASH_FUNCTIONS; i++) {
+			int bit = (hash1 + i * hash2) & BLOCK_BITS_MASK;
+			int position = blockOffset + (bit >>> 3);
+
+			bits.put(position, (byte) (bits.get(position) | (1 << (bit & 7))));
+		}
+	}
+
+	/**
+	 * Returns <tt>false</tt> if the key has definitely not been added to the filter,
+	 * and <tt>true</tt> if it might have been added.
+	 */
+	public boolean mightContain(byte[] key) {
+		int blockOffset = getBlockOffset(key);
+		int hash1 = readInt(key, 8);
+		int hash2 = readInt(key, 12) | 1;
+
+		for (int i = 0; i < HASH_FUNCTIONS; i++) {
+			int bit = (hash1 + i * hash2) & BLOCK_BITS_MASK;
+
+			if ((bits.get(blockOffset + (bit >>> 3)) & (1 << (bit & 7))) == 0) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	private int getBlockOffset(byte[] key) {
+		return (readInt(key, 4) & blockMask) * BLOCK_SIZE;
+	}
+
+	private static int readInt(byte[] key, int offset) {
+		return ((key[offset] & 0xff) << 24) | ((key[offset + 1] & 0xff) << 16) | ((key[offset + 2] & 0xff) << 8) | (key[offset + 3] & 0xff);
+	}
+}
@@ -0,0 +1,554 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2015 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.database;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.syncany.database.ChunkEntry.ChunkChecksum;
+import org.syncany.util.FileUtil;
+
+/**
+ * The chunk index maps chunk checksums to chunk sizes, i.e. it answers the question
+ * whether a chunk is already known to the local database. It is used by the
+ * {@link org.syncany.database.dao.ChunkSqlDao ChunkSqlDao} for deduplication lookups,
+ * which happen for every single chunk during indexing.
+ *
+ * <p>The index is an open-addressing hash table (with linear probing) of fixed-width slots,
+ * each holding a checksum and the chunk size. The checksum length depends on the digest of
+ * the repository's chunker (20 bytes for SHA-1), and is recorded in the index file. The table lives in a memory-mapped
+ * file next to the local database. It hence does not occupy any heap, lookups do not
+ * allocate any objects, and it does not have to be loaded from the database on startup.
+ *
+ * <p>Lookups of unknown chunks, which are the majority when indexing new files, are answered
+ * by a {@link ChunkBloomFilter Bloom filter} stored in front of the hash table. It is about 24
+ * times smaller than the table, and hence much more likely to be in memory. The filter grows
+ * with the table; its false positive rate is logged whenever the index is committed (see
+ * {@link #getFalsePositiveRate()}).
+ *
+ * <p>Entries can only be added, not removed. If chunks are removed from the database, the
+ * index must be {@link #invalidate() invalidated} and rebuilt. To detect crashes between
+ * index and database updates, the index is marked dirty on the first change, and only
+ * marked clean again once the changes are {@link #commit() committed}.
+ *
+ * <p>There is at most one instance per index file (see {@link #getInstance(File)}), so
+ * that all database connections of an application share the same view of the index.
+ */
+public class ChunkIndex {
+	private static final Logger logger = Logger.getLogger(ChunkIndex.class.getSimpleName());
+
+	// Checksum length of the default digest (SHA-1)
+	public static final int DEFAULT_KEY_LENGTH = 20;
+
+	// The Bloom filter and the hash table read the first 16 bytes of each checksum
+	public static final int MIN_KEY_LENGTH = 16;
+	public static final int MAX_KEY_LENGTH = 64;
+
+	private static final int MAGIC = 0x53794349; // "SyCI"
+	private static final int VERSION = 3;
+
+	private static final int STATE_CLEAN = 1;
+	private static final int STATE_DIRTY = 2;
+	private static final int STATE_INVALID = 3;
+
+	// Header: magic, version, state, capacity, entries, key length (4 bytes each), rest reserved
+	private static final int HEADER_SIZE = 64;
+	private static final int HEADER_OFFSET_STATE = 8;
+	private static final int HEADER_OFFSET_CAPACITY = 12;
+	private static final int HEADER_OFFSET_ENTRIES = 16;
+	private static final int HEADER_OFFSET_KEY_LENGTH = 20;
+
+	// Slot: checksum, followed by (size + 1); zero marks an empty slot
+	private static final int SLOT_VALUE_SIZE = 4;
+
+	// File: header, Bloom filter (one byte per slot), slots
+	private static final int FILTER_BYTES_PER_SLOT = 1;
+
+	// Slots are mapped in segments, because a single mapping cannot exceed 2 GB
+	private static final int SEGMENT_SLOTS_BITS = 22;
+	private static final int SEGMENT_SLOTS = 1 << SEGMENT_SLOTS_BITS;
+
+	private static final int MIN_CAPACITY = 1024;
+	private static final int MAX_CAPACITY = 1 << 30;
+	private static final double MAX_LOAD_FACTOR = 0.7;
+
+	private static final Map<File, ChunkIndex> instances = new HashMap<File, ChunkIndex>();
+
+	private File file;
+	private MappedByteBuffer header;
+	private MappedByteBuffer filter;
+	private MappedByteBuffer[] segments;
+	private ChunkBloomFilter bloomFilter;
+	private int keyLength;
+	private int slotSize;
+	private int capacity;
+	private int entries;
+	private int state;
+
+	private long lookups;
+	private long filteredLookups;
+	private long falsePositives;
+
+	private ChunkIndex(File file) {
+		this.file = file;
+		this.header = null;
+		this.filter = null;
+		this.segments = null;
+		this.bloomFilter = null;
+	}
+
+	/**
+	 * Returns the chunk index instance for the given file. The returned index is
+	 * not {@link #isLoaded() loaded}, unless it has been loaded by a previous caller.
+	 */
+	public static synchronized ChunkIndex getInstance(File file) {
+		File absoluteFile = file.getAbsoluteFile();
+		ChunkIndex chunkIndex = instances.get(absoluteFile);
+
+		if (chunkIndex == null) {
+			chunkIndex = new ChunkIndex(absoluteFile);
+			instances.put(absoluteFile, chunkIndex);
+		}
+		else if (!absoluteFile.exists()) {
+			// Index file has been deleted, e.g. together with the database
+			chunkIndex.close();
+		}
+
+		return chunkIndex;
+	}
+
+	/**
+	 * Returns whether checksums of the given length can be stored in a chunk index,
+	 * i.e. whether it is between {@link #MIN_KEY_LENGTH} and {@link #MAX_KEY_LENGTH}.
+	 */
+	public static boolean isIndexable(int keyLength) {
+		return keyLength >= MIN_KEY_LENGTH && keyLength <= MAX_KEY_LENGTH;
+	}
+
+	/**
+	 * Returns whether the given checksum can be stored in this index, i.e. whether
+	 * its length matches the {@link #getKeyLength() key length} of the index.
+	 */
+	public synchronized boolean isIndexable(ChunkChecksum checksum) {
+		return header != null && checksum.identifier.length == keyLength;
+	}
+
+	/**
+	 * Maps the existing index file into memory. If the file does not exist, is corrupt,
+	 * or has not been committed properly, the index remains unloaded.
+	 *
+	 * @return Returns <tt>true</tt> if the index was loaded, <tt>false</tt> otherwise
+	 */
+	public synchronized boolean load() throws IOException {
+		close();
+
+		if (!file.exists() || file.length() < HEADER_SIZE) {
+			return false;
+		}
+
+		try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+			FileChannel fileChannel = randomAccessFile.getChannel();
+			MappedByteBuffer fileHeader = fileChannel.map(MapMode.READ_WRITE, 0, HEADER_SIZE);
+
+			int fileCapacity = fileHeader.getInt(HEADER_OFFSET_CAPACITY);
+			int fileKeyLength = fileHeader.getInt(HEADER_OFFSET_KEY_LENGTH);
+			boolean validHeader = fileHeader.getInt(0) == MAGIC && fileHeader.getInt(4) == VERSION
+					&& fileHeader.getInt(HEADER_OFFSET_STATE) == STATE_CLEAN && Integer.bitCount(fileCapacity) == 1
+					&& fileCapacity >= MIN_CAPACITY && isIndexable(fileKeyLength) && file.length() == getFileLength(fileCapacity, fileKeyLength);
+
+			if (!validHeader) {
+				logger.log(Level.INFO, "Chunk index " + file + " is invalid or has not been committed properly. Ignoring it.");
+				return false;
+			}
+
+			map(fileChannel, fileHeader, fileCapacity, fileKeyLength);
+
+			entries = header.getInt(HEADER_OFFSET_ENTRIES);
+			state = STATE_CLEAN;
+
+			return true;
+		}
+	}
+
+	/**
+	 * Creates a new, empty index file (overwriting any existing file) for checksums of
+	 * {@link #DEFAULT_KEY_LENGTH} bytes, sized to hold the given number of entries without growing.
+	 */
+	public synchronized void clear(int expectedEntries) throws IOException {
+		clear(expectedEntries, DEFAULT_KEY_LENGTH);
+	}
+
+	/**
+	 * Creates a new, empty index file (overwriting any existing file) for checksums of
+	 * the given length, sized to hold the given number of entries without growing.
+	 */
+	public synchronized void clear(int expectedEntries, int newKeyLength) throws IOException {
+		if (!isIndexable(newKeyLength)) {
+			throw new IllegalArgumentException("Checksums with a length of " + newKeyLength + " bytes cannot be indexed.");
+		}
+
+		close();
+		create(file, getCapacity(expectedEntries), newKeyLength);
+	}
+
+	/**
+	 * Returns whether the index has been {@link #load() loaded} or {@link #clear(int) created},
+	 * and has not been {@link #invalidate() invalidated} since.
+	 */
+	public synchronized boolean isLoaded() {
+		return header != null;
+	}
+
+	/**
+	 * Returns the length of the checksums in the index (in bytes).
+	 */
+	public synchronized int getKeyLength() {
+		return keyLength;
+	}
+
+	/**
+	 * Returns the number of entries in the index.
+	 */
+	public synchronized int size() {
+		return entries;
+	}
+
+	/**
+	 * Looks up the size of the chunk with the given checksum, without allocating
+	 * any objects.
+	 *
+	 * @return Returns the chunk size, or <tt>-1</tt> if the chunk is not in the index
+	 */
+	public synchronized int getSize(ChunkChecksum checksum) {
+		byte[] key = checksum.identifier;
+
+		if (header == null) {
+			throw new IllegalStateException("Chunk index is not loaded.");
+		}
+		else if (key.length != keyLength) {
+			return -1;
+		}
+
+		lookups++;
+
+		if (!bloomFilter.mightContain(key)) {
+			filteredLookups++;
+			return -1;
+		}
+
+		long slot = findSlot(key);
+
+		if (slot < 0) {
+			falsePositives++;
+			return -1;
+		}
+
+		return getSlotValue(slot) - 1;
+	}
+
+	/**
+	 * Returns the observed false positive rate of the Bloom filter since the index was loaded
+	 * or last committed, i.e. the fraction of lookups for unknown chunks that were not answered
+	 * by the filter, but required a lookup in the hash table.
+	 */
+	public synchronized double getFalsePositiveRate() {
+		long negativeLookups = filteredLookups + falsePositives;
+		return (negativeLookups > 0) ? (double) falsePositives / negativeLookups : 0;
+	}
+
+	/**
+	 * Adds the chunk with the given checksum and size to the index, if it is not
+	 * yet in the index. Grows the index file if necessary.
+	 *
+	 * @return Returns <tt>true</tt> if the chunk was added, <tt>false</tt> if it was already in the index
+	 */
+	public synchronized boolean put(ChunkChecksum checksum, int size) throws IOException {
+		byte[] key = checksum.identifier;
+
+		if (header == null) {
+			throw new IllegalStateException("Chunk index is not loaded.");
+		}
+		else if (key.length != keyLength) {
+			throw new IllegalArgumentException("Only checksums with a length of " + keyLength + " bytes can be indexed.");
+		}
+		else if (bloomFilter.mightContain(key) && findSlot(key) >= 0) {
+			return false;
+		}
+
+		if (entries + 1 > capacity * MAX_LOAD_FACTOR) {
+			grow();
+		}
+
+		markDirty();
+		insert(key, size + 1);
+
+		return true;
+	}
+
+	/**
+	 * Writes all changes to disk and marks the index clean. This method should be
+	 * called whenever the corresponding database transaction is committed.
+	 */
+	public synchronized void commit() {
+		if (header != null && state != STATE_CLEAN) {
+			filter.force();
+			forceSegments();
+
+			state = STATE_CLEAN;
+			header.putInt(HEADER_OFFSET_STATE, state);
+			header.force();
+		}
+
+		if (lookups > 0) {
+			logger.log(Level.INFO, String.format("Chunk index: %d entries, %d lookups, %d answered by Bloom filter, false positive rate %.4f", entries,
+					lookups, filteredLookups, getFalsePositiveRate()));
+
+			lookups = 0;
+			filteredLookups = 0;
+			falsePositives = 0;
+		}
+	}
+
+	/**
+	 * Marks the index file invalid and unloads the index. The index must be
+	 * rebuilt before it can be used again.
+	 */
+	public synchronized void invalidate() {
+		if (header != null) {
+			header.putInt(HEADER_OFFSET_STATE, STATE_INVALID);
+			header.force();
+		}
+
+		close();
+	}
+
+	/**
+	 * Unloads the index, without writing any changes to disk explicitly.
+	 */
+	public synchronized void close() {
+		if (header != null) {
+			unmap(header);
+			unmap(filter);
+
+			for (MappedByteBuffer segment : segments) {
+				unmap(segment);
+			}
+
+			header = null;
+			filter = null;
+			segments = null;
+			bloomFilter = null;
+		}
+	}
+
+	private void create(File newFile, int newCapacity, int newKeyLength) throws IOException {
+		try (RandomAccessFile randomAccessFile = new RandomAccessFile(newFile, "rw")) {
+			randomAccessFile.setLength(0);
+			randomAccessFile.setLength(getFileLength(newCapacity, newKeyLength));
+
+			FileChannel fileChannel = randomAccessFile.getChannel();
+			map(fileChannel, fileChannel.map(MapMode.READ_WRITE, 0, HEADER_SIZE), newCapacity, newKeyLength);
+
+			entries = 0;
+			state = STATE_DIRTY;
+
+			header.putInt(0, MAGIC);
+			header.putInt(4, VERSION);
+			header.putInt(HEADER_OFFSET_STATE, state);
+			header.putInt(HEADER_OFFSET_CAPACITY, capacity);
+			header.putInt(HEADER_OFFSET_ENTRIES, entries);
+			header.putInt(HEADER_OFFSET_KEY_LENGTH, keyLength);
+		}
+	}
+
+	private void grow() throws IOException {
+		if (capacity >= MAX_CAPACITY) {
+			throw new IOException("Chunk index cannot grow beyond " + MAX_CAPACITY + " slots.");
+		}
+
+		logger.log(Level.INFO, "Growing chunk index " + file + " from " + capacity + " to " + (capacity * 2) + " slots ...");
+
+		File tempFile = new File(file.getParentFile(), file.getName() + ".tmp");
+		ChunkIndex newChunkIndex = new ChunkIndex(tempFile);
+
+		newChunkIndex.create(tempFile, capacity * 2, keyLength);
+
+		byte[] key = new byte[keyLength];
+
+		for (long slot = 0; slot < capacity; slot++) {
+			int value = getSlotValue(slot);
+
+			if (value != 0) {
+				MappedByteBuffer segment = segments[(int) (slot >>> SEGMENT_SLOTS_BITS)];
+				int position = getSlotPosition(slot);
+
+				for (int i = 0; i < keyLength; i++) {
+					key[i] = segment.get(position + i);
+				}
+
+				newChunkIndex.insert(key, value);
+			}
+		}
+
+		newChunkIndex.filter.force();
+		newChunkIndex.forceSegments();
+		newChunkIndex.close();
+		close();
+
+		Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+		try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+			FileChannel fileChannel = randomAccessFile.getChannel();
+			map(fileChannel, fileChannel.map(MapMode.READ_WRITE, 0, HEADER_SIZE), newChunkIndex.capacity, keyLength);
+
+			state = STATE_DIRTY;
+		}
+	}
+
+	private void insert(byte[] key, int value) {
+		long slot = getHomeSlot(key);
+
+		while (getSlotValue(slot) != 0) {
+			slot = (slot + 1) & (capacity - 1);
+		}
+
+		MappedByteBuffer segment = segments[(int) (slot >>> SEGMENT_SLOTS_BITS)];
+		int position = getSlotPosition(slot);
+
+		for (int i = 0; i < keyLength; i++) {
+			segment.put(position + i, key[i]);
+		}
+
+		segment.putInt(position + keyLength, value);
+		bloomFilter.add(key);
+
+		entries++;
+		header.putInt(HEADER_OFFSET_ENTRIES, entries);
+	}
+
+	private long findSlot(byte[] key) {
+		long slot = getHomeSlot(key);
+
+		while (getSlotValue(slot) != 0) {
+			if (slotKeyEquals(slot, key)) {
+				return slot;
+			}
+
+			slot = (slot + 1) & (capacity - 1);
+		}
+
+		return -1;
+	}
+
+	private long getHomeSlot(byte[] key) {
+		// Checksums are uniformly distributed, so their first bytes are a perfect hash
+		int hash = ((key[0] & 0xff) << 24) | ((key[1] & 0xff) << 16) | ((key[2] & 0xff) << 8) | (key[3] & 0xff);
+		return hash & (capacity - 1);
+	}
+
+	private boolean slotKeyEquals(long slot, byte[] key) {
+		MappedByteBuffer segment = segments[(int) (slot >>> SEGMENT_SLOTS_BITS)];
+		int position = getSlotPosition(slot);
+
+		for (int i = 0; i < keyLength; i++) {
+			if (segment.get(position + i) != key[i]) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	private int getSlotValue(long slot) {
+		return segments[(int) (slot >>> SEGMENT_SLOTS_BITS)].getInt(getSlotPosition(slot) + keyLength);
+	}
+
+	private int getSlotPosition(long slot) {
+		return (int) (slot & (SEGMENT_SLOTS - 1)) * slotSize;
+	}
+
+	private void markDirty() {
+		if (state != STATE_DIRTY) {
+			state = STATE_DIRTY;
+
+			header.putInt(HEADER_OFFSET_STATE, state);
+			header.force();
+		}
+	}
+
+	private void forceSegments() {
+		for (MappedByteBuffer segment : segments) {
+			segment.force();
+		}
+	}
+
+	private void map(FileChannel fileChannel, MappedByteBuffer fileHeader, int fileCapacity, int fileKeyLength) throws IOException {
+		keyLength = fileKeyLength;
+		slotSize = fileKeyLength + SLOT_VALUE_SIZE;
+
+		header = fileHeader;
+		filter = fileChannel.map(MapMode.READ_WRITE, HEADER_SIZE, (long) fileCapacity * FILTER_BYTES_PER_SLOT);
+		segments = mapSegments(fileChannel, fileCapacity, slotSize);
+		bloomFilter = new ChunkBloomFilter(filter);
+		capacity = fileCapacity;
+	}
+
+	private static MappedByteBuffer[] mapSegments(FileChannel fileChannel, int capacity, int slotSize) throws IOException {
+		int segmentCount = (capacity + SEGMENT_SLOTS - 1) / SEGMENT_SLOTS;
+		MappedByteBuffer[] segments = new MappedByteBuffer[segmentCount];
+
+		for (int i = 0; i < segmentCount; i++) {
+			long segmentOffset = HEADER_SIZE + (long) capacity * FILTER_BYTES_PER_SLOT + (long) i * SEGMENT_SLOTS * slotSize;
+			int segmentSlots = Math.min(SEGMENT_SLOTS, capacity - i * SEGMENT_SLOTS);
+
+			segments[i] = fileChannel.map(MapMode.READ_WRITE, segmentOffset, (long) segmentSlots * slotSize);
+		}
+
+		return segments;
+	}
+
+	private static long getFileLength(int capacity, int keyLength) {
+		return HEADER_SIZE + (long) capacity * (FILTER_BYTES_PER_SLOT + keyLength + SLOT_VALUE_SIZE);
+	}
+
+	private static int getCapacity(int expectedEntries) {
+		int capacity = MIN_CAPACITY;
+
+		while (capacity < MAX_CAPACITY && expectedEntries >= capacity * MAX_LOAD_FACTOR) {
+			capacity *= 2;
+		}
+
+		return capacity;
+	}
+
+	private static void unmap(MappedByteBuffer buffer) {
+		if (buffer != null && !FileUtil.unmap(buffer)) {
+			logger.log(Level.FINE, "Cannot unmap buffer; leaving it to the garbage collector.");
+		}
+	}
+}
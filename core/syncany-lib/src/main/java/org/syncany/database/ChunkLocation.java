@@ -0,0 +1,56 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2015 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.database;
+
+/**
+ * The chunk location identifies the position of a chunk within a local file, i.e.
+ * the path of the file (relative to the local folder), and the offset and size of the
+ * chunk within that file.
+ *
+ * <p>Chunk locations are derived from the local database, i.e. they describe where a
+ * chunk was when the file was last indexed. The file might have changed since then, so
+ * the chunk's content must be verified before it is used.
+ */
+public class ChunkLocation {
+	private String path;
+	private long offset;
+	private int size;
+
+	public ChunkLocation(String path, long offset, int size) {
+		this.path = path;
+		this.offset = offset;
+		this.size = size;
+	}
+
+	public String getPath() {
+		return path;
+	}
+
+	public long getOffset() {
+		return offset;
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	@Override
+	public String toString() {
+		return path + "@" + offset + "+" + size;
+	}
+}
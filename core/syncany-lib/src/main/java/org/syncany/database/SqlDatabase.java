@@ -17,6 +17,8 @@
  */
 package org.syncany.database;
 
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.Collection;
@@ -74,7 +76,7 @@ public class SqlDatabase {
 	public SqlDatabase(Config config) {
 		this.connection = config.createDatabaseConnection();
 		this.applicationDao = new ApplicationSqlDao(connection);
-		this.chunkDao = new ChunkSqlDao(connection);
+		this.chunkDao = new ChunkSqlDao(connection, config.getChunkIndexFile(), getChecksumLength(config));
 		this.fileContentDao = new FileContentSqlDao(connection);
 		this.fileVersionDao = new FileVersionSqlDao(connection);
 		this.fileHistoryDao = new FileHistorySqlDao(connection, fileVersionDao);
@@ -90,10 +92,12 @@ public class SqlDatabase {
 
 	public void commit() throws SQLException {
 		connection.commit();
+		chunkDao.commitChunkIndex();
 	}
 
 	public void rollback() throws SQLException {
 		connection.rollback();
+		chunkDao.rollbackChunkIndex();
 	}
 
 	public void removeUnreferencedDatabaseEntities() {
@@ -146,6 +150,7 @@ public class SqlDatabase {
 
 	public void deleteAll() {
 		applicationDao.deleteAll();
+		chunkDao.invalidateChunkIndex();
 	}
 
 	public void shutdown() {
@@ -336,8 +341,21 @@ public class SqlDatabase {
 		return fileContentDao.getFileContent(fileChecksum, includeChunkChecksums);
 	}
 
+	public Map<ChunkChecksum, List<ChunkLocation>> getChunkLocations(Collection<ChunkChecksum> chunkChecksums) {
+		return fileContentDao.getChunkLocations(chunkChecksums);
+	}
+
 	private void removeUnreferencedFileContents() throws SQLException {
 		fileContentDao.removeUnreferencedFileContents();
 	}
 
+	private static int getChecksumLength(Config config) {
+		try {
+			return MessageDigest.getInstance(config.getChunker().getChecksumAlgorithm()).getDigestLength();
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException("Unknown chunk checksum algorithm: " + config.getChunker().getChecksumAlgorithm(), e);
+		}
+	}
+
 }
@@ -17,6 +17,8 @@
  */
 package org.syncany.database.dao;
 
+import java.io.File;
+import java.io.IOException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
@@ -24,9 +26,12 @@ import java.sql.SQLException;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import org.syncany.database.ChunkEntry;
 import org.syncany.database.ChunkEntry.ChunkChecksum;
+import org.syncany.database.ChunkIndex;
 import org.syncany.database.VectorClock;
 
 /**
@@ -34,14 +39,43 @@ import org.syncany.database.VectorClock;
  * on {@link ChunkEntry}s. It translates the relational data in the "chunk" table to
  * Java objects.
  * 
+ * <p>Since chunks are looked up for every single chunk during indexing, {@link #getChunk(ChunkChecksum) getChunk()}
+ * does not query the database, but a memory-mapped {@link ChunkIndex} that is kept in sync 
+ * with the "chunk" table. If no index file is given, or if the checksums cannot be indexed,
+ * the database is queried instead.
+ * 
  * @author Philipp C. Heckel <philipp.heckel@gmail.com>
  */
 public class ChunkSqlDao extends AbstractSqlDao {
-	private Map<ChunkChecksum, ChunkEntry> chunkCache;
+	protected static final Logger logger = Logger.getLogger(ChunkSqlDao.class.getSimpleName());
+
+	private File chunkIndexFile;
+	private int chunkIndexKeyLength;
+	private boolean chunkIndexChanged;
 
 	public ChunkSqlDao(Connection connection) {
+		this(connection, null);
+	}
+
+	public ChunkSqlDao(Connection connection, File chunkIndexFile) {
+		this(connection, chunkIndexFile, ChunkIndex.DEFAULT_KEY_LENGTH);
+	}
+
+	/**
+	 * Creates a chunk DAO that uses the given chunk index file for checksums of the
+	 * given length (in bytes), i.e. the digest length of the repository's chunker.
+	 */
+	public ChunkSqlDao(Connection connection, File chunkIndexFile, int checksumLength) {
 		super(connection);
-		this.chunkCache = null;
+
+		this.chunkIndexFile = chunkIndexFile;
+		this.chunkIndexKeyLength = checksumLength;
+		this.chunkIndexChanged = false;
+
+		if (chunkIndexFile != null && !ChunkIndex.isIndexable(checksumLength)) {
+			logger.log(Level.INFO, "Checksums of " + checksumLength + " bytes cannot be indexed. Querying the database instead.");
+			this.chunkIndexFile = null;
+		}
 	}
 
 	/**
@@ -56,6 +90,7 @@ public class ChunkSqlDao extends AbstractSqlDao {
 	 */
 	public void writeChunks(Connection connection, long databaseVersionId, Collection<ChunkEntry> chunks) throws SQLException {
 		if (chunks.size() > 0) {
+			ChunkIndex chunkIndex = getChunkIndex();
 			PreparedStatement preparedStatement = getStatement(connection, "chunk.insert.all.writeChunks.sql");
 
 			for (ChunkEntry chunk : chunks) {
@@ -68,6 +103,10 @@ public class ChunkSqlDao extends AbstractSqlDao {
 
 			preparedStatement.executeBatch();
 			preparedStatement.close();
+
+			if (chunkIndex != null) {
+				writeChunksToIndex(chunkIndex, chunks);
+			}
 		}
 	}	
 
@@ -88,37 +127,67 @@ public class ChunkSqlDao extends AbstractSqlDao {
 		catch (SQLException e) {
 			throw new RuntimeException(e);
 		}
+		
+		// The index cannot remove entries; it is rebuilt on next use
+		invalidateChunkIndex();
 	}
 	
 	/**
-	 * Queries the database of a chunk with the given checksum. 
+	 * Looks up the chunk with the given checksum in the chunk index, or queries the
+	 * database if there is no chunk index.
 	 * 
-	 * <p>Note: When first called, this method loads the <b>chunk cache</b> and keeps
-	 * this cache until it is cleared explicitly with {@link #clearCache()}. 
-	 * 
-	 * <p>Also note that this method will return <tt>null</tt> if the chunk has been
-	 * added after the cache has been filled. 
+	 * <p>Note: When first called, this method verifies the chunk index against the
+	 * database, and rebuilds it if it is missing or outdated. The index is then kept up to 
+	 * date by {@link #writeChunks(Connection, long, Collection) writeChunks()}.
 	 * 
 	 * @param chunkChecksum Chunk checksum of the chunk to be selected
 	 * @return Returns the chunk entry, or <tt>null</tt> if the chunk does not exist.
 	 */	
 	public synchronized ChunkEntry getChunk(ChunkChecksum chunkChecksum) {
-		if (chunkCache == null) {
-			loadChunkCache();
-		}
+		ChunkIndex chunkIndex = getChunkIndex();
 
-		return chunkCache.get(chunkChecksum);
+		if (chunkIndex != null) {
+			synchronized (chunkIndex) {
+				if (chunkIndex.isIndexable(chunkChecksum)) {
+					int chunkSize = chunkIndex.getSize(chunkChecksum);
+					return (chunkSize >= 0) ? new ChunkEntry(chunkChecksum, chunkSize) : null;
+				}
+			}
+		}
+		
+		return selectChunk(chunkChecksum);
 	}
 	
 	/**
-	 * Clears the chunk cache loaded by {@link #getChunk(ChunkChecksum) getChunk()}
-	 * and resets the cache. If {@link #getChunk(ChunkChecksum) getChunk()} is called
-	 * after the cache is cleared, it is re-populated.
+	 * Marks the changes to the chunk index as committed. This method must be called
+	 * after the transaction of the connection has been committed.
 	 */
-	public synchronized void clearCache() {
-		if (chunkCache != null) {
-			chunkCache.clear();
-			chunkCache = null;
+	public void commitChunkIndex() {
+		if (chunkIndexFile != null && chunkIndexChanged) {
+			ChunkIndex.getInstance(chunkIndexFile).commit();
+			chunkIndexChanged = false;
+		}
+	}
+	
+	/**
+	 * Invalidates the chunk index if it has been changed in the current transaction,
+	 * since the index cannot undo changes. This method must be called after the transaction 
+	 * of the connection has been rolled back.
+	 */
+	public void rollbackChunkIndex() {
+		if (chunkIndexChanged) {
+			invalidateChunkIndex();
+		}
+	}
+
+	/**
+	 * Invalidates the chunk index, e.g. if chunks have been removed from the database.
+	 * The index is rebuilt from the database when it is used the next time.
+	 */
+	public void invalidateChunkIndex() {
+		if (chunkIndexFile != null) {
+			ChunkIndex.getInstance(chunkIndexFile).invalidate();
+			chunkIndexChanged = false;
 		}
 	}
 
@@ -162,16 +231,111 @@ public class ChunkSqlDao extends AbstractSqlDao {
 		return new ChunkEntry(chunkChecksum, resultSet.getInt("size"));
 	}
 	
-	protected void loadChunkCache() {
-		try (PreparedStatement preparedStatement = getStatement("chunk.select.all.loadChunkCache.sql")) {
+	protected ChunkEntry selectChunk(ChunkChecksum chunkChecksum) {
+		try (PreparedStatement preparedStatement = getStatement("chunk.select.all.getChunk.sql")) {
+			preparedStatement.setString(1, chunkChecksum.toString());
+
 			try (ResultSet resultSet = preparedStatement.executeQuery()) {
-				chunkCache = createChunkEntries(resultSet);
+				return (resultSet.next()) ? createChunkEntryFromRow(resultSet) : null;
 			}
 		}
 		catch (SQLException e) {
 			throw new RuntimeException(e);
 		}
 	}
+
+	/**
+	 * Returns the loaded chunk index, or <tt>null</tt> if there is no chunk index. If the
+	 * index has not been loaded yet, it is loaded and verified against the "chunk" table.
+	 */
+	protected ChunkIndex getChunkIndex() {
+		if (chunkIndexFile == null) {
+			return null;
+		}
+
+		ChunkIndex chunkIndex = ChunkIndex.getInstance(chunkIndexFile);
+
+		synchronized (chunkIndex) {
+			if (!chunkIndex.isLoaded()) {
+				try {
+					loadChunkIndex(chunkIndex);
+				}
+				catch (IOException | SQLException e) {
+					disableChunkIndex(chunkIndex, e);
+					return null;
+				}
+			}
+		}
+
+		return chunkIndex;
+	}
+
+	protected void loadChunkIndex(ChunkIndex chunkIndex) throws IOException, SQLException {
+		// Only chunks with checksums of the index's key length are indexed
+		int chunkCount = countChunks(chunkIndexKeyLength);
+
+		if (!chunkIndex.load() || chunkIndex.getKeyLength() != chunkIndexKeyLength || chunkIndex.size() != chunkCount) {
+			rebuildChunkIndex(chunkIndex, chunkCount);
+		}
+	}
+
+	protected void rebuildChunkIndex(ChunkIndex chunkIndex, int chunkCount) throws IOException, SQLException {
+		logger.log(Level.INFO, "Chunk index missing or outdated. Rebuilding index for " + chunkCount + " chunk(s) ...");
+		chunkIndex.clear(chunkCount, chunkIndexKeyLength);
+
+		try (PreparedStatement preparedStatement = getStatement("chunk.select.all.rebuildChunkIndex.sql")) {
+			try (ResultSet resultSet = preparedStatement.executeQuery()) {
+				while (resultSet.next()) {
+					ChunkChecksum chunkChecksum = ChunkChecksum.parseChunkChecksum(resultSet.getString("checksum"));
+
+					if (chunkIndex.isIndexable(chunkChecksum)) {
+						chunkIndex.put(chunkChecksum, resultSet.getInt("size"));
+					}
+				}
+			}
+		}
+
+		chunkIndex.commit();
+	}
+
+	protected void writeChunksToIndex(ChunkIndex chunkIndex, Collection<ChunkEntry> chunks) {
+		synchronized (chunkIndex) {
+			if (!chunkIndex.isLoaded()) {
+				return; // Invalidated in the meantime, rebuilt on next use
+			}
+
+			try {
+				for (ChunkEntry chunk : chunks) {
+					if (chunkIndex.isIndexable(chunk.getChecksum())) {
+						chunkIndex.put(chunk.getChecksum(), chunk.getSize());
+					}
+				}
+
+				chunkIndexChanged = true;
+			}
+			catch (IOException e) {
+				disableChunkIndex(chunkIndex, e);
+			}
+		}
+	}
+
+	private int countChunks(int checksumLength) throws SQLException {
+		try (PreparedStatement preparedStatement = getStatement("chunk.select.all.countChunks.sql")) {
+			preparedStatement.setInt(1, checksumLength * 2); // Hex string
+
+			try (ResultSet resultSet = preparedStatement.executeQuery()) {
+				resultSet.next();
+				return resultSet.getInt(1);
+			}
+		}
+	}
+
+	private void disableChunkIndex(ChunkIndex chunkIndex, Exception e) {
+		logger.log(Level.WARNING, "Cannot use chunk index " + chunkIndexFile + ". Querying the database instead.", e);
+
+		chunkIndex.invalidate();
+		chunkIndexFile = null;
+	}
 	
 	/**
 	 * no commit
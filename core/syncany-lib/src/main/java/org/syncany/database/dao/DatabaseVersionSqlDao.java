@@ -96,6 +96,7 @@ public class DatabaseVersionSqlDao extends AbstractSqlDao {
 
 			preparedStatement.executeUpdate();
 			connection.commit();
+			chunkDao.commitChunkIndex();
 		}
 		catch (SQLException e) {
 			throw new RuntimeException(e);
@@ -105,12 +106,7 @@ public class DatabaseVersionSqlDao extends AbstractSqlDao {
 	public long writeDatabaseVersion(DatabaseVersion databaseVersion) {
 		try {
 			// Insert & commit database version
-			long databaseVersionId = writeDatabaseVersion(connection, databaseVersion);
-			
-			// Commit & clear local caches
-			clearCaches();
-
-			return databaseVersionId;
+			return writeDatabaseVersion(connection, databaseVersion);
 		}
 		catch (Exception e) {
 			logger.log(Level.SEVERE, "SQL Error: ", e);
@@ -217,9 +213,9 @@ public class DatabaseVersionSqlDao extends AbstractSqlDao {
 			removeDirtyVectorClocks();
 			removeDirtyDatabaseVersionsInt();
 
-			// Commit & clear local caches
+			// Commit (incl. the chunks written to the chunk index in this transaction)
 			connection.commit();
-			clearCaches();
+			chunkDao.commitChunkIndex();
 		}
 		catch (SQLException e) {
 			throw new RuntimeException("Unable to remove dirty database versions.", e);
@@ -246,10 +242,6 @@ public class DatabaseVersionSqlDao extends AbstractSqlDao {
 		}
 	}
 
-	public void clearCaches() {
-		chunkDao.clearCache();
-	}
-
 	public Long getMaxDirtyVectorClock(String machineName) {
 		try (PreparedStatement preparedStatement = getStatement("databaseversion.select.dirty.getMaxDirtyVectorClock.sql")) {
 			preparedStatement.setMaxRows(1);
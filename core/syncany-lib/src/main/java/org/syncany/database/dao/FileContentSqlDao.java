@@ -21,11 +21,16 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.syncany.database.ChunkEntry.ChunkChecksum;
+import org.syncany.database.ChunkLocation;
 import org.syncany.database.FileContent;
 import org.syncany.database.FileContent.FileChecksum;
 import org.syncany.database.VectorClock;
@@ -165,6 +170,72 @@ public class FileContentSqlDao extends AbstractSqlDao {
 		}
 	}
 
+	/**
+	 * Queries the database for the locations of the given chunks in the current (last known, non-deleted)
+	 * local files. For every chunk, the chunk offset is derived from the sizes of the preceding chunks in
+	 * the file, as recorded when the file was last indexed. 
+	 * 
+	 * <p><b>Note:</b> The local files might have changed since they were indexed, so the chunks'
+	 * content must be verified before they are used.
+	 * 
+	 * @param chunkChecksums Chunks to locate 
+	 * @return Returns all known locations for each of the given chunks (chunks without location are not contained)
+	 */
+	public Map<ChunkChecksum, List<ChunkLocation>> getChunkLocations(Collection<ChunkChecksum> chunkChecksums) {
+		Set<ChunkChecksum> chunkChecksumSet = new HashSet<ChunkChecksum>(chunkChecksums);
+		Map<ChunkChecksum, List<ChunkLocation>> chunkLocations = new HashMap<ChunkChecksum, List<ChunkLocation>>();
+
+		if (chunkChecksumSet.size() == 0) {
+			return chunkLocations;
+		}
+		
+		// Gather a unique array of checksum strings (required for query!)
+		String[] checksums = new String[chunkChecksumSet.size()];
+		int i = 0;
+		
+		for (ChunkChecksum checksum : chunkChecksumSet) {
+			checksums[i++] = checksum.toString();
+		}
+		
+		try (PreparedStatement preparedStatement = getStatement("filecontent.select.master.getChunkLocations.sql")) {
+			preparedStatement.setArray(1, connection.createArrayOf("varchar", checksums));
+
+			try (ResultSet resultSet = preparedStatement.executeQuery()) {
+				String currentFileHistoryId = null;
+				long currentOffset = 0;
+				
+				while (resultSet.next()) {
+					String fileHistoryId = resultSet.getString("filehistory_id");
+					ChunkChecksum chunkChecksum = ChunkChecksum.parseChunkChecksum(resultSet.getString("chunk_checksum"));
+					int chunkSize = resultSet.getInt("size");
+					
+					if (!fileHistoryId.equals(currentFileHistoryId)) {
+						currentFileHistoryId = fileHistoryId;
+						currentOffset = 0;
+					}
+					
+					if (chunkChecksumSet.contains(chunkChecksum)) {
+						List<ChunkLocation> locationsForChunk = chunkLocations.get(chunkChecksum);
+						
+						if (locationsForChunk == null) {
+							locationsForChunk = new ArrayList<ChunkLocation>();
+							chunkLocations.put(chunkChecksum, locationsForChunk);
+						}
+						
+						locationsForChunk.add(new ChunkLocation(resultSet.getString("path"), currentOffset, chunkSize));
+					}
+					
+					currentOffset += chunkSize;
+				}
+			}
+
+			return chunkLocations;
+		}
+		catch (SQLException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
 	private FileContent getFileContentWithoutChunkChecksums(FileChecksum fileChecksum) {
 		try (PreparedStatement preparedStatement = getStatement("filecontent.select.all.getFileContentByChecksumWithoutChunkChecksums.sql")) {
 			preparedStatement.setString(1, fileChecksum.toString());
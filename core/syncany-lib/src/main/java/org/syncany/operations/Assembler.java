@@ -19,10 +19,16 @@ package org.syncany.operations;
 
 import java.io.File;
 import java.io.FileOutputStream;
-import java.io.InputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.security.MessageDigest;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -30,7 +36,6 @@ import org.apache.commons.io.FileUtils;
 import org.syncany.chunk.Chunker;
 import org.syncany.chunk.Deduper;
 import org.syncany.chunk.MultiChunk;
-import org.syncany.chunk.MultiChunker;
 import org.syncany.config.Config;
 import org.syncany.database.ChunkEntry.ChunkChecksum;
 import org.syncany.database.FileContent;
@@ -46,25 +51,33 @@ import org.syncany.util.StringUtil;
  * multichunker, etc.).
  * 
  * <p>It uses the local {@link SqlDatabase} and an optional {@link MemoryDatabase}
- * to perform file checksum and chunk checksum lookups.   
+ * to perform file checksum and chunk checksum lookups. Chunks available in the
+ * optional {@link LocalChunkStore} are taken from there instead of from the multichunks.
  * 
  * @author Philipp C. Heckel <philipp.heckel@gmail.com>
  */
 public class Assembler {
 	private static final Logger logger = Logger.getLogger(Assembler.class.getSimpleName());
+	private static final int MAX_OPEN_MULTICHUNKS = 8;
 	
 	private Config config;
 	private SqlDatabase localDatabase;
 	private MemoryDatabase memoryDatabase;
+	private LocalChunkStore localChunkStore;
 	
 	public Assembler(Config config, SqlDatabase localDatabase) {
 		this(config, localDatabase, null);
 	}
 	
 	public Assembler(Config config, SqlDatabase localDatabase, MemoryDatabase memoryDatabase) {
+		this(config, localDatabase, memoryDatabase, null);
+	}
+	
+	public Assembler(Config config, SqlDatabase localDatabase, MemoryDatabase memoryDatabase, LocalChunkStore localChunkStore) {
 		this.config = config;
 		this.localDatabase = localDatabase;
 		this.memoryDatabase = memoryDatabase;
+		this.localChunkStore = localChunkStore;
 	}
 
 	/**
@@ -94,40 +107,51 @@ public class Assembler {
 				
 		// Create non-empty file
 		Chunker chunker = config.getChunker();
-		MultiChunker multiChunker = config.getMultiChunker();
-		
-		FileOutputStream reconstructedFileOutputStream = new FileOutputStream(reconstructedFileInCache);		
 		MessageDigest reconstructedFileChecksum = MessageDigest.getInstance(chunker.getChecksumAlgorithm());
-		
-		if (fileContent != null) { // File can be empty!
-			Collection<ChunkChecksum> fileChunks = fileContent.getChunks();
+
+		List<ChunkChecksum> fileChunks = fileContent.getChunks();
+		Map<ChunkChecksum, MultiChunkId> multiChunkIdsForChunks = getMultiChunkIds(fileChunks);
+		MultiChunkCache openMultiChunks = new MultiChunkCache(MAX_OPEN_MULTICHUNKS);
+
+		try (FileOutputStream reconstructedFileOutputStream = new FileOutputStream(reconstructedFileInCache)) {
+			FileChannel reconstructedFileChannel = reconstructedFileOutputStream.getChannel();
 
 			for (ChunkChecksum chunkChecksum : fileChunks) {
-				MultiChunkId multiChunkIdForChunk = localDatabase.getMultiChunkId(chunkChecksum);
+				ByteBuffer chunkBuffer;
 
-				if (multiChunkIdForChunk == null && memoryDatabase != null) {
-					multiChunkIdForChunk = memoryDatabase.getMultiChunkIdForChunk(chunkChecksum);
+				if (localChunkStore != null && localChunkStore.hasChunk(chunkChecksum)) {
+					// Chunk still available locally (no multichunk needed)
+					chunkBuffer = ByteBuffer.wrap(localChunkStore.readChunk(chunkChecksum));
 				}
+				else {
+					MultiChunkId multiChunkIdForChunk = multiChunkIdsForChunks.get(chunkChecksum);
+					MultiChunk multiChunk = openMultiChunks.get(multiChunkIdForChunk);
 
-				File decryptedMultiChunkFile = config.getCache().getDecryptedMultiChunkFile(multiChunkIdForChunk);
+					if (multiChunk == null) {
+						File decryptedMultiChunkFile = config.getCache().getDecryptedMultiChunkFile(multiChunkIdForChunk);
 
-				MultiChunk multiChunk = multiChunker.createMultiChunk(decryptedMultiChunkFile);
-				InputStream chunkInputStream = multiChunk.getChunkInputStream(chunkChecksum.getBytes());
+						multiChunk = config.getMultiChunker().createMultiChunk(decryptedMultiChunkFile);
+						openMultiChunks.put(multiChunkIdForChunk, multiChunk);
+					}
 
-				byte[] buffer = new byte[4096];
-				int read = 0;
+					chunkBuffer = multiChunk.getChunkBuffer(chunkChecksum.getBytes());
 
-				while (-1 != (read = chunkInputStream.read(buffer))) {
-					reconstructedFileChecksum.update(buffer, 0, read);
-					reconstructedFileOutputStream.write(buffer, 0, read);
+					if (chunkBuffer == null) {
+						throw new Exception("Cannot find chunk " + chunkChecksum + " in multichunk " + multiChunkIdForChunk);
+					}
 				}
 
-				chunkInputStream.close();
-				multiChunk.close();
+				// Update checksum and write in one pass (buffer might be a slice of a mapped multichunk)
+				reconstructedFileChecksum.update(chunkBuffer.duplicate());
+
+				while (chunkBuffer.hasRemaining()) {
+					reconstructedFileChannel.write(chunkBuffer);
+				}
 			}
 		}
-
-		reconstructedFileOutputStream.close();
+		finally {
+			openMultiChunks.closeAll();
+		}
 
 		// Validate checksum
 		byte[] reconstructedFileExpectedChecksum = fileContent.getChecksum().getBytes();
@@ -140,4 +164,80 @@ public class Assembler {
 		
 		return reconstructedFileInCache;
 	}	
+
+	/**
+	 * Looks up the multichunks of all given chunks in one batch: first in the local database,
+	 * then in the memory database. Chunks available in the local chunk store are skipped.
+	 */
+	private Map<ChunkChecksum, MultiChunkId> getMultiChunkIds(List<ChunkChecksum> fileChunks) throws Exception {
+		List<ChunkChecksum> multiChunkChunks = new ArrayList<ChunkChecksum>();
+
+		for (ChunkChecksum chunkChecksum : fileChunks) {
+			if (localChunkStore == null || !localChunkStore.hasChunk(chunkChecksum)) {
+				multiChunkChunks.add(chunkChecksum);
+			}
+		}
+
+		if (multiChunkChunks.size() == 0) {
+			return new HashMap<ChunkChecksum, MultiChunkId>();
+		}
+
+		Map<ChunkChecksum, MultiChunkId> multiChunkIdsForChunks = localDatabase.getMultiChunkIdsByChecksums(multiChunkChunks);
+
+		for (ChunkChecksum chunkChecksum : multiChunkChunks) {
+			if (!multiChunkIdsForChunks.containsKey(chunkChecksum)) {
+				MultiChunkId multiChunkIdForChunk = (memoryDatabase != null) ? memoryDatabase.getMultiChunkIdForChunk(chunkChecksum) : null;
+
+				if (multiChunkIdForChunk == null) {
+					throw new Exception("Cannot find multichunk for chunk " + chunkChecksum);
+				}
+
+				multiChunkIdsForChunks.put(chunkChecksum, multiChunkIdForChunk);
+			}
+		}
+
+		return multiChunkIdsForChunks;
+	}
+
+	/**
+	 * Keeps the most recently used multichunks open, so that consecutive chunks from the
+	 * same multichunk do not re-open (and re-map) the multichunk file over and over again.
+	 */
+	private static class MultiChunkCache extends LinkedHashMap<MultiChunkId, MultiChunk> {
+		private static final long serialVersionUID = -2431287421826438212L;
+
+		private int maxOpenMultiChunks;
+
+		public MultiChunkCache(int maxOpenMultiChunks) {
+			super(maxOpenMultiChunks + 1, 0.75f, true);
+			this.maxOpenMultiChunks = maxOpenMultiChunks;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<MultiChunkId, MultiChunk> eldestEntry) {
+			if (size() > maxOpenMultiChunks) {
+				close(eldestEntry.getValue());
+				return true;
+			}
+
+			return false;
+		}
+
+		public void closeAll() {
+			for (MultiChunk multiChunk : values()) {
+				close(multiChunk);
+			}
+
+			clear();
+		}
+
+		private void close(MultiChunk multiChunk) {
+			try {
+				multiChunk.close();
+			}
+			catch (IOException e) {
+				logger.log(Level.WARNING, "Cannot close multichunk " + multiChunk.getId(), e);
+			}
+		}
+	}
 }
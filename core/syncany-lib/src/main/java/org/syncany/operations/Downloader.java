@@ -18,16 +18,25 @@
 package org.syncany.operations;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.apache.commons.io.IOUtils;
+import org.syncany.chunk.Transformer;
 import org.syncany.config.Config;
 import org.syncany.config.LocalEventBus;
 import org.syncany.database.MultiChunkEntry.MultiChunkId;
@@ -35,11 +44,21 @@ import org.syncany.operations.daemon.messages.DownDownloadFileSyncExternalEvent;
 import org.syncany.plugins.transfer.StorageException;
 import org.syncany.plugins.transfer.TransferManager;
 import org.syncany.plugins.transfer.files.MultichunkRemoteFile;
+import org.syncany.plugins.transfer.files.RemoteFile;
 
 /**
  * The downloader uses a {@link TransferManager} to download a given set of multichunks,
  * decrypt them and store them in the local cache folder. 
  * 
+ * <p>Multichunks are not stored in their encrypted form locally. Instead, the remote
+ * file is read via {@link TransferManager#downloadStream(RemoteFile)} and piped through
+ * the configured {@link Transformer} into a partial file in the cache, which is renamed to
+ * the decrypted multichunk file once the multichunk is complete.
+ * 
+ * <p>If more than one transfer thread is configured (see {@link Config#getTransferThreads()}),
+ * multichunks are downloaded and decrypted in parallel. Since each multichunk is streamed, 
+ * memory usage is limited to a small buffer per thread.
+ * 
  * @author Philipp C. Heckel <philipp.heckel@gmail.com>
  */
 public class Downloader {
@@ -62,56 +81,158 @@ public class Downloader {
 	public void downloadAndDecryptMultiChunks(Set<MultiChunkId> unknownMultiChunkIds) throws StorageException, IOException {
 		logger.log(Level.INFO, "Downloading and extracting multichunks ...");
 
+		int transferThreads = Math.min(config.getTransferThreads(), unknownMultiChunkIds.size());
+
+		if (transferThreads <= 1) {
+			downloadAndDecryptMultiChunksSequentially(unknownMultiChunkIds);
+		}
+		else {
+			downloadAndDecryptMultiChunksInParallel(unknownMultiChunkIds, transferThreads);
+		}
+
+		transferManager.disconnect();
+	}
+
+	private void downloadAndDecryptMultiChunksSequentially(Set<MultiChunkId> unknownMultiChunkIds) throws StorageException, IOException {
 		int multiChunkNumber = 0;
 
 		for (MultiChunkId multiChunkId : unknownMultiChunkIds) {
-			File localEncryptedMultiChunkFile = config.getCache().getEncryptedMultiChunkFile(multiChunkId);
-			File localDecryptedMultiChunkFile = config.getCache().getDecryptedMultiChunkFile(multiChunkId);
-			MultichunkRemoteFile remoteMultiChunkFile = new MultichunkRemoteFile(multiChunkId);
-
 			multiChunkNumber++;
 
-			if (localDecryptedMultiChunkFile.exists()) {
+			if (config.getCache().getDecryptedMultiChunkFile(multiChunkId).exists()) {
 				logger.log(Level.INFO, "  + Decrypted multichunk exists locally " + multiChunkId + ". No need to download it!");
 			}
 			else {
 				eventBus.post(new DownDownloadFileSyncExternalEvent(config.getLocalDir().getAbsolutePath(), "multichunk", multiChunkNumber,
 						unknownMultiChunkIds.size()));
 
-				logger.log(Level.INFO, "  + Downloading multichunk " + multiChunkId + " ...");
-				transferManager.download(remoteMultiChunkFile, localEncryptedMultiChunkFile);
+				downloadAndDecryptMultiChunk(multiChunkId);
+			}
+		}
+	}
 
-				try {
-					logger.log(Level.INFO, "  + Decrypting multichunk " + multiChunkId + " ...");
-					InputStream multiChunkInputStream = config.getTransformer().createInputStream(new FileInputStream(localEncryptedMultiChunkFile));
-					OutputStream decryptedMultiChunkOutputStream = new FileOutputStream(localDecryptedMultiChunkFile);
+	private void downloadAndDecryptMultiChunksInParallel(final Set<MultiChunkId> unknownMultiChunkIds, int transferThreads) throws StorageException,
+			IOException {
 
-					IOUtils.copy(multiChunkInputStream, decryptedMultiChunkOutputStream);
+		logger.log(Level.INFO, "- Using " + transferThreads + " download thread(s) ...");
 
-					decryptedMultiChunkOutputStream.close();
-					multiChunkInputStream.close();
+		ExecutorService executor = Executors.newFixedThreadPool(transferThreads);
+		CompletionService<Void> completionService = new ExecutorCompletionService<Void>(executor);
 
+		final Object eventLock = new Object();
+		final int[] multiChunkNumber = new int[] { 0 };
+
+		int submittedTaskCount = 0;
+
+		try {
+			for (final MultiChunkId multiChunkId : unknownMultiChunkIds) {
+				if (config.getCache().getDecryptedMultiChunkFile(multiChunkId).exists()) {
+					logger.log(Level.INFO, "  + Decrypted multichunk exists locally " + multiChunkId + ". No need to download it!");
+
+					synchronized (eventLock) {
+						multiChunkNumber[0]++;
+					}
+
+					continue;
 				}
-				catch (IOException e) {
-					// Security: Deleting the multichunk if the decryption/extraction failed is important!
-					//           If it is not deleted, the partially decrypted multichunk will reside in the
-					//           local cache and the next 'down' will try to use it. If this is the only
-					//           multichunk that has been tampered with, other changes might be applied to the 
-					//           file system! See https://github.com/syncany/syncany/issues/59#issuecomment-55154793
-
-					logger.log(Level.FINE, "    -> FAILED: Decryption/extraction of multichunk failed, deleting " + multiChunkId + " ...");
-					localDecryptedMultiChunkFile.delete();
-
-					throw new IOException("Decryption/extraction of multichunk " + multiChunkId
-							+ " failed. The multichunk might have been tampered with!", e);
-				}
-				finally {
-					logger.log(Level.FINE, "  + Locally deleting multichunk " + multiChunkId + " ...");
-					localEncryptedMultiChunkFile.delete();
-				}
+
+				completionService.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws StorageException, IOException {
+						synchronized (eventLock) {
+							eventBus.post(new DownDownloadFileSyncExternalEvent(config.getLocalDir().getAbsolutePath(), "multichunk",
+									++multiChunkNumber[0], unknownMultiChunkIds.size()));
+						}
+
+						downloadAndDecryptMultiChunk(multiChunkId);
+						return null;
+					}
+				});
+
+				submittedTaskCount++;
+			}
+
+			for (int i = 0; i < submittedTaskCount; i++) {
+				completionService.take().get();
 			}
 		}
+		catch (ExecutionException e) {
+			if (e.getCause() instanceof StorageException) {
+				throw (StorageException) e.getCause();
+			}
+			else if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			else {
+				throw new StorageException("Downloading multichunks failed", e.getCause());
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new StorageException("Interrupted while downloading multichunks", e);
+		}
+		finally {
+			shutdownAndAwaitTermination(executor);
+		}
+	}
 
-		transferManager.disconnect();
+	private void downloadAndDecryptMultiChunk(MultiChunkId multiChunkId) throws StorageException, IOException {
+		File localDecryptedMultiChunkFile = config.getCache().getDecryptedMultiChunkFile(multiChunkId);
+		File localPartialMultiChunkFile = config.getCache().getPartialDecryptedMultiChunkFile(multiChunkId);
+		MultichunkRemoteFile remoteMultiChunkFile = new MultichunkRemoteFile(multiChunkId);
+
+		logger.log(Level.INFO, "  + Downloading and decrypting multichunk " + multiChunkId + " ...");
+		InputStream remoteMultiChunkInputStream = transferManager.downloadStream(remoteMultiChunkFile);
+
+		try {
+			// The multichunk is written to a partial file first, and only renamed once it is
+			// complete. An interrupted download (e.g. if the process is killed) thereby never
+			// leaves a truncated multichunk that the next 'down' would trust.
+
+			InputStream multiChunkInputStream = config.getTransformer().createInputStream(remoteMultiChunkInputStream);
+			OutputStream decryptedMultiChunkOutputStream = new FileOutputStream(localPartialMultiChunkFile);
+
+			try {
+				IOUtils.copy(multiChunkInputStream, decryptedMultiChunkOutputStream);
+			}
+			finally {
+				decryptedMultiChunkOutputStream.close();
+			}
+
+			multiChunkInputStream.close();
+
+			Files.move(localPartialMultiChunkFile.toPath(), localDecryptedMultiChunkFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch (IOException e) {
+			// Security: Deleting the multichunk if the decryption/extraction failed is important!
+			//           If it is not deleted, the partially decrypted multichunk will reside in the
+			//           local cache and the next 'down' will try to use it. If this is the only
+			//           multichunk that has been tampered with, other changes might be applied to the 
+			//           file system! See https://github.com/syncany/syncany/issues/59#issuecomment-55154793
+
+			logger.log(Level.FINE, "    -> FAILED: Download or decryption/extraction of multichunk failed, deleting " + multiChunkId + " ...");
+
+			localPartialMultiChunkFile.delete();
+			localDecryptedMultiChunkFile.delete();
+
+			throw new IOException("Decryption/extraction of multichunk " + multiChunkId
+					+ " failed. The multichunk might have been tampered with!", e);
+		}
+		finally {
+			IOUtils.closeQuietly(remoteMultiChunkInputStream);
+		}
+	}
+
+	private void shutdownAndAwaitTermination(ExecutorService executor) {
+		executor.shutdownNow();
+
+		try {
+			while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+				logger.log(Level.INFO, "- Waiting for running downloads to finish ...");
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
 	}
 }
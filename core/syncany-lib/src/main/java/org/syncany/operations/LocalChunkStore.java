@@ -0,0 +1,223 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2015 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.operations;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.syncany.config.Config;
+import org.syncany.database.ChunkEntry.ChunkChecksum;
+import org.syncany.database.ChunkLocation;
+import org.syncany.database.SqlDatabase;
+
+/**
+ * The local chunk store collects chunks that are still available in local files, so that
+ * the {@link Assembler} does not need to download the multichunks they are contained in.
+ * This is particularly useful for large files that are changed in place: Only the changed
+ * chunks have to be downloaded.
+ *
+ * <p>Chunks are located using the local database (see {@link SqlDatabase#getChunkLocations(Collection)}),
+ * i.e. by the chunk offsets in the local files at the time they were last indexed. Since the files
+ * might have changed since then, every chunk is verified by its checksum before it is used.
+ *
+ * <p>Verified chunks are copied to a temporary file in the cache right away. That way, the
+ * chunks remain available even if their source files are changed, moved or deleted while the
+ * file system actions are applied (e.g. if a file is changed in place).
+ */
+public class LocalChunkStore implements Closeable {
+	private static final Logger logger = Logger.getLogger(LocalChunkStore.class.getSimpleName());
+
+	private Config config;
+	private SqlDatabase localDatabase;
+	private MessageDigest chunkDigest;
+
+	private File storeFile;
+	private RandomAccessFile storeRandomAccessFile;
+	private Map<ChunkChecksum, ChunkLocation> storedChunks;
+
+	public LocalChunkStore(Config config, SqlDatabase localDatabase) {
+		this.config = config;
+		this.localDatabase = localDatabase;
+		this.storedChunks = new HashMap<ChunkChecksum, ChunkLocation>();
+
+		try {
+			this.chunkDigest = MessageDigest.getInstance(config.getChunker().getChecksumAlgorithm());
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Locates the given chunks in the local files, verifies them and copies them to the
+	 * store. Chunks that cannot be found, or whose content has changed, are ignored.
+	 *
+	 * @param chunkChecksums Chunks to look for in the local files
+	 * @return Returns the number of the given chunks that are available in the store
+	 */
+	public synchronized int addChunks(Collection<ChunkChecksum> chunkChecksums) throws IOException {
+		List<ChunkChecksum> missingChunks = new ArrayList<ChunkChecksum>();
+
+		for (ChunkChecksum chunkChecksum : chunkChecksums) {
+			if (!storedChunks.containsKey(chunkChecksum)) {
+				missingChunks.add(chunkChecksum);
+			}
+		}
+
+		if (missingChunks.size() > 0) {
+			Map<ChunkChecksum, List<ChunkLocation>> chunkLocations = localDatabase.getChunkLocations(missingChunks);
+			Map<String, RandomAccessFile> localFiles = new HashMap<String, RandomAccessFile>();
+
+			try {
+				for (ChunkChecksum chunkChecksum : missingChunks) {
+					List<ChunkLocation> locationsForChunk = chunkLocations.get(chunkChecksum);
+
+					if (locationsForChunk != null && !storedChunks.containsKey(chunkChecksum)) {
+						addChunk(chunkChecksum, locationsForChunk, localFiles);
+					}
+				}
+			}
+			finally {
+				for (RandomAccessFile localFile : localFiles.values()) {
+					localFile.close();
+				}
+			}
+		}
+
+		int availableChunks = 0;
+
+		for (ChunkChecksum chunkChecksum : chunkChecksums) {
+			if (storedChunks.containsKey(chunkChecksum)) {
+				availableChunks++;
+			}
+		}
+
+		return availableChunks;
+	}
+
+	/**
+	 * Returns whether the chunk with the given checksum is available in the store.
+	 */
+	public synchronized boolean hasChunk(ChunkChecksum chunkChecksum) {
+		return storedChunks.containsKey(chunkChecksum);
+	}
+
+	/**
+	 * Reads the chunk with the given checksum from the store.
+	 *
+	 * @return Returns the chunk's content, or <tt>null</tt> if the chunk is not in the store
+	 */
+	public synchronized byte[] readChunk(ChunkChecksum chunkChecksum) throws IOException {
+		ChunkLocation storeLocation = storedChunks.get(chunkChecksum);
+
+		if (storeLocation == null) {
+			return null;
+		}
+
+		byte[] chunkContent = new byte[storeLocation.getSize()];
+
+		storeRandomAccessFile.seek(storeLocation.getOffset());
+		storeRandomAccessFile.readFully(chunkContent);
+
+		return chunkContent;
+	}
+
+	/**
+	 * Closes and deletes the temporary store file.
+	 */
+	@Override
+	public synchronized void close() {
+		if (storeRandomAccessFile != null) {
+			try {
+				storeRandomAccessFile.close();
+			}
+			catch (IOException e) {
+				logger.log(Level.WARNING, "Cannot close local chunk store " + storeFile, e);
+			}
+
+			storeFile.delete();
+			storeRandomAccessFile = null;
+		}
+
+		storedChunks.clear();
+	}
+
+	private void addChunk(ChunkChecksum chunkChecksum, List<ChunkLocation> locationsForChunk, Map<String, RandomAccessFile> localFiles)
+			throws IOException {
+
+		for (ChunkLocation chunkLocation : locationsForChunk) {
+			byte[] chunkContent = readLocalChunk(chunkLocation, localFiles);
+
+			if (chunkContent != null && Arrays.equals(chunkChecksum.getBytes(), chunkDigest.digest(chunkContent))) {
+				if (storeRandomAccessFile == null) {
+					storeFile = config.getCache().createTempFile("localchunks");
+					storeRandomAccessFile = new RandomAccessFile(storeFile, "rw");
+				}
+
+				long storeOffset = storeRandomAccessFile.length();
+
+				storeRandomAccessFile.seek(storeOffset);
+				storeRandomAccessFile.write(chunkContent);
+
+				storedChunks.put(chunkChecksum, new ChunkLocation(storeFile.getName(), storeOffset, chunkContent.length));
+				return;
+			}
+			else {
+				logger.log(Level.FINE, "Chunk " + chunkChecksum + " not found at " + chunkLocation + "; local file changed.");
+			}
+		}
+	}
+
+	private byte[] readLocalChunk(ChunkLocation chunkLocation, Map<String, RandomAccessFile> localFiles) {
+		try {
+			RandomAccessFile localFile = localFiles.get(chunkLocation.getPath());
+
+			if (localFile == null) {
+				localFile = new RandomAccessFile(new File(config.getLocalDir(), chunkLocation.getPath()), "r");
+				localFiles.put(chunkLocation.getPath(), localFile);
+			}
+
+			if (chunkLocation.getOffset() + chunkLocation.getSize() > localFile.length()) {
+				return null;
+			}
+
+			byte[] chunkContent = new byte[chunkLocation.getSize()];
+
+			localFile.seek(chunkLocation.getOffset());
+			localFile.readFully(chunkContent);
+
+			return chunkContent;
+		}
+		catch (IOException e) {
+			logger.log(Level.FINE, "Cannot read chunk at " + chunkLocation + "; local file vanished or changed.", e);
+			return null;
+		}
+	}
+}
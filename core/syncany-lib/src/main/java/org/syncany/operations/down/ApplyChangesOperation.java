@@ -17,6 +17,8 @@
  */
 package org.syncany.operations.down;
 
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
@@ -34,10 +36,12 @@ import org.syncany.database.MultiChunkEntry.MultiChunkId;
 import org.syncany.database.PartialFileHistory;
 import org.syncany.database.SqlDatabase;
 import org.syncany.operations.Downloader;
+import org.syncany.operations.LocalChunkStore;
 import org.syncany.operations.Operation;
 import org.syncany.operations.OperationResult;
 import org.syncany.operations.down.actions.FileCreatingFileSystemAction;
 import org.syncany.operations.down.actions.FileSystemAction;
+import org.syncany.operations.down.actions.ParallelFileAssembler;
 import org.syncany.plugins.transfer.TransferManager;
 
 /**
@@ -47,8 +51,9 @@ import org.syncany.plugins.transfer.TransferManager;
  * <ul>
  *  <li>Determine whether the local branch needs to be updated (new database versions); if so, determine
  *      local {@link FileSystemAction}s</li>
- *  <li>Determine, download and decrypt required multi chunks from remote storage from file actions
- *      (implemented in {@link #determineMultiChunksToDownload(FileVersion, MemoryDatabase, MemoryDatabase) determineMultiChunksToDownload()},
+ *  <li>Determine, download and decrypt required multi chunks from remote storage from file actions; chunks
+ *      that are still available in local files are reused instead of downloaded (see {@link LocalChunkStore})
+ *      (implemented in {@link #determineMultiChunksToDownload(FileVersion, MemoryDatabase, LocalChunkStore) determineMultiChunksToDownload()},
  *      and {@link #downloadAndDecryptMultiChunks(Set) downloadAndDecryptMultiChunks()})</li>
  *  <li>Apply file system actions locally, creating conflict files where necessary if local file does
  *      not match the expected file (implemented in {@link #applyFileSystemActions(List) applyFileSystemActions()} </li>
@@ -95,26 +100,32 @@ public class ApplyChangesOperation extends Operation {
 			actions = actionReconciliator.determineFileSystemActions(winnersDatabase);
 		}
 
-		Set<MultiChunkId> unknownMultiChunks = determineRequiredMultiChunks(actions, winnersDatabase);
-		
-		downloader.downloadAndDecryptMultiChunks(unknownMultiChunks);
-		result.getDownloadedMultiChunks().addAll(unknownMultiChunks);
-
-		applyFileSystemActions(actions);
+		try (LocalChunkStore localChunkStore = new LocalChunkStore(config, localDatabase)) {
+			Set<MultiChunkId> unknownMultiChunks = determineRequiredMultiChunks(actions, winnersDatabase, localChunkStore);
+			
+			downloader.downloadAndDecryptMultiChunks(unknownMultiChunks);
+			result.getDownloadedMultiChunks().addAll(unknownMultiChunks);
+	
+			applyFileSystemActions(actions);
+		}
 		
 		return null;
 	}
 	
 	/**
 	 * Finds the multichunks that need to be downloaded to apply the given file system actions.
-	 * The method looks at all {@link FileCreatingFileSystemAction}s and returns their multichunks. 
+	 * The method looks at all {@link FileCreatingFileSystemAction}s and returns their multichunks,
+	 * excluding the multichunks whose required chunks are all available in the local chunk store. 
 	 */
-	private Set<MultiChunkId> determineRequiredMultiChunks(List<FileSystemAction> actions, MemoryDatabase winnersDatabase) {
+	private Set<MultiChunkId> determineRequiredMultiChunks(List<FileSystemAction> actions, MemoryDatabase winnersDatabase,
+			LocalChunkStore localChunkStore) throws IOException {
+		
 		Set<MultiChunkId> multiChunksToDownload = new HashSet<MultiChunkId>();
 
 		for (FileSystemAction action : actions) {
-			if (action instanceof FileCreatingFileSystemAction) { // TODO [low] This adds ALL multichunks even though some might be available locally
-				multiChunksToDownload.addAll(determineMultiChunksToDownload(action.getFile2(), winnersDatabase));
+			if (action instanceof FileCreatingFileSystemAction) {
+				((FileCreatingFileSystemAction) action).setLocalChunkStore(localChunkStore);
+				multiChunksToDownload.addAll(determineMultiChunksToDownload(action.getFile2(), winnersDatabase, localChunkStore));
 			}
 		}
 
@@ -124,8 +135,13 @@ public class ApplyChangesOperation extends Operation {
 	/**
 	 * Finds the multichunks that need to be downloaded for the given file version -- using the local 
 	 * database and given winners database. Returns a set of multichunk identifiers.
+	 * 
+	 * <p>If the file content is not known locally, the chunks that can still be found in local files
+	 * are copied to the local chunk store, and only the multichunks of the remaining chunks are returned.
 	 */
-	private Collection<MultiChunkId> determineMultiChunksToDownload(FileVersion fileVersion, MemoryDatabase winnersDatabase) {
+	private Collection<MultiChunkId> determineMultiChunksToDownload(FileVersion fileVersion, MemoryDatabase winnersDatabase,
+			LocalChunkStore localChunkStore) throws IOException {
+		
 		Set<MultiChunkId> multiChunksToDownload = new HashSet<MultiChunkId>();
 
 		// First: Check if we know this file locally!
@@ -142,12 +158,27 @@ public class ApplyChangesOperation extends Operation {
 			if (winningFileHasContent) { // File can be empty!
 				List<ChunkChecksum> fileChunks = winningFileContent.getChunks(); 
 				
-				// TODO [medium] Instead of just looking for multichunks to download here, we should look for chunks in local files as well
-				// and return the chunk positions in the local files ChunkPosition (chunk123 at file12, offset 200, size 250)
-				
-				Map<ChunkChecksum, MultiChunkId> checksumsWithMultiChunkIds = localDatabase.getMultiChunkIdsByChecksums(fileChunks);
+				// Third: Reuse the chunks that are still available in local files
+				int localChunkCount = localChunkStore.addChunks(fileChunks);
+				List<ChunkChecksum> missingChunks = new ArrayList<ChunkChecksum>();
 				
 				for (ChunkChecksum chunkChecksum : fileChunks) {
+					if (!localChunkStore.hasChunk(chunkChecksum)) {
+						missingChunks.add(chunkChecksum);
+					}
+				}
+				
+				if (localChunkCount > 0) {
+					logger.log(Level.INFO, "  + Reusing " + localChunkCount + "/" + fileChunks.size() + " chunk(s) from local files for " + fileVersion.getPath() + " ...");
+				}
+				
+				if (missingChunks.size() == 0) {
+					return multiChunksToDownload;
+				}
+				
+				Map<ChunkChecksum, MultiChunkId> checksumsWithMultiChunkIds = localDatabase.getMultiChunkIdsByChecksums(missingChunks);
+				
+				for (ChunkChecksum chunkChecksum : missingChunks) {
 					MultiChunkId multiChunkIdForChunk = checksumsWithMultiChunkIds.get(chunkChecksum);
 					if (multiChunkIdForChunk == null) {
 						multiChunkIdForChunk = winnersDatabase.getMultiChunkIdForChunk(chunkChecksum);
@@ -180,18 +211,53 @@ public class ApplyChangesOperation extends Operation {
 
 		logger.log(Level.FINER, "- Applying file system actions (sorted!) ...");
 
+		// Assemble files ahead (if enabled); actions are still applied in order
+		ParallelFileAssembler parallelFileAssembler = createParallelFileAssembler(actions);
+
 		// Apply
-		for (FileSystemAction action : actions) {
-			if (logger.isLoggable(Level.FINER)) {
-				logger.log(Level.FINER, "   +  {0}", action);
+		try {
+			for (FileSystemAction action : actions) {
+				if (logger.isLoggable(Level.FINER)) {
+					logger.log(Level.FINER, "   +  {0}", action);
+				}
+	
+				// Execute the file system action
+				
+				// Note that exceptions are not caught here, to prevent 
+				// apply-failed-delete-on-up situations.
+				
+				action.execute(); 
+				
+				if (parallelFileAssembler != null) {
+					parallelFileAssembler.release(action);
+				}
 			}
-
-			// Execute the file system action
-			
-			// Note that exceptions are not caught here, to prevent 
-			// apply-failed-delete-on-up situations.
-			
-			action.execute(); 
 		}
+		finally {
+			if (parallelFileAssembler != null) {
+				parallelFileAssembler.shutdown();
+			}
+		}
+	}
+	
+	/**
+	 * Creates a {@link ParallelFileAssembler} for the given sorted actions and sets it on all
+	 * {@link FileCreatingFileSystemAction}s, or returns <tt>null</tt> if only one assembler
+	 * thread is configured (files are then assembled by the actions themselves).
+	 */
+	private ParallelFileAssembler createParallelFileAssembler(List<FileSystemAction> sortedActions) {
+		if (config.getAssemblerThreads() <= 1) {
+			return null;
+		}
+		
+		ParallelFileAssembler parallelFileAssembler = new ParallelFileAssembler(sortedActions, config.getAssemblerThreads());
+		
+		for (FileSystemAction action : sortedActions) {
+			if (action instanceof FileCreatingFileSystemAction) {
+				((FileCreatingFileSystemAction) action).setParallelFileAssembler(parallelFileAssembler);
+			}
+		}
+		
+		return parallelFileAssembler;
 	}
 }
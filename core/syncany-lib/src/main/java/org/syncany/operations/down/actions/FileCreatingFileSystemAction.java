@@ -26,12 +26,24 @@ import org.syncany.database.FileVersion.FileType;
 import org.syncany.database.MemoryDatabase;
 import org.syncany.database.SqlDatabase;
 import org.syncany.operations.Assembler;
+import org.syncany.operations.LocalChunkStore;
 import org.syncany.util.NormalizedPath;
 
 public abstract class FileCreatingFileSystemAction extends FileSystemAction {
+	private LocalChunkStore localChunkStore;
+	private ParallelFileAssembler parallelFileAssembler;
+	
 	public FileCreatingFileSystemAction(Config config, MemoryDatabase winningDatabase, FileVersion file1, FileVersion file2) {
 		super(config, winningDatabase, file1, file2);				
 	}
+	
+	public void setLocalChunkStore(LocalChunkStore localChunkStore) {
+		this.localChunkStore = localChunkStore;
+	}
+
+	public void setParallelFileAssembler(ParallelFileAssembler parallelFileAssembler) {
+		this.parallelFileAssembler = parallelFileAssembler;
+	}
 
 	protected void createFileFolderOrSymlink(FileVersion reconstructedFileVersion) throws Exception {
 		if (reconstructedFileVersion.getType() == FileType.FILE) {
@@ -71,13 +83,18 @@ public abstract class FileCreatingFileSystemAction extends FileSystemAction {
 	}
 
 	protected void createFile(FileVersion reconstructedFileVersion) throws Exception {
-		File reconstructedFileInCache = assembleFileToCache(reconstructedFileVersion);		
+		File reconstructedFileInCache = (parallelFileAssembler != null) ? parallelFileAssembler.take(this, reconstructedFileVersion) : null;
+
+		if (reconstructedFileInCache == null) {
+			reconstructedFileInCache = assembleFileToCache(reconstructedFileVersion);
+		}
+
 		moveFileToFinalLocation(reconstructedFileInCache, reconstructedFileVersion);	
 	}
 	
 	protected File assembleFileToCache(FileVersion reconstructedFileVersion) throws Exception {
 		SqlDatabase localDatabase = new SqlDatabase(config);
-		Assembler assembler = new Assembler(config, localDatabase, winningDatabase);
+		Assembler assembler = new Assembler(config, localDatabase, winningDatabase, localChunkStore);
 
 		File reconstructedFileInCache = assembler.assembleToCache(reconstructedFileVersion);
 		 
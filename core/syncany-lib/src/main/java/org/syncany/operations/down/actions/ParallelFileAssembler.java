@@ -0,0 +1,212 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2015 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.operations.down.actions;
+
+import java.io.File;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.syncany.database.FileVersion;
+import org.syncany.database.FileVersion.FileType;
+import org.syncany.database.FileVersion.FileStatus;
+import org.syncany.operations.down.FileSystemActionComparator;
+
+/**
+ * The parallel file assembler reconstructs the files of the {@link FileCreatingFileSystemAction}s
+ * ahead of time, using a pool of worker threads. Files are only assembled to the cache; moving
+ * them to their final location (and all other file system changes) is still done by the actions
+ * themselves, in the order given by the {@link FileSystemActionComparator}. That way, folders are
+ * still created before the files in them, and deletions and renames are still applied before
+ * conflicting files are created.
+ *
+ * <p>Assembling a file only reads the multichunks in the cache, the local database and the
+ * {@link org.syncany.operations.LocalChunkStore LocalChunkStore}; it does not depend on the state
+ * of the local folder, so that the files can be assembled in any order.
+ *
+ * <p>To bound the disk space used in the cache, at most 4 files per thread are assembled ahead
+ * of the action currently applied. Files that are assembled but not needed by their action
+ * (e.g. because the local file already matches) are deleted when the action is released.
+ */
+public class ParallelFileAssembler {
+	private static final Logger logger = Logger.getLogger(ParallelFileAssembler.class.getSimpleName());
+
+	private final List<FileCreatingFileSystemAction> actions;
+	private final Map<FileSystemAction, Integer> actionIndexes;
+	private final int maxPendingFiles;
+	private final ExecutorService executor;
+
+	private final List<Future<File>> pendingFiles;
+	private int pendingFileCount;
+
+	/**
+	 * Creates a parallel file assembler for the given (sorted) file system actions. Only the
+	 * files of {@link FileCreatingFileSystemAction}s that create a regular file are assembled
+	 * ahead; the assembler must be set on these actions using
+	 * {@link FileCreatingFileSystemAction#setParallelFileAssembler(ParallelFileAssembler) setParallelFileAssembler()}.
+	 */
+	public ParallelFileAssembler(List<FileSystemAction> sortedActions, int threads) {
+		this.actions = new ArrayList<FileCreatingFileSystemAction>();
+		this.actionIndexes = new IdentityHashMap<FileSystemAction, Integer>();
+		this.maxPendingFiles = 4 * threads;
+		this.executor = Executors.newFixedThreadPool(threads, new AssemblerThreadFactory());
+
+		for (FileSystemAction action : sortedActions) {
+			if (action instanceof FileCreatingFileSystemAction && isAssemblable(action.getFile2())) {
+				actionIndexes.put(action, actions.size());
+				actions.add((FileCreatingFileSystemAction) action);
+			}
+		}
+
+		this.pendingFiles = new ArrayList<Future<File>>(actions.size());
+		this.pendingFileCount = 0;
+	}
+
+	/**
+	 * Returns the file that was assembled to the cache for the given action and file version,
+	 * waiting for the worker if necessary, or <tt>null</tt> if the file was not assembled ahead.
+	 * Actions must be applied in the order given to the constructor.
+	 */
+	public File take(FileCreatingFileSystemAction action, FileVersion reconstructedFileVersion) throws Exception {
+		Integer actionIndex = actionIndexes.get(action);
+
+		if (actionIndex == null || reconstructedFileVersion != action.getFile2()) {
+			return null;
+		}
+
+		submitFiles(actionIndex);
+
+		Future<File> pendingFile = pendingFiles.set(actionIndex, null);
+
+		if (pendingFile == null) {
+			return null;
+		}
+
+		try {
+			return pendingFile.get();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for file to be assembled.");
+		}
+		catch (ExecutionException e) {
+			if (e.getCause() instanceof Exception) {
+				throw (Exception) e.getCause();
+			}
+
+			throw new RuntimeException("Cannot assemble file " + reconstructedFileVersion.getPath(), e.getCause());
+		}
+		finally {
+			pendingFileCount--;
+		}
+	}
+
+	/**
+	 * Releases the given action after it has been applied: If its file was assembled
+	 * ahead, but not taken by the action, the assembled file is deleted.
+	 */
+	public void release(FileSystemAction action) {
+		Integer actionIndex = actionIndexes.get(action);
+
+		if (actionIndex == null) {
+			return;
+		}
+
+		// Never assemble the file if the action did not need it
+		while (pendingFiles.size() <= actionIndex) {
+			pendingFiles.add(null);
+		}
+
+		Future<File> pendingFile = pendingFiles.set(actionIndex, null);
+
+		if (pendingFile != null) {
+			pendingFileCount--;
+
+			try {
+				File unusedFile = pendingFile.get();
+
+				logger.log(Level.FINE, "     - Assembled file for {0} not needed; deleting {1}", new Object[] { action.getFile2().getPath(), unusedFile });
+				unusedFile.delete();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			catch (ExecutionException e) {
+				logger.log(Level.FINE, "     - Assembling unused file for " + action.getFile2().getPath() + " failed; ignoring.", e.getCause());
+			}
+		}
+	}
+
+	/**
+	 * Stops all workers. Must be called after all actions have been applied.
+	 */
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+
+	private void submitFiles(int actionIndex) {
+		// Make sure the file itself is submitted, then read ahead
+
+		while (pendingFiles.size() < actions.size() && (pendingFiles.size() <= actionIndex || pendingFileCount < maxPendingFiles)) {
+			FileCreatingFileSystemAction action = actions.get(pendingFiles.size());
+
+			pendingFiles.add(executor.submit(new AssembleFileTask(action)));
+			pendingFileCount++;
+		}
+	}
+
+	private static boolean isAssemblable(FileVersion fileVersion) {
+		return fileVersion != null && fileVersion.getType() == FileType.FILE && fileVersion.getStatus() != FileStatus.DELETED;
+	}
+
+	private static class AssembleFileTask implements Callable<File> {
+		private final FileCreatingFileSystemAction action;
+
+		public AssembleFileTask(FileCreatingFileSystemAction action) {
+			this.action = action;
+		}
+
+		@Override
+		public File call() throws Exception {
+			return action.assembleFileToCache(action.getFile2());
+		}
+	}
+
+	private static class AssemblerThreadFactory implements ThreadFactory {
+		private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "Assembler-" + threadNumber.getAndIncrement());
+			thread.setDaemon(true);
+
+			return thread;
+		}
+	}
+}
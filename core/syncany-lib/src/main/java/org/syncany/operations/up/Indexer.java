@@ -84,13 +84,23 @@ public class Indexer {
 
 	private Config config;
 	private Deduper deduper;
+	private IndexerListener listener;
 	private SqlDatabase localDatabase;
 
 	private LocalEventBus eventBus;
 
 	public Indexer(Config config, Deduper deduper) {
+		this(config, deduper, null);
+	}
+
+	/**
+	 * Creates a new indexer that notifies the given listener (if not null) about
+	 * new multichunks as soon as they are closed.
+	 */
+	public Indexer(Config config, Deduper deduper, IndexerListener listener) {
 		this.config = config;
 		this.deduper = deduper;
+		this.listener = listener;
 		this.localDatabase = new SqlDatabase(config);
 
 		this.eventBus = LocalEventBus.getInstance();
@@ -222,7 +232,7 @@ public class Indexer {
 		private Map<String, PartialFileHistory> filePathCache;
 
 		private ChunkEntry chunkEntry;
-		private MultiChunkEntry multiChunkEntry;
+		private Map<MultiChunkId, MultiChunkEntry> openMultiChunkEntries;
 		private FileContent fileContent;
 
 		private FileProperties startFileProperties;
@@ -237,6 +247,9 @@ public class Indexer {
 
 			this.fileChecksumCache = fileChecksumCache;
 			this.filePathCache = filePathCache;
+
+			// Multichunks may be closed after the next one has been opened (see transformer threads)
+			this.openMultiChunkEntries = new HashMap<MultiChunkId, MultiChunkEntry>();
 		}
 
 		@Override
@@ -600,23 +613,27 @@ public class Indexer {
 		@Override
 		public void onMultiChunkOpen(MultiChunk multiChunk) {
 			logger.log(Level.FINER, "- +MultiChunk {0}", multiChunk.getId());
-			multiChunkEntry = new MultiChunkEntry(multiChunk.getId(), 0); // size unknown so far
+			openMultiChunkEntries.put(multiChunk.getId(), new MultiChunkEntry(multiChunk.getId(), 0)); // size unknown so far
 		}
 
 		@Override
 		public void onMultiChunkWrite(MultiChunk multiChunk, Chunk chunk) {
 			logger.log(Level.FINER, "- Chunk > MultiChunk: {0} > {1}", new Object[] { StringUtil.toHex(chunk.getChecksum()), multiChunk.getId() });
-			multiChunkEntry.addChunk(chunkEntry.getChecksum());
+			openMultiChunkEntries.get(multiChunk.getId()).addChunk(chunkEntry.getChecksum());
 		}
 
 		@Override
 		public void onMultiChunkClose(MultiChunk multiChunk) {
 			logger.log(Level.FINER, "- /MultiChunk {0}", multiChunk.getId());
 
+			MultiChunkEntry multiChunkEntry = openMultiChunkEntries.remove(multiChunk.getId());
 			multiChunkEntry.setSize(multiChunk.getSize());
 
 			newDatabaseVersion.addMultiChunk(multiChunkEntry);
-			multiChunkEntry = null;
+
+			if (listener != null) {
+				listener.onMultiChunkClose(multiChunkEntry, getMultiChunkFile(multiChunkEntry.getId()));
+			}
 		}
 
 		@Override
@@ -0,0 +1,37 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2015 Philipp C. Heckel <philipp.heckel@gmail.com> 
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.operations.up;
+
+import java.io.File;
+
+import org.syncany.database.MultiChunkEntry;
+
+/**
+ * Listener interface used by the {@link Indexer} to notify the caller about
+ * multichunks while the indexing process is still running.
+ */
+public interface IndexerListener {
+	/**
+	 * Called after a new multichunk has been completely written to the
+	 * local cache, i.e. the given file will not be changed anymore.
+	 * 
+	 * @param multiChunkEntry The new multichunk, including all of its chunks
+	 * @param multiChunkFile Local (encrypted) multichunk file
+	 */
+	public void onMultiChunkClose(MultiChunkEntry multiChunkEntry, File multiChunkFile);
+}
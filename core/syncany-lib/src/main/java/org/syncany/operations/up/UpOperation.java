@@ -24,8 +24,10 @@ import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -173,8 +175,16 @@ public class UpOperation extends AbstractTransferOperation {
 			ChangeSet localChanges = result.getStatusResult().getChangeSet();
 			List<File> locallyUpdatedFiles = extractLocallyUpdatedFiles(localChanges);
 
-			// Index
-			newDatabaseVersion = index(locallyUpdatedFiles);
+			// Index (and upload multichunks while indexing, if enabled)
+			Set<MultiChunkId> pipelinedMultiChunkIds = new HashSet<MultiChunkId>();
+
+			try {
+				newDatabaseVersion = index(locallyUpdatedFiles, pipelinedMultiChunkIds);
+			}
+			catch (Exception e) {
+				remoteTransaction.cancelBackgroundUploads();
+				throw e;
+			}
 
 			if (newDatabaseVersion.getFileHistories().size() == 0) {
 				logger.log(Level.INFO, "Local database is up-to-date. NOTHING TO DO!");
@@ -188,7 +198,7 @@ public class UpOperation extends AbstractTransferOperation {
 
 			// Add multichunks to transaction
 			logger.log(Level.INFO, "Uploading new multichunks ...");
-			addMultiChunksToTransaction(newDatabaseVersion.getMultiChunks());
+			addMultiChunksToTransaction(newDatabaseVersion.getMultiChunks(), pipelinedMultiChunkIds);
 		}
 
 		// Create delta database and commit transaction
@@ -491,14 +501,19 @@ public class UpOperation extends AbstractTransferOperation {
 	 * uploading. Multichunks are not uploaded if they are dirty.
 	 *
 	 * @param multiChunkEntries Collection of multiChunkEntries that are included in the new {@link DatabaseVersion}
+	 * @param pipelinedMultiChunkIds Multichunks that have already been added to the transaction during indexing
 	 */
-	private void addMultiChunksToTransaction(Collection<MultiChunkEntry> multiChunksEntries) throws InterruptedException, StorageException {
+	private void addMultiChunksToTransaction(Collection<MultiChunkEntry> multiChunksEntries, Set<MultiChunkId> pipelinedMultiChunkIds)
+			throws InterruptedException, StorageException {
 		List<MultiChunkId> dirtyMultiChunkIds = localDatabase.getDirtyMultiChunkIds();
 
 		for (MultiChunkEntry multiChunkEntry : multiChunksEntries) {
 			if (dirtyMultiChunkIds.contains(multiChunkEntry.getId())) {
 				logger.log(Level.INFO, "- Ignoring multichunk (from dirty database, already uploaded), " + multiChunkEntry.getId() + " ...");
 			}
+			else if (pipelinedMultiChunkIds.contains(multiChunkEntry.getId())) {
+				logger.log(Level.FINE, "- Ignoring multichunk (already added during indexing), " + multiChunkEntry.getId() + " ...");
+			}
 			else {
 				File localMultiChunkFile = config.getCache().getEncryptedMultiChunkFile(multiChunkEntry.getId());
 				MultichunkRemoteFile remoteMultiChunkFile = new MultichunkRemoteFile(multiChunkEntry.getId());
@@ -520,14 +535,44 @@ public class UpOperation extends AbstractTransferOperation {
 	/**
 	 * This method starts the indexing process, using the configured Chunker, MultiChunker and Transformer.
 	 *
+	 * <p>If pipelined uploads are enabled (see {@link UpOperationOptions#isPipelinedUpload()}), each
+	 * multichunk is added to the {@link RemoteTransaction} as soon as it is closed, and uploaded in the
+	 * background while indexing continues.
+	 *
 	 * @param localFiles List of Files that have been altered in some way.
+	 * @param pipelinedMultiChunkIds Filled with the IDs of the multichunks that were added to the transaction during indexing
 	 *
 	 * @return @{link DatabaseVersion} containing the indexed data.
 	 */
-	private DatabaseVersion index(List<File> localFiles) throws FileNotFoundException, IOException {
+	private DatabaseVersion index(List<File> localFiles, final Set<MultiChunkId> pipelinedMultiChunkIds) throws FileNotFoundException, IOException {
+		IndexerListener indexerListener = null;
+
+		if (options.isPipelinedUpload()) {
+			logger.log(Level.INFO, "Pipelined upload enabled, uploading multichunks while indexing ...");
+
+			indexerListener = new IndexerListener() {
+				@Override
+				public void onMultiChunkClose(MultiChunkEntry multiChunkEntry, File multiChunkFile) {
+					try {
+						MultichunkRemoteFile remoteMultiChunkFile = new MultichunkRemoteFile(multiChunkEntry.getId());
+
+						logger.log(Level.INFO, "- Uploading multichunk {0} from {1} to {2} (pipelined) ...", new Object[] { multiChunkEntry.getId(),
+								multiChunkFile, remoteMultiChunkFile });
+
+						remoteTransaction.uploadInBackground(multiChunkFile, remoteMultiChunkFile, true);
+						pipelinedMultiChunkIds.add(multiChunkEntry.getId());
+					}
+					catch (StorageException e) {
+						logger.log(Level.WARNING, "- Cannot add multichunk " + multiChunkEntry.getId() + " during indexing; adding it afterwards.", e);
+					}
+				}
+			};
+		}
+
 		// Index
-		Deduper deduper = new Deduper(config.getChunker(), config.getMultiChunker(), config.getTransformer());
-		Indexer indexer = new Indexer(config, deduper);
+		Deduper deduper = new Deduper(config.getChunker(), config.getMultiChunker(), config.getTransformer(), config.getIndexerThreads(),
+				config.getTransformerThreads());
+		Indexer indexer = new Indexer(config, deduper, indexerListener);
 
 		DatabaseVersion newDatabaseVersion = indexer.index(localFiles);
 
@@ -33,6 +33,9 @@ public class UpOperationOptions implements OperationOptions {
 	@Element(required = false)
 	private boolean resume = true;
 
+	@Element(required = false)
+	private boolean pipelinedUpload = false;
+
 	public StatusOperationOptions getStatusOptions() {
 		return statusOptions;
 	}
@@ -56,4 +59,16 @@ public class UpOperationOptions implements OperationOptions {
 	public void setResume(boolean resume) {
 		this.resume = resume;
 	}
-}
\ No newline at end of file
+
+	public boolean isPipelinedUpload() {
+		return pipelinedUpload;
+	}
+
+	/**
+	 * If enabled, new multichunks are uploaded while the remaining files are
+	 * still being indexed, and are deleted from the local cache once uploaded.
+	 */
+	public void setPipelinedUpload(boolean pipelinedUpload) {
+		this.pipelinedUpload = pipelinedUpload;
+	}
+}
@@ -18,7 +18,9 @@
 package org.syncany.plugins.local;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -159,6 +161,24 @@ public class LocalTransferManager extends AbstractTransferManager {
 		}
 	}
 
+	@Override
+	public InputStream downloadStream(RemoteFile remoteFile) throws StorageException {
+		connect();
+
+		File repoFile = getRemoteFile(remoteFile);
+
+		if (!repoFile.exists()) {
+			throw new StorageFileNotFoundException("No such file in local repository: " + repoFile);
+		}
+
+		try {
+			return new FileInputStream(repoFile);
+		}
+		catch (IOException ex) {
+			throw new StorageException("Unable to open file " + repoFile + " from local repository", ex);
+		}
+	}
+
 	@Override
 	public void move(RemoteFile sourceFile, RemoteFile targetFile) throws StorageException {
 		connect();
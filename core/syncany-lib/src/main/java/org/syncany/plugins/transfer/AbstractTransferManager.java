@@ -18,13 +18,17 @@
 package org.syncany.plugins.transfer;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.syncany.config.Config;
 import org.syncany.plugins.transfer.features.Retriable;
 import org.syncany.plugins.transfer.features.TransactionAware;
+import org.syncany.plugins.transfer.files.RemoteFile;
 import org.syncany.util.StringUtil;
 
 /**
@@ -63,6 +67,53 @@ public abstract class AbstractTransferManager implements TransferManager { // TO
 		}
 	}
 
+	/**
+	 * Opens a remote file for reading. This default implementation downloads
+	 * the file to a temporary file using {@link #download(RemoteFile, File) download()}
+	 * and returns a stream to that file. The temporary file is deleted when the
+	 * stream is closed.
+	 *
+	 * <p>Plugins that can read directly from the remote storage should override
+	 * this method to avoid writing the file to disk.
+	 */
+	@Override
+	public InputStream downloadStream(RemoteFile remoteFile) throws StorageException {
+		final File tempFile;
+
+		try {
+			tempFile = createTempFile("download-stream");
+		}
+		catch (IOException e) {
+			throw new StorageException("Unable to create temporary file for " + remoteFile, e);
+		}
+
+		try {
+			download(remoteFile, tempFile);
+		}
+		catch (StorageException e) {
+			tempFile.delete();
+			throw e;
+		}
+
+		try {
+			return new FileInputStream(tempFile) {
+				@Override
+				public void close() throws IOException {
+					try {
+						super.close();
+					}
+					finally {
+						tempFile.delete();
+					}
+				}
+			};
+		}
+		catch (FileNotFoundException e) {
+			tempFile.delete();
+			throw new StorageException("Unable to read downloaded file " + tempFile, e);
+		}
+	}
+
 	/**
 	 * Checks whether the settings given to this transfer manager can be
 	 * used to create or connect to a remote repository.
@@ -18,6 +18,18 @@
 package org.syncany.plugins.transfer;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -37,18 +49,37 @@ import org.syncany.plugins.transfer.to.TransactionTO;
 /**
  * This class represents a transaction in a remote system. It will keep track of
  * what files are to be added and ensures atomic operation.
+ * 
+ * <p>If more than one transfer thread is configured (see {@link Config#getTransferThreads()}),
+ * the uploads, deletes and moves of a commit are performed in parallel by a bounded
+ * worker pool. Each action's {@link ActionStatus} is only updated once the corresponding
+ * remote operation has completed, so that an interrupted commit can be resumed.
+ * 
+ * <p>Uploads added via {@link #uploadInBackground(File, RemoteFile, boolean) uploadInBackground()}
+ * are transferred to their temporary remote location right away, i.e. before the transaction
+ * is committed. The commit waits for these uploads and only uploads what is left.
  *
  * @author Pim Otte
  */
 public class RemoteTransaction {
 	private static final Logger logger = Logger.getLogger(RemoteTransaction.class.getSimpleName());
 
+	private static final int BACKGROUND_UPLOAD_KEEP_ALIVE_SECONDS = 10;
+
+	private interface ActionTask {
+		public void execute() throws StorageException;
+	}
+
 	private TransferManager transferManager;
 	private Config config;
 	private TransactionTO transactionTO;
 
 	private LocalEventBus eventBus;
 
+	private ThreadPoolExecutor backgroundUploadExecutor;
+	private List<Future<?>> backgroundUploads;
+	private volatile boolean backgroundUploadFailed;
+
 	public RemoteTransaction(Config config, TransferManager transferManager) {
 		this(config, transferManager, new TransactionTO(config.getMachineName()));
 	}
@@ -58,6 +89,10 @@ public class RemoteTransaction {
 		this.transferManager = transferManager;
 		this.transactionTO = transactionTO;
 		this.eventBus = LocalEventBus.getInstance();
+
+		this.backgroundUploadExecutor = null;
+		this.backgroundUploads = new ArrayList<Future<?>>();
+		this.backgroundUploadFailed = false;
 	}
 
 	/**
@@ -71,6 +106,61 @@ public class RemoteTransaction {
 	 * Adds a file to this transaction. Generates a temporary file to store it.
 	 */
 	public void upload(File localFile, RemoteFile remoteFile) throws StorageException {
+		addUploadAction(localFile, remoteFile);
+	}
+
+	/**
+	 * Adds a file to this transaction and immediately starts uploading it to its temporary
+	 * remote location, using up to {@link Config#getTransferThreads()} background threads.
+	 * 
+	 * <p>If a background upload fails, the file (and all files added afterwards) are
+	 * simply uploaded during {@link #commit()}, as if they were added via
+	 * {@link #upload(File, RemoteFile) upload()}.
+	 * 
+	 * @param deleteLocalFile If true, the local file is deleted once it has been uploaded
+	 */
+	public void uploadInBackground(File localFile, RemoteFile remoteFile, final boolean deleteLocalFile) throws StorageException {
+		final ActionTO action = addUploadAction(localFile, remoteFile);
+
+		if (backgroundUploadFailed) {
+			logger.log(Level.INFO, "  -> Previous background upload failed; uploading " + localFile + " during commit.");
+			return;
+		}
+
+		if (backgroundUploadExecutor == null) {
+			int transferThreads = Math.max(1, config.getTransferThreads());
+
+			backgroundUploadExecutor = new ThreadPoolExecutor(transferThreads, transferThreads, BACKGROUND_UPLOAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+					new LinkedBlockingQueue<Runnable>());
+
+			backgroundUploadExecutor.allowCoreThreadTimeOut(true);
+		}
+
+		backgroundUploads.add(backgroundUploadExecutor.submit(new Runnable() {
+			@Override
+			public void run() {
+				uploadToTempLocationInBackground(action, deleteLocalFile);
+			}
+		}));
+	}
+
+	/**
+	 * Cancels all pending background uploads, and waits for the running ones to finish. 
+	 * Files that have already been uploaded remain in their temporary remote location, 
+	 * and will be removed by a later cleanup.
+	 */
+	public void cancelBackgroundUploads() {
+		if (backgroundUploadExecutor != null) {
+			logger.log(Level.INFO, "- Cancelling background uploads ...");
+
+			shutdownAndAwaitTermination(backgroundUploadExecutor);
+
+			backgroundUploadExecutor = null;
+			backgroundUploads.clear();
+		}
+	}
+
+	private ActionTO addUploadAction(File localFile, RemoteFile remoteFile) throws StorageException {
 		TempRemoteFile temporaryRemoteFile = new TempRemoteFile(remoteFile);
 
 		logger.log(Level.INFO, "- Adding file to TX for UPLOAD: " + localFile + " -> Temp. remote file: " + temporaryRemoteFile
@@ -83,6 +173,63 @@ public class RemoteTransaction {
 		action.setRemoteTempLocation(temporaryRemoteFile);
 
 		transactionTO.addAction(action);
+
+		return action;
+	}
+
+	private void uploadToTempLocationInBackground(ActionTO action, boolean deleteLocalFile) {
+		File localFile = action.getLocalTempLocation();
+		RemoteFile tempRemoteFile = action.getTempRemoteFile();
+
+		if (backgroundUploadFailed) {
+			return;
+		}
+
+		try {
+			eventBus.post(new UpUploadFileSyncExternalEvent(config.getLocalDir().getAbsolutePath(), action.getRemoteFile().getName()));
+
+			logger.log(Level.INFO, "- Uploading {0} to temp. file {1} (in background) ...", new Object[] { localFile, tempRemoteFile });
+			transferManager.upload(localFile, tempRemoteFile);
+			action.setStatus(ActionStatus.STARTED);
+
+			if (deleteLocalFile) {
+				logger.log(Level.FINE, "  -> Uploaded; deleting local file {0}", localFile);
+				localFile.delete();
+			}
+		}
+		catch (StorageException e) {
+			logger.log(Level.WARNING, "- Background upload of " + localFile + " failed; remaining files will be uploaded during commit.", e);
+			backgroundUploadFailed = true;
+		}
+	}
+
+	/**
+	 * Waits for all uploads started by {@link #uploadInBackground(File, RemoteFile, boolean) uploadInBackground()}
+	 * to finish. Failed uploads are not rethrown; the corresponding actions are still unstarted, and
+	 * are therefore uploaded by the commit.
+	 */
+	private void awaitBackgroundUploads() throws StorageException {
+		if (backgroundUploadExecutor == null) {
+			return;
+		}
+
+		logger.log(Level.INFO, "- Waiting for " + backgroundUploads.size() + " background upload(s) to finish ...");
+
+		try {
+			for (Future<?> backgroundUpload : backgroundUploads) {
+				backgroundUpload.get();
+			}
+		}
+		catch (ExecutionException e) {
+			throw new StorageException("Background upload failed", e.getCause());
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new StorageException("Interrupted while waiting for background uploads", e);
+		}
+		finally {
+			cancelBackgroundUploads();
+		}
 	}
 
 	/**
@@ -125,6 +272,8 @@ public class RemoteTransaction {
 			return;
 		}
 
+		awaitBackgroundUploads();
+
 		File localTransactionFile = writeLocalTransactionFile();
 		TransactionRemoteFile remoteTransactionFile = uploadTransactionFile(localTransactionFile);
 
@@ -202,40 +351,53 @@ public class RemoteTransaction {
 	 * the most likely part to be interrupted on weak connections.
 	 */
 	private void uploadAndMoveToTempLocation() throws StorageException {
-		TransactionStats stats = gatherTransactionStats();
-		int uploadFileIndex = 0;
+		final TransactionStats stats = gatherTransactionStats();
+		List<ActionTask> actionTasks = new ArrayList<ActionTask>();
 
-		for (ActionTO action : transactionTO.getActions()) {
+		for (final ActionTO action : transactionTO.getActions()) {
 			if (action.getStatus().equals(ActionStatus.UNSTARTED)) {
 				// If we are resuming, this has not been started yet.
-				RemoteFile tempRemoteFile = action.getTempRemoteFile();
+				actionTasks.add(new ActionTask() {
+					@Override
+					public void execute() throws StorageException {
+						uploadOrMoveToTempLocation(action, stats);
+					}
+				});
+			}
+		}
 
-				if (action.getType().equals(ActionType.UPLOAD)) {
-					// The action is an UPLOAD, upload file to temporary remote location
-					File localFile = action.getLocalTempLocation();
-					long localFileSize = localFile.length();
+		executeActionTasks(actionTasks);
+	}
 
-					eventBus.post(new UpUploadFileInTransactionSyncExternalEvent(config.getLocalDir().getAbsolutePath(), ++uploadFileIndex,
-							stats.totalUploadFileCount, localFileSize, stats.totalUploadSize));
+	private void uploadOrMoveToTempLocation(ActionTO action, TransactionStats stats) throws StorageException {
+		RemoteFile tempRemoteFile = action.getTempRemoteFile();
 
-					logger.log(Level.INFO, "- Uploading {0} to temp. file {1} ...", new Object[] { localFile, tempRemoteFile });
-					transferManager.upload(localFile, tempRemoteFile);
-					action.setStatus(ActionStatus.STARTED);
-				}
-				else if (action.getType().equals(ActionType.DELETE)) {
-					// The action is a DELETE, move file to temporary remote location.
-					RemoteFile remoteFile = action.getRemoteFile();
+		if (action.getType().equals(ActionType.UPLOAD)) {
+			// The action is an UPLOAD, upload file to temporary remote location
+			File localFile = action.getLocalTempLocation();
+			long localFileSize = localFile.length();
 
-					try {
-						logger.log(Level.INFO, "- Moving {0} to temp. file {1} ...", new Object[] { remoteFile, tempRemoteFile });
-						transferManager.move(remoteFile, tempRemoteFile);
-					}
-					catch (StorageMoveException e) {
-						logger.log(Level.INFO, "  -> FAILED (don't care!), because the remoteFile does not exist: " + remoteFile);
-					}
-					action.setStatus(ActionStatus.STARTED);
-				}
+			synchronized (stats) {
+				eventBus.post(new UpUploadFileInTransactionSyncExternalEvent(config.getLocalDir().getAbsolutePath(), ++stats.uploadFileIndex,
+						stats.totalUploadFileCount, localFileSize, stats.totalUploadSize));
+			}
+
+			logger.log(Level.INFO, "- Uploading {0} to temp. file {1} ...", new Object[] { localFile, tempRemoteFile });
+			transferManager.upload(localFile, tempRemoteFile);
+			action.setStatus(ActionStatus.STARTED);
+		}
+		else if (action.getType().equals(ActionType.DELETE)) {
+			// The action is a DELETE, move file to temporary remote location.
+			RemoteFile remoteFile = action.getRemoteFile();
+
+			try {
+				logger.log(Level.INFO, "- Moving {0} to temp. file {1} ...", new Object[] { remoteFile, tempRemoteFile });
+				transferManager.move(remoteFile, tempRemoteFile);
+			}
+			catch (StorageMoveException e) {
+				logger.log(Level.INFO, "  -> FAILED (don't care!), because the remoteFile does not exist: " + remoteFile);
 			}
+			action.setStatus(ActionStatus.STARTED);
 		}
 	}
 
@@ -264,15 +426,93 @@ public class RemoteTransaction {
 	 * now moved to their final location.
 	 */
 	private void moveToFinalLocation() throws StorageException {
-		for (ActionTO action : transactionTO.getActions()) {
+		List<ActionTask> actionTasks = new ArrayList<ActionTask>();
+
+		for (final ActionTO action : transactionTO.getActions()) {
 			if (action.getType().equals(ActionType.UPLOAD)) {
-				RemoteFile tempRemoteFile = action.getTempRemoteFile();
-				RemoteFile finalRemoteFile = action.getRemoteFile();
+				actionTasks.add(new ActionTask() {
+					@Override
+					public void execute() throws StorageException {
+						RemoteFile tempRemoteFile = action.getTempRemoteFile();
+						RemoteFile finalRemoteFile = action.getRemoteFile();
+
+						logger.log(Level.INFO, "- Moving temp. file {0} to final location {1} ...", new Object[] { tempRemoteFile, finalRemoteFile });
+						transferManager.move(tempRemoteFile, finalRemoteFile);
+						action.setStatus(ActionStatus.DONE);
+					}
+				});
+			}
+		}
+
+		executeActionTasks(actionTasks);
+	}
+
+	/**
+	 * Executes the given action tasks, either one after the other (if only one transfer
+	 * thread is configured), or in parallel using a bounded worker pool.
+	 * 
+	 * <p>If one of the tasks fails, all pending tasks are cancelled and the method waits
+	 * for the running tasks to finish before the exception is thrown. That way, the
+	 * {@link ActionStatus} of all actions is final when the transaction is persisted
+	 * for resuming.
+	 */
+	private void executeActionTasks(List<ActionTask> actionTasks) throws StorageException {
+		int transferThreads = Math.min(config.getTransferThreads(), actionTasks.size());
 
-				logger.log(Level.INFO, "- Moving temp. file {0} to final location {1} ...", new Object[] { tempRemoteFile, finalRemoteFile });
-				transferManager.move(tempRemoteFile, finalRemoteFile);
-				action.setStatus(ActionStatus.DONE);
+		if (transferThreads <= 1) {
+			for (ActionTask actionTask : actionTasks) {
+				actionTask.execute();
+			}
+		}
+		else {
+			logger.log(Level.INFO, "- Executing " + actionTasks.size() + " action(s) using " + transferThreads + " transfer threads ...");
+
+			ExecutorService executor = Executors.newFixedThreadPool(transferThreads);
+			CompletionService<Void> completionService = new ExecutorCompletionService<Void>(executor);
+
+			try {
+				for (final ActionTask actionTask : actionTasks) {
+					completionService.submit(new Callable<Void>() {
+						@Override
+						public Void call() throws StorageException {
+							actionTask.execute();
+							return null;
+						}
+					});
+				}
+
+				for (int i = 0; i < actionTasks.size(); i++) {
+					completionService.take().get();
+				}
 			}
+			catch (ExecutionException e) {
+				if (e.getCause() instanceof StorageException) {
+					throw (StorageException) e.getCause();
+				}
+				else {
+					throw new StorageException("Transaction action failed", e.getCause());
+				}
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new StorageException("Interrupted while waiting for transaction actions", e);
+			}
+			finally {
+				shutdownAndAwaitTermination(executor);
+			}
+		}
+	}
+
+	private void shutdownAndAwaitTermination(ExecutorService executor) {
+		executor.shutdownNow();
+
+		try {
+			while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+				logger.log(Level.INFO, "- Waiting for running transfers to finish ...");
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
 		}
 	}
 
@@ -330,5 +570,6 @@ public class RemoteTransaction {
 	private static class TransactionStats {
 		private long totalUploadSize;
 		private int totalUploadFileCount;
+		private int uploadFileIndex;
 	}
 }
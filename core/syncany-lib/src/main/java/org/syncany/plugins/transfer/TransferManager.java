@@ -18,6 +18,7 @@
 package org.syncany.plugins.transfer;
 
 import java.io.File;
+import java.io.InputStream;
 import java.util.Map;
 
 import org.syncany.plugins.transfer.files.DatabaseRemoteFile;
@@ -96,6 +97,25 @@ public interface TransferManager {
 	 */
 	public void download(RemoteFile remoteFile, File localFile) throws StorageException;
 
+	/**
+	 * Opens an existing remote file for reading, without storing it on the local disk
+	 * first. The caller is responsible for closing the returned stream.
+	 *
+	 * <p>Contrary to {@link #download(RemoteFile, File) download()}, the file might not
+	 * be read completely if the connection fails while reading. In this case, the
+	 * stream throws an {@code IOException}, and the caller must discard everything it
+	 * has read so far.
+	 *
+	 * <p>If remoteFile does not exist, a {@link StorageFileNotFoundException} is thrown.
+	 *
+	 * @param remoteFile Existing source file on the remote storage.
+	 *        The only required property of the remote file is the name.
+	 * @return Returns an input stream to read the remote file's contents
+	 * @throws StorageException If the connection fails due to no Internet connection,
+	 *         authentication errors, etc.
+	 */
+	public InputStream downloadStream(RemoteFile remoteFile) throws StorageException;
+
 	/**
 	 * Update an existing local file to the online storage.
 	 *
@@ -84,6 +84,14 @@ public @interface PathAware {
 	 */
 	char folderSeparator() default '/';
 
+	/**
+	 * Defines the number of folders listed concurrently when walking the subfolders
+	 * to list the remote files. The {@link PathAwareFeatureExtension} must be thread-safe
+	 * if this is greater than 1, so plugins must opt in explicitly. By default, the folders
+	 * are listed one after the other.
+	 */
+	int listFolderThreads() default 1;
+
 	/**
 	 * Defines the remote file classes to be affected by the subfoldering. Do not
 	 * change the default unless you know what you are doing.
@@ -58,4 +58,23 @@ public interface PathAwareFeatureExtension extends FeatureExtension {
 	 * @return Filename/type list for the given subfolder 
 	 */
 	public Map<String, FileType> listFolder(String path) throws StorageException;
+
+	/**
+	 * Optional extension for storage backends that can list an entire folder
+	 * tree with a single (or a few) calls. If an extension implements this interface,
+	 * the subfolders do not have to be listed one by one.
+	 */
+	public interface WithSubtreeListing extends PathAwareFeatureExtension {
+		/**
+		 * Lists the contents of the given path / folder and all of its subfolders on
+		 * the remote storage. The subfolder paths are expected to be built from the
+		 * given path, the folder separator and the subfolder names.
+		 * 
+		 * @param path Path/folder to be listed recursively
+		 * @return Map of folder path to filename/type list for the given folder and all of its 
+		 *         subfolders, or <tt>null</tt> if the subtree cannot be listed at once, 
+		 *         in which case the folders are listed one by one
+		 */
+		public Map<String, Map<String, FileType>> listSubtree(String path) throws StorageException;
+	}
 }
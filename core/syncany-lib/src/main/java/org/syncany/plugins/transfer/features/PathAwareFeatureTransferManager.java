@@ -18,12 +18,21 @@
 package org.syncany.plugins.transfer.features;
 
 import java.io.File;
+import java.io.InputStream;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -33,6 +42,7 @@ import org.syncany.plugins.transfer.StorageException;
 import org.syncany.plugins.transfer.StorageTestResult;
 import org.syncany.plugins.transfer.TransferManager;
 import org.syncany.plugins.transfer.TransferPlugin;
+import org.syncany.plugins.transfer.features.PathAwareFeatureExtension.WithSubtreeListing;
 import org.syncany.plugins.transfer.files.MultichunkRemoteFile;
 import org.syncany.plugins.transfer.files.RemoteFile;
 import org.syncany.plugins.transfer.files.RemoteFileAttributes;
@@ -41,7 +51,9 @@ import org.syncany.util.StringUtil;
 
 import com.google.common.base.Charsets;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.google.common.hash.Hashing;
 
 /**
@@ -57,6 +69,15 @@ import com.google.common.hash.Hashing;
  * <p>The sub-path for a {@link RemoteFile} can then be accessed via the
  * {@link PathAwareRemoteFileAttributes} using the {@link RemoteFile#getAttributes(Class)} method.
  * 
+ * <p>To limit the number of calls to the backend, the transfer manager keeps track of known
+ * subfolders and their number of children (see {@link PathAwareFolderCache}). Known folders are 
+ * not created again, and empty subfolders are not removed after each deletion, but pruned
+ * in one batch when the transfer manager is {@link #disconnect() disconnected}.
+ * 
+ * <p>When listing remote files, the subfolders are walked level by level, listing up to 
+ * {@link PathAware#listFolderThreads()} folders concurrently. If the extension implements
+ * {@link WithSubtreeListing}, the whole tree is listed at once instead.
+ * 
  * @see PathAware
  * @see PathAwareFeatureExtension
  * @see PathAwareRemoteFileAttributes
@@ -70,8 +91,10 @@ public class PathAwareFeatureTransferManager implements FeatureTransferManager {
 	private final int subfolderDepth;
 	private final int bytesPerFolder;
 	private final char folderSeparator;
+	private final int listFolderThreads;
 	private final List<Class<? extends RemoteFile>> affectedFiles;
 	private final PathAwareFeatureExtension pathAwareFeatureExtension;
+	private final PathAwareFolderCache folderCache;
 
 	public PathAwareFeatureTransferManager(TransferManager originalTransferManager, TransferManager underlyingTransferManager, Config config, PathAware pathAwareAnnotation) {
 		this.underlyingTransferManager = underlyingTransferManager;
@@ -79,9 +102,11 @@ public class PathAwareFeatureTransferManager implements FeatureTransferManager {
 		this.subfolderDepth = pathAwareAnnotation.subfolderDepth();
 		this.bytesPerFolder = pathAwareAnnotation.bytesPerFolder();
 		this.folderSeparator = pathAwareAnnotation.folderSeparator();
+		this.listFolderThreads = pathAwareAnnotation.listFolderThreads();
 		this.affectedFiles = ImmutableList.copyOf(pathAwareAnnotation.affected());
 
 		this.pathAwareFeatureExtension = getPathAwareFeatureExtension(originalTransferManager, pathAwareAnnotation);
+		this.folderCache = new PathAwareFolderCache();
 	}
 
 	@SuppressWarnings("unchecked")
@@ -110,6 +135,7 @@ public class PathAwareFeatureTransferManager implements FeatureTransferManager {
 
 	@Override
 	public void disconnect() throws StorageException {
+		pruneEmptyFolders();
 		underlyingTransferManager.disconnect();
 	}
 
@@ -123,6 +149,11 @@ public class PathAwareFeatureTransferManager implements FeatureTransferManager {
 		underlyingTransferManager.download(createPathAwareRemoteFile(remoteFile), localFile);
 	}
 
+	@Override
+	public InputStream downloadStream(final RemoteFile remoteFile) throws StorageException {
+		return underlyingTransferManager.downloadStream(createPathAwareRemoteFile(remoteFile));
+	}
+
 	@Override
 	public void move(final RemoteFile sourceFile, final RemoteFile targetFile) throws StorageException {
 		final RemoteFile pathAwareSourceFile = createPathAwareRemoteFile(sourceFile);
@@ -133,64 +164,220 @@ public class PathAwareFeatureTransferManager implements FeatureTransferManager {
 		}
 
 		underlyingTransferManager.move(pathAwareSourceFile, pathAwareTargetFile);
-		removeFolder(pathAwareSourceFile);
+
+		addChild(pathAwareTargetFile);
+		removeChild(pathAwareSourceFile);
 	}
 
 	@Override
 	public void upload(final File localFile, final RemoteFile remoteFile) throws StorageException {
 		final RemoteFile pathAwareRemoteFile = createPathAwareRemoteFile(remoteFile);
 
+		boolean folderKnown = isKnownFolder(pathAwareRemoteFile);
+
 		if (!createFolder(pathAwareRemoteFile)) {
 			throw new StorageException("Unable to create path for " + pathAwareRemoteFile);
 		}
 
-		underlyingTransferManager.upload(localFile, pathAwareRemoteFile);
+		try {
+			underlyingTransferManager.upload(localFile, pathAwareRemoteFile);
+		}
+		catch (StorageException e) {
+			if (!folderKnown) {
+				throw e;
+			}
+
+			// The folder was not created, because it was assumed to exist. It might have been
+			// removed in the meantime, so we create it (for real) and try again.
+
+			logger.log(Level.INFO, "Upload to known folder failed; re-creating folder and trying again ...", e);
+
+			forgetFolder(pathAwareRemoteFile);
+
+			if (!createFolder(pathAwareRemoteFile)) {
+				throw new StorageException("Unable to create path for " + pathAwareRemoteFile);
+			}
+
+			underlyingTransferManager.upload(localFile, pathAwareRemoteFile);
+		}
+
+		addChild(pathAwareRemoteFile);
 	}
 
 	@Override
 	public boolean delete(final RemoteFile remoteFile) throws StorageException {
 		RemoteFile pathAwareRemoteFile = createPathAwareRemoteFile(remoteFile);
-		
 		boolean fileDeleted = underlyingTransferManager.delete(pathAwareRemoteFile);
-		boolean folderDeleted = removeFolder(pathAwareRemoteFile);
 
-		return fileDeleted && folderDeleted;
+		removeChild(pathAwareRemoteFile);
+
+		return fileDeleted;
 	}
 
 	@Override
 	public <T extends RemoteFile> Map<String, T> list(final Class<T> remoteFileClass) throws StorageException {
-		Map<String, T> filesInFolder = Maps.newHashMap();
+		Map<String, T> filesInFolder = Maps.newConcurrentMap();
 		String remoteFilePath = getRemoteFilePath(remoteFileClass);
 
-		list(remoteFilePath, filesInFolder, remoteFileClass);
+		if (!listSubtree(remoteFilePath, filesInFolder, remoteFileClass)) {
+			listFolderTree(remoteFilePath, filesInFolder, remoteFileClass);
+		}
 
 		return filesInFolder;
 	}
 
-	private <T extends RemoteFile> void list(String remoteFilePath, Map<String, T> remoteFiles, Class<T> remoteFileClass) throws StorageException {
+	/**
+	 * Lists the entire folder tree with one call to the extension, if it supports
+	 * {@link WithSubtreeListing}. Returns <tt>false</tt> if the folders have to be listed
+	 * one by one instead.
+	 */
+	private <T extends RemoteFile> boolean listSubtree(String remoteFilePath, Map<String, T> remoteFiles, Class<T> remoteFileClass) throws StorageException {
+		if (!(pathAwareFeatureExtension instanceof WithSubtreeListing)) {
+			return false;
+		}
+
+		Map<String, Map<String, FileType>> subtreeList = ((WithSubtreeListing) pathAwareFeatureExtension).listSubtree(remoteFilePath);
+
+		if (subtreeList == null) {
+			logger.log(Level.INFO, "Listing subtree " + remoteFilePath + " not possible, listing folders one by one ...");
+			return false;
+		}
+
+		logger.log(Level.INFO, "Listed subtree for files matching " + remoteFileClass.getSimpleName() + ": " + remoteFilePath + " ("
+				+ subtreeList.size() + " folder(s))");
+
+		for (Map.Entry<String, Map<String, FileType>> subtreeListEntry : subtreeList.entrySet()) {
+			folderCache.putFolder(subtreeListEntry.getKey(), subtreeListEntry.getValue().size());
+			addFiles(subtreeListEntry.getValue(), remoteFiles, remoteFileClass);
+		}
+
+		return true;
+	}
+
+	/**
+	 * Walks the folder tree level by level, starting at the given remote file path. The
+	 * folders of one level are listed concurrently (if there is more than one, and more than
+	 * one thread is allowed), and their subfolders form the next level.
+	 */
+	private <T extends RemoteFile> void listFolderTree(String remoteFilePath, Map<String, T> remoteFiles, Class<T> remoteFileClass) throws StorageException {
+		List<String> folders = ImmutableList.of(remoteFilePath);
+		ExecutorService executor = null;
+
+		try {
+			while (!folders.isEmpty()) {
+				if (listFolderThreads <= 1 || folders.size() == 1) {
+					List<String> subfolders = Lists.newArrayList();
+
+					for (String folder : folders) {
+						subfolders.addAll(listFolder(folder, remoteFiles, remoteFileClass));
+					}
+
+					folders = subfolders;
+				}
+				else {
+					if (executor == null) {
+						executor = Executors.newFixedThreadPool(listFolderThreads);
+					}
+
+					folders = listFoldersConcurrently(executor, folders, remoteFiles, remoteFileClass);
+				}
+			}
+		}
+		finally {
+			if (executor != null) {
+				shutdownAndAwaitTermination(executor);
+			}
+		}
+	}
+
+	private <T extends RemoteFile> List<String> listFoldersConcurrently(ExecutorService executor, List<String> folders, final Map<String, T> remoteFiles,
+			final Class<T> remoteFileClass) throws StorageException {
+
+		logger.log(Level.INFO, "Listing " + folders.size() + " folder(s) using " + listFolderThreads + " threads ...");
+
+		CompletionService<List<String>> completionService = new ExecutorCompletionService<List<String>>(executor);
+		List<String> subfolders = Lists.newArrayList();
+
+		for (final String folder : folders) {
+			completionService.submit(new Callable<List<String>>() {
+				@Override
+				public List<String> call() throws StorageException {
+					return listFolder(folder, remoteFiles, remoteFileClass);
+				}
+			});
+		}
+
+		try {
+			for (int i = 0; i < folders.size(); i++) {
+				subfolders.addAll(completionService.take().get());
+			}
+		}
+		catch (ExecutionException e) {
+			if (e.getCause() instanceof StorageException) {
+				throw (StorageException) e.getCause();
+			}
+			else {
+				throw new StorageException("Listing folder failed", e.getCause());
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new StorageException("Interrupted while listing folders", e);
+		}
+
+		return subfolders;
+	}
+
+	/**
+	 * Lists a single folder, adds the matching files to the given map and returns
+	 * the paths of the subfolders.
+	 */
+	private <T extends RemoteFile> List<String> listFolder(String remoteFilePath, Map<String, T> remoteFiles, Class<T> remoteFileClass) throws StorageException {
 		logger.log(Level.INFO, "Listing folder for files matching " + remoteFileClass.getSimpleName() + ": " + remoteFilePath);
 		Map<String, FileType> folderList = pathAwareFeatureExtension.listFolder(remoteFilePath);
-		
+		folderCache.putFolder(remoteFilePath, folderList.size());
+
+		addFiles(folderList, remoteFiles, remoteFileClass);
+
+		List<String> subfolders = Lists.newArrayList();
+
+		for (Map.Entry<String, FileType> folderListEntry : folderList.entrySet()) {
+			if (folderListEntry.getValue() == FileType.FOLDER) {
+				logger.log(Level.INFO, "- Folder: " + folderListEntry.getKey());
+				subfolders.add(remoteFilePath + folderSeparator + folderListEntry.getKey());
+			}
+		}
+
+		return subfolders;
+	}
+
+	private <T extends RemoteFile> void addFiles(Map<String, FileType> folderList, Map<String, T> remoteFiles, Class<T> remoteFileClass) {
 		for (Map.Entry<String, FileType> folderListEntry : folderList.entrySet()) {
 			String fileName = folderListEntry.getKey();
-			FileType fileType = folderListEntry.getValue();
-			
-			if (fileType == FileType.FILE) {
+
+			if (folderListEntry.getValue() == FileType.FILE) {
 				try {
 					remoteFiles.put(fileName, RemoteFile.createRemoteFile(fileName, remoteFileClass));
-					logger.log(Level.INFO, "- File: " + fileName);					
+					logger.log(Level.INFO, "- File: " + fileName);
 				}
 				catch (StorageException e) {
 					// We don't care and ignore non-matching files!
 				}
 			}
-			else if (fileType == FileType.FOLDER) {
-				logger.log(Level.INFO, "- Folder: " + fileName);
+		}
+	}
+
+	private void shutdownAndAwaitTermination(ExecutorService executor) {
+		executor.shutdownNow();
 
-				String newRemoteFilePath = remoteFilePath + folderSeparator + fileName;
-				list(newRemoteFilePath, remoteFiles, remoteFileClass);
+		try {
+			while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+				logger.log(Level.INFO, "- Waiting for running folder listings to finish ...");
 			}
 		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
 	}
 
 	@Override
@@ -275,54 +462,129 @@ public class PathAwareFeatureTransferManager implements FeatureTransferManager {
 		return path.toString().replaceAll(File.separator, String.valueOf(folderSeparator));
 	}
 
-	private boolean createFolder(RemoteFile remoteFile) throws StorageException {
-		PathAwareRemoteFileAttributes pathAwareRemoteFileAttributes = remoteFile.getAttributes(PathAwareRemoteFileAttributes.class);		
+	/**
+	 * Returns the full remote folder path of a path aware remote file, or <tt>null</tt>
+	 * if the given file is not subfoldered.
+	 */
+	private String getRemoteFolder(RemoteFile remoteFile) {
+		PathAwareRemoteFileAttributes pathAwareRemoteFileAttributes = remoteFile.getAttributes(PathAwareRemoteFileAttributes.class);
 		boolean notAPathAwareRemoteFile = pathAwareRemoteFileAttributes == null || !pathAwareRemoteFileAttributes.hasPath();
-		
+
 		if (notAPathAwareRemoteFile) {
-			return true;
-		} 
+			return null;
+		}
 		else {
-			String remoteFilePath = pathToString(Paths.get(underlyingTransferManager.getRemoteFilePath(remoteFile.getClass()), pathAwareRemoteFileAttributes.getPath()));
-	
-			logger.log(Level.INFO, "Remote file is path aware, creating folder " + remoteFilePath);
-			boolean success = pathAwareFeatureExtension.createPath(remoteFilePath);
-			
-			return success;
+			return pathToString(Paths.get(underlyingTransferManager.getRemoteFilePath(remoteFile.getClass()), pathAwareRemoteFileAttributes.getPath()));
 		}
 	}
 
-	private boolean removeFolder(RemoteFile remoteFile) throws StorageException {
-		PathAwareRemoteFileAttributes pathAwareRemoteFileAttributes = remoteFile.getAttributes(PathAwareRemoteFileAttributes.class);
-		boolean notAPathAwareRemoteFile = pathAwareRemoteFileAttributes == null || !pathAwareRemoteFileAttributes.hasPath();
-		
-		if (notAPathAwareRemoteFile) {
+	private boolean createFolder(RemoteFile remoteFile) throws StorageException {
+		String remoteFolder = getRemoteFolder(remoteFile);
+
+		if (remoteFolder == null) {
+			return true;
+		}
+		else if (folderCache.isKnownFolder(remoteFolder)) {
+			logger.log(Level.FINE, "Remote file is path aware, folder " + remoteFolder + " is known to exist");
 			return true;
 		}
 		else {
-			String remoteFilePath = pathToString(Paths.get(underlyingTransferManager.getRemoteFilePath(remoteFile.getClass()), pathAwareRemoteFileAttributes.getPath()));
+			logger.log(Level.INFO, "Remote file is path aware, creating folder " + remoteFolder);
+			boolean success = pathAwareFeatureExtension.createPath(remoteFolder);
+
+			if (success) {
+				folderCache.addFolder(remoteFolder);
+			}
 
-			logger.log(Level.INFO, "Remote file is path aware, cleaning empty folders at " + remoteFilePath);
-			boolean success = removeFolder(remoteFilePath);
-		
 			return success;
 		}
 	}
 
-	private boolean removeFolder(String folder) throws StorageException {
-		for(int i = 0; i < subfolderDepth; i++) {
-			logger.log(Level.FINE, "Removing folder " + folder);
+	private boolean isKnownFolder(RemoteFile remoteFile) {
+		String remoteFolder = getRemoteFolder(remoteFile);
+		return remoteFolder != null && folderCache.isKnownFolder(remoteFolder);
+	}
 
-			if (pathAwareFeatureExtension.listFolder(folder).size() != 0) {
-				return true;
-			}
+	private void forgetFolder(RemoteFile remoteFile) {
+		String remoteFolder = getRemoteFolder(remoteFile);
+
+		if (remoteFolder != null) {
+			folderCache.removeFolder(remoteFolder);
+		}
+	}
+
+	private void addChild(RemoteFile remoteFile) {
+		String remoteFolder = getRemoteFolder(remoteFile);
+
+		if (remoteFolder != null) {
+			folderCache.addChild(remoteFolder);
+		}
+	}
+
+	private void removeChild(RemoteFile remoteFile) {
+		String remoteFolder = getRemoteFolder(remoteFile);
+
+		if (remoteFolder != null) {
+			folderCache.removeChild(remoteFolder);
+			folderCache.addPruneCandidate(remoteFolder);
+		}
+	}
 
-			if (!pathAwareFeatureExtension.removeFolder(folder)) {
-				return false;
+	/**
+	 * Removes all empty subfolders that might have been left behind by deleted or moved files
+	 * since the last call. Folders are processed level by level, from the deepest subfolders
+	 * up to the subfolders directly below the remote file path. A folder is only listed if its
+	 * child count is not known to be positive.
+	 *
+	 * <p>Pruning is a best-effort cleanup: Failures are logged, but never thrown. 
+	 */
+	private void pruneEmptyFolders() {
+		Set<String> folders = folderCache.drainPruneCandidates();
+
+		if (folders.isEmpty()) {
+			return;
+		}
+
+		logger.log(Level.INFO, "Pruning empty folders, starting with " + folders.size() + " folder(s) ...");
+
+		for (int i = 0; i < subfolderDepth && !folders.isEmpty(); i++) {
+			Set<String> parentFolders = Sets.newLinkedHashSet();
+
+			for (String folder : folders) {
+				try {
+					if (removeFolderIfEmpty(folder)) {
+						parentFolders.add(folder.substring(0, folder.lastIndexOf(folderSeparator)));
+					}
+				}
+				catch (StorageException e) {
+					logger.log(Level.WARNING, "Cannot prune folder " + folder + "; ignoring.", e);
+				}
 			}
 
-			folder = folder.substring(0, folder.lastIndexOf(folderSeparator));
+			folders = parentFolders;
 		}
+	}
+
+	private boolean removeFolderIfEmpty(String folder) throws StorageException {
+		if (folderCache.getChildCount(folder) > 0) {
+			return false;
+		}
+
+		int childCount = pathAwareFeatureExtension.listFolder(folder).size();
+
+		if (childCount != 0) {
+			folderCache.putFolder(folder, childCount);
+			return false;
+		}
+
+		logger.log(Level.FINE, "Removing folder " + folder);
+
+		if (!pathAwareFeatureExtension.removeFolder(folder)) {
+			return false;
+		}
+
+		folderCache.removeFolder(folder);
+		folderCache.removeChild(folder.substring(0, folder.lastIndexOf(folderSeparator)));
 
 		return true;
 	}
@@ -0,0 +1,115 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2015 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.plugins.transfer.features;
+
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * In-memory cache of the subfolder state used by the {@link PathAwareFeatureTransferManager}.
+ * For each known remote folder, it holds the number of children (if known), and it collects 
+ * the folders that might have become empty and are to be pruned at the end of an operation.
+ * 
+ * <p>The cache is only a hint: A folder that is known to exist does not need to be created
+ * again, and a folder with a known non-zero child count does not need to be listed before
+ * it can be pruned. If the child count is unknown or zero, the folder must be listed.
+ * 
+ * <p>All methods are thread-safe.
+ */
+class PathAwareFolderCache {
+	public static final int UNKNOWN_CHILD_COUNT = -1;
+
+	private final Map<String, Integer> folderChildCounts;
+	private final Set<String> pruneCandidates;
+
+	public PathAwareFolderCache() {
+		this.folderChildCounts = Maps.newHashMap();
+		this.pruneCandidates = Sets.newLinkedHashSet();
+	}
+
+	/**
+	 * Registers an existing folder and its child count (or {@link #UNKNOWN_CHILD_COUNT}).
+	 */
+	public synchronized void putFolder(String folder, int childCount) {
+		folderChildCounts.put(folder, childCount);
+	}
+
+	/**
+	 * Registers an existing folder, but does not overwrite the child
+	 * count if the folder is already known.
+	 */
+	public synchronized void addFolder(String folder) {
+		if (!folderChildCounts.containsKey(folder)) {
+			folderChildCounts.put(folder, UNKNOWN_CHILD_COUNT);
+		}
+	}
+
+	public synchronized boolean isKnownFolder(String folder) {
+		return folderChildCounts.containsKey(folder);
+	}
+
+	public synchronized int getChildCount(String folder) {
+		Integer childCount = folderChildCounts.get(folder);
+		return (childCount != null) ? childCount : UNKNOWN_CHILD_COUNT;
+	}
+
+	/**
+	 * Removes a folder from the cache, e.g. because it was deleted or
+	 * because its state is no longer trusted.
+	 */
+	public synchronized void removeFolder(String folder) {
+		folderChildCounts.remove(folder);
+	}
+
+	public synchronized void addChild(String folder) {
+		changeChildCount(folder, +1);
+	}
+
+	public synchronized void removeChild(String folder) {
+		changeChildCount(folder, -1);
+	}
+
+	/**
+	 * Marks a folder as possibly empty, so that it is checked and
+	 * pruned by the next batch (see {@link #drainPruneCandidates()}).
+	 */
+	public synchronized void addPruneCandidate(String folder) {
+		pruneCandidates.add(folder);
+	}
+
+	/**
+	 * Returns and clears all folders marked as possibly empty.
+	 */
+	public synchronized Set<String> drainPruneCandidates() {
+		Set<String> drainedPruneCandidates = Sets.newLinkedHashSet(pruneCandidates);
+		pruneCandidates.clear();
+
+		return drainedPruneCandidates;
+	}
+
+	private void changeChildCount(String folder, int delta) {
+		Integer childCount = folderChildCounts.get(folder);
+
+		if (childCount != null && childCount != UNKNOWN_CHILD_COUNT) {
+			folderChildCounts.put(folder, Math.max(0, childCount + delta));
+		}
+	}
+}
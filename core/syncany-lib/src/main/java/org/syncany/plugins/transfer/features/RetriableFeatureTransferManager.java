@@ -18,6 +18,8 @@
 package org.syncany.plugins.transfer.features;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -29,6 +31,8 @@ import org.syncany.plugins.transfer.StorageTestResult;
 import org.syncany.plugins.transfer.TransferManager;
 import org.syncany.plugins.transfer.files.RemoteFile;
 
+import com.google.common.io.ByteStreams;
+
 /**
  * The retriable transfer manager implements a simple try-sleep-retry mechanism
  * for regular {@link org.syncany.plugins.transfer.TransferManager}s. 
@@ -38,6 +42,10 @@ import org.syncany.plugins.transfer.files.RemoteFile;
  * method is retried N times before the exception is actually thrown to the caller.
  * Between retries, the method waits M seconds.
  *
+ * <p>Streams returned by {@link #downloadStream(RemoteFile)} are retried as well: If
+ * reading from the stream fails, the remote file is re-opened and reading continues at
+ * the last position.
+ *
  * @author Philipp C. Heckel <philipp.heckel@gmail.com>
  */
 public class RetriableFeatureTransferManager implements FeatureTransferManager {
@@ -51,14 +59,10 @@ public class RetriableFeatureTransferManager implements FeatureTransferManager {
 	private int retryMaxCount;
 	private int retrySleepMillis;
 
-	private int tryCount;
-
 	public RetriableFeatureTransferManager(TransferManager originalTransferManager, TransferManager underlyingTransferManager, Config config, Retriable retriableAnnotation) {
 		this.underlyingTransferManager = underlyingTransferManager;
 		this.retryMaxCount = retriableAnnotation.numberRetries();
 		this.retrySleepMillis = retriableAnnotation.sleepInterval();
-
-		this.tryCount = 0;
 	}
 
 	@Override
@@ -105,6 +109,21 @@ public class RetriableFeatureTransferManager implements FeatureTransferManager {
 		});
 	}
 
+	@Override
+	public InputStream downloadStream(final RemoteFile remoteFile) throws StorageException {
+		InputStream underlyingInputStream = openDownloadStream(remoteFile);
+		return new RetriableInputStream(remoteFile, underlyingInputStream);
+	}
+
+	private InputStream openDownloadStream(final RemoteFile remoteFile) throws StorageException {
+		return (InputStream) retryMethod(new RetriableMethod() {
+			@Override
+			public Object execute() throws StorageException {
+				return underlyingTransferManager.downloadStream(remoteFile);
+			}
+		});
+	}
+
 	@Override
 	public void move(final RemoteFile sourceFile, final RemoteFile targetFile) throws StorageException {
 		retryMethod(new RetriableMethod() {
@@ -199,7 +218,7 @@ public class RetriableFeatureTransferManager implements FeatureTransferManager {
 	}
 
 	private Object retryMethod(RetriableMethod retryableMethod) throws StorageException {
-		tryCount = 0;
+		int tryCount = 0;
 
 		while (true) {
 			try {
@@ -207,10 +226,7 @@ public class RetriableFeatureTransferManager implements FeatureTransferManager {
 					logger.log(Level.WARNING, "Retrying method: " + tryCount + "/" + retryMaxCount + " ...");
 				}
 
-				Object result = retryableMethod.execute();
-
-				tryCount = 0;
-				return result;
+				return retryableMethod.execute();
 			}
 			catch (StorageMoveException e) {
 				// StorageFileNotFoundException used to be caught here. It no longer is,
@@ -242,4 +258,103 @@ public class RetriableFeatureTransferManager implements FeatureTransferManager {
 			}
 		}
 	}
+
+	/**
+	 * Input stream wrapper for {@link #downloadStream(RemoteFile)} that re-opens the
+	 * remote file if reading fails, and skips the bytes that have already been read.
+	 * Remote files never change once they are written, so the resumed stream continues
+	 * with exactly the same bytes.
+	 */
+	private class RetriableInputStream extends InputStream {
+		private final RemoteFile remoteFile;
+		private InputStream underlyingInputStream;
+		private long position;
+		private int tryCount;
+
+		public RetriableInputStream(RemoteFile remoteFile, InputStream underlyingInputStream) {
+			this.remoteFile = remoteFile;
+			this.underlyingInputStream = underlyingInputStream;
+			this.position = 0;
+			this.tryCount = 0;
+		}
+
+		@Override
+		public int read() throws IOException {
+			while (true) {
+				try {
+					int b = underlyingInputStream.read();
+
+					if (b >= 0) {
+						position++;
+					}
+
+					return b;
+				}
+				catch (IOException e) {
+					reopen(e);
+				}
+			}
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int length) throws IOException {
+			while (true) {
+				try {
+					int read = underlyingInputStream.read(buffer, offset, length);
+
+					if (read > 0) {
+						position += read;
+					}
+
+					return read;
+				}
+				catch (IOException e) {
+					reopen(e);
+				}
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			underlyingInputStream.close();
+		}
+
+		private void reopen(IOException e) throws IOException {
+			tryCount++;
+
+			if (tryCount >= retryMaxCount) {
+				logger.log(Level.WARNING, "Reading " + remoteFile + " failed. No retries left. Throwing exception.", e);
+				throw e;
+			}
+
+			logger.log(Level.WARNING, "Reading " + remoteFile + " failed at position " + position + ". " + tryCount + "/" + retryMaxCount
+					+ " retries. Sleeping " + retrySleepMillis + "ms ...", e);
+
+			try {
+				underlyingInputStream.close();
+			}
+			catch (IOException closeException) {
+				logger.log(Level.FINE, "Cannot close failed stream; ignoring.", closeException);
+			}
+
+			try {
+				Thread.sleep(retrySleepMillis);
+				underlyingInputStream = openDownloadStream(remoteFile);
+			}
+			catch (InterruptedException e1) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while resuming " + remoteFile, e1);
+			}
+			catch (StorageException e1) {
+				throw new IOException("Unable to resume reading " + remoteFile, e1);
+			}
+
+			try {
+				ByteStreams.skipFully(underlyingInputStream, position);
+			}
+			catch (IOException e1) {
+				reopen(e1);
+			}
+		}
+	}
 }
@@ -19,6 +19,7 @@ package org.syncany.plugins.transfer.features;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
@@ -87,6 +88,17 @@ public class TransactionAwareFeatureTransferManager implements FeatureTransferMa
 		}
 	}
 
+	@Override
+	public InputStream downloadStream(final RemoteFile remoteFile) throws StorageException {
+		try {
+			return underlyingTransferManager.downloadStream(remoteFile);
+		}
+		catch (StorageFileNotFoundException e) {
+			logger.log(Level.FINE, "Could not find the Storage file", e);
+			return underlyingTransferManager.downloadStream(findDeletedTempFileInTransaction(remoteFile));
+		}
+	}
+
 	/**
 	 * Downloads all transaction files and looks for the corresponding temporary file
 	 * for the given remote file. If there is a temporary file, the file is downloaded
@@ -96,6 +108,14 @@ public class TransactionAwareFeatureTransferManager implements FeatureTransferMa
 	 * if a file does not exist.
 	 */
 	private void downloadDeletedTempFileInTransaction(RemoteFile remoteFile, File localFile) throws StorageException {
+		underlyingTransferManager.download(findDeletedTempFileInTransaction(remoteFile), localFile);
+	}
+
+	/**
+	 * Looks for the temporary file corresponding to the given remote file in all remote
+	 * transactions, or throws a {@link StorageFileNotFoundException} if there is none.
+	 */
+	private TempRemoteFile findDeletedTempFileInTransaction(RemoteFile remoteFile) throws StorageException {
 		logger.log(Level.INFO, "File {0} not found, checking if it is being deleted ...", remoteFile.getName());
 
 		Set<TransactionTO> transactions = retrieveRemoteTransactions().keySet();
@@ -111,12 +131,12 @@ public class TransactionAwareFeatureTransferManager implements FeatureTransferMa
 			}
 		}
 
-		// Download file, or throw exception
+		// Return temp. file, or throw exception
 		if (tempRemoteFile != null) {
 			logger.log(Level.INFO, "-> File {0} in process of being deleted; downloading corresponding temp. file {1} ...",
 					new Object[] { remoteFile.getName(), tempRemoteFile.getName() });
 
-			underlyingTransferManager.download(tempRemoteFile, localFile);
+			return tempRemoteFile;
 		}
 		else {
 			logger.log(Level.WARNING, "-> File {0} does not exist and is not in any transaction. Throwing exception.", remoteFile.getName());
@@ -1 +0,0 @@
-select * from chunk
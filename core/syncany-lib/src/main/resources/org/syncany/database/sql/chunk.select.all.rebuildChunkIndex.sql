@@ -0,0 +1 @@
+select checksum, size from chunk
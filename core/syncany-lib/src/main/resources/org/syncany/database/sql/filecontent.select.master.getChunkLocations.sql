@@ -0,0 +1,13 @@
+-- Selects all chunks (in order, with their sizes) of the current files that contain
+-- at least one of the given chunks. Used to compute the chunk offsets within local files.
+
+select fv.filehistory_id, fv.path, fcc.chunk_checksum, c.size
+from fileversion_master_last fv
+join filecontent_chunk fcc on fcc.filecontent_checksum=fv.filecontent_checksum
+join chunk c on c.checksum=fcc.chunk_checksum
+where fv.filecontent_checksum in (
+	select distinct filecontent_checksum
+	from filecontent_chunk
+	where chunk_checksum in ( unnest(?) )
+)
+order by fv.filehistory_id, fcc.num
@@ -23,7 +23,9 @@ import org.junit.runners.Suite.SuiteClasses;
 import org.syncany.tests.integration.scenarios.AllFilePossibilitiesScenarioTest;
 import org.syncany.tests.integration.scenarios.CallUpWhileStillWritingFileScenarioTest;
 import org.syncany.tests.integration.scenarios.ChangedAttributesScenarioTest;
+import org.syncany.tests.integration.scenarios.ChangedLargeFileReuseLocalChunksScenarioTest;
 import org.syncany.tests.integration.scenarios.ChangedTypeScenarioTest;
+import org.syncany.tests.integration.scenarios.ChunkIndexScenarioTest;
 import org.syncany.tests.integration.scenarios.CleanupMergeDatabaseFilesScenarioTest;
 import org.syncany.tests.integration.scenarios.CreateSimilarFileParallelScenarioTest;
 import org.syncany.tests.integration.scenarios.DirtyDatabaseScenarioTest;
@@ -40,6 +42,7 @@ import org.syncany.tests.integration.scenarios.FirstVersionDirtyScenarioTest;
 import org.syncany.tests.integration.scenarios.FolderPermissionChangeScenarioTest;
 import org.syncany.tests.integration.scenarios.IdenticalFileMoveScenarioTest;
 import org.syncany.tests.integration.scenarios.IgnoredFileScenarioTest;
+import org.syncany.tests.integration.scenarios.InterruptedMultiChunkDownloadScenarioTest;
 import org.syncany.tests.integration.scenarios.Issue143ScenarioTest;
 import org.syncany.tests.integration.scenarios.Issue227_2_ScenarioTest;
 import org.syncany.tests.integration.scenarios.Issue247ScenarioTest;
@@ -53,6 +56,8 @@ import org.syncany.tests.integration.scenarios.ManySyncUpsAndOtherClientSyncDown
 import org.syncany.tests.integration.scenarios.ManySyncUpsLargeFileScenarioTest;
 import org.syncany.tests.integration.scenarios.MixedUpDownScenarioTest;
 import org.syncany.tests.integration.scenarios.MoveFolderWithQuotesOnWindowsScenario;
+import org.syncany.tests.integration.scenarios.ParallelFileAssemblyScenarioTest;
+import org.syncany.tests.integration.scenarios.ParallelTransfersScenarioTest;
 import org.syncany.tests.integration.scenarios.RenameDeleteScenarioTest;
 import org.syncany.tests.integration.scenarios.RenameFileWithDiffModifiedDateScenarioTest;
 import org.syncany.tests.integration.scenarios.RenameNoDownloadMultiChunksScenarioTest;
@@ -68,7 +73,9 @@ import org.syncany.tests.integration.scenarios.SymlinkSyncScenarioTest;
 		AllFilePossibilitiesScenarioTest.class,
 		CallUpWhileStillWritingFileScenarioTest.class,
 		ChangedAttributesScenarioTest.class,
+		ChangedLargeFileReuseLocalChunksScenarioTest.class,
 		ChangedTypeScenarioTest.class,
+		ChunkIndexScenarioTest.class,
 		CleanupMergeDatabaseFilesScenarioTest.class,
 		CreateSimilarFileParallelScenarioTest.class,
 		DirtyDatabaseScenarioTest.class,
@@ -85,6 +92,7 @@ import org.syncany.tests.integration.scenarios.SymlinkSyncScenarioTest;
 		FolderPermissionChangeScenarioTest.class,
 		IdenticalFileMoveScenarioTest.class,
 		IgnoredFileScenarioTest.class,
+		InterruptedMultiChunkDownloadScenarioTest.class,
 		Issue143ScenarioTest.class,
 		Issue227_2_ScenarioTest.class,
 		Issue247ScenarioTest.class,
@@ -98,6 +106,8 @@ import org.syncany.tests.integration.scenarios.SymlinkSyncScenarioTest;
 		ManySyncUpsAndOtherClientSyncDownScenarioTest.class,
 		MixedUpDownScenarioTest.class,
 		MoveFolderWithQuotesOnWindowsScenario.class,
+		ParallelFileAssemblyScenarioTest.class,
+		ParallelTransfersScenarioTest.class,
 		RenameFileWithDiffModifiedDateScenarioTest.class,
 		RenameToExistingFileScenarioTest.class,
 		RenameNoDownloadMultiChunksScenarioTest.class,
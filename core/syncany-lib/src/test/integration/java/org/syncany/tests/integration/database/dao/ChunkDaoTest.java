@@ -20,14 +20,20 @@ package org.syncany.tests.integration.database.dao;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
+import java.io.File;
+import java.io.IOException;
 import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Arrays;
 import java.util.Map;
 
 import org.junit.Test;
 import org.syncany.config.Config;
 import org.syncany.database.ChunkEntry;
 import org.syncany.database.ChunkEntry.ChunkChecksum;
+import org.syncany.database.ChunkIndex;
 import org.syncany.database.dao.ChunkSqlDao;
 import org.syncany.tests.util.TestConfigUtil;
 import org.syncany.tests.util.TestDatabaseUtil;
@@ -65,6 +71,100 @@ public class ChunkDaoTest {
 		TestConfigUtil.deleteTestLocalConfigAndData(testConfig);
 	}
 	
+	@Test
+	public void testGetChunkWithChunkIndex() throws Exception {
+		// Setup
+		Config testConfig = TestConfigUtil.createTestLocalConfig();
+		Connection databaseConnection = testConfig.createDatabaseConnection();
+
+		// Run
+		TestSqlUtil.runSqlFromResource(databaseConnection, "test.insert.set3.sql");
+		
+		ChunkSqlDao chunkDao = new ChunkSqlDao(databaseConnection, testConfig.getChunkIndexFile());
+		ChunkEntry chunk1 = chunkDao.getChunk(ChunkChecksum.parseChunkChecksum("615fba8c2281d5bee891eb092a252d235c237457"));
+
+		ChunkEntry newChunk = new ChunkEntry(ChunkChecksum.parseChunkChecksum("beefbeefbeefbeefbeefbeefbeefbeefbeefbeef"), 1234);
+		chunkDao.writeChunks(databaseConnection, 0, Arrays.asList(newChunk));
+		ChunkEntry newChunkBeforeRollback = chunkDao.getChunk(newChunk.getChecksum());
+
+		databaseConnection.rollback();
+		chunkDao.rollbackChunkIndex();
+		ChunkEntry newChunkAfterRollback = chunkDao.getChunk(newChunk.getChecksum());
+		
+		chunkDao.writeChunks(databaseConnection, 0, Arrays.asList(newChunk));
+		databaseConnection.commit();
+		chunkDao.commitChunkIndex();
+		
+		ChunkIndex chunkIndex = ChunkIndex.getInstance(testConfig.getChunkIndexFile());
+		chunkIndex.close();		
+		
+		// Test
+		assertNotNull(chunk1);
+		assertEquals(8387, chunk1.getSize());
+		
+		assertNotNull(newChunkBeforeRollback);
+		assertEquals(1234, newChunkBeforeRollback.getSize());
+		assertNull(newChunkAfterRollback);
+
+		assertTrue(testConfig.getChunkIndexFile().exists());
+		assertTrue("Committed index should be loaded without a rebuild", chunkIndex.load());
+		assertEquals(19, chunkIndex.size());
+		assertEquals(1234, chunkIndex.getSize(newChunk.getChecksum()));
+		
+		// Tear down
+		chunkIndex.close();
+		databaseConnection.close();
+		TestConfigUtil.deleteTestLocalConfigAndData(testConfig);
+	}
+	
+	@Test
+	public void testGetChunkWithChunkIndexNonSha1Digest() throws Exception {
+		// Setup
+		Config testConfig = TestConfigUtil.createTestLocalConfig();
+		Connection databaseConnection = testConfig.createDatabaseConnection();
+
+		// Run
+		TestSqlUtil.runSqlFromResource(databaseConnection, "test.insert.set3.sql"); // SHA-1 chunks
+		
+		ChunkEntry md5Chunk1 = new ChunkEntry(ChunkChecksum.parseChunkChecksum("d41d8cd98f00b204e9800998ecf8427e"), 1234);
+		ChunkEntry md5Chunk2 = new ChunkEntry(ChunkChecksum.parseChunkChecksum("9e107d9d372bb6826bd81d3542a419d6"), 5678);
+
+		RebuildCountingChunkSqlDao chunkDao = new RebuildCountingChunkSqlDao(databaseConnection, testConfig.getChunkIndexFile(), 16);
+		chunkDao.writeChunks(databaseConnection, 0, Arrays.asList(md5Chunk1, md5Chunk2));
+		databaseConnection.commit();
+		chunkDao.commitChunkIndex();
+
+		ChunkEntry sha1Chunk = chunkDao.getChunk(ChunkChecksum.parseChunkChecksum("615fba8c2281d5bee891eb092a252d235c237457"));
+
+		// Simulate a restart
+		ChunkIndex chunkIndex = ChunkIndex.getInstance(testConfig.getChunkIndexFile());
+		chunkIndex.close();
+
+		RebuildCountingChunkSqlDao restartedChunkDao = new RebuildCountingChunkSqlDao(databaseConnection, testConfig.getChunkIndexFile(), 16);
+		ChunkEntry md5Chunk1AfterRestart = restartedChunkDao.getChunk(md5Chunk1.getChecksum());
+		ChunkEntry md5Chunk2AfterRestart = restartedChunkDao.getChunk(md5Chunk2.getChecksum());
+		
+		// Test
+		assertEquals(1, chunkDao.rebuildCount);
+		assertEquals("Index with MD5 checksums should be loaded without a rebuild", 0, restartedChunkDao.rebuildCount);
+
+		assertEquals(16, chunkIndex.getKeyLength());
+		assertEquals(2, chunkIndex.size());
+
+		assertNotNull(sha1Chunk); // Not indexable, but still found in the database
+		assertEquals(8387, sha1Chunk.getSize());
+		
+		assertNotNull(md5Chunk1AfterRestart);
+		assertEquals(1234, md5Chunk1AfterRestart.getSize());
+		assertNotNull(md5Chunk2AfterRestart);
+		assertEquals(5678, md5Chunk2AfterRestart.getSize());
+		
+		// Tear down
+		chunkIndex.close();
+		databaseConnection.close();
+		TestConfigUtil.deleteTestLocalConfigAndData(testConfig);
+	}
+	
 	@Test
 	public void testGetChunksForDatabaseVersion() throws Exception {
 		// Setup
@@ -104,5 +204,19 @@ public class ChunkDaoTest {
 		// Tear down
 		databaseConnection.close();
 		TestConfigUtil.deleteTestLocalConfigAndData(testConfig);
-	}	
+	}
+
+	private static class RebuildCountingChunkSqlDao extends ChunkSqlDao {
+		private int rebuildCount;
+
+		public RebuildCountingChunkSqlDao(Connection connection, File chunkIndexFile, int checksumLength) {
+			super(connection, chunkIndexFile, checksumLength);
+		}
+
+		@Override
+		protected void rebuildChunkIndex(ChunkIndex chunkIndex, int chunkCount) throws IOException, SQLException {
+			rebuildCount++;
+			super.rebuildChunkIndex(chunkIndex, chunkCount);
+		}
+	}
 }
@@ -22,10 +22,14 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 
 import java.sql.Connection;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 
 import org.junit.Test;
 import org.syncany.config.Config;
+import org.syncany.database.ChunkEntry.ChunkChecksum;
+import org.syncany.database.ChunkLocation;
 import org.syncany.database.FileContent;
 import org.syncany.database.FileContent.FileChecksum;
 import org.syncany.database.dao.FileContentSqlDao;
@@ -149,4 +153,36 @@ public class FileContentDaoTest {
 		TestConfigUtil.deleteTestLocalConfigAndData(testConfig);
 	}
 
+	@Test
+	public void testGetChunkLocations() throws Exception {
+		// Setup
+		Config testConfig = TestConfigUtil.createTestLocalConfig();
+		Connection databaseConnection = testConfig.createDatabaseConnection();
+
+		// Run
+		TestSqlUtil.runSqlFromResource(databaseConnection, "test.insert.set3.sql");
+
+		FileContentSqlDao fileContentDao = new FileContentSqlDao(databaseConnection);
+
+		ChunkChecksum currentFileChunk = ChunkChecksum.parseChunkChecksum("7666fd3b860c9d7588d9ca1807eebdf8cfaa8be3");
+		ChunkChecksum deletedFileChunk = ChunkChecksum.parseChunkChecksum("8ed8d50a6e9da3197bd665bc3a1f229ebcde9b42");
+		ChunkChecksum nonExistingChunk = ChunkChecksum.parseChunkChecksum("beefbeefbeefbeefbeefbeefbeefbeefbeefbeef");
+
+		Map<ChunkChecksum, List<ChunkLocation>> chunkLocations = fileContentDao.getChunkLocations(Arrays.asList(new ChunkChecksum[] {
+				currentFileChunk, deletedFileChunk, nonExistingChunk }));
+		
+		// Test
+		assertNotNull(chunkLocations);
+		assertEquals(1, chunkLocations.size());
+		assertEquals(1, chunkLocations.get(currentFileChunk).size());
+		assertEquals("new.txt", chunkLocations.get(currentFileChunk).get(0).getPath());
+		assertEquals(0, chunkLocations.get(currentFileChunk).get(0).getOffset());
+		assertEquals(2029, chunkLocations.get(currentFileChunk).get(0).getSize());
+		
+		assertEquals(0, fileContentDao.getChunkLocations(Arrays.<ChunkChecksum>asList()).size());
+
+		// Tear down
+		databaseConnection.close();
+		TestConfigUtil.deleteTestLocalConfigAndData(testConfig);
+	}
 }
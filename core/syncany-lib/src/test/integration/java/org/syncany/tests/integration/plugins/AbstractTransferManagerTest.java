@@ -18,14 +18,18 @@
 package org.syncany.tests.integration.plugins;
 
 import java.io.File;
+import java.io.InputStream;
 import java.util.Map;
 
+import org.apache.commons.io.FileUtils;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.syncany.plugins.Plugin;
 import org.syncany.plugins.Plugins;
 import org.syncany.plugins.transfer.StorageException;
+import org.syncany.plugins.transfer.features.PathAware;
+import org.syncany.plugins.transfer.features.PathAwareFeatureTransferManager;
 import org.syncany.plugins.transfer.features.TransactionAwareFeatureTransferManager;
 import org.syncany.plugins.transfer.TransferManager;
 import org.syncany.plugins.transfer.TransferPlugin;
@@ -36,6 +40,7 @@ import org.syncany.plugins.transfer.files.MultichunkRemoteFile;
 import org.syncany.plugins.transfer.files.RemoteFile;
 import org.syncany.plugins.transfer.files.SyncanyRemoteFile;
 import org.syncany.tests.unit.util.TestFileUtil;
+import org.syncany.util.ReflectionUtil;
 import org.syncany.util.StringUtil;
 
 import static org.junit.Assert.assertEquals;
@@ -142,6 +147,15 @@ public abstract class AbstractTransferManagerTest {
 			String checksumDownloadedFile = StringUtil.toHex(TestFileUtil.createChecksum(downloadedLocalFile));
 
 			assertEquals("Uploaded file differs from original file, for file " + originalLocalFile, checksumOriginalFile, checksumDownloadedFile);
+
+			File streamedLocalFile = new File(tempToDir, "streamed-" + remoteFile.getName());
+
+			try (InputStream remoteInputStream = transferManager.downloadStream(remoteFile)) {
+				FileUtils.copyInputStreamToFile(remoteInputStream, streamedLocalFile);
+			}
+
+			String checksumStreamedFile = StringUtil.toHex(TestFileUtil.createChecksum(streamedLocalFile));
+			assertEquals("Streamed file differs from original file, for file " + originalLocalFile, checksumOriginalFile, checksumStreamedFile);
 		}
 
 		Map<String, T> listLocalFilesAfterUpload = transferManager.list(remoteFileClass);
@@ -192,6 +206,14 @@ public abstract class AbstractTransferManagerTest {
 		}
 
 		TransferManager originalTransferManager = pluginInfo.createTransferManager(connection, null);
-		return new TransactionAwareFeatureTransferManager(originalTransferManager, originalTransferManager, null, null);
+		TransferManager underlyingTransferManager = originalTransferManager;
+
+		PathAware pathAwareAnnotation = ReflectionUtil.getAnnotationInHierarchy(originalTransferManager.getClass(), PathAware.class);
+
+		if (pathAwareAnnotation != null) {
+			underlyingTransferManager = new PathAwareFeatureTransferManager(originalTransferManager, originalTransferManager, null, pathAwareAnnotation);
+		}
+
+		return new TransactionAwareFeatureTransferManager(originalTransferManager, underlyingTransferManager, null, null);
 	}
 }
@@ -0,0 +1,59 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2015 Philipp C. Heckel <philipp.heckel@gmail.com> 
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.tests.integration.scenarios;
+
+import static org.junit.Assert.assertEquals;
+import static org.syncany.tests.util.TestAssertUtil.assertFileListEquals;
+import static org.syncany.tests.util.TestAssertUtil.assertSqlDatabaseEquals;
+
+import org.junit.Test;
+import org.syncany.operations.down.DownOperationResult;
+import org.syncany.plugins.transfer.TransferSettings;
+import org.syncany.tests.unit.util.TestFileUtil;
+import org.syncany.tests.util.TestClient;
+import org.syncany.tests.util.TestConfigUtil;
+
+public class ChangedLargeFileReuseLocalChunksScenarioTest {
+	@Test
+	public void testChangeLargeFileAndCheckIfOnlyNewMultiChunksAreDownloaded() throws Exception {
+		// Setup 
+		TransferSettings testConnection = TestConfigUtil.createTestLocalConnection();		
+		TestClient clientA = new TestClient("A", testConnection);
+		TestClient clientB = new TestClient("B", testConnection);
+
+		// Run 
+		
+		// Prepare, create large file at A (multiple multichunks), sync it to B
+		clientA.createNewFile("A-file1", 10*1024*1024);
+		clientA.sync();		
+		clientB.sync();
+				
+		// Now change a small part of the file, and sync
+		TestFileUtil.changeRandomPartOfBinaryFile(clientA.getLocalFile("A-file1"));
+		clientA.upWithForceChecksum(); // Size unchanged, modified date might be too
+		
+		DownOperationResult downOperationResult = clientB.down();		
+		assertEquals("Only the multichunk with the changed chunks should have been downloaded.", 1, downOperationResult.getDownloadedMultiChunks().size());
+		assertFileListEquals(clientA.getLocalFilesExcludeLockedAndNoRead(), clientB.getLocalFilesExcludeLockedAndNoRead());
+		assertSqlDatabaseEquals(clientA.getDatabaseFile(), clientB.getDatabaseFile());
+		
+		// Tear down
+		clientA.deleteTestData();
+		clientB.deleteTestData();
+	}	
+}
@@ -0,0 +1,67 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2015 Philipp C. Heckel <philipp.heckel@gmail.com> 
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.tests.integration.scenarios;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+
+import org.junit.Test;
+import org.syncany.database.ChunkIndex;
+import org.syncany.plugins.transfer.TransferSettings;
+import org.syncany.tests.util.TestClient;
+import org.syncany.tests.util.TestConfigUtil;
+import org.syncany.tests.util.TestSqlUtil;
+
+public class ChunkIndexScenarioTest {
+	@Test
+	public void testChunkIndexIsCommittedAfterUp() throws Exception {
+		// Setup
+		TransferSettings testConnection = TestConfigUtil.createTestLocalConnection();
+
+		TestClient clientA = new TestClient("A", testConnection);
+		Connection databaseConnectionA = clientA.getConfig().createDatabaseConnection();
+
+		// Run
+		clientA.createNewFile("file1", 600 * 1024);
+		clientA.createNewFile("file2", 50 * 1024);
+		clientA.up();
+
+		assertChunkIndexLoadsWithoutRebuild(clientA, databaseConnectionA);
+
+		clientA.changeFile("file1");
+		clientA.createNewFile("file3", 200 * 1024);
+		clientA.up();
+
+		assertChunkIndexLoadsWithoutRebuild(clientA, databaseConnectionA);
+
+		// Tear down
+		databaseConnectionA.close();
+		clientA.deleteTestData();
+	}
+
+	private void assertChunkIndexLoadsWithoutRebuild(TestClient client, Connection databaseConnection) throws Exception {
+		// Simulate a restart: Unload the index, and map the file again
+		ChunkIndex chunkIndex = ChunkIndex.getInstance(client.getConfig().getChunkIndexFile());
+		chunkIndex.close();
+
+		assertTrue("Chunk index should be committed after 'up'", chunkIndex.load());
+		assertEquals(TestSqlUtil.runSqlSelect("select count(*) from chunk", databaseConnection), "" + chunkIndex.size());
+	}
+}
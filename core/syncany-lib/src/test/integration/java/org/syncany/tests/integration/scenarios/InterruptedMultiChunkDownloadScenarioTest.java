@@ -0,0 +1,78 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2015 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.tests.integration.scenarios;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.syncany.tests.util.TestAssertUtil.assertFileListEquals;
+import static org.syncany.tests.util.TestAssertUtil.assertSqlDatabaseEquals;
+
+import java.io.File;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+import org.syncany.database.MultiChunkEntry.MultiChunkId;
+import org.syncany.operations.down.DownOperationResult;
+import org.syncany.plugins.local.LocalTransferSettings;
+import org.syncany.tests.util.TestClient;
+import org.syncany.tests.util.TestConfigUtil;
+
+public class InterruptedMultiChunkDownloadScenarioTest {
+	@Test
+	public void testPartialMultiChunksFromInterruptedDownloadAreNotUsed() throws Exception {
+		// Setup
+		LocalTransferSettings testConnection = (LocalTransferSettings) TestConfigUtil.createTestLocalConnection();
+		TestClient clientA = new TestClient("A", testConnection);
+		TestClient clientB = new TestClient("B", testConnection);
+
+		// Run
+		clientA.createNewFile("A-file1", 2 * 1024 * 1024);
+		clientA.up();
+
+		// Emulate a 'down' at B that was killed while downloading: truncated partial files
+		File[] remoteMultiChunkFiles = new File(testConnection.getPath(), "multichunks").listFiles();
+		assertTrue(remoteMultiChunkFiles.length > 0);
+
+		for (File remoteMultiChunkFile : remoteMultiChunkFiles) {
+			MultiChunkId multiChunkId = MultiChunkId.parseMultiChunkId(remoteMultiChunkFile.getName().substring("multichunk-".length()));
+			File partialMultiChunkFile = clientB.getConfig().getCache().getPartialDecryptedMultiChunkFile(multiChunkId);
+
+			FileUtils.writeByteArrayToFile(partialMultiChunkFile, new byte[] { 1, 2, 3 });
+			assertFalse(clientB.getConfig().getCache().getDecryptedMultiChunkFile(multiChunkId).exists());
+		}
+
+		DownOperationResult downOperationResult = clientB.down();
+
+		assertEquals(remoteMultiChunkFiles.length, downOperationResult.getDownloadedMultiChunks().size());
+		assertFileListEquals(clientA.getLocalFilesExcludeLockedAndNoRead(), clientB.getLocalFilesExcludeLockedAndNoRead());
+		assertSqlDatabaseEquals(clientA.getDatabaseFile(), clientB.getDatabaseFile());
+
+		// Partial files have been replaced by complete multichunks
+		for (File remoteMultiChunkFile : remoteMultiChunkFiles) {
+			MultiChunkId multiChunkId = MultiChunkId.parseMultiChunkId(remoteMultiChunkFile.getName().substring("multichunk-".length()));
+
+			assertFalse(clientB.getConfig().getCache().getPartialDecryptedMultiChunkFile(multiChunkId).exists());
+			assertTrue(clientB.getConfig().getCache().getDecryptedMultiChunkFile(multiChunkId).exists());
+		}
+
+		// Tear down
+		clientA.deleteTestData();
+		clientB.deleteTestData();
+	}
+}
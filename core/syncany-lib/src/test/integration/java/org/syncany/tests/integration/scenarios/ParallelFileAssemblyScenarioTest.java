@@ -0,0 +1,86 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2015 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.tests.integration.scenarios;
+
+import static org.junit.Assert.assertEquals;
+import static org.syncany.tests.util.TestAssertUtil.assertFileListEquals;
+import static org.syncany.tests.util.TestAssertUtil.assertSqlDatabaseEquals;
+
+import java.io.File;
+import java.io.FilenameFilter;
+
+import org.junit.Test;
+import org.syncany.plugins.transfer.TransferSettings;
+import org.syncany.tests.util.TestClient;
+import org.syncany.tests.util.TestConfigUtil;
+
+public class ParallelFileAssemblyScenarioTest {
+	@Test
+	public void testParallelFileAssembly() throws Exception {
+		// Setup
+		TransferSettings testConnection = TestConfigUtil.createTestLocalConnection();
+
+		TestClient clientA = new TestClient("A", testConnection);
+		TestClient clientB = new TestClient("B", testConnection);
+
+		clientB.getConfig().setAssemblerThreads(4);
+
+		// Run: Many small files in folders
+		for (int i = 0; i < 10; i++) {
+			clientA.createNewFolder("folder" + i);
+
+			for (int j = 0; j < 10; j++) {
+				clientA.createNewFile("folder" + i + "/file" + j, 10 * 1024);
+			}
+		}
+
+		clientA.up();
+		clientB.down();
+
+		assertFileListEquals(clientA.getLocalFilesExcludeLockedAndNoRead(), clientB.getLocalFilesExcludeLockedAndNoRead());
+		assertSqlDatabaseEquals(clientA.getDatabaseFile(), clientB.getDatabaseFile());
+
+		// Run: Mixed changes; renames and deletions must still be applied before new files
+		clientA.deleteFile("folder0/file0");
+		clientA.moveFile("folder1/file0", "folder0/file0");
+		clientA.deleteFile("folder2");
+		clientA.createNewFile("folder2", 5 * 1024);
+		clientA.changeFile("folder3/file0");
+		clientA.createNewFile("folder3/file10", 200 * 1024);
+
+		clientA.upWithForceChecksum();
+		clientB.down();
+
+		assertFileListEquals(clientA.getLocalFilesExcludeLockedAndNoRead(), clientB.getLocalFilesExcludeLockedAndNoRead());
+		assertSqlDatabaseEquals(clientA.getDatabaseFile(), clientB.getDatabaseFile());
+
+		// No assembled files are left in the cache
+		String[] reconstructedFiles = clientB.getConfig().getCacheDir().list(new FilenameFilter() {
+			@Override
+			public boolean accept(File dir, String name) {
+				return name.startsWith("temp-reconstructedFileVersion-");
+			}
+		});
+
+		assertEquals(0, reconstructedFiles.length);
+
+		// Tear down
+		clientA.deleteTestData();
+		clientB.deleteTestData();
+	}
+}
@@ -0,0 +1,116 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2015 Philipp C. Heckel <philipp.heckel@gmail.com> 
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.tests.integration.scenarios;
+
+import static org.junit.Assert.assertEquals;
+import static org.syncany.tests.util.TestAssertUtil.assertFileListEquals;
+import static org.syncany.tests.util.TestAssertUtil.assertSqlDatabaseEquals;
+
+import java.io.File;
+import java.io.FilenameFilter;
+
+import org.junit.Test;
+import org.syncany.operations.cleanup.CleanupOperationOptions;
+import org.syncany.operations.up.UpOperationOptions;
+import org.syncany.plugins.transfer.TransferSettings;
+import org.syncany.tests.util.TestClient;
+import org.syncany.tests.util.TestConfigUtil;
+
+public class ParallelTransfersScenarioTest {
+	@Test
+	public void testParallelUploadAndCleanup() throws Exception {
+		// Setup
+		TransferSettings testConnection = TestConfigUtil.createTestLocalConnection();
+
+		TestClient clientA = new TestClient("A", testConnection);
+		TestClient clientB = new TestClient("B", testConnection);
+
+		clientA.getConfig().setTransferThreads(4);
+		clientB.getConfig().setTransferThreads(4);
+
+		CleanupOperationOptions cleanupOptions = new CleanupOperationOptions();
+		cleanupOptions.setMinKeepSeconds(0);
+		cleanupOptions.setForce(true);
+
+		// Run: Upload many multichunks in parallel
+		for (int i = 0; i < 30; i++) {
+			clientA.createNewFile("file" + i, 1024 * 1024);
+		}
+
+		clientA.up();
+		clientB.down();
+
+		assertFileListEquals(clientA.getLocalFilesExcludeLockedAndNoRead(), clientB.getLocalFilesExcludeLockedAndNoRead());
+		assertSqlDatabaseEquals(clientA.getDatabaseFile(), clientB.getDatabaseFile());
+
+		// Run: Delete multichunks in parallel
+		for (int i = 0; i < 20; i++) {
+			clientB.deleteFile("file" + i);
+		}
+
+		clientB.up();
+		clientB.cleanup(cleanupOptions);
+		clientA.down();
+
+		assertFileListEquals(clientA.getLocalFilesExcludeLockedAndNoRead(), clientB.getLocalFilesExcludeLockedAndNoRead());
+		assertSqlDatabaseEquals(clientA.getDatabaseFile(), clientB.getDatabaseFile());
+
+		// Tear down
+		clientA.deleteTestData();
+		clientB.deleteTestData();
+	}
+
+	@Test
+	public void testPipelinedUpload() throws Exception {
+		// Setup
+		TransferSettings testConnection = TestConfigUtil.createTestLocalConnection();
+
+		TestClient clientA = new TestClient("A", testConnection);
+		TestClient clientB = new TestClient("B", testConnection);
+
+		clientA.getConfig().setTransferThreads(4);
+
+		UpOperationOptions upOptions = new UpOperationOptions();
+		upOptions.setPipelinedUpload(true);
+
+		// Run: Upload multichunks while indexing
+		for (int i = 0; i < 30; i++) {
+			clientA.createNewFile("file" + i, 1024 * 1024);
+		}
+
+		clientA.up(upOptions);
+		clientB.down();
+
+		assertFileListEquals(clientA.getLocalFilesExcludeLockedAndNoRead(), clientB.getLocalFilesExcludeLockedAndNoRead());
+		assertSqlDatabaseEquals(clientA.getDatabaseFile(), clientB.getDatabaseFile());
+
+		// Uploaded multichunks are evicted from the cache
+		String[] encryptedMultiChunkFiles = clientA.getConfig().getCacheDir().list(new FilenameFilter() {
+			@Override
+			public boolean accept(File dir, String name) {
+				return name.startsWith("multichunk-") && !name.endsWith("-decrypted");
+			}
+		});
+
+		assertEquals(0, encryptedMultiChunkFiles.length);
+
+		// Tear down
+		clientA.deleteTestData();
+		clientB.deleteTestData();
+	}
+}
@@ -18,6 +18,7 @@
 package org.syncany.plugins.unreliable_local;
 
 import java.io.File;
+import java.io.InputStream;
 import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -114,6 +115,19 @@ public class UnreliableLocalTransferManager extends LocalTransferManager {
 		}
 	}
 
+	@Override
+	public InputStream downloadStream(RemoteFile remoteFile) throws StorageException {
+		String operationType = "download";
+		String operationDescription = "download(" + remoteFile.getName() + ")";
+
+		if (isNextOperationSuccessful(operationType, operationDescription)) {
+			return super.downloadStream(remoteFile);
+		}
+		else {
+			throw new StorageException("Operation failed: " + operationDescription);
+		}
+	}
+
 	@Override
 	public void upload(File localFile, RemoteFile remoteFile) throws StorageException {
 		String operationType = "upload";
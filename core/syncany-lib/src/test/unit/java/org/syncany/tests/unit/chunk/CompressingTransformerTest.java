@@ -0,0 +1,149 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2015 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.tests.unit.chunk;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+import org.syncany.chunk.CipherTransformer;
+import org.syncany.chunk.CompressingTransformer;
+import org.syncany.chunk.EntropyEstimator;
+import org.syncany.chunk.GzipTransformer;
+import org.syncany.chunk.Lz4Transformer;
+import org.syncany.chunk.NoTransformer;
+import org.syncany.chunk.Transformer;
+import org.syncany.crypto.CipherSpecs;
+import org.syncany.crypto.CipherUtil;
+
+public class CompressingTransformerTest {
+	@Test
+	public void testUncompressedRoundtrip() throws Exception {
+		byte[] content = createRandomContent(100 * 1024);
+
+		for (Transformer transformer : new Transformer[] { new GzipTransformer(), new Lz4Transformer() }) {
+			byte[] uncompressed = transform(transformer, content, false);
+
+			assertArrayEquals(CompressingTransformer.UNCOMPRESSED_MAGIC, Arrays.copyOf(uncompressed, CompressingTransformer.UNCOMPRESSED_MAGIC.length));
+			assertArrayEquals(content, readTransformed(transformer, uncompressed));
+		}
+	}
+
+	@Test
+	public void testCompressedAndUncompressedStreamsWithCipher() throws Exception {
+		CipherTransformer cipherTransformer = new CipherTransformer(Arrays.asList(CipherSpecs.getCipherSpec(CipherSpecs.AES_128_GCM)),
+				CipherUtil.createMasterKey("some password"));
+
+		Transformer transformer = new GzipTransformer(cipherTransformer);
+		byte[] content = createTextContent(100 * 1024);
+
+		assertArrayEquals(content, readTransformed(transformer, transform(transformer, content, true)));
+		assertArrayEquals(content, readTransformed(transformer, transform(transformer, content, false)));
+	}
+
+	@Test
+	public void testReadLegacyGzipStream() throws Exception {
+		byte[] content = createTextContent(10 * 1024);
+
+		ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+		GZIPOutputStream gzipOutputStream = new GZIPOutputStream(byteArrayOutputStream);
+
+		gzipOutputStream.write(content);
+		gzipOutputStream.close();
+
+		assertArrayEquals(content, readTransformed(new GzipTransformer(), byteArrayOutputStream.toByteArray()));
+	}
+
+	@Test
+	public void testEmptyStreams() throws Exception {
+		for (Transformer transformer : new Transformer[] { new GzipTransformer(), new Lz4Transformer() }) {
+			assertArrayEquals(new byte[0], readTransformed(transformer, transform(transformer, new byte[0], true)));
+			assertArrayEquals(new byte[0], readTransformed(transformer, transform(transformer, new byte[0], false)));
+		}
+	}
+
+	@Test
+	public void testIsCompressing() {
+		assertTrue(new GzipTransformer().isCompressing());
+		assertTrue(new Lz4Transformer().isCompressing());
+		assertFalse(new NoTransformer().isCompressing());
+		assertFalse(new CipherTransformer().isCompressing());
+	}
+
+	@Test
+	public void testEntropyEstimator() {
+		byte[] randomContent = createRandomContent(64 * 1024);
+		byte[] textContent = createTextContent(64 * 1024);
+
+		assertTrue(EntropyEstimator.estimateEntropy(randomContent, 0, randomContent.length) > 7.9);
+		assertTrue(EntropyEstimator.estimateEntropy(textContent, 0, textContent.length) < 5);
+		assertTrue(EntropyEstimator.estimateEntropy(new byte[1000], 0, 1000) == 0);
+
+		assertTrue(EntropyEstimator.isIncompressible(randomContent, 0, randomContent.length));
+		assertFalse(EntropyEstimator.isIncompressible(textContent, 0, textContent.length));
+		assertFalse("Small chunks are never incompressible", EntropyEstimator.isIncompressible(randomContent, 0, 100));
+	}
+
+	private byte[] transform(Transformer transformer, byte[] content, boolean compress) throws IOException {
+		ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+		OutputStream outputStream = (compress) ? transformer.createOutputStream(byteArrayOutputStream) : transformer
+				.createUncompressedOutputStream(byteArrayOutputStream);
+
+		outputStream.write(content);
+		outputStream.close();
+
+		return byteArrayOutputStream.toByteArray();
+	}
+
+	private byte[] readTransformed(Transformer transformer, byte[] transformed) throws IOException {
+		InputStream inputStream = transformer.createInputStream(new ByteArrayInputStream(transformed));
+		byte[] content = IOUtils.toByteArray(inputStream);
+
+		inputStream.close();
+		return content;
+	}
+
+	private byte[] createRandomContent(int size) {
+		byte[] content = new byte[size];
+		new Random(1).nextBytes(content);
+
+		return content;
+	}
+
+	private byte[] createTextContent(int size) {
+		byte[] content = new byte[size];
+		byte[] text = "The quick brown fox jumps over the lazy dog. ".getBytes();
+
+		for (int i = 0; i < size; i++) {
+			content[i] = text[i % text.length];
+		}
+
+		return content;
+	}
+}
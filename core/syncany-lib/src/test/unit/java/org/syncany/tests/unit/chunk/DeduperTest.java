@@ -0,0 +1,262 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2015 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.tests.unit.chunk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.syncany.chunk.Chunk;
+import org.syncany.chunk.CompressingTransformer;
+import org.syncany.chunk.Deduper;
+import org.syncany.chunk.DeduperListener;
+import org.syncany.chunk.GzipTransformer;
+import org.syncany.chunk.MultiChunk;
+import org.syncany.chunk.MultiChunker;
+import org.syncany.chunk.TttdChunker;
+import org.syncany.chunk.ZipMultiChunker;
+import org.syncany.database.MultiChunkEntry.MultiChunkId;
+import org.syncany.tests.unit.util.TestFileUtil;
+import org.syncany.util.StringUtil;
+
+public class DeduperTest {
+	private File tempDir;
+
+	@Before
+	public void setUp() throws Exception {
+		tempDir = TestFileUtil.createTempDirectoryInSystemTemp();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		TestFileUtil.deleteDirectory(tempDir);
+	}
+
+	@Test
+	public void testParallelDeduplicationEqualsSequential() throws Exception {
+		// Setup
+		File inputDir = new File(tempDir, "input");
+		inputDir.mkdir();
+
+		List<File> inputFiles = new ArrayList<File>();
+
+		for (int i = 0; i < 40; i++) {
+			inputFiles.add(TestFileUtil.createRandomFileInDirectory(inputDir, (i % 7) * 37 * 1024));
+		}
+
+		inputFiles.add(5, TestFileUtil.copyFile(inputFiles.get(3), new File(inputDir, "copy-of-3"))); // Duplicate
+		inputFiles.add(10, TestFileUtil.createRandomFileInDirectory(inputDir, 6 * 1024 * 1024)); // Large file, not chunked ahead
+		inputFiles.add(20, new File(inputDir, "subfolder")); // Folder
+		inputFiles.get(20).mkdir();
+
+		// Run!
+		List<String> sequentialEvents = deduplicate(inputFiles, 1, 0, false);
+		List<String> parallelChunkingEvents = deduplicate(inputFiles, 4, 0, false);
+		List<String> parallelTransformingEvents = deduplicate(inputFiles, 1, 2, false);
+		List<String> parallelEvents = deduplicate(inputFiles, 4, 2, false);
+
+		// Test
+		assertTrue(sequentialEvents.size() > inputFiles.size());
+
+		assertEquals(sequentialEvents, parallelChunkingEvents);
+		assertEquals(sequentialEvents, parallelTransformingEvents);
+		assertEquals(sequentialEvents, parallelEvents);
+	}
+
+	@Test
+	public void testBypassIncompressibleChunks() throws Exception {
+		// Setup
+		File inputDir = new File(tempDir, "input");
+		inputDir.mkdir();
+
+		List<File> inputFiles = new ArrayList<File>();
+
+		for (int i = 0; i < 10; i++) {
+			inputFiles.add(TestFileUtil.createRandomFileInDirectory(inputDir, 200 * 1024)); // Incompressible
+			inputFiles.add(createTextFile(new File(inputDir, "text-" + i + ".txt"), 200 * 1024, i)); // Compressible
+		}
+
+		// Run!
+		List<String> sequentialEvents = deduplicate(inputFiles, 1, 0, true);
+		List<String> parallelEvents = deduplicate(inputFiles, 4, 2, true);
+
+		// Test
+		assertEquals(sequentialEvents, parallelEvents);
+
+		int compressedMultiChunkCount = 0;
+		int uncompressedMultiChunkCount = 0;
+
+		for (String event : sequentialEvents) {
+			if (event.startsWith("close ")) {
+				String[] closeEvent = event.split(" "); // close <id> <size> <read size>
+				long multiChunkSize = Long.parseLong(closeEvent[2]);
+
+				File multiChunkFile = new File(new File(tempDir, "multichunks-1-0-true"), "multichunk-" + closeEvent[1]);
+				byte[] header = Arrays.copyOf(FileUtils.readFileToByteArray(multiChunkFile), CompressingTransformer.UNCOMPRESSED_MAGIC.length);
+
+				if (Arrays.equals(CompressingTransformer.UNCOMPRESSED_MAGIC, header)) {
+					uncompressedMultiChunkCount++;
+					assertTrue("Uncompressed multichunk should not be smaller than its content", multiChunkFile.length() > multiChunkSize);
+				}
+				else {
+					compressedMultiChunkCount++;
+					assertTrue("Compressed multichunk should be much smaller than its content", multiChunkFile.length() < multiChunkSize / 2);
+				}
+
+				assertEquals("Multichunk cannot be read", closeEvent[2], closeEvent[3]);
+			}
+		}
+
+		assertTrue(compressedMultiChunkCount > 0);
+		assertTrue(uncompressedMultiChunkCount > 0);
+	}
+
+	private File createTextFile(File file, int size, int seed) throws IOException {
+		Random random = new Random(seed);
+		String[] words = new String[] { "sync", "any", "chunk", "multi", "index", "file", "database", "version", "remote", "local" };
+
+		StringBuilder text = new StringBuilder();
+
+		while (text.length() < size) {
+			text.append(words[random.nextInt(words.length)]).append((random.nextInt(10) == 0) ? "\n" : " ");
+		}
+
+		FileUtils.writeStringToFile(file, text.substring(0, size));
+		return file;
+	}
+
+	private List<String> deduplicate(List<File> inputFiles, int indexerThreads, int transformerThreads, boolean bypassIncompressible)
+			throws IOException {
+
+		final File multiChunkDir = new File(tempDir, "multichunks-" + indexerThreads + "-" + transformerThreads + "-" + bypassIncompressible);
+		multiChunkDir.mkdir();
+
+		final List<String> events = new ArrayList<String>();
+		final List<String> closeEvents = new ArrayList<String>(); // May be delayed with transformer threads
+		final Set<String> knownChunks = new HashSet<String>();
+
+		final MultiChunker multiChunker = new ZipMultiChunker(256);
+		final GzipTransformer transformer = new GzipTransformer();
+		transformer.setBypassIncompressible(bypassIncompressible);
+
+		Deduper deduper = new Deduper(new TttdChunker(8 * 1024), multiChunker, transformer, indexerThreads, transformerThreads);
+		deduper.deduplicate(inputFiles, new DeduperListener() {
+			private int multiChunkCount = 0;
+
+			@Override
+			public boolean onFileFilter(File file) {
+				events.add("filter " + file.getName());
+				return true;
+			}
+
+			@Override
+			public boolean onFileStart(File file, int fileNumber) {
+				events.add("start " + file.getName() + " " + fileNumber);
+				return file.isFile();
+			}
+
+			@Override
+			public void onFileAddChunk(File file, Chunk chunk) {
+				events.add("add " + file.getName() + " " + StringUtil.toHex(chunk.getChecksum()) + " " + chunk.getSize());
+			}
+
+			@Override
+			public void onFileEnd(File file, byte[] checksum) {
+				events.add("end " + file.getName() + " " + ((checksum != null) ? StringUtil.toHex(checksum) : "-"));
+			}
+
+			@Override
+			public boolean onChunk(Chunk chunk) {
+				return knownChunks.add(StringUtil.toHex(chunk.getChecksum()));
+			}
+
+			@Override
+			public void onMultiChunkOpen(MultiChunk multiChunk) {
+				events.add("open " + multiChunk.getId());
+			}
+
+			@Override
+			public MultiChunkId createNewMultiChunkId(Chunk firstChunk) {
+				return new MultiChunkId(new byte[] { (byte) multiChunkCount++ });
+			}
+
+			@Override
+			public File getMultiChunkFile(MultiChunkId multiChunkId) {
+				return new File(multiChunkDir, "multichunk-" + multiChunkId);
+			}
+
+			@Override
+			public void onMultiChunkWrite(MultiChunk multiChunk, Chunk chunk) {
+				events.add("write " + multiChunk.getId() + " " + StringUtil.toHex(chunk.getChecksum()));
+			}
+
+			@Override
+			public void onMultiChunkClose(MultiChunk multiChunk) {
+				// Multichunk file must be completely written at this point
+				closeEvents.add("close " + multiChunk.getId() + " " + multiChunk.getSize() + " " + readMultiChunkSize(multiChunk.getId()));
+			}
+
+			private long readMultiChunkSize(MultiChunkId multiChunkId) {
+				try {
+					InputStream multiChunkInputStream = transformer.createInputStream(new FileInputStream(getMultiChunkFile(multiChunkId)));
+					MultiChunk readMultiChunk = multiChunker.createMultiChunk(multiChunkInputStream);
+
+					long multiChunkSize = 0;
+					Chunk chunk;
+
+					while ((chunk = readMultiChunk.read()) != null) {
+						multiChunkSize += chunk.getSize();
+					}
+
+					readMultiChunk.close();
+					return multiChunkSize;
+				}
+				catch (IOException e) {
+					return -1;
+				}
+			}
+
+			@Override
+			public void onStart(int size) {
+				events.add("start " + size);
+			}
+
+			@Override
+			public void onFinish() {
+				events.add("finish");
+			}
+		});
+
+		events.addAll(closeEvents);
+		return events;
+	}
+}
@@ -0,0 +1,269 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2015 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.tests.unit.chunk;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.syncany.chunk.Chunk;
+import org.syncany.chunk.Chunker;
+import org.syncany.chunk.Chunker.ChunkEnumeration;
+import org.syncany.chunk.FastCdcChunker;
+import org.syncany.tests.unit.util.TestFileUtil;
+import org.syncany.util.FileUtil;
+import org.syncany.util.StringUtil;
+
+public class FastCdcChunkerTest {
+	private File tempDir;
+
+	@Before
+	public void setUp() throws Exception {
+		tempDir = TestFileUtil.createTempDirectoryInSystemTemp();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		TestFileUtil.deleteDirectory(tempDir);
+	}
+
+	@Test
+	public void testStringSerialization() {
+		final int CHUNK_SIZE = 16 * 1024;
+
+		Chunker chunker = new FastCdcChunker(CHUNK_SIZE);
+		assertEquals("Other toString() result expected.", "FastCDC-" + CHUNK_SIZE + "-" + FastCdcChunker.DEFAULT_DIGEST_ALG + "-"
+				+ FastCdcChunker.FINGERPRINT_ALG, chunker.toString());
+	}
+
+	@Test
+	public void testGetInstanceAndInit() {
+		Map<String, String> settings = new HashMap<String, String>();
+		settings.put(Chunker.PROPERTY_SIZE, "8192");
+
+		Chunker chunker = Chunker.getInstance(FastCdcChunker.TYPE);
+
+		assertNotNull("Chunker should be found by its type.", chunker);
+		chunker.init(settings);
+
+		assertEquals("FastCDC-8192-SHA1-Gear", chunker.toString());
+		assertEquals("SHA1", chunker.getChecksumAlgorithm());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInitWithoutSize() {
+		Chunker.getInstance(FastCdcChunker.TYPE).init(new HashMap<String, String>());
+	}
+
+	@Test
+	public void testCreateChunksFrom5MBFileAndTestChunkSize() throws Exception {
+		// Test Constants
+		final int TOTAL_FILE_SIZE = 5 * 1024 * 1024;
+		final int AVG_CHUNK_SIZE = 8 * 1024;
+
+		// Setup
+		File inputRandom5MBFile = TestFileUtil.createRandomFileInDirectory(tempDir, TOTAL_FILE_SIZE);
+
+		File outputCopyOfRandom5MBFile = TestFileUtil.getRandomFilenameInDirectory(tempDir);
+		FileOutputStream outputCopyOfRandom5MBFileOutputStream = new FileOutputStream(outputCopyOfRandom5MBFile);
+
+		Chunker chunker = new FastCdcChunker(AVG_CHUNK_SIZE);
+
+		// Create chunks
+		ChunkEnumeration chunkEnumeration = chunker.createChunks(inputRandom5MBFile);
+		List<Integer> chunkSizes = new ArrayList<Integer>();
+		Chunk lastChunk = null;
+
+		while (chunkEnumeration.hasMoreElements()) {
+			lastChunk = chunkEnumeration.nextElement();
+
+			assertNotNull("Chunk checksum should not be null.", lastChunk.getChecksum());
+			chunkSizes.add(lastChunk.getSize());
+
+			outputCopyOfRandom5MBFileOutputStream.write(lastChunk.getContent(), lastChunk.getOffset(), lastChunk.getSize());
+		}
+
+		chunkEnumeration.close();
+		outputCopyOfRandom5MBFileOutputStream.close();
+
+		// Chunk sizes (except for the last chunk)
+		for (int i = 0; i < chunkSizes.size() - 1; i++) {
+			assertTrue("Chunk must not be smaller than min. size: " + chunkSizes.get(i), chunkSizes.get(i) > AVG_CHUNK_SIZE / 4);
+			assertTrue("Chunk must not be larger than max. size: " + chunkSizes.get(i), chunkSizes.get(i) <= AVG_CHUNK_SIZE * 8);
+		}
+
+		int actualAvgChunkSize = TOTAL_FILE_SIZE / chunkSizes.size();
+
+		assertTrue("Average chunk size too far off: " + actualAvgChunkSize, actualAvgChunkSize > AVG_CHUNK_SIZE / 2);
+		assertTrue("Average chunk size too far off: " + actualAvgChunkSize, actualAvgChunkSize < AVG_CHUNK_SIZE * 2);
+
+		// Checksums
+		byte[] inputFileChecksum = FileUtil.createChecksum(inputRandom5MBFile, FastCdcChunker.DEFAULT_DIGEST_ALG);
+		byte[] outputFileChecksum = FileUtil.createChecksum(outputCopyOfRandom5MBFile, FastCdcChunker.DEFAULT_DIGEST_ALG);
+
+		assertArrayEquals("Checksums of input and output file do not match.", inputFileChecksum, outputFileChecksum);
+		assertArrayEquals("Last chunk's getFileChecksum() should be the file checksum.", inputFileChecksum, lastChunk.getFileChecksum());
+	}
+
+	@Test
+	public void testNumberAndSizeOfCreatedChunks() throws IOException {
+		// Test Constants
+		final int AVG_CHUNK_SIZE = 16 * 1024;
+
+		// Chunk boundaries must never change, otherwise chunks of existing
+		// repositories are not found anymore (no deduplication).
+		final int[] EXPECTED_CHUNK_SIZES = new int[] { 18871, 28528, 17620, 17243, 19274, 17675, 11894, 11891, 19047, 16762, 24969, 17570,
+				17257, 19839, 18870, 131072, 96781, 16647, 16978, 7515, 23464, 19772, 21258, 21634, 20773, 17242, 9867, 18164, 19636, 18855,
+				22507, 17237, 24599, 21106, 10454, 10826, 21495, 21731, 13905, 21654, 19097, 25989, 17809, 21224, 22636, 14555, 4784 };
+
+		// Setup: Pseudo-random content with a zero-filled area (= no breakpoints, chunks of max. size)
+		byte[] inputFileContent = createPseudoRandomContent();
+		File inputFile = writeFile("fixed-content", inputFileContent);
+
+		assertArrayEquals(EXPECTED_CHUNK_SIZES, toIntArray(getChunkSizes(new FastCdcChunker(AVG_CHUNK_SIZE), inputFile)));
+	}
+
+	@Test
+	public void testMaxChunkSizeMultiple() throws Exception {
+		// Test Constants
+		final int AVG_CHUNK_SIZE = 1024;
+		final int MAX_CHUNK_SIZE = 8 * AVG_CHUNK_SIZE;
+
+		// Setup: Zeros only (no breakpoints), exactly two max. size chunks
+		File inputFile = writeFile("zeros", new byte[2 * MAX_CHUNK_SIZE]);
+		Chunker chunker = new FastCdcChunker(AVG_CHUNK_SIZE);
+
+		ChunkEnumeration chunkEnumeration = chunker.createChunks(inputFile);
+
+		Chunk firstChunk = chunkEnumeration.nextElement();
+		assertEquals(MAX_CHUNK_SIZE, firstChunk.getSize());
+		assertNull("Only the last chunk has a file checksum.", firstChunk.getFileChecksum());
+
+		Chunk secondChunk = chunkEnumeration.nextElement();
+		assertEquals(MAX_CHUNK_SIZE, secondChunk.getSize());
+		assertArrayEquals(FileUtil.createChecksum(inputFile, FastCdcChunker.DEFAULT_DIGEST_ALG), secondChunk.getFileChecksum());
+
+		assertFalse(chunkEnumeration.hasMoreElements());
+		assertNull(chunkEnumeration.nextElement());
+
+		chunkEnumeration.close();
+	}
+
+	@Test
+	public void testEmptyFile() throws IOException {
+		File inputFile = writeFile("empty", new byte[0]);
+		ChunkEnumeration chunkEnumeration = new FastCdcChunker(8 * 1024).createChunks(inputFile);
+
+		assertFalse("No chunks expected for empty file.", chunkEnumeration.hasMoreElements());
+		assertNull(chunkEnumeration.nextElement());
+
+		chunkEnumeration.close();
+	}
+
+	@Test
+	public void testInsertedBytesOnlyChangeFirstChunks() throws IOException {
+		// Test Constants
+		final int AVG_CHUNK_SIZE = 4 * 1024;
+
+		// Setup
+		byte[] originalContent = createPseudoRandomContent();
+		byte[] modifiedContent = new byte[originalContent.length + 100];
+
+		System.arraycopy(originalContent, 0, modifiedContent, 100, originalContent.length);
+
+		Chunker chunker = new FastCdcChunker(AVG_CHUNK_SIZE);
+
+		List<String> originalChecksums = getChunkChecksums(chunker, writeFile("original", originalContent));
+		Set<String> modifiedChecksums = new HashSet<String>(getChunkChecksums(chunker, writeFile("modified", modifiedContent)));
+
+		// Test: All but the first chunk are found again
+		originalChecksums.retainAll(modifiedChecksums);
+		assertTrue("Too few identical chunks: " + originalChecksums.size(), originalChecksums.size() >= modifiedChecksums.size() - 2);
+	}
+
+	private byte[] createPseudoRandomContent() {
+		byte[] content = new byte[1024 * 1024];
+
+		new Random(42).nextBytes(content);
+		Arrays.fill(content, 300000, 500000, (byte) 0);
+
+		return content;
+	}
+
+	private File writeFile(String name, byte[] content) throws IOException {
+		File file = new File(tempDir, name);
+		FileOutputStream fileOutputStream = new FileOutputStream(file);
+
+		fileOutputStream.write(content);
+		fileOutputStream.close();
+
+		return file;
+	}
+
+	private List<Integer> getChunkSizes(Chunker chunker, File file) throws IOException {
+		List<Integer> chunkSizes = new ArrayList<Integer>();
+		ChunkEnumeration chunkEnumeration = chunker.createChunks(file);
+
+		while (chunkEnumeration.hasMoreElements()) {
+			chunkSizes.add(chunkEnumeration.nextElement().getSize());
+		}
+
+		chunkEnumeration.close();
+		return chunkSizes;
+	}
+
+	private List<String> getChunkChecksums(Chunker chunker, File file) throws IOException {
+		List<String> chunkChecksums = new ArrayList<String>();
+		ChunkEnumeration chunkEnumeration = chunker.createChunks(file);
+
+		while (chunkEnumeration.hasMoreElements()) {
+			chunkChecksums.add(StringUtil.toHex(chunkEnumeration.nextElement().getChecksum()));
+		}
+
+		chunkEnumeration.close();
+		return chunkChecksums;
+	}
+
+	private int[] toIntArray(List<Integer> values) {
+		int[] intArray = new int[values.size()];
+
+		for (int i = 0; i < intArray.length; i++) {
+			intArray[i] = values.get(i);
+		}
+
+		return intArray;
+	}
+}
@@ -43,7 +43,10 @@ import org.syncany.chunk.Chunker;
 import org.syncany.chunk.CipherTransformer;
 import org.syncany.chunk.Deduper;
 import org.syncany.chunk.DeduperListener;
+import org.syncany.chunk.FastCdcChunker;
 import org.syncany.chunk.GzipTransformer;
+import org.syncany.chunk.IndexedMultiChunker;
+import org.syncany.chunk.Lz4Transformer;
 import org.syncany.chunk.MultiChunk;
 import org.syncany.chunk.MultiChunker;
 import org.syncany.chunk.NoTransformer;
@@ -115,6 +118,7 @@ public class FrameworkCombinationTest {
 		for (int i = 0; i < multiChunkSizes.length; i++) {
 			//multiChunkers.add(new CustomMultiChunker(multiChunkSizes[i]));
 			multiChunkers.add(new ZipMultiChunker(multiChunkSizes[i]));
+			multiChunkers.add(new IndexedMultiChunker(multiChunkSizes[i]));
 		}
 
 		// Chunks
@@ -131,6 +135,8 @@ public class FrameworkCombinationTest {
 				for (int k = 0; k < fingerprinters.length; k++) {
 					chunkers.add(new TttdChunker(chunkSizes[i], TttdChunker.DEFAULT_WINDOW_SIZE, digestAlgs[j], fingerprinters[k]));
 				}
+
+				chunkers.add(new FastCdcChunker(chunkSizes[i], digestAlgs[j]));
 			}
 		}
 
@@ -145,6 +151,8 @@ public class FrameworkCombinationTest {
 		transformerChains.add(new GzipTransformer());
 		transformerChains.add(new CipherTransformer(cipherSpecs, masterKey));
 		transformerChains.add(new GzipTransformer(new CipherTransformer(cipherSpecs, masterKey)));
+		transformerChains.add(new Lz4Transformer());
+		transformerChains.add(new Lz4Transformer(new CipherTransformer(cipherSpecs, masterKey)));
 
 		for (MultiChunker multiChunker : multiChunkers) {
 			for (Transformer transformer : transformerChains) {
@@ -0,0 +1,167 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2015 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.tests.unit.chunk;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+import org.syncany.chunk.GzipTransformer;
+import org.syncany.chunk.Lz4Transformer;
+import org.syncany.chunk.Transformer;
+
+public class Lz4TransformerTest {
+	@Test
+	public void testGetInstanceAndInit() throws Exception {
+		Map<String, String> settings = new HashMap<String, String>();
+		settings.put(Lz4Transformer.PROPERTY_ACCELERATION, "4");
+
+		Transformer transformer = Transformer.getInstance(Lz4Transformer.TYPE);
+		transformer.init(settings);
+
+		assertTrue(transformer instanceof Lz4Transformer);
+		assertEquals("Lz4", transformer.toString());
+	}
+
+	@Test(expected = Exception.class)
+	public void testInitWithInvalidAcceleration() throws Exception {
+		Map<String, String> settings = new HashMap<String, String>();
+		settings.put(Lz4Transformer.PROPERTY_ACCELERATION, "0");
+
+		new Lz4Transformer().init(settings);
+	}
+
+	@Test
+	public void testFrameHeader() throws Exception {
+		byte[] compressed = transform(new Lz4Transformer(), new byte[0]);
+
+		// Magic number, FLG (version 1, independent blocks, content checksum), BD (256 KB blocks), header checksum,
+		// end mark, content checksum (xxHash32 of nothing)
+		byte[] expected = new byte[] { 0x04, 0x22, 0x4d, 0x18, 0x64, 0x50, 0x08, 0x00, 0x00, 0x00, 0x00, 0x05, 0x5d, (byte) 0xcc, 0x02 };
+		assertArrayEquals(expected, compressed);
+	}
+
+	@Test
+	public void testRoundtripVariousSizesAndContents() throws Exception {
+		Random random = new Random(1234);
+		int[] sizes = new int[] { 1, 12, 13, 100, 65535, 65536, 300000, 1024 * 1024 + 7 };
+
+		for (int acceleration : new int[] { 1, 8 }) {
+			Transformer transformer = new Lz4Transformer(acceleration, null);
+
+			for (int size : sizes) {
+				assertRoundtrip(transformer, createRandomContent(random, size));
+				assertRoundtrip(transformer, createRepetitiveContent(random, size));
+				assertRoundtrip(transformer, new byte[size]);
+			}
+		}
+	}
+
+	@Test
+	public void testCompressesRepetitiveContent() throws Exception {
+		byte[] content = createRepetitiveContent(new Random(1), 1024 * 1024);
+		byte[] compressed = transform(new Lz4Transformer(), content);
+
+		assertTrue("Compressed size too large: " + compressed.length, compressed.length < content.length / 4);
+	}
+
+	@Test
+	public void testIncompressibleContentOnlyAddsFrameOverhead() throws Exception {
+		byte[] content = createRandomContent(new Random(1), 1024 * 1024);
+		byte[] compressed = transform(new Lz4Transformer(), content);
+
+		// Header (7) + 4 block headers (4 each) + end mark (4) + content checksum (4)
+		assertEquals(content.length + 7 + 4 * 4 + 4 + 4, compressed.length);
+	}
+
+	@Test
+	public void testChainedTransformer() throws Exception {
+		Transformer transformer = new Lz4Transformer(new GzipTransformer());
+		assertRoundtrip(transformer, createRepetitiveContent(new Random(1), 500000));
+	}
+
+	@Test(expected = IOException.class)
+	public void testCorruptContentFails() throws Exception {
+		byte[] content = createRepetitiveContent(new Random(1), 100000);
+		byte[] compressed = transform(new Lz4Transformer(), content);
+
+		compressed[compressed.length / 2] ^= 0x01;
+		IOUtils.toByteArray(new Lz4Transformer().createInputStream(new ByteArrayInputStream(compressed)));
+	}
+
+	@Test(expected = IOException.class)
+	public void testTruncatedContentFails() throws Exception {
+		byte[] compressed = transform(new Lz4Transformer(), createRepetitiveContent(new Random(1), 100000));
+		byte[] truncated = Arrays.copyOf(compressed, compressed.length - 5);
+
+		IOUtils.toByteArray(new Lz4Transformer().createInputStream(new ByteArrayInputStream(truncated)));
+	}
+
+	private void assertRoundtrip(Transformer transformer, byte[] content) throws IOException {
+		byte[] compressed = transform(transformer, content);
+
+		InputStream inputStream = transformer.createInputStream(new ByteArrayInputStream(compressed));
+		byte[] decompressed = IOUtils.toByteArray(inputStream);
+
+		inputStream.close();
+		assertArrayEquals("Roundtrip failed for " + content.length + " bytes", content, decompressed);
+	}
+
+	private byte[] transform(Transformer transformer, byte[] content) throws IOException {
+		ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+		OutputStream outputStream = transformer.createOutputStream(byteArrayOutputStream);
+
+		// Write in odd pieces to cross block boundaries
+		for (int offset = 0; offset < content.length; offset += 10007) {
+			outputStream.write(content, offset, Math.min(10007, content.length - offset));
+		}
+
+		outputStream.close();
+		return byteArrayOutputStream.toByteArray();
+	}
+
+	private byte[] createRandomContent(Random random, int size) {
+		byte[] content = new byte[size];
+		random.nextBytes(content);
+
+		return content;
+	}
+
+	private byte[] createRepetitiveContent(Random random, int size) {
+		byte[] content = new byte[size];
+		byte[] words = "syncany chunk multichunk deduplication transformer ".getBytes();
+
+		for (int i = 0; i < size; i++) {
+			content[i] = (random.nextInt(50) == 0) ? (byte) random.nextInt() : words[i % words.length];
+		}
+
+		return content;
+	}
+}
@@ -17,13 +17,19 @@
  */
 package org.syncany.tests.unit.chunk;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Enumeration;
 import java.util.HashSet;
 import java.util.List;
@@ -35,10 +41,12 @@ import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 import java.util.zip.ZipOutputStream;
 
+import org.apache.commons.io.IOUtils;
 import org.junit.Test;
 import org.syncany.chunk.Chunk;
 import org.syncany.chunk.Chunker;
 import org.syncany.chunk.FixedChunker;
+import org.syncany.chunk.IndexedMultiChunker;
 import org.syncany.chunk.MultiChunk;
 import org.syncany.chunk.MultiChunker;
 import org.syncany.chunk.NoTransformer;
@@ -61,7 +69,8 @@ public class MultiChunkerTest {
 		
 		MultiChunker[] multiChunkers = new MultiChunker[] { 
 			//new CustomMultiChunker(minMultiChunkSize),
-			new ZipMultiChunker(minMultiChunkSize) 
+			new ZipMultiChunker(minMultiChunkSize),
+			new IndexedMultiChunker(minMultiChunkSize)
 		};
 		
 		for (Chunker chunker : chunkers) {
@@ -122,6 +131,71 @@ public class MultiChunkerTest {
 		TestFileUtil.deleteDirectory(tempDir);
 	}	
 	
+	@Test
+	public void testIndexedMultiChunkRandomAccess() throws Exception {
+		File tempDir = TestFileUtil.createTempDirectoryInSystemTemp();
+		File multiChunkFile = new File(tempDir, "multichunk");
+		
+		File inputFile = TestFileUtil.createRandomFileInDirectory(tempDir, 100*16*1024);
+		
+		Chunker chunker = new FixedChunker(16*1024);
+		MultiChunker multiChunker = new IndexedMultiChunker(512);
+		
+		// Write test multichunk
+		List<byte[]> checksums = new ArrayList<byte[]>();
+		List<byte[]> contents = new ArrayList<byte[]>();
+		
+		MultiChunk multiChunk = multiChunker.createMultiChunk(MultiChunkId.secureRandomMultiChunkId(), new FileOutputStream(multiChunkFile));
+		Enumeration<Chunk> chunks = chunker.createChunks(inputFile);
+		
+		while (chunks.hasMoreElements()) {
+			Chunk chunk = chunks.nextElement();
+			
+			checksums.add(chunk.getChecksum());
+			contents.add(Arrays.copyOf(chunk.getContent(), chunk.getSize()));
+			
+			multiChunk.write(chunk);
+		}
+		
+		multiChunk.close();
+		
+		// Read it randomly
+		Random random = new Random();
+		multiChunk = multiChunker.createMultiChunk(multiChunkFile);
+		
+		for (int i = 0; i < 100; i++) {
+			int randomChunk = random.nextInt(checksums.size());
+			InputStream chunkInputStream = multiChunk.getChunkInputStream(checksums.get(randomChunk));
+			
+			assertArrayEquals(contents.get(randomChunk), IOUtils.toByteArray(chunkInputStream));
+			
+			ByteBuffer chunkBuffer = multiChunk.getChunkBuffer(checksums.get(randomChunk));
+			byte[] chunkBufferContent = new byte[chunkBuffer.remaining()];
+			
+			chunkBuffer.get(chunkBufferContent);
+			assertArrayEquals(contents.get(randomChunk), chunkBufferContent);
+		}
+		
+		assertNull(multiChunk.getChunkInputStream(TestFileUtil.createRandomArray(20)));		
+		assertNull(multiChunk.getChunkBuffer(TestFileUtil.createRandomArray(20)));		
+		multiChunk.close();
+		
+		// Read it sequentially 
+		multiChunk = multiChunker.createMultiChunk(new FileInputStream(multiChunkFile));
+		
+		for (int i = 0; i < checksums.size(); i++) {
+			Chunk chunk = multiChunk.read();
+			
+			assertArrayEquals(checksums.get(i), chunk.getChecksum());
+			assertArrayEquals(contents.get(i), chunk.getContent());
+		}
+		
+		assertNull(multiChunk.read());		
+		multiChunk.close();
+		
+		TestFileUtil.deleteDirectory(tempDir);
+	}	
+	
 	public void chunkFileIntoMultiChunks(Chunker chunker, MultiChunker multiChunker, int minMultiChunkSize) throws Exception {
 		File tempDir = TestFileUtil.createTempDirectoryInSystemTemp();
 		
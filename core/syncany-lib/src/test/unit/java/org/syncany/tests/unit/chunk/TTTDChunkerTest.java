@@ -22,16 +22,16 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
-import static org.junit.Assert.fail;
 
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Enumeration;
+import java.util.Random;
 
 import org.junit.After;
 import org.junit.Before;
-import org.junit.Ignore;
 import org.junit.Test;
 import org.syncany.chunk.Chunk;
 import org.syncany.chunk.Chunker;
@@ -84,7 +84,7 @@ public class TTTDChunkerTest {
 			// Checksum
 			assertNotNull("Chunk checksum should not be null.", lastChunk.getChecksum());
 			
-			outputCopyOfRandom5MBFileOutputStream.write(lastChunk.getContent(), 0, lastChunk.getSize());
+			outputCopyOfRandom5MBFileOutputStream.write(lastChunk.getContent(), lastChunk.getOffset(), lastChunk.getSize());
 		}
 		
 		outputCopyOfRandom5MBFileOutputStream.close();
@@ -101,9 +101,59 @@ public class TTTDChunkerTest {
 	}
 	
 	@Test
-	@Ignore
-	public void testNumberAndSizeOfCreatedChunks() {
-		fail("Not yet implemented");
+	public void testNumberAndSizeOfCreatedChunks() throws IOException {
+		// Test Constants
+		final int TOTAL_FILE_SIZE = 1024*1024;
+		final int CHUNK_SIZE = 16*1024;
+
+		// Chunk boundaries must never change, otherwise chunks of existing
+		// repositories are not found anymore (no deduplication).
+		final int[] EXPECTED_CHUNK_SIZES = new int[] { 14037, 30365, 45197, 8039, 22650, 7700, 9966, 26503, 30595, 34503, 30568, 45197,
+				45197, 45197, 45197, 45197, 20827, 45197, 19334, 8528, 27095, 19470, 9224, 8036, 24900, 10129, 22883, 45197, 15751, 27020,
+				45197, 15147, 11250, 19259, 10394, 29902, 10385, 8252, 13389, 22614, 38931, 11402, 12232, 10523 };
+
+		// Setup: Pseudo-random content with a zero-filled area (= no breakpoints, chunks of max. size)
+		byte[] inputFileContent = new byte[TOTAL_FILE_SIZE];
+		new Random(42).nextBytes(inputFileContent);
+		Arrays.fill(inputFileContent, 300000, 500000, (byte) 0);
+
+		File inputFile = new File(tempDir, "fixed-content");
+		FileOutputStream inputFileOutputStream = new FileOutputStream(inputFile);
+		inputFileOutputStream.write(inputFileContent);
+		inputFileOutputStream.close();
+
+		Chunker chunker = new TttdChunker(CHUNK_SIZE);
+
+		// Run twice to make sure that reused buffers do not affect the result
+		for (int run = 0; run < 2; run++) {
+			Chunker.ChunkEnumeration chunkEnumeration = chunker.createChunks(inputFile);
+			int chunkIndex = 0;
+
+			while (chunkEnumeration.hasMoreElements()) {
+				Chunk chunk = chunkEnumeration.nextElement();
+
+				assertEquals("Chunk " + chunkIndex + " has unexpected size.", EXPECTED_CHUNK_SIZES[chunkIndex], chunk.getSize());
+				assertArrayEquals("Chunk " + chunkIndex + " has unexpected content.",
+						Arrays.copyOfRange(inputFileContent, sum(EXPECTED_CHUNK_SIZES, chunkIndex),
+								sum(EXPECTED_CHUNK_SIZES, chunkIndex + 1)),
+						Arrays.copyOfRange(chunk.getContent(), chunk.getOffset(), chunk.getOffset() + chunk.getSize()));
+
+				chunkIndex++;
+			}
+
+			chunkEnumeration.close();
+			assertEquals("Unexpected number of chunks.", EXPECTED_CHUNK_SIZES.length, chunkIndex);
+		}
+	}
+
+	private int sum(int[] values, int count) {
+		int sum = 0;
+
+		for (int i = 0; i < count; i++) {
+			sum += values[i];
+		}
+
+		return sum;
 	}
 	
 	@Test
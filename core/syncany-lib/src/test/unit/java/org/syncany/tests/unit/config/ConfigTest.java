@@ -18,7 +18,9 @@
 package org.syncany.tests.unit.config;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.io.File;
@@ -30,11 +32,20 @@ import javax.crypto.spec.SecretKeySpec;
 
 import org.junit.Ignore;
 import org.junit.Test;
+import org.syncany.chunk.Chunker;
+import org.syncany.chunk.CompressingTransformer;
+import org.syncany.chunk.FastCdcChunker;
+import org.syncany.chunk.GzipTransformer;
+import org.syncany.chunk.IndexedMultiChunker;
+import org.syncany.chunk.ZipMultiChunker;
 import org.syncany.config.Config;
 import org.syncany.config.ConfigException;
 import org.syncany.config.to.ConfigTO;
+import org.syncany.config.to.DefaultRepoTOFactory;
 import org.syncany.config.to.RepoTO;
+import org.syncany.config.to.RepoTO.ChunkerTO;
 import org.syncany.config.to.RepoTO.TransformerTO;
+import org.syncany.crypto.CipherSpec;
 import org.syncany.crypto.SaltedSecretKey;
 import org.syncany.tests.util.TestAssertUtil;
 import org.syncany.tests.util.TestConfigUtil;
@@ -165,6 +176,78 @@ public class ConfigTest {
 		}
 	}
 
+	@Test
+	public void testConfigFixedChunkerIgnoresRecordedSize() throws Exception {
+		// Setup
+		File localDir = new File("/some/folder");
+		ConfigTO configTO = new ConfigTO();
+		RepoTO repoTO = new RepoTO();
+
+		configTO.setMachineName("somevalidmachinename"); // <<< valid
+
+		repoTO.setChunkerTO(TestConfigUtil.createFixedChunkerTO()); // <<< valid, size 32768
+		repoTO.setMultiChunker(TestConfigUtil.createZipMultiChunkerTO()); // <<< valid
+		repoTO.setRepoId(new byte[] { 0x01, 0x02 }); // <<< valid
+
+		// Run!
+		Config config = new Config(localDir, configTO, repoTO);
+
+		// Test
+		assertEquals("Fixed-" + Config.LEGACY_FIXED_CHUNK_SIZE + "-SHA1", config.getChunker().toString());
+	}
+
+	@Test
+	public void testConfigFastCdcChunker() throws Exception {
+		// Setup
+		File localDir = new File("/some/folder");
+		ConfigTO configTO = new ConfigTO();
+		RepoTO repoTO = new RepoTO();
+
+		configTO.setMachineName("somevalidmachinename"); // <<< valid
+
+		ChunkerTO chunkerTO = new ChunkerTO();
+		chunkerTO.setType(FastCdcChunker.TYPE);
+		chunkerTO.setSettings(new HashMap<String, String>());
+		chunkerTO.getSettings().put(Chunker.PROPERTY_SIZE, "16384");
+
+		repoTO.setChunkerTO(chunkerTO); // <<< valid
+		repoTO.setMultiChunker(TestConfigUtil.createZipMultiChunkerTO()); // <<< valid
+		repoTO.setRepoId(new byte[] { 0x01, 0x02 }); // <<< valid
+
+		// Run!
+		Config config = new Config(localDir, configTO, repoTO);
+
+		// Test
+		assertEquals("FastCdcChunker", config.getChunker().getClass().getSimpleName());
+		assertEquals("FastCDC-16384-SHA1-Gear", config.getChunker().toString());
+	}
+
+	@Test
+	public void testConfigChunkerInvalidType() throws Exception {
+		// Setup
+		File localDir = new File("/some/folder");
+		ConfigTO configTO = new ConfigTO();
+		RepoTO repoTO = new RepoTO();
+
+		configTO.setMachineName("somevalidmachinename"); // <<< valid
+
+		ChunkerTO chunkerTO = new ChunkerTO();
+		chunkerTO.setType("invalid-typeXXX"); // <<< INVALID !!
+
+		repoTO.setChunkerTO(chunkerTO);
+		repoTO.setMultiChunker(TestConfigUtil.createZipMultiChunkerTO()); // <<< valid
+		repoTO.setRepoId(new byte[] { 0x01, 0x02 }); // <<< valid
+
+		// Run!
+		try {
+			new Config(localDir, configTO, repoTO);
+			fail("Config should not been have initialized.");
+		}
+		catch (ConfigException e) {
+			TestAssertUtil.assertErrorStackTraceContains("invalid-typeXXX", e);
+		}
+	}
+
 	@Test
 	@Ignore
 	// TODO [low] ChunkerTO is not used yet; so no test for it.
@@ -225,6 +308,57 @@ public class ConfigTest {
 		}
 	}
 
+	@Test
+	public void testConfigGzipTransformerBypassIncompressible() throws Exception {
+		// Setup
+		File localDir = new File("/some/folder");
+		ConfigTO configTO = new ConfigTO();
+		RepoTO repoTO = new RepoTO();
+
+		configTO.setMachineName("somevalidmachinename"); // <<< valid
+
+		repoTO.setChunkerTO(TestConfigUtil.createFixedChunkerTO()); // <<< valid
+		repoTO.setMultiChunker(TestConfigUtil.createZipMultiChunkerTO()); // <<< valid
+		repoTO.setRepoId(new byte[] { 0x01, 0x02 }); // <<< valid
+
+		TransformerTO gzipTransformerTO = new TransformerTO();
+		gzipTransformerTO.setType(GzipTransformer.TYPE);
+		gzipTransformerTO.setSettings(new HashMap<String, String>());
+
+		List<TransformerTO> transformers = new ArrayList<TransformerTO>();
+		transformers.add(gzipTransformerTO);
+
+		repoTO.setTransformers(transformers); // <<< valid
+
+		// Run & test: Off by default, on if set in the repository
+		assertFalse(new Config(localDir, configTO, repoTO).getTransformer().isBypassIncompressible());
+
+		gzipTransformerTO.getSettings().put(CompressingTransformer.PROPERTY_BYPASS_INCOMPRESSIBLE, "true");
+		assertTrue(new Config(localDir, configTO, repoTO).getTransformer().isBypassIncompressible());
+	}
+
+	@Test
+	public void testConfigDefaultRepoTOFactoryMultiChunker() throws Exception {
+		// Setup
+		File localDir = new File("/some/folder");
+		ConfigTO configTO = new ConfigTO();
+
+		configTO.setMachineName("somevalidmachinename"); // <<< valid
+
+		RepoTO defaultRepoTO = new DefaultRepoTOFactory(true, new ArrayList<CipherSpec>()).createRepoTO();
+		DefaultRepoTOFactory indexedRepoTOFactory = new DefaultRepoTOFactory(true, new ArrayList<CipherSpec>());
+		indexedRepoTOFactory.setIndexedMultiChunks(true);
+
+		RepoTO indexedRepoTO = indexedRepoTOFactory.createRepoTO();
+
+		// Run & test: ZIP multichunks by default, so that older clients can read new repositories
+		assertEquals(ZipMultiChunker.TYPE, defaultRepoTO.getMultiChunker().getType());
+		assertEquals("ZipMultiChunker", new Config(localDir, configTO, defaultRepoTO).getMultiChunker().getClass().getSimpleName());
+
+		assertEquals(IndexedMultiChunker.TYPE, indexedRepoTO.getMultiChunker().getType());
+		assertEquals("IndexedMultiChunker", new Config(localDir, configTO, indexedRepoTO).getMultiChunker().getClass().getSimpleName());
+	}
+
 	@Test
 	@SuppressWarnings("serial")
 	public void testConfigCipherTransformersCipherFound() throws Exception {
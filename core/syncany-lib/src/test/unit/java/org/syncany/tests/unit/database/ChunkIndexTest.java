@@ -0,0 +1,188 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2015 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.tests.unit.database;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.syncany.database.ChunkEntry.ChunkChecksum;
+import org.syncany.database.ChunkIndex;
+import org.syncany.tests.unit.util.TestFileUtil;
+
+public class ChunkIndexTest {
+	private File tempDir;
+	private File indexFile;
+
+	@Before
+	public void setUp() throws Exception {
+		tempDir = TestFileUtil.createTempDirectoryInSystemTemp();
+		indexFile = new File(tempDir, "local.chunkindex");
+	}
+
+	@After
+	public void tearDown() {
+		ChunkIndex.getInstance(indexFile).close();
+		TestFileUtil.deleteDirectory(tempDir);
+	}
+
+	@Test
+	public void testPutAndGetSize() throws Exception {
+		ChunkIndex chunkIndex = ChunkIndex.getInstance(indexFile);
+		chunkIndex.clear(0);
+
+		ChunkChecksum checksum1 = createChecksum(new Random(1));
+		ChunkChecksum checksum2 = createChecksum(new Random(2));
+
+		assertTrue(chunkIndex.put(checksum1, 1234));
+		assertTrue(chunkIndex.put(checksum2, 0));
+		assertFalse("Chunk already in index", chunkIndex.put(checksum1, 1234));
+
+		assertEquals(2, chunkIndex.size());
+		assertEquals(1234, chunkIndex.getSize(checksum1));
+		assertEquals(0, chunkIndex.getSize(checksum2));
+		assertEquals(-1, chunkIndex.getSize(createChecksum(new Random(3))));
+	}
+
+	@Test
+	public void testGrowAndReload() throws Exception {
+		ChunkIndex chunkIndex = ChunkIndex.getInstance(indexFile);
+		chunkIndex.clear(0);
+
+		Random random = new Random(1);
+
+		for (int i = 0; i < 10000; i++) {
+			chunkIndex.put(createChecksum(random), i);
+		}
+
+		chunkIndex.commit();
+		chunkIndex.close();
+
+		assertSame(chunkIndex, ChunkIndex.getInstance(indexFile));
+		assertTrue(chunkIndex.load());
+		assertEquals(10000, chunkIndex.size());
+
+		random = new Random(1);
+
+		for (int i = 0; i < 10000; i++) {
+			assertEquals(i, chunkIndex.getSize(createChecksum(random)));
+		}
+	}
+
+	@Test
+	public void testBloomFilterFalsePositiveRate() throws Exception {
+		ChunkIndex chunkIndex = ChunkIndex.getInstance(indexFile);
+		chunkIndex.clear(0);
+
+		Random random = new Random(1);
+
+		for (int i = 0; i < 50000; i++) {
+			chunkIndex.put(createChecksum(random), i);
+		}
+
+		for (int i = 0; i < 100000; i++) {
+			assertEquals(-1, chunkIndex.getSize(createChecksum(random)));
+		}
+
+		double falsePositiveRate = chunkIndex.getFalsePositiveRate();
+		assertTrue("False positive rate too high: " + falsePositiveRate, falsePositiveRate < 0.02);
+
+		chunkIndex.commit();
+		assertEquals(0, chunkIndex.getFalsePositiveRate(), 0);
+	}
+
+	@Test
+	public void testUncommittedOrInvalidatedIndexNotLoaded() throws Exception {
+		ChunkIndex chunkIndex = ChunkIndex.getInstance(indexFile);
+		assertFalse("Index file does not exist", chunkIndex.load());
+
+		chunkIndex.clear(0);
+		chunkIndex.put(createChecksum(new Random(1)), 1);
+		chunkIndex.close();
+
+		assertFalse("Index has not been committed", chunkIndex.load());
+
+		chunkIndex.clear(0);
+		chunkIndex.put(createChecksum(new Random(1)), 1);
+		chunkIndex.commit();
+		chunkIndex.invalidate();
+
+		assertFalse(chunkIndex.isLoaded());
+		assertFalse("Index has been invalidated", chunkIndex.load());
+	}
+
+	@Test
+	public void testIsIndexable() throws Exception {
+		assertTrue(ChunkIndex.isIndexable(16)); // MD5
+		assertTrue(ChunkIndex.isIndexable(20)); // SHA-1
+		assertTrue(ChunkIndex.isIndexable(32)); // SHA-256
+		assertFalse(ChunkIndex.isIndexable(8));
+
+		ChunkIndex chunkIndex = ChunkIndex.getInstance(indexFile);
+		assertFalse("Index not loaded", chunkIndex.isIndexable(new ChunkChecksum(new byte[20])));
+
+		chunkIndex.clear(0);
+		assertTrue(chunkIndex.isIndexable(new ChunkChecksum(new byte[20])));
+		assertFalse(chunkIndex.isIndexable(new ChunkChecksum(new byte[32])));
+	}
+
+	@Test
+	public void testNonDefaultKeyLength() throws Exception {
+		ChunkIndex chunkIndex = ChunkIndex.getInstance(indexFile);
+		chunkIndex.clear(0, 16);
+
+		Random random = new Random(1);
+
+		for (int i = 0; i < 5000; i++) {
+			chunkIndex.put(createChecksum(random, 16), i);
+		}
+
+		chunkIndex.commit();
+		chunkIndex.close();
+
+		assertTrue(chunkIndex.load());
+		assertEquals(16, chunkIndex.getKeyLength());
+		assertEquals(5000, chunkIndex.size());
+
+		random = new Random(1);
+
+		for (int i = 0; i < 5000; i++) {
+			assertEquals(i, chunkIndex.getSize(createChecksum(random, 16)));
+		}
+
+		assertEquals(-1, chunkIndex.getSize(createChecksum(new Random(1), 20)));
+	}
+
+	private ChunkChecksum createChecksum(Random random) {
+		return createChecksum(random, ChunkIndex.DEFAULT_KEY_LENGTH);
+	}
+
+	private ChunkChecksum createChecksum(Random random, int length) {
+		byte[] checksum = new byte[length];
+		random.nextBytes(checksum);
+
+		return new ChunkChecksum(checksum);
+	}
+}
@@ -0,0 +1,314 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2015 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.tests.unit.plugins.transfer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.syncany.plugins.transfer.FileType;
+import org.syncany.plugins.transfer.StorageException;
+import org.syncany.plugins.transfer.TransferManager;
+import org.syncany.plugins.transfer.features.PathAware;
+import org.syncany.plugins.transfer.features.PathAwareFeatureExtension;
+import org.syncany.plugins.transfer.features.PathAwareFeatureTransferManager;
+import org.syncany.plugins.transfer.features.PathAwareFeatureTransferManager.PathAwareRemoteFileAttributes;
+import org.syncany.plugins.transfer.files.MultichunkRemoteFile;
+import org.syncany.plugins.transfer.files.RemoteFile;
+
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * Unit tests for the {@link PathAwareFeatureTransferManager}, using an in-memory
+ * folder tree as {@link PathAwareFeatureExtension} and a Mockito mock as the
+ * underlying transfer manager.
+ */
+public class PathAwareFeatureTransferManagerTest {
+	private static final String MULTICHUNK_PATH = "multichunks";
+
+	private static final Map<String, Set<String>> folders = Maps.newHashMap();
+	private static final Set<String> files = Sets.newHashSet();
+	private static int createPathCount;
+	private static final AtomicInteger listFolderCount = new AtomicInteger();
+	private static final AtomicInteger listSubtreeCount = new AtomicInteger();
+	private static final Set<String> listFolderThreads = Collections.synchronizedSet(Sets.<String> newHashSet());
+
+	private PathAwareFeatureTransferManager transferManager;
+
+	@Before
+	public void setUp() throws Exception {
+		folders.clear();
+		files.clear();
+
+		folders.put(MULTICHUNK_PATH, Sets.<String> newHashSet());
+		createPathCount = 0;
+		listFolderCount.set(0);
+		listSubtreeCount.set(0);
+		listFolderThreads.clear();
+
+		transferManager = createTransferManager(PathAwareTransferManager.class);
+	}
+
+	@Test
+	public void testUploadCreatesKnownFolderOnlyOnce() throws Exception {
+		transferManager.upload(new File("/dev/null"), new MultichunkRemoteFile("multichunk-abcd000000000000000000000000000000000001"));
+		transferManager.upload(new File("/dev/null"), new MultichunkRemoteFile("multichunk-abcd000000000000000000000000000000000002"));
+		transferManager.upload(new File("/dev/null"), new MultichunkRemoteFile("multichunk-abef000000000000000000000000000000000001"));
+
+		assertEquals(2, createPathCount);
+		assertEquals(2, folders.get("multichunks/ab").size());
+		assertEquals(2, folders.get("multichunks/ab/cd").size());
+	}
+
+	@Test
+	public void testDeletePrunesEmptyFoldersOnDisconnect() throws Exception {
+		transferManager.upload(new File("/dev/null"), new MultichunkRemoteFile("multichunk-abcd000000000000000000000000000000000001"));
+		transferManager.upload(new File("/dev/null"), new MultichunkRemoteFile("multichunk-abcd000000000000000000000000000000000002"));
+		transferManager.upload(new File("/dev/null"), new MultichunkRemoteFile("multichunk-abef000000000000000000000000000000000001"));
+
+		assertTrue(transferManager.delete(new MultichunkRemoteFile("multichunk-abcd000000000000000000000000000000000001")));
+		assertTrue(transferManager.delete(new MultichunkRemoteFile("multichunk-abcd000000000000000000000000000000000002")));
+
+		assertEquals(0, listFolderCount.get());
+		assertTrue(folders.containsKey("multichunks/ab/cd"));
+
+		transferManager.disconnect();
+
+		// 'ab/cd' is empty (known count), but is listed once to be sure;
+		// 'ab' still contains 'ef', so it is listed once and kept
+
+		assertEquals(2, listFolderCount.get());
+		assertFalse(folders.containsKey("multichunks/ab/cd"));
+		assertTrue(folders.containsKey("multichunks/ab/ef"));
+		assertTrue(folders.containsKey("multichunks/ab"));
+
+		transferManager.delete(new MultichunkRemoteFile("multichunk-abef000000000000000000000000000000000001"));
+		transferManager.disconnect();
+
+		assertEquals(1, folders.size());
+		assertTrue(folders.get(MULTICHUNK_PATH).isEmpty());
+	}
+
+	@Test
+	public void testListUsesCountsForPruning() throws Exception {
+		addFile("multichunks/ab/cd/multichunk-abcd000000000000000000000000000000000001");
+		addFile("multichunks/ab/cd/multichunk-abcd000000000000000000000000000000000002");
+
+		assertEquals(2, transferManager.list(MultichunkRemoteFile.class).size());
+		assertEquals(3, listFolderCount.get());
+
+		transferManager.delete(new MultichunkRemoteFile("multichunk-abcd000000000000000000000000000000000001"));
+		transferManager.disconnect();
+
+		// Known child count of 'ab/cd' is still positive, so no listing is necessary
+
+		assertEquals(3, listFolderCount.get());
+		assertTrue(folders.containsKey("multichunks/ab/cd"));
+	}
+
+	@Test
+	public void testListWalksFoldersSequentiallyByDefault() throws Exception {
+		addFiles(32);
+
+		Map<String, MultichunkRemoteFile> multichunkFiles = transferManager.list(MultichunkRemoteFile.class);
+
+		assertEquals(32, multichunkFiles.size());
+		assertEquals(1 + 32 + 32, listFolderCount.get());
+		assertEquals(Sets.newHashSet(Thread.currentThread().getName()), listFolderThreads);
+	}
+
+	@Test
+	public void testListWalksFoldersConcurrently() throws Exception {
+		transferManager = createTransferManager(ConcurrentPathAwareTransferManager.class);
+		addFiles(32);
+
+		Map<String, MultichunkRemoteFile> multichunkFiles = transferManager.list(MultichunkRemoteFile.class);
+
+		assertEquals(32, multichunkFiles.size());
+		assertEquals(1 + 32 + 32, listFolderCount.get());
+		assertTrue(multichunkFiles.containsKey("multichunk-1fd9000000000000000000000000000000000001"));
+		assertTrue("Subfolders should be listed by worker threads", listFolderThreads.size() > 1);
+	}
+
+	@Test
+	public void testListUsesSubtreeListing() throws Exception {
+		transferManager = createTransferManager(SubtreePathAwareTransferManager.class);
+
+		addFile("multichunks/ab/cd/multichunk-abcd000000000000000000000000000000000001");
+		addFile("multichunks/ab/ef/multichunk-abef000000000000000000000000000000000001");
+
+		assertEquals(2, transferManager.list(MultichunkRemoteFile.class).size());
+		assertEquals(1, listSubtreeCount.get());
+		assertEquals(0, listFolderCount.get());
+
+		// 'ab/ef' is listed to be sure it is empty; 'ab' is known to still contain 'cd' (from the subtree listing)
+
+		transferManager.delete(new MultichunkRemoteFile("multichunk-abef000000000000000000000000000000000001"));
+		transferManager.disconnect();
+
+		assertEquals(1, listFolderCount.get());
+		assertFalse(folders.containsKey("multichunks/ab/ef"));
+		assertTrue(folders.containsKey("multichunks/ab/cd"));
+	}
+
+	private void addFiles(int count) {
+		for (int i = 0; i < count; i++) {
+			addFile(String.format("multichunks/%02x/%02x/multichunk-%02x%02x000000000000000000000000000000000001", i, i * 7 % 256, i, i * 7 % 256));
+		}
+	}
+
+	private PathAwareFeatureTransferManager createTransferManager(Class<? extends TransferManager> annotatedTransferManagerClass) throws Exception {
+		TransferManager underlyingTransferManager = mock(TransferManager.class);
+		when(underlyingTransferManager.getRemoteFilePath(MultichunkRemoteFile.class)).thenReturn(MULTICHUNK_PATH);
+
+		doAnswer(new Answer<Void>() {
+			@Override
+			public Void answer(InvocationOnMock invocation) throws Throwable {
+				addFile(getFullPath((RemoteFile) invocation.getArguments()[1]));
+				return null;
+			}
+		}).when(underlyingTransferManager).upload(any(File.class), any(RemoteFile.class));
+
+		doAnswer(new Answer<Boolean>() {
+			@Override
+			public Boolean answer(InvocationOnMock invocation) throws Throwable {
+				return removeFile(getFullPath((RemoteFile) invocation.getArguments()[0]));
+			}
+		}).when(underlyingTransferManager).delete(any(RemoteFile.class));
+
+		PathAware pathAwareAnnotation = annotatedTransferManagerClass.getAnnotation(PathAware.class);
+		return new PathAwareFeatureTransferManager(underlyingTransferManager, underlyingTransferManager, null, pathAwareAnnotation);
+	}
+
+	private static String getFullPath(RemoteFile remoteFile) {
+		String path = remoteFile.getAttributes(PathAwareRemoteFileAttributes.class).getPath();
+		return MULTICHUNK_PATH + "/" + path + remoteFile.getName();
+	}
+
+	private static void addFile(String path) {
+		createFolder(path.substring(0, path.lastIndexOf('/')));
+
+		files.add(path);
+		folders.get(path.substring(0, path.lastIndexOf('/'))).add(path);
+	}
+
+	private static boolean removeFile(String path) {
+		folders.get(path.substring(0, path.lastIndexOf('/'))).remove(path);
+		return files.remove(path);
+	}
+
+	private static void createFolder(String path) {
+		if (!folders.containsKey(path)) {
+			createFolder(path.substring(0, path.lastIndexOf('/')));
+
+			folders.put(path, Sets.<String> newHashSet());
+			folders.get(path.substring(0, path.lastIndexOf('/'))).add(path);
+		}
+	}
+
+	@PathAware(extension = InMemoryPathAwareFeatureExtension.class)
+	public static abstract class PathAwareTransferManager implements TransferManager {
+		// Only used for the annotation
+	}
+
+	@PathAware(extension = InMemoryPathAwareFeatureExtension.class, listFolderThreads = 4)
+	public static abstract class ConcurrentPathAwareTransferManager implements TransferManager {
+		// Only used for the annotation
+	}
+
+	@PathAware(extension = InMemorySubtreePathAwareFeatureExtension.class)
+	public static abstract class SubtreePathAwareTransferManager implements TransferManager {
+		// Only used for the annotation
+	}
+
+	public static class InMemorySubtreePathAwareFeatureExtension extends InMemoryPathAwareFeatureExtension implements
+			PathAwareFeatureExtension.WithSubtreeListing {
+
+		@Override
+		public Map<String, Map<String, FileType>> listSubtree(String path) throws StorageException {
+			listSubtreeCount.incrementAndGet();
+			Map<String, Map<String, FileType>> subtree = Maps.newHashMap();
+
+			for (String folder : folders.keySet()) {
+				if (folder.equals(path) || folder.startsWith(path + "/")) {
+					subtree.put(folder, listFolderContents(folder));
+				}
+			}
+
+			return subtree;
+		}
+	}
+
+	public static class InMemoryPathAwareFeatureExtension implements PathAwareFeatureExtension {
+		@Override
+		public boolean createPath(String path) throws StorageException {
+			createPathCount++;
+			createFolder(path);
+
+			return true;
+		}
+
+		@Override
+		public boolean removeFolder(String path) throws StorageException {
+			if (!folders.containsKey(path) || !folders.get(path).isEmpty()) {
+				return false;
+			}
+
+			folders.remove(path);
+			folders.get(path.substring(0, path.lastIndexOf('/'))).remove(path);
+
+			return true;
+		}
+
+		@Override
+		public Map<String, FileType> listFolder(String path) throws StorageException {
+			listFolderCount.incrementAndGet();
+			listFolderThreads.add(Thread.currentThread().getName());
+
+			return listFolderContents(path);
+		}
+
+		protected Map<String, FileType> listFolderContents(String path) {
+			Map<String, FileType> contents = Maps.newHashMap();
+
+			if (folders.containsKey(path)) {
+				for (String childPath : folders.get(path)) {
+					String childName = childPath.substring(childPath.lastIndexOf('/') + 1);
+					contents.put(childName, files.contains(childPath) ? FileType.FILE : FileType.FOLDER);
+				}
+			}
+
+			return contents;
+		}
+	}
+}
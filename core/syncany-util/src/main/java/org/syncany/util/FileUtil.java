@@ -21,6 +21,8 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.lang.reflect.Method;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.FileLock;
 import java.nio.file.Files;
 import java.nio.file.InvalidPathException;
@@ -224,4 +226,36 @@ public class FileUtil {
 
 		return new DecimalFormat("#,##0.#").format(size / Math.pow(1024, digitGroups)) + " " + units[digitGroups];
 	}
+
+	/**
+	 * Releases a mapped buffer right away instead of waiting for the garbage collector.
+	 * This is necessary to delete or replace a mapped file on Windows. Since there is no
+	 * public API for this, this is a best effort; if it fails, the buffer is released by the GC.
+	 *
+	 * <p><b>Important:</b> The buffer (and any slices of it) must not be accessed after this call.
+	 *
+	 * @return Returns <tt>true</tt> if the buffer was unmapped, <tt>false</tt> otherwise
+	 */
+	public static boolean unmap(MappedByteBuffer buffer) {
+		if (buffer == null) {
+			return false;
+		}
+
+		try {
+			Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+			cleanerMethod.setAccessible(true);
+
+			Object cleaner = cleanerMethod.invoke(buffer);
+
+			if (cleaner != null) {
+				cleaner.getClass().getMethod("clean").invoke(cleaner);
+				return true;
+			}
+		}
+		catch (Exception e) {
+			// Ignore; leave it to the garbage collector.
+		}
+
+		return false;
+	}
 }
@@ -0,0 +1,229 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.plugins.dropbox;
+
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.syncany.config.Config;
+import org.syncany.config.to.ConfigTO;
+import org.syncany.config.to.RepoTO;
+import org.syncany.plugins.Plugins;
+import org.syncany.plugins.transfer.TransferManager;
+import org.syncany.plugins.transfer.TransferManagerFactory;
+import org.syncany.plugins.transfer.TransferPlugin;
+import org.syncany.plugins.transfer.TransferSettings;
+import org.syncany.plugins.transfer.features.PathAware;
+import org.syncany.plugins.transfer.features.Retriable;
+import org.syncany.plugins.transfer.features.TransactionAware;
+import org.syncany.plugins.transfer.files.MultichunkRemoteFile;
+import org.syncany.tests.unit.util.TestFileUtil;
+import org.syncany.tests.util.TestConfigUtil;
+
+/**
+ * Measures upload, download, list, move and delete of the {@link DropboxTransferManager}
+ * against the {@link DropboxStandInServer}, for different object sizes and emulated
+ * round trip times. The transfer manager is built via the {@link TransferManagerFactory}
+ * with the same features as in the Syncany operations, so that the feature transfer
+ * managers are part of the measurement.
+ *
+ * <p>Each benchmark is run in throughput and sample time mode; the latter reports
+ * the latency percentiles. Run with <tt>gradle jmh</tt>; parameters can be overridden,
+ * e.g. <tt>gradle jmh -PjmhArgs="-p rttMillis=100 -p objectSize=1024"</tt>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class DropboxTransferManagerBenchmark {
+	private static final String ACCESS_TOKEN = "benchmark-access-token";
+	private static final String REPO_PATH = "/Syncany/Benchmark";
+	private static final int LIST_FILE_COUNT = 256;
+
+	@Param({ "0", "20", "80" })
+	public int rttMillis;
+
+	@Param({ "1024", "524288", "52428800" })
+	public int objectSize;
+
+	private DropboxStandInServer server;
+	private File tempDir;
+	private TransferManager transferManager;
+
+	private File localFile;
+	private File downloadedFile;
+
+	private MultichunkRemoteFile uploadRemoteFile;
+	private MultichunkRemoteFile downloadRemoteFile;
+	private MultichunkRemoteFile moveSourceRemoteFile;
+	private MultichunkRemoteFile moveTargetRemoteFile;
+	private boolean moveSwapped;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		server = new DropboxStandInServer(ACCESS_TOKEN);
+		server.start();
+
+		DropboxClientFactory.setEndpoint(server.getRequestConfig(), server.getHost());
+
+		tempDir = TestFileUtil.createTempDirectoryInSystemTemp();
+		localFile = TestFileUtil.createRandomFileInDirectory(tempDir, objectSize);
+		downloadedFile = new File(tempDir, "downloaded");
+
+		transferManager = createTransferManager();
+		transferManager.init(true);
+		transferManager.connect();
+
+		uploadRemoteFile = createMultichunkRemoteFile(1);
+		downloadRemoteFile = createMultichunkRemoteFile(2);
+		moveSourceRemoteFile = createMultichunkRemoteFile(3);
+		moveTargetRemoteFile = createMultichunkRemoteFile(4);
+		moveSwapped = false;
+
+		transferManager.upload(localFile, downloadRemoteFile);
+		transferManager.upload(localFile, moveSourceRemoteFile);
+
+		// Listing is independent of the object size, so small files are enough
+
+		File smallFile = TestFileUtil.createRandomFileInDirectory(tempDir, 16);
+
+		for (int i = 0; i < LIST_FILE_COUNT; i++) {
+			transferManager.upload(smallFile, createMultichunkRemoteFile(1000 + i * 7919));
+		}
+
+		// Only now emulate the round trip time, so that the setup is fast
+
+		server.setLatency(rttMillis);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception {
+		try {
+			transferManager.disconnect();
+		}
+		finally {
+			DropboxClientFactory.resetEndpoint();
+			server.stop();
+
+			TestFileUtil.deleteDirectory(tempDir);
+		}
+	}
+
+	@Benchmark
+	public MultichunkRemoteFile upload() throws Exception {
+		transferManager.upload(localFile, uploadRemoteFile);
+		return uploadRemoteFile;
+	}
+
+	@Benchmark
+	public long download() throws Exception {
+		transferManager.download(downloadRemoteFile, downloadedFile);
+		return downloadedFile.length();
+	}
+
+	@Benchmark
+	public Map<String, MultichunkRemoteFile> list() throws Exception {
+		return transferManager.list(MultichunkRemoteFile.class);
+	}
+
+	@Benchmark
+	public boolean move() throws Exception {
+		// Moves the file back and forth between two names
+
+		if (moveSwapped) {
+			transferManager.move(moveTargetRemoteFile, moveSourceRemoteFile);
+		}
+		else {
+			transferManager.move(moveSourceRemoteFile, moveTargetRemoteFile);
+		}
+
+		moveSwapped = !moveSwapped;
+		return moveSwapped;
+	}
+
+	@Benchmark
+	public boolean delete(DeleteState deleteState) throws Exception {
+		return transferManager.delete(deleteState.remoteFile);
+	}
+
+	/**
+	 * Uploads a fresh file before each invocation of the {@link #delete(DeleteState)}
+	 * benchmark. The upload itself is not part of the measurement.
+	 */
+	@State(Scope.Thread)
+	public static class DeleteState {
+		private int deleteCount;
+		private MultichunkRemoteFile remoteFile;
+
+		@Setup(Level.Invocation)
+		public void setUp(DropboxTransferManagerBenchmark benchmark) throws Exception {
+			int rttMillis = benchmark.rttMillis;
+
+			benchmark.server.setLatency(0);
+			remoteFile = createMultichunkRemoteFile(Integer.MAX_VALUE - deleteCount++);
+			benchmark.transferManager.upload(benchmark.localFile, remoteFile);
+			benchmark.server.setLatency(rttMillis);
+		}
+	}
+
+	private TransferManager createTransferManager() throws Exception {
+		TransferPlugin plugin = Plugins.get("dropbox", TransferPlugin.class);
+		TransferSettings transferSettings = plugin.createEmptySettings();
+
+		transferSettings.setField("accessToken", ACCESS_TOKEN);
+		transferSettings.setField("path", REPO_PATH);
+
+		ConfigTO configTO = new ConfigTO();
+		configTO.setMachineName("benchmark");
+		configTO.setTransferSettings(transferSettings);
+
+		RepoTO repoTO = new RepoTO();
+		repoTO.setTransformers(null);
+		repoTO.setChunkerTO(TestConfigUtil.createFixedChunkerTO());
+		repoTO.setMultiChunker(TestConfigUtil.createZipMultiChunkerTO());
+
+		Config config = new Config(tempDir, configTO, repoTO);
+		config.getStateDir().mkdirs();
+
+		return TransferManagerFactory.build(config)
+				.withFeature(Retriable.class)
+				.withFeature(PathAware.class)
+				.withFeature(TransactionAware.class)
+				.asDefault();
+	}
+
+	private static MultichunkRemoteFile createMultichunkRemoteFile(int number) throws Exception {
+		return new MultichunkRemoteFile(String.format("multichunk-%040x", number));
+	}
+}
@@ -0,0 +1,377 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.plugins.dropbox;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.syncany.util.StringUtil;
+
+import com.dropbox.core.DbxClient;
+import com.dropbox.core.DbxEntry;
+import com.dropbox.core.DbxException;
+import com.dropbox.core.DbxWriteMode;
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hashing;
+
+/**
+ * The chunked uploader uploads large files to Dropbox using the chunked upload
+ * API (<tt>/chunked_upload</tt> and <tt>/commit_chunked_upload</tt>). Each chunk is
+ * retried separately if it fails, so that a connection failure only requires
+ * re-sending the current chunk, not the entire file.
+ *
+ * <p>If a state directory is given, the upload ID and the last offset acknowledged
+ * by Dropbox are persisted after each chunk. If the same local file is uploaded to
+ * the same remote path again (e.g. when an interrupted <tt>up</tt> is resumed after
+ * a restart), the upload continues at that offset. Upload sessions expire on the
+ * server after a while; in that case, the upload is restarted from the beginning.
+ * The upload state is only discarded once the upload is committed, or if the server
+ * rejects the session; a commit that fails temporarily can thus be repeated later.
+ * Upload states that are older than the session lifetime (i.e. of uploads that were
+ * never resumed) are deleted when the uploader is created.
+ *
+ * <p>Files smaller than or equal to the chunk size are uploaded with a single
+ * request, as before.
+ */
+public class DropboxChunkedUploader {
+	private static final Logger logger = Logger.getLogger(DropboxChunkedUploader.class.getSimpleName());
+
+	private static final String STATE_FILE_PREFIX = "dropbox-upload-";
+	private static final String STATE_FILE_SUFFIX = ".properties";
+	private static final int CHUNK_RETRY_SLEEP_MILLIS = 1000;
+
+	/**
+	 * Dropbox discards chunked upload sessions that have not been committed after 48 hours.
+	 */
+	public static final long UPLOAD_SESSION_LIFETIME_MILLIS = 48 * 60 * 60 * 1000L;
+
+	private static final String PROPERTY_LOCAL_FILE = "localFile";
+	private static final String PROPERTY_LOCAL_LENGTH = "localLength";
+	private static final String PROPERTY_LOCAL_MODIFIED = "localModified";
+	private static final String PROPERTY_UPLOAD_ID = "uploadId";
+	private static final String PROPERTY_OFFSET = "offset";
+
+	private final DbxClient client;
+	private final int chunkSize;
+	private final int chunkRetries;
+	private final File stateDir;
+
+	public DropboxChunkedUploader(DbxClient client, int chunkSize, int chunkRetries, File stateDir) {
+		if (chunkSize <= 0) {
+			throw new IllegalArgumentException("Chunk size must be positive: " + chunkSize);
+		}
+
+		this.client = client;
+		this.chunkSize = chunkSize;
+		this.chunkRetries = Math.max(1, chunkRetries);
+		this.stateDir = stateDir;
+
+		deleteExpiredUploadStates();
+	}
+
+	/**
+	 * Uploads the given local file to the remote path, and (over)writes the remote
+	 * file if it already exists.
+	 */
+	public DbxEntry.File upload(File localFile, String remotePath) throws DbxException, IOException {
+		if (localFile.length() <= chunkSize) {
+			try (InputStream fileFIS = new FileInputStream(localFile)) {
+				return client.uploadFile(remotePath, DbxWriteMode.force(), localFile.length(), fileFIS);
+			}
+		}
+		else {
+			return uploadChunked(localFile, remotePath);
+		}
+	}
+
+	private DbxEntry.File uploadChunked(File localFile, String remotePath) throws DbxException, IOException {
+		File stateFile = getStateFile(remotePath);
+		UploadState uploadState = loadUploadState(stateFile, localFile);
+
+		if (uploadState.uploadId != null) {
+			logger.log(Level.INFO, "Dropbox: Resuming chunked upload of {0} at offset {1}/{2}", new Object[] { localFile, uploadState.offset, localFile.length() });
+		}
+
+		while (true) {
+			uploadChunks(localFile, stateFile, uploadState);
+
+			try {
+				DbxEntry.File remoteFile = finishUpload(remotePath, uploadState);
+				deleteUploadState(stateFile);
+
+				return remoteFile;
+			}
+			catch (DbxException.BadRequest | DbxException.BadResponseCode e) {
+				// The upload session is gone (expired, or already committed by a request whose
+				// response got lost). Retrying the commit will not help; start over (once).
+
+				deleteUploadState(stateFile);
+
+				if (uploadState.restarted) {
+					logger.log(Level.WARNING, "Dropbox: Cannot commit chunked upload session " + uploadState.uploadId + ", discarding it.", e);
+					throw e;
+				}
+
+				logger.log(Level.WARNING, "Dropbox: Chunked upload session " + uploadState.uploadId + " rejected on commit, restarting upload.", e);
+
+				uploadState.uploadId = null;
+				uploadState.offset = 0;
+				uploadState.restarted = true;
+			}
+		}
+	}
+
+	private void uploadChunks(File localFile, File stateFile, UploadState uploadState) throws DbxException, IOException {
+		long fileLength = localFile.length();
+		byte[] chunk = new byte[chunkSize];
+
+		try (RandomAccessFile randomAccessFile = new RandomAccessFile(localFile, "r")) {
+			while (uploadState.offset < fileLength) {
+				int chunkLength = (int) Math.min(chunkSize, fileLength - uploadState.offset);
+
+				randomAccessFile.seek(uploadState.offset);
+				randomAccessFile.readFully(chunk, 0, chunkLength);
+
+				try {
+					uploadChunk(uploadState, chunk, chunkLength);
+				}
+				catch (DbxException.BadRequest | DbxException.BadResponseCode e) {
+					// The session was rejected (again); it cannot be resumed
+					deleteUploadState(stateFile);
+					throw e;
+				}
+
+				saveUploadState(stateFile, localFile, uploadState);
+
+				if (logger.isLoggable(Level.FINE)) {
+					logger.log(Level.FINE, "Dropbox: Uploaded chunk of {0}, offset is now {1}/{2}", new Object[] { localFile, uploadState.offset, fileLength });
+				}
+			}
+		}
+	}
+
+	/**
+	 * Commits the upload session, and retries temporary failures (network errors, server
+	 * errors, rate limits). If the commit ultimately fails, the upload state is kept, so that
+	 * the next attempt only has to repeat the commit, not the upload.
+	 */
+	private DbxEntry.File finishUpload(String remotePath, UploadState uploadState) throws DbxException {
+		int tryCount = 0;
+
+		while (true) {
+			try {
+				return client.chunkedUploadFinish(remotePath, DbxWriteMode.force(), uploadState.uploadId);
+			}
+			catch (DbxException.BadRequest | DbxException.BadResponseCode e) {
+				throw e;
+			}
+			catch (DbxException e) {
+				tryCount++;
+
+				if (tryCount >= chunkRetries) {
+					logger.log(Level.WARNING, "Dropbox: Committing chunked upload failed. No retries left; keeping upload session "
+							+ uploadState.uploadId + ".", e);
+					throw e;
+				}
+
+				logger.log(Level.WARNING, "Dropbox: Committing chunked upload failed. " + tryCount + "/" + chunkRetries + " retries. Sleeping "
+						+ CHUNK_RETRY_SLEEP_MILLIS + "ms ...", e);
+
+				sleepBeforeRetry(e);
+			}
+		}
+	}
+
+	private void uploadChunk(UploadState uploadState, byte[] chunk, int chunkLength) throws DbxException {
+		int tryCount = 0;
+
+		while (true) {
+			try {
+				if (uploadState.uploadId == null) {
+					uploadState.uploadId = client.chunkedUploadFirst(chunk, 0, chunkLength);
+					uploadState.offset = chunkLength;
+				}
+				else {
+					long correctOffset = client.chunkedUploadAppend(uploadState.uploadId, uploadState.offset, chunk, 0, chunkLength);
+
+					if (correctOffset == -1) {
+						uploadState.offset += chunkLength;
+					}
+					else {
+						// Dropbox already has more (or less) than we thought, e.g. because the
+						// acknowledgement of the last chunk got lost. Continue where it left off.
+
+						logger.log(Level.INFO, "Dropbox: Offset mismatch in chunked upload, continuing at server offset " + correctOffset);
+						uploadState.offset = correctOffset;
+					}
+				}
+
+				return;
+			}
+			catch (DbxException.BadRequest | DbxException.BadResponseCode e) {
+				if (uploadState.uploadId == null || uploadState.restarted) {
+					throw e;
+				}
+
+				// Most likely, the upload session has expired or is unknown to the
+				// server. Start over with a new session (once), beginning at offset 0.
+
+				logger.log(Level.WARNING, "Dropbox: Chunked upload session " + uploadState.uploadId + " rejected, restarting upload.", e);
+
+				uploadState.uploadId = null;
+				uploadState.offset = 0;
+				uploadState.restarted = true;
+
+				return;
+			}
+			catch (DbxException e) {
+				tryCount++;
+
+				if (tryCount >= chunkRetries) {
+					logger.log(Level.WARNING, "Dropbox: Chunk upload failed. No retries left.", e);
+					throw e;
+				}
+
+				logger.log(Level.WARNING, "Dropbox: Chunk upload failed. " + tryCount + "/" + chunkRetries + " retries. Sleeping "
+						+ CHUNK_RETRY_SLEEP_MILLIS + "ms ...", e);
+
+				sleepBeforeRetry(e);
+			}
+		}
+	}
+
+	private void sleepBeforeRetry(DbxException e) throws DbxException {
+		try {
+			Thread.sleep(CHUNK_RETRY_SLEEP_MILLIS);
+		}
+		catch (InterruptedException e1) {
+			Thread.currentThread().interrupt();
+			throw e;
+		}
+	}
+
+	private File getStateFile(String remotePath) {
+		if (stateDir == null) {
+			return null;
+		}
+		else {
+			String remotePathHash = StringUtil.toHex(Hashing.sha1().hashString(remotePath, Charsets.UTF_8).asBytes());
+			return new File(stateDir, STATE_FILE_PREFIX + remotePathHash + STATE_FILE_SUFFIX);
+		}
+	}
+
+	private UploadState loadUploadState(File stateFile, File localFile) {
+		UploadState uploadState = new UploadState();
+
+		if (stateFile == null || !stateFile.exists()) {
+			return uploadState;
+		}
+
+		try (InputStream stateInputStream = new FileInputStream(stateFile)) {
+			Properties properties = new Properties();
+			properties.load(stateInputStream);
+
+			boolean sameLocalFile = localFile.getAbsolutePath().equals(properties.getProperty(PROPERTY_LOCAL_FILE))
+					&& Long.toString(localFile.length()).equals(properties.getProperty(PROPERTY_LOCAL_LENGTH))
+					&& Long.toString(localFile.lastModified()).equals(properties.getProperty(PROPERTY_LOCAL_MODIFIED));
+
+			if (sameLocalFile) {
+				uploadState.uploadId = properties.getProperty(PROPERTY_UPLOAD_ID);
+				uploadState.offset = Long.parseLong(properties.getProperty(PROPERTY_OFFSET));
+			}
+			else {
+				logger.log(Level.INFO, "Dropbox: Local file changed since last upload attempt, ignoring upload state " + stateFile);
+			}
+		}
+		catch (IOException | RuntimeException e) {
+			logger.log(Level.WARNING, "Dropbox: Cannot read upload state " + stateFile + ", starting from scratch.", e);
+
+			uploadState.uploadId = null;
+			uploadState.offset = 0;
+		}
+
+		return uploadState;
+	}
+
+	private void saveUploadState(File stateFile, File localFile, UploadState uploadState) {
+		if (stateFile == null) {
+			return;
+		}
+
+		if (uploadState.uploadId == null) {
+			deleteUploadState(stateFile);
+			return;
+		}
+
+		Properties properties = new Properties();
+
+		properties.setProperty(PROPERTY_LOCAL_FILE, localFile.getAbsolutePath());
+		properties.setProperty(PROPERTY_LOCAL_LENGTH, Long.toString(localFile.length()));
+		properties.setProperty(PROPERTY_LOCAL_MODIFIED, Long.toString(localFile.lastModified()));
+		properties.setProperty(PROPERTY_UPLOAD_ID, uploadState.uploadId);
+		properties.setProperty(PROPERTY_OFFSET, Long.toString(uploadState.offset));
+
+		stateFile.getParentFile().mkdirs();
+
+		try (OutputStream stateOutputStream = new FileOutputStream(stateFile)) {
+			properties.store(stateOutputStream, null);
+		}
+		catch (IOException e) {
+			logger.log(Level.WARNING, "Dropbox: Cannot write upload state " + stateFile + "; upload will not be resumable.", e);
+		}
+	}
+
+	private void deleteExpiredUploadStates() {
+		File[] stateFiles = (stateDir != null) ? stateDir.listFiles() : null;
+
+		if (stateFiles == null) {
+			return;
+		}
+
+		long expiredBeforeMillis = System.currentTimeMillis() - UPLOAD_SESSION_LIFETIME_MILLIS;
+
+		for (File stateFile : stateFiles) {
+			boolean isUploadState = stateFile.getName().startsWith(STATE_FILE_PREFIX) && stateFile.getName().endsWith(STATE_FILE_SUFFIX);
+
+			if (isUploadState && stateFile.lastModified() < expiredBeforeMillis) {
+				logger.log(Level.INFO, "Dropbox: Deleting expired upload state " + stateFile);
+				deleteUploadState(stateFile);
+			}
+		}
+	}
+
+	private void deleteUploadState(File stateFile) {
+		if (stateFile != null && stateFile.exists()) {
+			stateFile.delete();
+		}
+	}
+
+	private static class UploadState {
+		private String uploadId;
+		private long offset;
+		private boolean restarted;
+	}
+}
@@ -0,0 +1,180 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.plugins.dropbox;
+
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.dropbox.core.DbxClient;
+import com.dropbox.core.DbxHost;
+import com.dropbox.core.DbxRequestConfig;
+import com.dropbox.core.http.HttpRequestor;
+import com.google.common.collect.Maps;
+
+/**
+ * The client factory creates the {@link DbxClient}s used by the Dropbox plugin.
+ * By default, the clients talk to the Dropbox API servers. For tests and benchmarks,
+ * the factory can be pointed to a different endpoint (host names and HTTP requestor), 
+ * e.g. a local stand-in server emulating the Dropbox API.
+ *
+ * <p>Clients are shared per access token, so that all transfer managers of the same
+ * Dropbox account (e.g. in a daemon watching several folders) use the same HTTP
+ * connection pool (see {@link DropboxPooledHttpRequestor}) and the same
+ * {@link DropboxRequestScheduler}, and therefore respect the same rate limits. As a
+ * consequence, the connection pool and rate limit settings of the first client of an
+ * access token apply to all of its clients; differing settings are logged as a warning.
+ */
+public class DropboxClientFactory {
+	private static final Logger logger = Logger.getLogger(DropboxClientFactory.class.getSimpleName());
+
+	public static final int DEFAULT_MAX_CONNECTIONS = 16;
+	public static final int DEFAULT_SOCKET_BUFFER_SIZE = 256 * 1024;
+
+	public static final int DEFAULT_REQUESTS_PER_SECOND = 25;
+	public static final int DEFAULT_REQUEST_BURST_SIZE = 25;
+	private static final long DEFAULT_BACKOFF_BASE_MILLIS = 250;
+
+	private static final Map<String, DbxClient> clients = Maps.newHashMap();
+	private static final Map<String, String> clientSettings = Maps.newHashMap();
+	private static final Map<String, DropboxRequestScheduler> schedulers = Maps.newHashMap();
+	private static final Map<String, DropboxPooledHttpRequestor> pooledRequestors = Maps.newHashMap();
+
+	private static DbxRequestConfig requestConfig = DropboxTransferPlugin.DROPBOX_REQ_CONFIG;
+	private static DbxHost host = DbxHost.Default;
+	private static boolean defaultEndpoint = true;
+
+	/**
+	 * Returns the shared client for the given access token, using the currently
+	 * configured endpoint and the default connection pool settings.
+	 */
+	public static DbxClient getClient(String accessToken) {
+		return getClient(accessToken, DEFAULT_MAX_CONNECTIONS, DEFAULT_SOCKET_BUFFER_SIZE, DEFAULT_REQUESTS_PER_SECOND, DEFAULT_REQUEST_BURST_SIZE);
+	}
+
+	/**
+	 * Returns the shared client for the given access token, using the currently
+	 * configured endpoint, and creates it if necessary. The connection pool and rate
+	 * limit settings are only used when the client is created; subsequent calls with
+	 * other settings get the existing client (and log a warning).
+	 */
+	public static synchronized DbxClient getClient(String accessToken, int maxConnections, int socketBufferSize, int maxRequestsPerSecond,
+			int requestBurstSize) {
+
+		String settings = "maxConnections=" + maxConnections + ", socketBufferSize=" + socketBufferSize + ", maxRequestsPerSecond="
+				+ maxRequestsPerSecond + ", requestBurstSize=" + requestBurstSize;
+
+		DbxClient client = clients.get(accessToken);
+
+		if (client != null && !settings.equals(clientSettings.get(accessToken))) {
+			logger.log(Level.WARNING, "Dropbox: Client for this account already exists with other settings; using existing settings ("
+					+ clientSettings.get(accessToken) + ") instead of requested settings (" + settings + ")");
+		}
+
+		if (client == null) {
+			DropboxRequestScheduler scheduler = getScheduler(accessToken, maxConnections, maxRequestsPerSecond, requestBurstSize);
+			DropboxSchedulingHttpRequestor schedulingRequestor = new DropboxSchedulingHttpRequestor(
+					getHttpRequestor(accessToken, maxConnections, socketBufferSize), scheduler);
+
+			DbxRequestConfig schedulingRequestConfig = new DbxRequestConfig(requestConfig.clientIdentifier, requestConfig.userLocale,
+					schedulingRequestor);
+
+			client = new DbxClient(schedulingRequestConfig, accessToken, host);
+
+			clients.put(accessToken, client);
+			clientSettings.put(accessToken, settings);
+		}
+
+		return client;
+	}
+
+	/**
+	 * Returns the request scheduler shared by all clients of the given access
+	 * token, or <tt>null</tt> if there is no client for this token yet.
+	 */
+	public static synchronized DropboxRequestScheduler getScheduler(String accessToken) {
+		return schedulers.get(accessToken);
+	}
+
+	/**
+	 * Redirects all clients created afterwards to the given endpoint. The request
+	 * config defines the HTTP requestor to be used, the host defines the API, content
+	 * and web host names.
+	 */
+	public static synchronized void setEndpoint(DbxRequestConfig requestConfig, DbxHost host) {
+		DropboxClientFactory.requestConfig = requestConfig;
+		DropboxClientFactory.host = host;
+		DropboxClientFactory.defaultEndpoint = false;
+
+		reset();
+	}
+
+	/**
+	 * Resets the endpoint to the Dropbox API servers.
+	 */
+	public static synchronized void resetEndpoint() {
+		DropboxClientFactory.requestConfig = DropboxTransferPlugin.DROPBOX_REQ_CONFIG;
+		DropboxClientFactory.host = DbxHost.Default;
+		DropboxClientFactory.defaultEndpoint = true;
+
+		reset();
+	}
+
+	private static DropboxRequestScheduler getScheduler(String accessToken, int maxConcurrentRequests, int maxRequestsPerSecond,
+			int requestBurstSize) {
+
+		DropboxRequestScheduler scheduler = schedulers.get(accessToken);
+
+		if (scheduler == null) {
+			scheduler = new DropboxRequestScheduler(maxRequestsPerSecond, requestBurstSize, maxConcurrentRequests, DEFAULT_BACKOFF_BASE_MILLIS);
+
+			schedulers.put(accessToken, scheduler);
+		}
+
+		return scheduler;
+	}
+
+	private static HttpRequestor getHttpRequestor(String accessToken, int maxConnections, int socketBufferSize) {
+		if (!defaultEndpoint) {
+			return requestConfig.httpRequestor;
+		}
+
+		DropboxPooledHttpRequestor pooledRequestor = pooledRequestors.get(accessToken);
+
+		if (pooledRequestor == null) {
+			logger.log(Level.INFO, "Dropbox: Creating HTTP connection pool (" + maxConnections + " connections, " + socketBufferSize
+					+ " bytes socket buffer)");
+
+			pooledRequestor = new DropboxPooledHttpRequestor(maxConnections, socketBufferSize);
+			pooledRequestors.put(accessToken, pooledRequestor);
+		}
+
+		return pooledRequestor;
+	}
+
+	private static void reset() {
+		for (DropboxPooledHttpRequestor pooledRequestor : pooledRequestors.values()) {
+			pooledRequestor.shutdown();
+		}
+
+		clients.clear();
+		clientSettings.clear();
+		schedulers.clear();
+		pooledRequestors.clear();
+	}
+}
@@ -0,0 +1,369 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.plugins.dropbox;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.syncany.plugins.transfer.FileType;
+
+import com.dropbox.core.DbxClient;
+import com.dropbox.core.DbxDelta;
+import com.dropbox.core.DbxEntry;
+import com.dropbox.core.DbxException;
+import com.google.common.base.Charsets;
+import com.google.common.collect.Maps;
+
+/**
+ * The delta cache keeps a local mirror of the repository's folder tree on Dropbox,
+ * based on the Dropbox delta API (<tt>/delta</tt> with a path prefix). Instead of
+ * listing each of the (up to 65,536) multichunk subfolders with a separate
+ * metadata call, the whole repository subtree is fetched in a few paged calls.
+ *
+ * <p>The delta cursor and the mirrored tree are persisted in a state file, so that
+ * subsequent runs only have to fetch the entries that changed since the last
+ * cursor. Changes made by this client are applied to the mirror directly
+ * (see {@link #add(String, FileType)}, {@link #remove(String)}, {@link #move(String, String)}),
+ * changes made by other clients are picked up by {@link #refresh(DbxClient)}.
+ *
+ * <p>The mirror maps each folder to its children, so that listing a folder, as well
+ * as adding or removing an entry, only touches the affected folders. All paths are
+ * treated case-insensitively (as Dropbox does), but the listing returns the original
+ * file names. The root path may be <tt>/</tt>, e.g. for app folder access.
+ */
+public class DropboxDeltaCache {
+	private static final Logger logger = Logger.getLogger(DropboxDeltaCache.class.getSimpleName());
+
+	private static final String STATE_FILE_HEADER = "dropbox-delta-v1";
+	private static final char SEPARATOR = '/';
+
+	private final String rootPath;
+	private final String rootPrefix;
+	private final File stateFile;
+
+	private final Map<String, Map<String, Child>> folders;
+	private String cursor;
+	private boolean refreshed;
+
+	public DropboxDeltaCache(String rootPath, File stateFile) {
+		this.rootPath = toRootKey(rootPath);
+		this.rootPrefix = (this.rootPath.equals(String.valueOf(SEPARATOR))) ? this.rootPath : this.rootPath + SEPARATOR;
+		this.stateFile = stateFile;
+
+		this.folders = Maps.newHashMap();
+		this.cursor = null;
+		this.refreshed = false;
+
+		loadState();
+	}
+
+	/**
+	 * Fetches all changes since the last cursor from Dropbox and applies them
+	 * to the local mirror. If there is no cursor yet, the entire repository subtree
+	 * is fetched. The new cursor and tree are persisted afterwards.
+	 */
+	public synchronized void refresh(DbxClient client) throws DbxException {
+		int entryCount = 0;
+		int pageCount = 0;
+
+		DbxDelta<DbxEntry> delta;
+
+		do {
+			delta = client.getDeltaWithPathPrefix(cursor, rootPath);
+			apply(delta);
+
+			entryCount += delta.entries.size();
+			pageCount++;
+		}
+		while (delta.hasMore);
+
+		refreshed = true;
+		logger.log(Level.INFO, "Dropbox delta: Applied " + entryCount + " change(s) in " + pageCount + " call(s) for " + rootPath);
+
+		saveState();
+	}
+
+	/**
+	 * Returns whether the mirror has been synchronized with Dropbox at
+	 * least once during the lifetime of this object.
+	 */
+	public synchronized boolean isRefreshed() {
+		return refreshed;
+	}
+
+	/**
+	 * Lists the files and folders in the given folder, as per the local mirror.
+	 * If the folder is not known, an empty map is returned.
+	 */
+	public synchronized Map<String, FileType> listFolder(String path) {
+		Map<String, FileType> contents = Maps.newHashMap();
+		Map<String, Child> children = folders.get(toKey(path));
+
+		if (children != null) {
+			for (Child child : children.values()) {
+				contents.put(child.name, child.type);
+			}
+		}
+
+		return contents;
+	}
+
+	/**
+	 * Lists the given folder and all of its subfolders, as per the local mirror. The
+	 * returned map contains the folder paths (built from the given path and the
+	 * original subfolder names) and their contents.
+	 */
+	public synchronized Map<String, Map<String, FileType>> listSubtree(String path) {
+		Map<String, Map<String, FileType>> subtree = Maps.newHashMap();
+		listSubtree(path, subtree);
+
+		return subtree;
+	}
+
+	private void listSubtree(String path, Map<String, Map<String, FileType>> subtree) {
+		Map<String, FileType> contents = listFolder(path);
+		subtree.put(path, contents);
+
+		for (Map.Entry<String, FileType> child : contents.entrySet()) {
+			if (child.getValue() == FileType.FOLDER) {
+				listSubtree(getChildPath(path, child.getKey()), subtree);
+			}
+		}
+	}
+
+	/**
+	 * Registers a file or folder that was created by this client. Missing parent
+	 * folders are created in the mirror as well.
+	 */
+	public synchronized void add(String path, FileType type) {
+		String key = toKey(path);
+
+		if (key.equals(rootPath) || !key.startsWith(rootPrefix)) {
+			return;
+		}
+
+		String parentKey = getParent(key);
+		String name = path.substring(path.lastIndexOf(SEPARATOR) + 1);
+
+		if (!parentKey.equals(rootPath) && !folders.containsKey(parentKey)) {
+			add(parentKey, FileType.FOLDER);
+		}
+
+		getOrCreateFolder(parentKey).put(key, new Child(name, type));
+
+		if (type == FileType.FOLDER) {
+			getOrCreateFolder(key);
+		}
+	}
+
+	/**
+	 * Removes a file or folder (and everything below it) from the mirror.
+	 */
+	public synchronized void remove(String path) {
+		String key = toKey(path);
+		Map<String, Child> parent = folders.get(getParent(key));
+
+		if (parent != null) {
+			parent.remove(key);
+		}
+
+		removeFolder(key);
+	}
+
+	private void removeFolder(String key) {
+		Map<String, Child> children = folders.remove(key);
+
+		if (children != null) {
+			for (Map.Entry<String, Child> child : children.entrySet()) {
+				if (child.getValue().type == FileType.FOLDER) {
+					removeFolder(child.getKey());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Moves a file within the mirror.
+	 */
+	public synchronized void move(String sourcePath, String targetPath) {
+		remove(sourcePath);
+		add(targetPath, FileType.FILE);
+	}
+
+	/**
+	 * Writes the current cursor and tree to the state file, if there is one. The state
+	 * is written to a unique temporary file next to the state file, which then atomically
+	 * replaces it. Failing to write the state is not critical; the next run will simply
+	 * fetch the whole tree again.
+	 */
+	public synchronized void saveState() {
+		if (stateFile == null || cursor == null) {
+			return;
+		}
+
+		File tempStateFile = null;
+
+		try {
+			stateFile.getParentFile().mkdirs();
+			tempStateFile = File.createTempFile(stateFile.getName(), ".tmp", stateFile.getParentFile());
+
+			try (PrintWriter writer = new PrintWriter(new OutputStreamWriter(new FileOutputStream(tempStateFile), Charsets.UTF_8))) {
+				writer.println(STATE_FILE_HEADER);
+				writer.println(rootPath);
+				writer.println(cursor);
+
+				for (Map.Entry<String, Map<String, Child>> folder : folders.entrySet()) {
+					for (Map.Entry<String, Child> child : folder.getValue().entrySet()) {
+						writer.println(child.getValue().type.name() + "\t" + child.getKey() + "\t" + child.getValue().name);
+					}
+				}
+			}
+
+			try {
+				Files.move(tempStateFile.toPath(), stateFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+			}
+			catch (AtomicMoveNotSupportedException e) {
+				Files.move(tempStateFile.toPath(), stateFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		}
+		catch (IOException e) {
+			logger.log(Level.WARNING, "Dropbox delta: Cannot write state file " + stateFile + "; ignoring.", e);
+
+			if (tempStateFile != null) {
+				tempStateFile.delete();
+			}
+		}
+	}
+
+	synchronized void apply(DbxDelta<DbxEntry> delta) {
+		if (delta.reset) {
+			logger.log(Level.INFO, "Dropbox delta: Server requested reset, discarding local mirror for " + rootPath);
+			folders.clear();
+		}
+
+		for (DbxDelta.Entry<DbxEntry> entry : delta.entries) {
+			if (entry.metadata == null) {
+				remove(entry.lcPath);
+			}
+			else if (entry.metadata.isFolder()) {
+				add(entry.metadata.path, FileType.FOLDER);
+			}
+			else {
+				add(entry.metadata.path, FileType.FILE);
+			}
+		}
+
+		cursor = delta.cursor;
+	}
+
+	synchronized String getCursor() {
+		return cursor;
+	}
+
+	private void loadState() {
+		if (stateFile == null || !stateFile.exists()) {
+			return;
+		}
+
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(stateFile), Charsets.UTF_8))) {
+			if (!STATE_FILE_HEADER.equals(reader.readLine()) || !rootPath.equals(reader.readLine())) {
+				logger.log(Level.INFO, "Dropbox delta: State file " + stateFile + " does not match this repository; ignoring.");
+				return;
+			}
+
+			String savedCursor = reader.readLine();
+			String line;
+
+			while ((line = reader.readLine()) != null) {
+				String[] parts = line.split("\t", 3);
+
+				if (parts.length != 3) {
+					throw new IOException("Invalid line in state file: " + line);
+				}
+
+				FileType type = FileType.valueOf(parts[0]);
+				getOrCreateFolder(getParent(parts[1])).put(parts[1], new Child(parts[2], type));
+
+				if (type == FileType.FOLDER) {
+					getOrCreateFolder(parts[1]);
+				}
+			}
+
+			cursor = savedCursor;
+		}
+		catch (IOException | IllegalArgumentException e) {
+			logger.log(Level.WARNING, "Dropbox delta: Cannot read state file " + stateFile + "; fetching full tree.", e);
+
+			folders.clear();
+			cursor = null;
+		}
+	}
+
+	private Map<String, Child> getOrCreateFolder(String key) {
+		Map<String, Child> children = folders.get(key);
+
+		if (children == null) {
+			children = Maps.newHashMap();
+			folders.put(key, children);
+		}
+
+		return children;
+	}
+
+	private static String getParent(String key) {
+		int lastSeparator = key.lastIndexOf(SEPARATOR);
+		return (lastSeparator > 0) ? key.substring(0, lastSeparator) : String.valueOf(SEPARATOR);
+	}
+
+	private static String getChildPath(String path, String name) {
+		return (path.length() > 0 && path.charAt(path.length() - 1) == SEPARATOR) ? path + name : path + SEPARATOR + name;
+	}
+
+	private static String toRootKey(String rootPath) {
+		String key = toKey(rootPath);
+		return (key.isEmpty()) ? String.valueOf(SEPARATOR) : key;
+	}
+
+	private static String toKey(String path) {
+		String key = path.replaceAll("\\\\", "/").replaceAll("/{2,}", "/").toLowerCase(Locale.ROOT);
+		return (key.length() > 1 && key.charAt(key.length() - 1) == SEPARATOR) ? key.substring(0, key.length() - 1) : key;
+	}
+
+	private static class Child {
+		private final String name;
+		private final FileType type;
+
+		public Child(String name, FileType type) {
+			this.name = name;
+			this.type = type;
+		}
+	}
+}
@@ -0,0 +1,398 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.plugins.dropbox;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.config.ConnectionConfig;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.config.SocketConfig;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.entity.InputStreamEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.protocol.HttpContext;
+
+import com.dropbox.core.http.HttpRequestor;
+import com.dropbox.core.http.SSLConfig;
+import com.dropbox.core.http.StandardHttpRequestor;
+
+/**
+ * HTTP requestor for the Dropbox SDK based on Apache HttpClient with a connection pool,
+ * replacing the SDK's {@link StandardHttpRequestor}. One instance is shared by all clients
+ * of an access token (see {@link DropboxClientFactory}), so that connections (and with them,
+ * their TLS sessions) are kept alive and reused across transfer managers, instead of paying
+ * a TCP and TLS handshake for many operations.
+ *
+ * <p>Compared to the standard requestor, this requestor:
+ * <ul>
+ *  <li>keeps up to <tt>maxConnections</tt> connections per host alive (idle connections
+ *      are closed after {@link #KEEP_ALIVE_MILLIS}, or earlier if the server asks for it),</li>
+ *  <li>uses the SDK's TLS socket factory (pinned Dropbox certificates, restricted protocols
+ *      and cipher suites); as it is a single factory, TLS sessions are cached and resumed
+ *      when a new connection has to be opened,</li>
+ *  <li>sets the socket send and receive buffer sizes, and uses a larger I/O buffer
+ *      (to make better use of high bandwidth-delay connections).</li>
+ * </ul>
+ *
+ * <p>Request bodies are not collected in memory, but streamed to the server while they are
+ * written: Uploads are executed in a background thread, which reads the body through a pipe.
+ * {@link Uploader#finish()} then waits for the response.
+ */
+public class DropboxPooledHttpRequestor extends HttpRequestor {
+	private static final Logger logger = Logger.getLogger(DropboxPooledHttpRequestor.class.getSimpleName());
+
+	public static final long KEEP_ALIVE_MILLIS = 60 * 1000;
+
+	private static final int IO_BUFFER_SIZE = 64 * 1024;
+	private static final String HEADER_CONTENT_LENGTH = "Content-Length";
+	private static final String HEADER_TRANSFER_ENCODING = "Transfer-Encoding";
+
+	private final int socketBufferSize;
+	private final PoolingHttpClientConnectionManager connectionManager;
+	private final CloseableHttpClient httpClient;
+	private final ExecutorService uploadExecutor;
+
+	public DropboxPooledHttpRequestor(int maxConnections, int socketBufferSize) {
+		this.socketBufferSize = socketBufferSize;
+		this.connectionManager = createConnectionManager(maxConnections);
+		this.httpClient = createHttpClient();
+		this.uploadExecutor = Executors.newCachedThreadPool(new UploadThreadFactory());
+	}
+
+	@Override
+	public Response doGet(String url, Iterable<Header> headers) throws IOException {
+		return execute(new HttpGet(url), headers);
+	}
+
+	@Override
+	public Uploader startPost(String url, Iterable<Header> headers) throws IOException {
+		return startUpload(new HttpPost(url), headers);
+	}
+
+	@Override
+	public Uploader startPut(String url, Iterable<Header> headers) throws IOException {
+		return startUpload(new HttpPut(url), headers);
+	}
+
+	/**
+	 * Closes all pooled connections. The requestor must not be used afterwards.
+	 */
+	public void shutdown() {
+		uploadExecutor.shutdownNow();
+
+		try {
+			httpClient.close();
+		}
+		catch (IOException e) {
+			logger.log(Level.FINE, "Dropbox: Cannot close HTTP client; ignoring.", e);
+		}
+	}
+
+	PoolStats getPoolStats() {
+		return connectionManager.getTotalStats();
+	}
+
+	private Uploader startUpload(final HttpEntityEnclosingRequestBase request, final Iterable<Header> headers) throws IOException {
+		final PipedInputStream entityInputStream = new PipedInputStream(IO_BUFFER_SIZE);
+		final PipedOutputStream entityOutputStream = new PipedOutputStream(entityInputStream);
+
+		request.setEntity(new InputStreamEntity(entityInputStream, getContentLength(headers)));
+
+		final Future<Response> responseFuture = uploadExecutor.submit(new Callable<Response>() {
+			@Override
+			public Response call() throws Exception {
+				try {
+					return execute(request, headers);
+				}
+				finally {
+					// Unblocks the writer if the request ended before the body was read
+					entityInputStream.close();
+				}
+			}
+		});
+
+		return new Uploader(new RequestBodyOutputStream(entityOutputStream, responseFuture)) {
+			@Override
+			public Response finish() throws IOException {
+				body.close();
+				return getResponse(request, responseFuture);
+			}
+
+			@Override
+			public void close() {
+				// The connection is released when the response body is closed;
+				// if the upload was not finished, it is aborted
+
+				if (!responseFuture.isDone()) {
+					abort();
+				}
+			}
+
+			@Override
+			public void abort() {
+				request.abort();
+				responseFuture.cancel(true);
+
+				try {
+					entityInputStream.close();
+				}
+				catch (IOException e) {
+					// Ignore
+				}
+			}
+		};
+	}
+
+	private Response execute(HttpRequestBase request, Iterable<Header> headers) throws IOException {
+		for (Header header : headers) {
+			// HttpClient derives these from the entity, and refuses to send them twice
+
+			if (!HEADER_CONTENT_LENGTH.equalsIgnoreCase(header.key) && !HEADER_TRANSFER_ENCODING.equalsIgnoreCase(header.key)) {
+				request.addHeader(header.key, header.value);
+			}
+		}
+
+		HttpResponse response = httpClient.execute(request);
+		HttpEntity entity = response.getEntity();
+
+		InputStream body = (entity != null) ? entity.getContent() : new ByteArrayInputStream(new byte[0]);
+		Map<String, List<String>> responseHeaders = new TreeMap<String, List<String>>(String.CASE_INSENSITIVE_ORDER);
+
+		for (org.apache.http.Header header : response.getAllHeaders()) {
+			List<String> values = responseHeaders.get(header.getName());
+
+			if (values == null) {
+				values = new ArrayList<String>();
+				responseHeaders.put(header.getName(), values);
+			}
+
+			values.add(header.getValue());
+		}
+
+		return new Response(response.getStatusLine().getStatusCode(), body, responseHeaders);
+	}
+
+	private static Response getResponse(HttpRequestBase request, Future<Response> responseFuture) throws IOException {
+		try {
+			return responseFuture.get();
+		}
+		catch (InterruptedException e) {
+			request.abort();
+			Thread.currentThread().interrupt();
+
+			throw new InterruptedIOException("Interrupted while waiting for response");
+		}
+		catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+
+			throw new IOException("Cannot execute request: " + request.getURI(), e.getCause());
+		}
+	}
+
+	private static long getContentLength(Iterable<Header> headers) {
+		for (Header header : headers) {
+			if (HEADER_CONTENT_LENGTH.equalsIgnoreCase(header.key)) {
+				try {
+					return Long.parseLong(header.value);
+				}
+				catch (NumberFormatException e) {
+					break;
+				}
+			}
+		}
+
+		return -1; // Unknown, sent chunked
+	}
+
+	private PoolingHttpClientConnectionManager createConnectionManager(int maxConnections) {
+		Registry<ConnectionSocketFactory> socketFactoryRegistry = RegistryBuilder.<ConnectionSocketFactory> create()
+				.register("http", new BufferedPlainConnectionSocketFactory())
+				.register("https", new BufferedSSLConnectionSocketFactory())
+				.build();
+
+		PoolingHttpClientConnectionManager poolingConnectionManager = new PoolingHttpClientConnectionManager(socketFactoryRegistry);
+
+		poolingConnectionManager.setMaxTotal(maxConnections * 2);
+		poolingConnectionManager.setDefaultMaxPerRoute(maxConnections);
+
+		poolingConnectionManager.setDefaultSocketConfig(SocketConfig.custom()
+				.setSoKeepAlive(true)
+				.setTcpNoDelay(true)
+				.setSoTimeout(StandardHttpRequestor.DefaultReadTimeoutMillis)
+				.build());
+
+		poolingConnectionManager.setDefaultConnectionConfig(ConnectionConfig.custom()
+				.setBufferSize(IO_BUFFER_SIZE)
+				.build());
+
+		return poolingConnectionManager;
+	}
+
+	private CloseableHttpClient createHttpClient() {
+		RequestConfig requestConfig = RequestConfig.custom()
+				.setConnectTimeout(StandardHttpRequestor.DefaultConnectTimeoutMillis)
+				.setSocketTimeout(StandardHttpRequestor.DefaultReadTimeoutMillis)
+				.setStaleConnectionCheckEnabled(true)
+				.build();
+
+		ConnectionKeepAliveStrategy keepAliveStrategy = new DefaultConnectionKeepAliveStrategy() {
+			@Override
+			public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+				long serverKeepAliveMillis = super.getKeepAliveDuration(response, context);
+				return (serverKeepAliveMillis > 0) ? Math.min(serverKeepAliveMillis, KEEP_ALIVE_MILLIS) : KEEP_ALIVE_MILLIS;
+			}
+		};
+
+		// Content compression is disabled, because most of the content
+		// (multichunks) is compressed and/or encrypted already
+
+		return HttpClients.custom()
+				.setConnectionManager(connectionManager)
+				.setDefaultRequestConfig(requestConfig)
+				.setKeepAliveStrategy(keepAliveStrategy)
+				.disableContentCompression()
+				.build();
+	}
+
+	private Socket configureSocket(Socket socket) throws IOException {
+		// Must be set before connecting, so that the TCP window scaling is negotiated accordingly
+
+		if (socketBufferSize > 0) {
+			socket.setSendBufferSize(socketBufferSize);
+			socket.setReceiveBufferSize(socketBufferSize);
+		}
+
+		return socket;
+	}
+
+	private class BufferedPlainConnectionSocketFactory extends PlainConnectionSocketFactory {
+		@Override
+		public Socket createSocket(HttpContext context) throws IOException {
+			return configureSocket(super.createSocket(context));
+		}
+	}
+
+	private class BufferedSSLConnectionSocketFactory extends SSLConnectionSocketFactory {
+		public BufferedSSLConnectionSocketFactory() {
+			super(SSLConfig.getSSLSocketFactory(), SSLConnectionSocketFactory.BROWSER_COMPATIBLE_HOSTNAME_VERIFIER);
+		}
+
+		@Override
+		public Socket createSocket(HttpContext context) throws IOException {
+			return configureSocket(super.createSocket(context));
+		}
+	}
+
+	/**
+	 * Request body that writes to the pipe of an upload. Each write wakes up the reading
+	 * upload thread right away (the pipe only polls once a second otherwise). If the upload
+	 * failed before the body was written, its failure is reported instead of a closed pipe.
+	 */
+	private static class RequestBodyOutputStream extends FilterOutputStream {
+		private final Future<Response> responseFuture;
+
+		public RequestBodyOutputStream(PipedOutputStream entityOutputStream, Future<Response> responseFuture) {
+			super(entityOutputStream);
+			this.responseFuture = responseFuture;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			try {
+				out.write(b, off, len);
+				out.flush();
+			}
+			catch (IOException e) {
+				throw getFailure(e);
+			}
+		}
+
+		private IOException getFailure(IOException pipeException) {
+			if (responseFuture.isDone() && !responseFuture.isCancelled()) {
+				try {
+					responseFuture.get();
+				}
+				catch (ExecutionException e) {
+					if (e.getCause() instanceof IOException) {
+						return (IOException) e.getCause();
+					}
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+
+			return pipeException;
+		}
+	}
+
+	private static class UploadThreadFactory implements ThreadFactory {
+		private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "DropboxUpload-" + threadNumber.getAndIncrement());
+			thread.setDaemon(true);
+
+			return thread;
+		}
+	}
+}
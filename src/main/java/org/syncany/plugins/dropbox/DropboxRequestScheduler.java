@@ -0,0 +1,204 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.plugins.dropbox;
+
+import java.util.Random;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The request scheduler decides when a request to the Dropbox API may be sent. It is
+ * shared by all clients using the same access token (see {@link DropboxClientFactory}),
+ * because Dropbox applies its rate limits per user and app, not per connection.
+ *
+ * <p>The scheduler combines three mechanisms:
+ * <ul>
+ *  <li>A <b>token bucket</b> limits the request rate. If Dropbox answers with a rate limit
+ *      response (429/503), the bucket is emptied and no tokens are handed out until the
+ *      time given in the <tt>Retry-After</tt> header (or the backoff delay) has passed.</li>
+ *  <li>Both the bucket's refill rate and the number of concurrent requests are adapted using
+ *      <b>AIMD</b> (additive increase, multiplicative decrease): each throttled request halves
+ *      them, each successful request raises them by <tt>1/value</tt> (i.e. the concurrency
+ *      limit by one per round of requests, and the rate by about one request per second,
+ *      every second). That way, the scheduler settles near the rate Dropbox allows, but
+ *      never exceeds the configured maximums.</li>
+ *  <li>Throttled requests are retried with a <b>jittered exponential backoff</b> ("full jitter"),
+ *      but never earlier than the server asked for.</li>
+ * </ul>
+ *
+ * <p>Callers must pair each {@link #acquire()} with exactly one {@link #release(boolean, long)}
+ * (if a response was received) or {@link #release()} (if the request failed otherwise).
+ *
+ * @see DropboxSchedulingHttpRequestor
+ */
+public class DropboxRequestScheduler {
+	private static final Logger logger = Logger.getLogger(DropboxRequestScheduler.class.getSimpleName());
+
+	private static final double MIN_CONCURRENCY_LIMIT = 1.0;
+	private static final double MIN_REQUESTS_PER_SECOND = 1.0;
+	private static final long MAX_BACKOFF_MILLIS = 60 * 1000;
+
+	private final double maxRequestsPerSecond;
+	private final double bucketCapacity;
+	private final int maxConcurrency;
+	private final long backoffBaseMillis;
+	private final Random random;
+
+	private double tokens;
+	private long lastRefillNanos;
+	private long blockedUntilMillis;
+	private double requestsPerSecond;
+
+	private double concurrencyLimit;
+	private int activeRequests;
+
+	public DropboxRequestScheduler(double maxRequestsPerSecond, int burstSize, int maxConcurrency, long backoffBaseMillis) {
+		if (maxRequestsPerSecond <= 0 || burstSize < 1 || maxConcurrency < 1) {
+			throw new IllegalArgumentException("Invalid scheduler parameters: " + maxRequestsPerSecond + " req/s, burst " + burstSize
+					+ ", concurrency " + maxConcurrency);
+		}
+
+		this.maxRequestsPerSecond = maxRequestsPerSecond;
+		this.bucketCapacity = burstSize;
+		this.maxConcurrency = maxConcurrency;
+		this.backoffBaseMillis = backoffBaseMillis;
+		this.random = new Random();
+
+		this.tokens = burstSize;
+		this.lastRefillNanos = System.nanoTime();
+		this.blockedUntilMillis = 0;
+		this.requestsPerSecond = maxRequestsPerSecond;
+
+		this.concurrencyLimit = maxConcurrency;
+		this.activeRequests = 0;
+	}
+
+	/**
+	 * Blocks until a request may be sent, i.e. until the server-imposed pause is
+	 * over, a concurrency slot is free and a token is available.
+	 */
+	public synchronized void acquire() throws InterruptedException {
+		while (true) {
+			long waitMillis = blockedUntilMillis - System.currentTimeMillis();
+
+			if (waitMillis <= 0 && activeRequests < (int) concurrencyLimit) {
+				refill();
+
+				if (tokens >= 1) {
+					tokens -= 1;
+					activeRequests++;
+
+					return;
+				}
+
+				waitMillis = (long) Math.ceil((1 - tokens) * 1000 / requestsPerSecond);
+			}
+			else if (waitMillis > 0) {
+				// No tokens are collected during a server-imposed pause; afterwards,
+				// the request rate ramps up again from an empty bucket
+
+				tokens = 0;
+				lastRefillNanos = System.nanoTime();
+			}
+
+			// Also woken up by release() if a concurrency slot frees up
+
+			wait(Math.max(1, waitMillis));
+		}
+	}
+
+	/**
+	 * Releases the concurrency slot of a request, without adapting the limits. This is to
+	 * be called once the request is complete, i.e. after its response has been read, or
+	 * if it did not receive a response at all.
+	 */
+	public synchronized void release() {
+		activeRequests--;
+		notifyAll();
+	}
+
+	/**
+	 * Releases the concurrency slot of a request and adapts the limits,
+	 * see {@link #adapt(boolean, long)}.
+	 */
+	public synchronized void release(boolean throttled, long retryAfterMillis) {
+		adapt(throttled, retryAfterMillis);
+		release();
+	}
+
+	/**
+	 * Adapts the limits to the response of a request, without releasing its concurrency
+	 * slot: If the request was throttled by the server, the request rate and concurrency limit
+	 * are halved, and no further requests are let through before the given pause
+	 * (<tt>Retry-After</tt>, may be 0) has passed. Otherwise, both are raised slightly.
+	 */
+	public synchronized void adapt(boolean throttled, long retryAfterMillis) {
+		if (throttled) {
+			concurrencyLimit = Math.max(MIN_CONCURRENCY_LIMIT, concurrencyLimit / 2);
+			requestsPerSecond = Math.max(Math.min(MIN_REQUESTS_PER_SECOND, maxRequestsPerSecond), requestsPerSecond / 2);
+			blockedUntilMillis = Math.max(blockedUntilMillis, System.currentTimeMillis() + retryAfterMillis);
+
+			tokens = 0;
+			lastRefillNanos = System.nanoTime();
+
+			logger.log(Level.INFO, "Dropbox: Request throttled, rate is now " + String.format("%.1f", requestsPerSecond)
+					+ " req/s, concurrency limit is " + (int) concurrencyLimit + ", pausing for " + retryAfterMillis + "ms");
+		}
+		else {
+			concurrencyLimit = Math.min(maxConcurrency, concurrencyLimit + 1 / concurrencyLimit);
+			requestsPerSecond = Math.min(maxRequestsPerSecond, requestsPerSecond + 1 / requestsPerSecond);
+		}
+
+		notifyAll();
+	}
+
+	/**
+	 * Returns the delay before the given retry (starting at 1) of a throttled request: A random
+	 * value between 0 and the exponentially growing backoff, but at least the pause the server
+	 * asked for.
+	 */
+	public long getRetryDelay(int retry, long retryAfterMillis) {
+		long backoffMillis = Math.min(MAX_BACKOFF_MILLIS, backoffBaseMillis << Math.min(retry - 1, 20));
+		long jitteredBackoffMillis;
+
+		synchronized (random) {
+			jitteredBackoffMillis = (long) (random.nextDouble() * backoffMillis);
+		}
+
+		return Math.max(retryAfterMillis, jitteredBackoffMillis);
+	}
+
+	synchronized double getRequestsPerSecond() {
+		return requestsPerSecond;
+	}
+
+	synchronized int getConcurrencyLimit() {
+		return (int) concurrencyLimit;
+	}
+
+	synchronized int getActiveRequests() {
+		return activeRequests;
+	}
+
+	private void refill() {
+		long nowNanos = System.nanoTime();
+
+		tokens = Math.min(bucketCapacity, tokens + (nowNanos - lastRefillNanos) * requestsPerSecond / 1e9);
+		lastRefillNanos = nowNanos;
+	}
+}
@@ -0,0 +1,255 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.plugins.dropbox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.dropbox.core.http.HttpRequestor;
+
+/**
+ * HTTP requestor that sends all requests of a {@link com.dropbox.core.DbxClient} through
+ * a {@link DropboxRequestScheduler}. Since every SDK call ends up here, this covers all
+ * Dropbox calls of the plugin (metadata, uploads, downloads, delta, ...).
+ *
+ * <p>A request occupies its concurrency slot until its response body is closed, so that
+ * long-running downloads count towards the concurrency limit for their full duration.
+ *
+ * <p>Requests that are throttled by Dropbox (<tt>429 Too Many Requests</tt> or
+ * <tt>503 Service Unavailable</tt>) have not been processed by the server, and are
+ * therefore retried transparently after the delay given by the scheduler. To be able to
+ * re-send them, request bodies are buffered in memory; they are at most as large as the
+ * upload chunk size.
+ *
+ * <p>If a request is still throttled after {@link #MAX_THROTTLED_RETRIES} retries, the
+ * response is passed on to the SDK, which turns it into a <tt>DbxException</tt>.
+ */
+public class DropboxSchedulingHttpRequestor extends HttpRequestor {
+	private static final Logger logger = Logger.getLogger(DropboxSchedulingHttpRequestor.class.getSimpleName());
+
+	public static final int MAX_THROTTLED_RETRIES = 8;
+
+	private static final int STATUS_TOO_MANY_REQUESTS = 429;
+	private static final int STATUS_SERVICE_UNAVAILABLE = 503;
+	private static final String HEADER_RETRY_AFTER = "Retry-After";
+	private static final String HEADER_CONTENT_LENGTH = "Content-Length";
+	private static final int MAX_INITIAL_BUFFER_SIZE = 16 * 1024 * 1024;
+
+	private final HttpRequestor requestor;
+	private final DropboxRequestScheduler scheduler;
+
+	public DropboxSchedulingHttpRequestor(HttpRequestor requestor, DropboxRequestScheduler scheduler) {
+		this.requestor = requestor;
+		this.scheduler = scheduler;
+	}
+
+	@Override
+	public Response doGet(final String url, final Iterable<Header> headers) throws IOException {
+		return execute(url, new Request() {
+			@Override
+			public Response send() throws IOException {
+				return requestor.doGet(url, headers);
+			}
+		});
+	}
+
+	@Override
+	public Uploader startPost(String url, Iterable<Header> headers) throws IOException {
+		return startUpload(url, headers, false);
+	}
+
+	@Override
+	public Uploader startPut(String url, Iterable<Header> headers) throws IOException {
+		return startUpload(url, headers, true);
+	}
+
+	private Uploader startUpload(final String url, final Iterable<Header> headers, final boolean put) {
+		final ByteArrayOutputStream bufferedBody = new ByteArrayOutputStream(getInitialBufferSize(headers));
+
+		return new Uploader(bufferedBody) {
+			@Override
+			public Response finish() throws IOException {
+				return execute(url, new Request() {
+					@Override
+					public Response send() throws IOException {
+						Uploader uploader = (put) ? requestor.startPut(url, headers) : requestor.startPost(url, headers);
+
+						try {
+							bufferedBody.writeTo(uploader.body);
+							return uploader.finish();
+						}
+						finally {
+							uploader.close();
+						}
+					}
+				});
+			}
+
+			@Override
+			public void close() {
+				// Nothing to do, the actual request is closed in finish()
+			}
+
+			@Override
+			public void abort() {
+				bufferedBody.reset();
+			}
+		};
+	}
+
+	private Response execute(String url, Request request) throws IOException {
+		int retry = 0;
+
+		while (true) {
+			acquire();
+
+			Response response;
+
+			try {
+				response = request.send();
+			}
+			catch (IOException | RuntimeException e) {
+				scheduler.release();
+				throw e;
+			}
+
+			boolean throttled = response.statusCode == STATUS_TOO_MANY_REQUESTS || response.statusCode == STATUS_SERVICE_UNAVAILABLE;
+			long retryAfterMillis = (throttled) ? getRetryAfterMillis(response.headers) : 0;
+
+			scheduler.adapt(throttled, retryAfterMillis);
+
+			if (!throttled || retry >= MAX_THROTTLED_RETRIES) {
+				return releaseOnClose(response);
+			}
+
+			scheduler.release();
+			retry++;
+
+			if (response.body != null) {
+				response.body.close();
+			}
+
+			long retryDelayMillis = scheduler.getRetryDelay(retry, retryAfterMillis);
+			logger.log(Level.INFO, "Dropbox: Request throttled (" + response.statusCode + "), retry " + retry + "/" + MAX_THROTTLED_RETRIES
+					+ " in " + retryDelayMillis + "ms: " + stripQuery(url));
+
+			sleep(retryDelayMillis);
+		}
+	}
+
+	private Response releaseOnClose(Response response) {
+		if (response.body == null) {
+			scheduler.release();
+			return response;
+		}
+
+		return new Response(response.statusCode, new ReleasingInputStream(response.body), response.headers);
+	}
+
+	private void acquire() throws InterruptedIOException {
+		try {
+			scheduler.acquire();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for request slot");
+		}
+	}
+
+	private void sleep(long millis) throws InterruptedIOException {
+		try {
+			Thread.sleep(millis);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting to retry throttled request");
+		}
+	}
+
+	private static long getRetryAfterMillis(Map<String, ? extends List<String>> headers) {
+		for (Map.Entry<String, ? extends List<String>> header : headers.entrySet()) {
+			if (HEADER_RETRY_AFTER.equalsIgnoreCase(header.getKey()) && header.getValue() != null && !header.getValue().isEmpty()) {
+				try {
+					return Math.max(0, Long.parseLong(header.getValue().get(0).trim()) * 1000);
+				}
+				catch (NumberFormatException e) {
+					// HTTP date format is not used by Dropbox; fall back to the backoff delay
+					return 0;
+				}
+			}
+		}
+
+		return 0;
+	}
+
+	private static int getInitialBufferSize(Iterable<Header> headers) {
+		for (Header header : headers) {
+			if (HEADER_CONTENT_LENGTH.equalsIgnoreCase(header.key)) {
+				try {
+					return (int) Math.min(MAX_INITIAL_BUFFER_SIZE, Math.max(0, Long.parseLong(header.value)));
+				}
+				catch (NumberFormatException e) {
+					break;
+				}
+			}
+		}
+
+		return 32;
+	}
+
+	private static String stripQuery(String url) {
+		int queryIndex = url.indexOf('?');
+		return (queryIndex >= 0) ? url.substring(0, queryIndex) : url;
+	}
+
+	private interface Request {
+		public Response send() throws IOException;
+	}
+
+	/**
+	 * Response body that releases the concurrency slot of its request when it is closed.
+	 */
+	private class ReleasingInputStream extends FilterInputStream {
+		private final AtomicBoolean released;
+
+		public ReleasingInputStream(InputStream body) {
+			super(body);
+			this.released = new AtomicBoolean(false);
+		}
+
+		@Override
+		public void close() throws IOException {
+			try {
+				super.close();
+			}
+			finally {
+				if (released.compareAndSet(false, true)) {
+					scheduler.release();
+				}
+			}
+		}
+	}
+}
@@ -19,22 +19,26 @@ package org.syncany.plugins.dropbox;
 
 import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URI;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.Map;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import org.apache.commons.io.FileUtils;
 import org.syncany.config.Config;
 import org.syncany.plugins.transfer.AbstractTransferManager;
 import org.syncany.plugins.transfer.FileType;
 import org.syncany.plugins.transfer.StorageException;
+import org.syncany.plugins.transfer.StorageFileNotFoundException;
 import org.syncany.plugins.transfer.StorageMoveException;
 import org.syncany.plugins.transfer.TransferManager;
 import org.syncany.plugins.transfer.features.PathAware;
@@ -55,6 +59,7 @@ import com.dropbox.core.DbxEntry;
 import com.dropbox.core.DbxException;
 import com.dropbox.core.DbxException.BadResponseCode;
 import com.dropbox.core.DbxWriteMode;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Maps;
 
 /**
@@ -74,19 +79,27 @@ import com.google.common.collect.Maps;
  * <p>All operations are auto-connected, i.e. a connection is automatically
  * established.
  *
+ * <p>If delta listing is enabled in the settings, folder listings are answered from a
+ * {@link DropboxDeltaCache}, which mirrors the repository tree using the Dropbox delta API
+ * instead of listing each subfolder separately.
+ *
  * @author Christian Roth <christian.roth@port17.de>
  */
-@PathAware(extension = DropboxTransferManager.DropboxTransferManagerFeatureExtension.class)
+@PathAware(extension = DropboxTransferManager.DropboxTransferManagerFeatureExtension.class, listFolderThreads = 4)
 public class DropboxTransferManager extends AbstractTransferManager {
 	private static final Logger logger = Logger.getLogger(DropboxTransferManager.class.getSimpleName());
+	private static final String DELTA_STATE_FILE = "dropbox-delta.state";
 
 	private final DbxClient client;
+	private final DropboxChunkedUploader uploader;
 	private final URI path;
 	private final URI multichunksPath;
 	private final URI databasesPath;
 	private final URI actionsPath;
 	private final URI transactionsPath;
 	private final URI tempPath;
+	private final Set<String> repositoryFolders;
+	private final DropboxDeltaCache deltaCache;
 
 	public DropboxTransferManager(DropboxTransferSettings settings, Config config) {
 		super(settings, config);
@@ -98,7 +111,13 @@ public class DropboxTransferManager extends AbstractTransferManager {
 		this.transactionsPath = UriBuilder.fromRoot("/").toChild(settings.getPath()).toChild("transactions").build();
 		this.tempPath = UriBuilder.fromRoot("/").toChild(settings.getPath()).toChild("temporary").build();
 
-		this.client = new DbxClient(DropboxTransferPlugin.DROPBOX_REQ_CONFIG, settings.getAccessToken());
+		this.repositoryFolders = ImmutableSet.of(path.toString(), multichunksPath.toString(), databasesPath.toString(), actionsPath.toString(),
+				transactionsPath.toString(), tempPath.toString());
+
+		this.client = DropboxClientFactory.getClient(settings.getAccessToken(), settings.getMaxConnections(), settings.getSocketBufferSize(),
+				settings.getMaxRequestsPerSecond(), settings.getRequestBurstSize());
+		this.uploader = new DropboxChunkedUploader(client, settings.getUploadChunkSize(), settings.getUploadChunkRetries(), getStateDir(config));
+		this.deltaCache = (settings.isDeltaListing()) ? new DropboxDeltaCache(path.toString(), getDeltaStateFile(config)) : null;
 	}
 
 	@Override
@@ -148,58 +167,96 @@ public class DropboxTransferManager extends AbstractTransferManager {
 		String remotePath = getRemoteFile(remoteFile);
 
 		if (!remoteFile.getName().equals(".") && !remoteFile.getName().equals("..")) {
-			try {
-				// Download file
-				File tempFile = createTempFile(localFile.getName());
-				OutputStream tempFOS = new FileOutputStream(tempFile);
+			// Download to a sibling of the target file, so that the final rename
+			// does not have to copy the file across file systems
+			File tempFile = new File(localFile.getAbsoluteFile().getParentFile(), "." + localFile.getName() + ".part");
 
+			try {
 				if (logger.isLoggable(Level.INFO)) {
 					logger.log(Level.INFO, "Dropbox: Downloading {0} to temp file {1}", new Object[]{remotePath, tempFile});
 				}
 
-				client.getFile(remotePath, null, tempFOS);
+				DbxEntry.File metadata;
 
-				tempFOS.close();
+				try (OutputStream tempFOS = new FileOutputStream(tempFile)) {
+					metadata = client.getFile(remotePath, null, tempFOS);
+				}
+
+				if (metadata == null) {
+					throw new StorageFileNotFoundException("File not found: " + remotePath);
+				}
 
 				// Move file
 				if (logger.isLoggable(Level.INFO)) {
 					logger.log(Level.INFO, "Dropbox: Renaming temp file {0} to file {1}", new Object[]{tempFile, localFile});
 				}
 
-				localFile.delete();
-				FileUtils.moveFile(tempFile, localFile);
-				tempFile.delete();
+				moveLocalFile(tempFile, localFile);
 			}
 			catch (DbxException | IOException ex) {
 				logger.log(Level.SEVERE, "Error while downloading file " + remoteFile.getName(), ex);
 				throw new StorageException(ex);
 			}
+			finally {
+				tempFile.delete();
+			}
 		}
 	}
 
+	/**
+	 * Opens the remote file and returns the response body of the Dropbox API call
+	 * directly, without writing the file to disk. Closing the returned stream closes
+	 * the underlying connection.
+	 */
 	@Override
-	public void upload(File localFile, RemoteFile remoteFile) throws StorageException {
+	public InputStream downloadStream(RemoteFile remoteFile) throws StorageException {
 		String remotePath = getRemoteFile(remoteFile);
-		String tempRemotePath = path + "/temp-" + remoteFile.getName();
 
 		try {
-			// Upload to temp file
-			InputStream fileFIS = new FileInputStream(localFile);
-
 			if (logger.isLoggable(Level.INFO)) {
-				logger.log(Level.INFO, "Dropbox: Uploading {0} to temp file {1}", new Object[]{localFile, tempRemotePath});
+				logger.log(Level.INFO, "Dropbox: Opening {0} for streaming download", remotePath);
 			}
 
-			client.uploadFile(tempRemotePath, DbxWriteMode.add(), localFile.length(), fileFIS);
+			final DbxClient.Downloader downloader = client.startGetFile(remotePath, null);
 
-			fileFIS.close();
+			if (downloader == null) {
+				throw new StorageFileNotFoundException("File not found: " + remotePath);
+			}
 
-			// Move
-			if (logger.isLoggable(Level.INFO)) {
-				logger.log(Level.INFO, "Dropbox: Renaming temp file {0} to file {1}", new Object[]{tempRemotePath, remotePath});
+			return new FilterInputStream(downloader.body) {
+				@Override
+				public void close() throws IOException {
+					downloader.close();
+				}
+			};
+		}
+		catch (DbxException ex) {
+			logger.log(Level.SEVERE, "Error while opening file " + remoteFile.getName(), ex);
+			throw new StorageException(ex);
+		}
+	}
+
+	@Override
+	public void upload(File localFile, RemoteFile remoteFile) throws StorageException {
+		String remotePath = getRemoteFile(remoteFile);
+
+		try {
+			if (remoteFile instanceof TempRemoteFile) {
+				// Temp files are only used by RemoteTransaction, which moves them to their final
+				// location itself. Uploading them to yet another temp file is not necessary.
+				if (logger.isLoggable(Level.INFO)) {
+					logger.log(Level.INFO, "Dropbox: Uploading {0} to {1}", new Object[]{localFile, remotePath});
+				}
+
+				uploader.upload(localFile, remotePath);
+			}
+			else {
+				uploadViaTempFile(localFile, remoteFile, remotePath);
 			}
 
-			client.move(tempRemotePath, remotePath);
+			if (deltaCache != null) {
+				deltaCache.add(remotePath, FileType.FILE);
+			}
 		}
 		catch (DbxException | IOException ex) {
 			logger.log(Level.SEVERE, "Could not upload file " + localFile + " to " + remoteFile.getName(), ex);
@@ -207,17 +264,54 @@ public class DropboxTransferManager extends AbstractTransferManager {
 		}
 	}
 
+	private void uploadViaTempFile(File localFile, RemoteFile remoteFile, String remotePath) throws DbxException, IOException {
+		String tempRemotePath = path + "/temp-" + remoteFile.getName();
+
+		// Upload to temp file (in chunks, if the file is large)
+		if (logger.isLoggable(Level.INFO)) {
+			logger.log(Level.INFO, "Dropbox: Uploading {0} to temp file {1}", new Object[]{localFile, tempRemotePath});
+		}
+
+		uploader.upload(localFile, tempRemotePath);
+
+		// Move
+		if (logger.isLoggable(Level.INFO)) {
+			logger.log(Level.INFO, "Dropbox: Renaming temp file {0} to file {1}", new Object[]{tempRemotePath, remotePath});
+		}
+
+		client.move(tempRemotePath, remotePath);
+	}
+
+	private void moveLocalFile(File sourceFile, File targetFile) throws IOException {
+		try {
+			Files.move(sourceFile.toPath(), targetFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch (AtomicMoveNotSupportedException e) {
+			Files.move(sourceFile.toPath(), targetFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
 	@Override
 	public boolean delete(RemoteFile remoteFile) throws StorageException {
 		String remotePath = getRemoteFile(remoteFile);
 
 		try {
 			client.delete(remotePath);
+
+			if (deltaCache != null) {
+				deltaCache.remove(remotePath);
+			}
+
 			return true;
 		}
 		catch (BadResponseCode e) {
 			if (e.statusCode == 404) {
 				logger.log(Level.INFO, "File does not exist. Doing nothing: " + remoteFile.getName(), e);
+
+				if (deltaCache != null) {
+					deltaCache.remove(remotePath);
+				}
+
 				return true;
 			}
 			else {
@@ -238,6 +332,10 @@ public class DropboxTransferManager extends AbstractTransferManager {
 
 		try {
 			client.move(sourceRemotePath, targetRemotePath);
+
+			if (deltaCache != null) {
+				deltaCache.move(sourceRemotePath, targetRemotePath);
+			}
 		}
 		catch (DbxException e) {
 			logger.log(Level.SEVERE, "Could not rename file " + sourceRemotePath + " to " + targetRemotePath, e);
@@ -273,6 +371,14 @@ public class DropboxTransferManager extends AbstractTransferManager {
 		}
 	}
 
+	private static File getStateDir(Config config) {
+		return (config != null) ? config.getStateDir() : null;
+	}
+
+	private static File getDeltaStateFile(Config config) {
+		return (config != null) ? new File(config.getStateDir(), DELTA_STATE_FILE) : null;
+	}
+
 	private String getRemoteFile(RemoteFile remoteFile) {
 		String rootPath = getRemoteFilePath(remoteFile.getClass());
 		String subfolder = "";
@@ -387,7 +493,7 @@ public class DropboxTransferManager extends AbstractTransferManager {
 		}
 	}
 
-	public static class DropboxTransferManagerFeatureExtension implements PathAwareFeatureExtension {
+	public static class DropboxTransferManagerFeatureExtension implements PathAwareFeatureExtension.WithSubtreeListing {
 		private final DropboxTransferManager transferManager;
 
 		public DropboxTransferManagerFeatureExtension(DropboxTransferManager transferManager) {
@@ -406,6 +512,11 @@ public class DropboxTransferManager extends AbstractTransferManager {
 
 			try {
 				transferManager.client.delete(path);
+
+				if (transferManager.deltaCache != null) {
+					transferManager.deltaCache.remove(path);
+				}
+
 				return true;
 			}
 			catch (DbxException e) {
@@ -417,6 +528,67 @@ public class DropboxTransferManager extends AbstractTransferManager {
 
 		@Override
 		public Map<String, FileType> listFolder(String path) throws StorageException {
+			if (transferManager.deltaCache != null) {
+				try {
+					return listFolderFromDeltaCache(path);
+				}
+				catch (DbxException e) {
+					logger.log(Level.WARNING, "Unable to fetch delta, falling back to regular listing", e);
+				}
+			}
+
+			return listFolderFromMetadata(path);
+		}
+
+		/**
+		 * Lists the entire subtree from the local {@link DropboxDeltaCache}, after refreshing it
+		 * with the latest changes. If the delta listing is disabled or the delta cannot be fetched,
+		 * <tt>null</tt> is returned, and the subfolders are listed one by one.
+		 */
+		@Override
+		public Map<String, Map<String, FileType>> listSubtree(String path) throws StorageException {
+			if (transferManager.deltaCache == null) {
+				return null;
+			}
+
+			try {
+				transferManager.deltaCache.refresh(transferManager.client);
+				return transferManager.deltaCache.listSubtree(path);
+			}
+			catch (DbxException e) {
+				logger.log(Level.WARNING, "Unable to fetch delta, falling back to regular listing", e);
+				return null;
+			}
+		}
+
+		/**
+		 * Lists the folder from the local {@link DropboxDeltaCache}. The cache is refreshed if
+		 * one of the top-level repository folders is listed (i.e. at the start of a listing
+		 * walk), so that the subsequent subfolder listings need no API calls at all.
+		 *
+		 * <p>If the cache claims that a subfolder is empty, the result is verified with a regular
+		 * listing, because the caller might delete the folder based on the result, and another
+		 * client might have added files to it since the last refresh.
+		 */
+		private Map<String, FileType> listFolderFromDeltaCache(String path) throws DbxException, StorageException {
+			boolean isRepositoryFolder = transferManager.repositoryFolders.contains(path);
+
+			if (isRepositoryFolder || !transferManager.deltaCache.isRefreshed()) {
+				transferManager.deltaCache.refresh(transferManager.client);
+			}
+
+			Map<String, FileType> contents = transferManager.deltaCache.listFolder(path);
+
+			if (contents.isEmpty() && !isRepositoryFolder) {
+				return listFolderFromMetadata(path);
+			}
+			else {
+				logger.log(Level.FINE, "Listing folder " + path + " (from delta cache)");
+				return contents;
+			}
+		}
+
+		private Map<String, FileType> listFolderFromMetadata(String path) throws StorageException {
 			logger.log(Level.FINE, "Listing folder " + path);
 
 			Map<String, FileType> contents = Maps.newHashMap();
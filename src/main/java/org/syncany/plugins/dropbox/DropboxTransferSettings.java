@@ -56,6 +56,34 @@ public class DropboxTransferSettings extends TransferSettings {
 	@Setup(order = 2, description = "Relative path on Dropbox")
 	public String path;
 
+	@Element(name = "deltaListing", required = false)
+	@Setup(order = 3, visible = false, description = "Use Dropbox delta API for listing")
+	public boolean deltaListing = true;
+
+	@Element(name = "uploadChunkSize", required = false)
+	@Setup(order = 4, visible = false, description = "Chunk size for uploading large files (in bytes)")
+	public int uploadChunkSize = 4 * 1024 * 1024;
+
+	@Element(name = "uploadChunkRetries", required = false)
+	@Setup(order = 5, visible = false, description = "Number of attempts per uploaded chunk")
+	public int uploadChunkRetries = 3;
+
+	@Element(name = "maxConnections", required = false)
+	@Setup(order = 6, visible = false, description = "Maximum number of pooled HTTP connections (per host)")
+	public int maxConnections = DropboxClientFactory.DEFAULT_MAX_CONNECTIONS;
+
+	@Element(name = "socketBufferSize", required = false)
+	@Setup(order = 7, visible = false, description = "Socket send and receive buffer size (in bytes)")
+	public int socketBufferSize = DropboxClientFactory.DEFAULT_SOCKET_BUFFER_SIZE;
+
+	@Element(name = "maxRequestsPerSecond", required = false)
+	@Setup(order = 8, visible = false, description = "Maximum number of API requests per second (adapted below on throttling)")
+	public int maxRequestsPerSecond = DropboxClientFactory.DEFAULT_REQUESTS_PER_SECOND;
+
+	@Element(name = "requestBurstSize", required = false)
+	@Setup(order = 9, visible = false, description = "Number of API requests that may be sent at once before the rate limit applies")
+	public int requestBurstSize = DropboxClientFactory.DEFAULT_REQUEST_BURST_SIZE;
+
 	public String getAccessToken() {
 		return accessToken;
 	}
@@ -64,6 +92,34 @@ public class DropboxTransferSettings extends TransferSettings {
 		return path;
 	}
 
+	public boolean isDeltaListing() {
+		return deltaListing;
+	}
+
+	public int getUploadChunkSize() {
+		return uploadChunkSize;
+	}
+
+	public int getUploadChunkRetries() {
+		return uploadChunkRetries;
+	}
+
+	public int getMaxConnections() {
+		return maxConnections;
+	}
+
+	public int getSocketBufferSize() {
+		return socketBufferSize;
+	}
+
+	public int getMaxRequestsPerSecond() {
+		return maxRequestsPerSecond;
+	}
+
+	public int getRequestBurstSize() {
+		return requestBurstSize;
+	}
+
 	public class DropboxOAuthGenerator implements OAuthGenerator, OAuthGenerator.WithNoRedirectMode {
 		@Override
 		public URI generateAuthUrl(URI redirectUri) throws StorageException {
@@ -129,7 +185,7 @@ public class DropboxTransferSettings extends TransferSettings {
 					accessToken = webAuthNoRedirect.finish(code).accessToken;
 				}
 
-				DbxClient client = new DbxClient(DropboxTransferPlugin.DROPBOX_REQ_CONFIG, accessToken);
+				DbxClient client = DropboxClientFactory.getClient(accessToken);
 
 				client.getAccountInfo(); // Throws exception if this fails!
 			}
@@ -0,0 +1,189 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.plugins.dropbox;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.syncany.tests.unit.util.TestFileUtil;
+
+import com.dropbox.core.DbxClient;
+import com.dropbox.core.DbxException;
+import com.google.common.io.Files;
+
+public class DropboxChunkedUploaderTest {
+	private static final String ACCESS_TOKEN = "standin-access-token";
+	private static final String REMOTE_PATH = "/Syncany/Repo/multichunks/multichunk-1";
+	private static final String COMMIT_ENDPOINT = "/1/commit_chunked_upload";
+
+	private static final int CHUNK_SIZE = 1024;
+	private static final int CHUNK_COUNT = 5;
+
+	private DropboxStandInServer server;
+	private DbxClient client;
+	private File tempDir;
+	private File stateDir;
+	private File localFile;
+
+	@Before
+	public void setUp() throws Exception {
+		server = new DropboxStandInServer(ACCESS_TOKEN);
+		server.start();
+
+		client = new DbxClient(server.getRequestConfig(), ACCESS_TOKEN, server.getHost());
+
+		tempDir = TestFileUtil.createTempDirectoryInSystemTemp();
+		stateDir = new File(tempDir, "state");
+		localFile = TestFileUtil.createRandomFileInDirectory(tempDir, CHUNK_COUNT * CHUNK_SIZE);
+	}
+
+	@After
+	public void tearDown() {
+		server.stop();
+		TestFileUtil.deleteDirectory(tempDir);
+	}
+
+	@Test
+	public void testResumeAfterRestart() throws Exception {
+		// Fail the third chunk (no retries), as if the process died
+		uploadAndExpectFailure(2, 500, "/1/chunked_upload", 1);
+
+		// Restart: Only the remaining chunks and the commit are sent
+		int requestCountBefore = server.getRequestCount();
+		createUploader(1).upload(localFile, REMOTE_PATH);
+
+		assertEquals(CHUNK_COUNT - 2 + 1, server.getRequestCount() - requestCountBefore);
+		assertUploaded();
+	}
+
+	@Test
+	public void testFailedCommitKeepsUploadState() throws Exception {
+		// All chunks are uploaded, but the commit fails temporarily
+		uploadAndExpectFailure(0, 500, COMMIT_ENDPOINT, 1);
+		assertEquals(1, stateDir.list().length);
+
+		// Retry: Only the commit is sent again
+		int requestCountBefore = server.getRequestCount();
+		createUploader(1).upload(localFile, REMOTE_PATH);
+
+		assertEquals(1, server.getRequestCount() - requestCountBefore);
+		assertUploaded();
+	}
+
+	@Test
+	public void testFailedCommitIsRetried() throws Exception {
+		server.failNextRequests(1, 500, COMMIT_ENDPOINT);
+		createUploader(2).upload(localFile, REMOTE_PATH);
+
+		assertEquals(1, server.getErrorCount());
+		assertUploaded();
+	}
+
+	@Test
+	public void testExpiredSessionRestartsUpload() throws Exception {
+		uploadAndExpectFailure(2, 500, "/1/chunked_upload", 1);
+
+		// Session expires while the client is down; the upload starts over
+		server.expireUploadSessions();
+
+		int requestCountBefore = server.getRequestCount();
+		createUploader(1).upload(localFile, REMOTE_PATH);
+
+		assertEquals(1 + CHUNK_COUNT + 1, server.getRequestCount() - requestCountBefore);
+		assertUploaded();
+	}
+
+	@Test
+	public void testExpiredSessionOnCommitRestartsUpload() throws Exception {
+		uploadAndExpectFailure(0, 500, COMMIT_ENDPOINT, 1);
+
+		server.expireUploadSessions();
+		createUploader(1).upload(localFile, REMOTE_PATH);
+
+		assertUploaded();
+	}
+
+	@Test
+	public void testRejectedSessionDeletesUploadState() throws Exception {
+		uploadAndExpectFailure(2, 500, "/1/chunked_upload", 1);
+		server.expireUploadSessions();
+
+		// The expired session is restarted once; the restarted session is rejected, too
+		uploadAndExpectFailure(2, 400, "/1/chunked_upload", 1);
+
+		assertTrue("Upload state should be deleted", stateDir.list().length == 0);
+	}
+
+	@Test
+	public void testExpiredUploadStatesAreDeleted() throws Exception {
+		stateDir.mkdirs();
+
+		File expiredStateFile = new File(stateDir, "dropbox-upload-expired.properties");
+		File recentStateFile = new File(stateDir, "dropbox-upload-recent.properties");
+		File otherFile = new File(stateDir, "other.properties");
+
+		for (File file : new File[] { expiredStateFile, recentStateFile, otherFile }) {
+			Files.touch(file);
+		}
+
+		long expiredMillis = System.currentTimeMillis() - DropboxChunkedUploader.UPLOAD_SESSION_LIFETIME_MILLIS - 60 * 1000;
+
+		expiredStateFile.setLastModified(expiredMillis);
+		otherFile.setLastModified(expiredMillis);
+
+		createUploader(1);
+
+		assertFalse(expiredStateFile.exists());
+		assertTrue(recentStateFile.exists());
+		assertTrue(otherFile.exists());
+	}
+
+	private void uploadAndExpectFailure(int passCount, int statusCode, String endpoint, int count) throws Exception {
+		server.failRequestsAfter(passCount, count, statusCode, endpoint);
+
+		try {
+			createUploader(1).upload(localFile, REMOTE_PATH);
+			fail("Upload should have failed");
+		}
+		catch (DbxException e) {
+			// Expected
+		}
+	}
+
+	private DropboxChunkedUploader createUploader(int chunkRetries) {
+		return new DropboxChunkedUploader(client, CHUNK_SIZE, chunkRetries, stateDir);
+	}
+
+	private void assertUploaded() throws Exception {
+		ByteArrayOutputStream remoteContent = new ByteArrayOutputStream();
+		client.getFile(REMOTE_PATH, null, remoteContent);
+
+		assertArrayEquals(Files.toByteArray(localFile), remoteContent.toByteArray());
+		assertTrue("Upload state should be deleted", stateDir.list() == null || stateDir.list().length == 0);
+		assertEquals(0, server.getUploadSessionCount());
+	}
+}
@@ -0,0 +1,186 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.plugins.dropbox;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.syncany.plugins.transfer.FileType;
+
+import com.dropbox.core.DbxDelta;
+import com.dropbox.core.DbxEntry;
+
+public class DropboxDeltaCacheTest {
+
+	@Test
+	public void testApplyDelta() {
+		DropboxDeltaCache deltaCache = new DropboxDeltaCache("/Repo", null);
+
+		deltaCache.apply(createDelta(false, "cursor1",
+				folder("/Repo/multichunks"),
+				folder("/Repo/multichunks/ab"),
+				folder("/Repo/multichunks/ab/cd"),
+				file("/Repo/multichunks/ab/cd/multichunk-abcd01"),
+				file("/Repo/databases/db-A-0000000001")));
+
+		assertEquals("cursor1", deltaCache.getCursor());
+		assertEquals(FileType.FOLDER, deltaCache.listFolder("/Repo/multichunks").get("ab"));
+		assertEquals(FileType.FILE, deltaCache.listFolder("/repo/multichunks/ab/cd").get("multichunk-abcd01"));
+		assertEquals(FileType.FILE, deltaCache.listFolder("/Repo/databases").get("db-A-0000000001"));
+
+		deltaCache.apply(createDelta(false, "cursor2", deleted("/repo/multichunks/ab")));
+
+		assertEquals("cursor2", deltaCache.getCursor());
+		assertTrue(deltaCache.listFolder("/Repo/multichunks").isEmpty());
+		assertTrue(deltaCache.listFolder("/Repo/multichunks/ab/cd").isEmpty());
+
+		deltaCache.apply(createDelta(true, "cursor3", file("/Repo/syncany")));
+
+		assertEquals(1, deltaCache.listFolder("/Repo").size());
+		assertNull(deltaCache.listFolder("/Repo").get("databases"));
+	}
+
+	@Test
+	public void testLocalChanges() {
+		DropboxDeltaCache deltaCache = new DropboxDeltaCache("/Repo", null);
+
+		deltaCache.add("/Repo/multichunks/ab/cd/multichunk-abcd01", FileType.FILE);
+		deltaCache.add("/Repo/temporary/12/34/temp-1", FileType.FILE);
+		deltaCache.add("/Other/file", FileType.FILE);
+
+		assertEquals(FileType.FOLDER, deltaCache.listFolder("/Repo/multichunks/ab").get("cd"));
+		assertTrue(deltaCache.listFolder("/Other").isEmpty());
+
+		deltaCache.move("/Repo/temporary/12/34/temp-1", "/Repo/multichunks/ab/cd/multichunk-abcd02");
+
+		Map<String, FileType> subfolderContents = deltaCache.listFolder("/Repo/multichunks/ab/cd");
+
+		assertEquals(2, subfolderContents.size());
+		assertTrue(deltaCache.listFolder("/Repo/temporary/12/34").isEmpty());
+
+		deltaCache.remove("/Repo/multichunks/ab/cd/multichunk-abcd01");
+		deltaCache.remove("/Repo/multichunks/ab/cd/multichunk-abcd02");
+
+		assertTrue(deltaCache.listFolder("/Repo/multichunks/ab/cd").isEmpty());
+	}
+
+	@Test
+	public void testListSubtree() {
+		DropboxDeltaCache deltaCache = new DropboxDeltaCache("/Repo", null);
+
+		deltaCache.add("/Repo/multichunks/ab/cd/multichunk-abcd01", FileType.FILE);
+		deltaCache.add("/Repo/multichunks/ab/ef/multichunk-abef01", FileType.FILE);
+		deltaCache.add("/Repo/databases/db-A-0000000001", FileType.FILE);
+
+		Map<String, Map<String, FileType>> subtree = deltaCache.listSubtree("/Repo/multichunks");
+
+		assertEquals(4, subtree.size());
+		assertEquals(FileType.FOLDER, subtree.get("/Repo/multichunks").get("ab"));
+		assertEquals(2, subtree.get("/Repo/multichunks/ab").size());
+		assertEquals(FileType.FILE, subtree.get("/Repo/multichunks/ab/ef").get("multichunk-abef01"));
+		assertNull(subtree.get("/Repo/databases"));
+	}
+
+	@Test
+	public void testAppFolderRoot() {
+		DropboxDeltaCache deltaCache = new DropboxDeltaCache("/", null);
+
+		deltaCache.apply(createDelta(false, "cursor1",
+				folder("/multichunks"),
+				file("/multichunks/ab/multichunk-ab01"),
+				file("/syncany")));
+
+		deltaCache.add("/databases/db-A-0000000001", FileType.FILE);
+
+		assertEquals(3, deltaCache.listFolder("/").size());
+		assertEquals(FileType.FILE, deltaCache.listFolder("/").get("syncany"));
+		assertEquals(FileType.FILE, deltaCache.listFolder("/multichunks/ab").get("multichunk-ab01"));
+		assertEquals(FileType.FILE, deltaCache.listFolder("/databases").get("db-A-0000000001"));
+
+		Map<String, Map<String, FileType>> subtree = deltaCache.listSubtree("/");
+
+		assertEquals(4, subtree.size());
+		assertEquals(FileType.FOLDER, subtree.get("/multichunks").get("ab"));
+
+		deltaCache.remove("/multichunks");
+
+		assertNull(deltaCache.listFolder("/").get("multichunks"));
+		assertTrue(deltaCache.listFolder("/multichunks/ab").isEmpty());
+	}
+
+	@Test
+	public void testPersistState() throws Exception {
+		File stateDir = Files.createTempDirectory("dropbox-delta").toFile();
+		File stateFile = new File(stateDir, "dropbox-delta.state");
+
+		try {
+			DropboxDeltaCache deltaCache = new DropboxDeltaCache("/Repo", stateFile);
+			deltaCache.apply(createDelta(false, "cursor1", file("/Repo/multichunks/ab/cd/multichunk-abcd01"), file("/Repo/syncany")));
+			deltaCache.saveState();
+			deltaCache.saveState();
+
+			assertEquals(1, stateDir.list().length);
+
+			DropboxDeltaCache loadedDeltaCache = new DropboxDeltaCache("/Repo", stateFile);
+
+			assertEquals("cursor1", loadedDeltaCache.getCursor());
+			assertEquals(FileType.FILE, loadedDeltaCache.listFolder("/Repo/multichunks/ab/cd").get("multichunk-abcd01"));
+			assertEquals(FileType.FILE, loadedDeltaCache.listFolder("/Repo").get("syncany"));
+
+			DropboxDeltaCache otherRepoDeltaCache = new DropboxDeltaCache("/OtherRepo", stateFile);
+
+			assertNull(otherRepoDeltaCache.getCursor());
+		}
+		finally {
+			stateFile.delete();
+			stateDir.delete();
+		}
+	}
+
+	@SafeVarargs
+	private static DbxDelta<DbxEntry> createDelta(boolean reset, String cursor, DbxDelta.Entry<DbxEntry>... entries) {
+		List<DbxDelta.Entry<DbxEntry>> entryList = new ArrayList<DbxDelta.Entry<DbxEntry>>();
+
+		for (DbxDelta.Entry<DbxEntry> entry : entries) {
+			entryList.add(entry);
+		}
+
+		return new DbxDelta<DbxEntry>(reset, entryList, cursor, false);
+	}
+
+	private static DbxDelta.Entry<DbxEntry> folder(String path) {
+		return new DbxDelta.Entry<DbxEntry>(path.toLowerCase(), new DbxEntry.Folder(path, null, false));
+	}
+
+	private static DbxDelta.Entry<DbxEntry> file(String path) {
+		return new DbxDelta.Entry<DbxEntry>(path.toLowerCase(), new DbxEntry.File(path, null, false, 1, "1 bytes", new Date(), new Date(), "rev"));
+	}
+
+	private static DbxDelta.Entry<DbxEntry> deleted(String path) {
+		return new DbxDelta.Entry<DbxEntry>(path, null);
+	}
+}
@@ -0,0 +1,124 @@
+package org.syncany.plugins.dropbox;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.dropbox.core.http.HttpRequestor;
+import com.dropbox.core.http.HttpRequestor.Header;
+import com.dropbox.core.http.HttpRequestor.Response;
+import com.google.common.io.ByteStreams;
+
+public class DropboxPooledHttpRequestorTest {
+	private static final String ACCESS_TOKEN = "standin-access-token";
+
+	private DropboxStandInServer server;
+	private DropboxPooledHttpRequestor requestor;
+	private String serverUrl;
+
+	@Before
+	public void setUp() throws Exception {
+		server = new DropboxStandInServer(ACCESS_TOKEN);
+		server.start();
+
+		requestor = new DropboxPooledHttpRequestor(4, 64 * 1024);
+		serverUrl = "http://127.0.0.1:" + server.getPort();
+	}
+
+	@After
+	public void tearDown() {
+		requestor.shutdown();
+		server.stop();
+	}
+
+	@Test
+	public void testConnectionIsReused() throws Exception {
+		for (int i = 0; i < 5; i++) {
+			Response response = requestor.doGet(serverUrl + "/1/account/info", getHeaders());
+
+			assertEquals(200, response.statusCode);
+			assertTrue(readAndClose(response.body).length > 0);
+		}
+
+		assertEquals(0, requestor.getPoolStats().getLeased());
+		assertEquals(1, requestor.getPoolStats().getAvailable());
+	}
+
+	@Test
+	public void testUpload() throws Exception {
+		byte[] content = "Hello Dropbox".getBytes();
+		List<Header> headers = Arrays.asList(new Header("Authorization", "Bearer " + ACCESS_TOKEN), new Header("Content-Length",
+				Integer.toString(content.length)));
+
+		HttpRequestor.Uploader uploader = requestor.startPut(serverUrl + "/1/files_put/auto/hello.txt?overwrite=true", headers);
+		Response response;
+
+		try {
+			uploader.body.write(content);
+			response = uploader.finish();
+		}
+		finally {
+			uploader.close();
+		}
+
+		assertEquals(200, response.statusCode);
+		assertTrue(response.headers.containsKey("content-type"));
+		readAndClose(response.body);
+
+		assertTrue(server.exists("/hello.txt"));
+	}
+
+	@Test
+	public void testLargeUploadIsStreamed() throws Exception {
+		byte[] content = new byte[2 * 1024 * 1024 + 123];
+		new Random(42).nextBytes(content);
+
+		List<Header> headers = Arrays.asList(new Header("Authorization", "Bearer " + ACCESS_TOKEN), new Header("Content-Length",
+				Integer.toString(content.length)));
+
+		HttpRequestor.Uploader uploader = requestor.startPut(serverUrl + "/1/files_put/auto/large.bin?overwrite=true", headers);
+		Response response;
+
+		try {
+			for (int offset = 0; offset < content.length; offset += 8192) {
+				uploader.body.write(content, offset, Math.min(8192, content.length - offset));
+			}
+
+			response = uploader.finish();
+		}
+		finally {
+			uploader.close();
+		}
+
+		assertEquals(200, response.statusCode);
+		readAndClose(response.body);
+
+		Response downloadResponse = requestor.doGet(serverUrl + "/1/files/auto/large.bin", getHeaders());
+
+		assertEquals(200, downloadResponse.statusCode);
+		assertArrayEquals(content, readAndClose(downloadResponse.body));
+	}
+
+	private List<Header> getHeaders() {
+		return Arrays.asList(new Header("Authorization", "Bearer " + ACCESS_TOKEN));
+	}
+
+	private byte[] readAndClose(InputStream inputStream) throws IOException {
+		try {
+			return ByteStreams.toByteArray(inputStream);
+		}
+		finally {
+			inputStream.close();
+		}
+	}
+}
@@ -0,0 +1,190 @@
+package org.syncany.plugins.dropbox;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.dropbox.core.http.HttpRequestor;
+
+public class DropboxRequestSchedulerTest {
+
+	@Test
+	public void testTokenBucketLimitsRate() throws Exception {
+		DropboxRequestScheduler scheduler = new DropboxRequestScheduler(50, 5, 100, 10);
+		long startMillis = System.currentTimeMillis();
+
+		for (int i = 0; i < 15; i++) {
+			scheduler.acquire();
+			scheduler.release(false, 0);
+		}
+
+		// 5 requests from the burst, 10 more at 50 req/s take at least ~200ms
+
+		assertTrue(System.currentTimeMillis() - startMillis >= 180);
+	}
+
+	@Test
+	public void testConcurrencyLimitAimd() throws Exception {
+		DropboxRequestScheduler scheduler = new DropboxRequestScheduler(1000, 1000, 8, 10);
+
+		scheduler.acquire();
+		scheduler.release(true, 0);
+		assertEquals(4, scheduler.getConcurrencyLimit());
+
+		scheduler.acquire();
+		scheduler.release(true, 0);
+		assertEquals(2, scheduler.getConcurrencyLimit());
+
+		for (int i = 0; i < 10; i++) {
+			scheduler.acquire();
+			scheduler.release(false, 0);
+		}
+
+		assertTrue(scheduler.getConcurrencyLimit() > 2);
+		assertTrue(scheduler.getConcurrencyLimit() <= 8);
+	}
+
+	@Test
+	public void testRequestRateAimd() throws Exception {
+		DropboxRequestScheduler scheduler = new DropboxRequestScheduler(100, 1000, 1000, 10);
+
+		for (int i = 0; i < 1000; i++) {
+			scheduler.acquire();
+		}
+
+		// Back off: each throttled request halves the rate
+
+		scheduler.release(true, 0);
+		assertEquals(50, scheduler.getRequestsPerSecond(), 0.001);
+
+		scheduler.release(true, 0);
+		assertEquals(25, scheduler.getRequestsPerSecond(), 0.001);
+
+		// Recover: each successful request raises the rate by 1/rate
+
+		for (int i = 0; i < 998; i++) {
+			scheduler.release(false, 0);
+		}
+
+		assertTrue(scheduler.getRequestsPerSecond() > 50);
+		assertTrue(scheduler.getRequestsPerSecond() < 100);
+	}
+
+	@Test
+	public void testRequestRateNeverExceedsMaximum() throws Exception {
+		DropboxRequestScheduler scheduler = new DropboxRequestScheduler(10, 100, 100, 10);
+
+		for (int i = 0; i < 100; i++) {
+			scheduler.acquire();
+		}
+
+		scheduler.release(true, 0);
+		assertEquals(5, scheduler.getRequestsPerSecond(), 0.001);
+
+		for (int i = 0; i < 99; i++) {
+			scheduler.release(false, 0);
+		}
+
+		assertEquals(10, scheduler.getRequestsPerSecond(), 0.001);
+	}
+
+	@Test
+	public void testConcurrencyLimitBlocks() throws Exception {
+		final DropboxRequestScheduler scheduler = new DropboxRequestScheduler(1000, 1000, 1, 10);
+		final CountDownLatch acquiredLatch = new CountDownLatch(1);
+
+		scheduler.acquire();
+
+		Thread secondRequest = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					scheduler.acquire();
+					acquiredLatch.countDown();
+				}
+				catch (InterruptedException e) {
+					// Ignore
+				}
+			}
+		});
+
+		secondRequest.start();
+
+		assertFalse(acquiredLatch.await(100, TimeUnit.MILLISECONDS));
+
+		scheduler.release(false, 0);
+
+		assertTrue(acquiredLatch.await(1, TimeUnit.SECONDS));
+		assertEquals(1, scheduler.getActiveRequests());
+	}
+
+	@Test
+	public void testRetryAfterPausesRequests() throws Exception {
+		DropboxRequestScheduler scheduler = new DropboxRequestScheduler(1000, 1000, 8, 10);
+
+		scheduler.acquire();
+		scheduler.release(true, 300);
+
+		long startMillis = System.currentTimeMillis();
+		scheduler.acquire();
+
+		assertTrue(System.currentTimeMillis() - startMillis >= 250);
+	}
+
+	@Test
+	public void testRetryDelayHonoursRetryAfter() {
+		DropboxRequestScheduler scheduler = new DropboxRequestScheduler(10, 10, 8, 100);
+
+		for (int retry = 1; retry <= 5; retry++) {
+			long retryDelay = scheduler.getRetryDelay(retry, 0);
+
+			assertTrue(retryDelay >= 0);
+			assertTrue(retryDelay < 100L << (retry - 1));
+		}
+
+		assertEquals(5000, scheduler.getRetryDelay(1, 5000));
+	}
+
+	@Test
+	public void testSlotHeldUntilResponseBodyClosed() throws Exception {
+		DropboxRequestScheduler scheduler = new DropboxRequestScheduler(1000, 1000, 8, 10);
+
+		HttpRequestor requestor = new DropboxSchedulingHttpRequestor(new HttpRequestor() {
+			@Override
+			public Response doGet(String url, Iterable<Header> headers) throws IOException {
+				return new Response(200, new ByteArrayInputStream(new byte[] { 1, 2, 3 }), new HashMap<String, List<String>>());
+			}
+
+			@Override
+			public Uploader startPost(String url, Iterable<Header> headers) throws IOException {
+				throw new UnsupportedOperationException();
+			}
+
+			@Override
+			public Uploader startPut(String url, Iterable<Header> headers) throws IOException {
+				throw new UnsupportedOperationException();
+			}
+		}, scheduler);
+
+		InputStream body = requestor.doGet("https://api-content.dropbox.com/1/files/auto/file", new ArrayList<HttpRequestor.Header>()).body;
+
+		assertEquals(1, scheduler.getActiveRequests());
+		assertEquals(1, body.read());
+
+		body.close();
+		body.close();
+
+		assertEquals(0, scheduler.getActiveRequests());
+	}
+}
@@ -0,0 +1,126 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.plugins.dropbox;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import com.dropbox.core.http.HttpRequestor;
+import com.google.common.collect.Maps;
+
+/**
+ * HTTP requestor for the {@link DropboxStandInServer}. The Dropbox SDK builds <tt>https://</tt>
+ * URLs for the configured host names; this requestor sends these requests via plain
+ * HTTP to the local stand-in server instead.
+ */
+public class DropboxStandInHttpRequestor extends HttpRequestor {
+	private static final int CHUNKED_STREAMING_SIZE = 16 * 1024;
+
+	private final String serverAddress;
+
+	public DropboxStandInHttpRequestor(String serverHost, int serverPort) {
+		this.serverAddress = "http://" + serverHost + ":" + serverPort;
+	}
+
+	@Override
+	public Response doGet(String url, Iterable<Header> headers) throws IOException {
+		HttpURLConnection connection = openConnection(url, "GET", headers);
+		return toResponse(connection);
+	}
+
+	@Override
+	public Uploader startPost(String url, Iterable<Header> headers) throws IOException {
+		return startUpload(openConnection(url, "POST", headers));
+	}
+
+	@Override
+	public Uploader startPut(String url, Iterable<Header> headers) throws IOException {
+		return startUpload(openConnection(url, "PUT", headers));
+	}
+
+	private Uploader startUpload(final HttpURLConnection connection) throws IOException {
+		return new Uploader(connection.getOutputStream()) {
+			@Override
+			public Response finish() throws IOException {
+				body.close();
+				return toResponse(connection);
+			}
+
+			@Override
+			public void close() {
+				// Connection is kept alive, nothing to do
+			}
+
+			@Override
+			public void abort() {
+				connection.disconnect();
+			}
+		};
+	}
+
+	private HttpURLConnection openConnection(String url, String method, Iterable<Header> headers) throws IOException {
+		String redirectedUrl = url.replaceFirst("^https://[^/]+", serverAddress);
+		HttpURLConnection connection = (HttpURLConnection) new URL(redirectedUrl).openConnection();
+
+		connection.setRequestMethod(method);
+		connection.setUseCaches(false);
+
+		boolean fixedLength = false;
+
+		for (Header header : headers) {
+			if ("Content-Length".equalsIgnoreCase(header.key)) {
+				connection.setFixedLengthStreamingMode(Long.parseLong(header.value));
+				fixedLength = true;
+			}
+			else {
+				connection.addRequestProperty(header.key, header.value);
+			}
+		}
+
+		if (!"GET".equals(method)) {
+			connection.setDoOutput(true);
+
+			if (!fixedLength) {
+				connection.setChunkedStreamingMode(CHUNKED_STREAMING_SIZE);
+			}
+		}
+
+		return connection;
+	}
+
+	private Response toResponse(HttpURLConnection connection) throws IOException {
+		int statusCode = connection.getResponseCode();
+		InputStream body = (statusCode >= 400) ? connection.getErrorStream() : connection.getInputStream();
+
+		Map<String, List<String>> headers = Maps.newHashMap();
+
+		for (Map.Entry<String, List<String>> header : connection.getHeaderFields().entrySet()) {
+			if (header.getKey() != null) {
+				headers.put(header.getKey().toLowerCase(Locale.ROOT), header.getValue());
+			}
+		}
+
+		return new Response(statusCode, (body != null) ? body : new ByteArrayInputStream(new byte[0]), headers);
+	}
+}
@@ -0,0 +1,846 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.plugins.dropbox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.dropbox.core.DbxHost;
+import com.dropbox.core.DbxRequestConfig;
+import com.google.common.base.Charsets;
+import com.google.common.collect.Maps;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * In-process HTTP server emulating the parts of the Dropbox Core API (v1) that are
+ * used by the Dropbox plugin: <tt>account/info</tt>, <tt>metadata</tt>, <tt>files</tt>,
+ * <tt>files_put</tt>, <tt>fileops/move|delete|create_folder</tt>, <tt>chunked_upload</tt>,
+ * <tt>commit_chunked_upload</tt> and <tt>delta</tt>. Files are kept in memory.
+ *
+ * <p>The server can inject latency (per request), limit the bandwidth (per request body),
+ * and answer randomly or deterministically with rate limit (429/503, with <tt>Retry-After</tt>)
+ * and server error (500) responses.
+ *
+ * <p>The SDK only talks HTTPS to hosts without a port, so {@link #getHost()} returns fake host
+ * names, and {@link #getRequestConfig()} returns a config with a {@link DropboxStandInHttpRequestor}
+ * that redirects these hosts to this server. Both can be passed to
+ * {@link DropboxClientFactory#setEndpoint(DbxRequestConfig, DbxHost)}.
+ */
+public class DropboxStandInServer {
+	private static final Logger logger = Logger.getLogger(DropboxStandInServer.class.getSimpleName());
+
+	public static final String API_HOST = "api.dropbox-standin";
+	public static final String CONTENT_HOST = "content.dropbox-standin";
+	public static final String WEB_HOST = "www.dropbox-standin";
+
+	private static final int DELTA_PAGE_SIZE = 1000;
+	private static final int BANDWIDTH_BLOCK_SIZE = 8 * 1024;
+
+	private final String accessToken;
+	private final Random random;
+
+	private HttpServer server;
+	private ExecutorService serverExecutor;
+
+	private final Map<String, Node> nodes;
+	private final List<DeltaEntry> deltaLog;
+	private final Map<String, ByteArrayOutputStream> uploadSessions;
+	private long revisionCounter;
+
+	private volatile int latencyMillis;
+	private volatile long bandwidthBytesPerSecond;
+	private volatile double rateLimitRate;
+	private volatile double failureRate;
+	private volatile int retryAfterSeconds;
+	private final AtomicInteger forcedErrorCount;
+	private final AtomicInteger forcedErrorPassCount;
+	private volatile int forcedErrorStatusCode;
+	private volatile String forcedErrorEndpoint;
+
+	private final AtomicInteger requestCount;
+	private final AtomicInteger errorCount;
+
+	public DropboxStandInServer(String accessToken) {
+		this.accessToken = accessToken;
+		this.random = new Random();
+
+		this.nodes = new TreeMap<String, Node>();
+		this.deltaLog = new ArrayList<DeltaEntry>();
+		this.uploadSessions = Maps.newHashMap();
+		this.revisionCounter = 0;
+
+		this.latencyMillis = 0;
+		this.bandwidthBytesPerSecond = 0;
+		this.rateLimitRate = 0;
+		this.failureRate = 0;
+		this.retryAfterSeconds = 1;
+		this.forcedErrorCount = new AtomicInteger(0);
+		this.forcedErrorPassCount = new AtomicInteger(0);
+		this.forcedErrorStatusCode = 0;
+
+		this.requestCount = new AtomicInteger(0);
+		this.errorCount = new AtomicInteger(0);
+
+		nodes.put("/", new Node("/", true, null, new Date()));
+	}
+
+	public void start() throws IOException {
+		serverExecutor = Executors.newCachedThreadPool();
+
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.setExecutor(serverExecutor);
+		server.createContext("/", new StandInHandler());
+		server.start();
+
+		logger.log(Level.INFO, "Dropbox stand-in server listening on port " + getPort());
+	}
+
+	public void stop() {
+		if (server != null) {
+			server.stop(0);
+			serverExecutor.shutdownNow();
+
+			server = null;
+		}
+	}
+
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	public DbxHost getHost() {
+		return new DbxHost(API_HOST, CONTENT_HOST, WEB_HOST);
+	}
+
+	public DbxRequestConfig getRequestConfig() {
+		return new DbxRequestConfig("syncany-standin", Locale.ENGLISH.toString(), new DropboxStandInHttpRequestor("127.0.0.1", getPort()));
+	}
+
+	/**
+	 * Delays each request by the given number of milliseconds (emulated round trip time).
+	 */
+	public void setLatency(int latencyMillis) {
+		this.latencyMillis = latencyMillis;
+	}
+
+	/**
+	 * Limits the transfer rate of request and response bodies (per request).
+	 * A value of 0 disables the limit.
+	 */
+	public void setBandwidth(long bandwidthBytesPerSecond) {
+		this.bandwidthBytesPerSecond = bandwidthBytesPerSecond;
+	}
+
+	/**
+	 * Sets the probability (0..1) for a request to be rejected with a rate
+	 * limit response (429 or 503, with a <tt>Retry-After</tt> header).
+	 */
+	public void setRateLimitRate(double rateLimitRate) {
+		this.rateLimitRate = rateLimitRate;
+	}
+
+	/**
+	 * Sets the probability (0..1) for a request to fail with a server error (500).
+	 */
+	public void setFailureRate(double failureRate) {
+		this.failureRate = failureRate;
+	}
+
+	/**
+	 * Sets the value of the <tt>Retry-After</tt> header in rate limit responses.
+	 */
+	public void setRetryAfterSeconds(int retryAfterSeconds) {
+		this.retryAfterSeconds = retryAfterSeconds;
+	}
+
+	/**
+	 * Answers the next <tt>count</tt> requests with the given status code, regardless
+	 * of the configured rates.
+	 */
+	public void failNextRequests(int count, int statusCode) {
+		failNextRequests(count, statusCode, null);
+	}
+
+	/**
+	 * Answers the next <tt>count</tt> requests to the given endpoint (e.g.
+	 * <tt>/1/commit_chunked_upload</tt>) with the given status code. Requests
+	 * to other endpoints are not affected.
+	 */
+	public void failNextRequests(int count, int statusCode, String endpoint) {
+		failRequestsAfter(0, count, statusCode, endpoint);
+	}
+
+	/**
+	 * Lets the next <tt>passCount</tt> requests to the given endpoint pass, and answers
+	 * the <tt>count</tt> requests after that with the given status code. If the endpoint
+	 * is <tt>null</tt>, all requests are counted.
+	 */
+	public void failRequestsAfter(int passCount, int count, int statusCode, String endpoint) {
+		forcedErrorStatusCode = statusCode;
+		forcedErrorEndpoint = endpoint;
+		forcedErrorPassCount.set(passCount);
+		forcedErrorCount.set(count);
+	}
+
+	/**
+	 * Discards all chunked upload sessions that have not been committed,
+	 * as if they had expired on the server.
+	 */
+	public synchronized void expireUploadSessions() {
+		uploadSessions.clear();
+	}
+
+	public int getRequestCount() {
+		return requestCount.get();
+	}
+
+	public int getErrorCount() {
+		return errorCount.get();
+	}
+
+	/**
+	 * Returns whether a file or folder exists at the given path.
+	 */
+	public synchronized boolean exists(String path) {
+		return nodes.containsKey(toKey(path));
+	}
+
+	/**
+	 * Returns the number of chunked upload sessions that have not been committed (yet).
+	 */
+	public synchronized int getUploadSessionCount() {
+		return uploadSessions.size();
+	}
+
+	private class StandInHandler implements HttpHandler {
+		@Override
+		public void handle(HttpExchange exchange) throws IOException {
+			requestCount.incrementAndGet();
+
+			try {
+				if (latencyMillis > 0) {
+					Thread.sleep(latencyMillis);
+				}
+
+				byte[] requestBody = readFully(exchange.getRequestBody());
+
+				if (!injectError(exchange) && checkAuthorization(exchange)) {
+					route(exchange, requestBody);
+				}
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			catch (Exception e) {
+				logger.log(Level.WARNING, "Dropbox stand-in: Request failed", e);
+				sendError(exchange, 500, "Internal error: " + e.getMessage());
+			}
+			finally {
+				exchange.close();
+			}
+		}
+	}
+
+	private boolean injectError(HttpExchange exchange) throws IOException, InterruptedException {
+		String endpoint = forcedErrorEndpoint;
+
+		if ((endpoint == null || exchange.getRequestURI().getPath().startsWith(endpoint)) && takeForcedError()) {
+			sendInjectedError(exchange, forcedErrorStatusCode);
+			return true;
+		}
+		else if (rateLimitRate > 0 && random.nextDouble() < rateLimitRate) {
+			sendInjectedError(exchange, random.nextBoolean() ? 429 : 503);
+			return true;
+		}
+		else if (failureRate > 0 && random.nextDouble() < failureRate) {
+			sendInjectedError(exchange, 500);
+			return true;
+		}
+		else {
+			return false;
+		}
+	}
+
+	private boolean takeForcedError() {
+		if (forcedErrorCount.get() > 0 && forcedErrorPassCount.getAndDecrement() > 0) {
+			return false;
+		}
+
+		int count;
+
+		do {
+			count = forcedErrorCount.get();
+
+			if (count <= 0) {
+				return false;
+			}
+		}
+		while (!forcedErrorCount.compareAndSet(count, count - 1));
+
+		return true;
+	}
+
+	private void sendInjectedError(HttpExchange exchange, int statusCode) throws IOException, InterruptedException {
+		errorCount.incrementAndGet();
+
+		if (statusCode == 429 || statusCode == 503) {
+			exchange.getResponseHeaders().add("Retry-After", Integer.toString(retryAfterSeconds));
+		}
+
+		sendError(exchange, statusCode, "Injected error " + statusCode);
+	}
+
+	private boolean checkAuthorization(HttpExchange exchange) throws IOException, InterruptedException {
+		String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+
+		if (accessToken != null && !("Bearer " + accessToken).equals(authorization)) {
+			sendError(exchange, 401, "The given OAuth 2 access token doesn't exist or has expired.");
+			return false;
+		}
+
+		return true;
+	}
+
+	private void route(HttpExchange exchange, byte[] requestBody) throws IOException, InterruptedException {
+		String method = exchange.getRequestMethod();
+		String requestPath = exchange.getRequestURI().getPath();
+
+		Map<String, String> params = parseParams(exchange.getRequestURI().getRawQuery());
+
+		if ("POST".equals(method)) {
+			params.putAll(parseParams(new String(requestBody, Charsets.UTF_8)));
+		}
+
+		if (requestPath.equals("/1/account/info")) {
+			sendJson(exchange, 200, "{\"uid\": 12345, \"display_name\": \"Stand-in User\", \"country\": \"DE\", \"referral_link\": \"https://"
+					+ WEB_HOST + "/referrals\", \"quota_info\": {\"shared\": 0, \"quota\": 1099511627776, \"normal\": 0}}");
+		}
+		else if (requestPath.startsWith("/1/metadata/auto")) {
+			handleMetadata(exchange, getPathParam(requestPath, "/1/metadata/auto"), params);
+		}
+		else if (requestPath.startsWith("/1/files/auto")) {
+			handleGetFile(exchange, getPathParam(requestPath, "/1/files/auto"));
+		}
+		else if (requestPath.startsWith("/1/files_put/auto")) {
+			handlePutFile(exchange, getPathParam(requestPath, "/1/files_put/auto"), params, requestBody);
+		}
+		else if (requestPath.equals("/1/chunked_upload")) {
+			handleChunkedUpload(exchange, params, requestBody);
+		}
+		else if (requestPath.startsWith("/1/commit_chunked_upload/auto")) {
+			handleCommitChunkedUpload(exchange, getPathParam(requestPath, "/1/commit_chunked_upload/auto"), params);
+		}
+		else if (requestPath.equals("/1/fileops/move")) {
+			handleMove(exchange, params.get("from_path"), params.get("to_path"));
+		}
+		else if (requestPath.equals("/1/fileops/delete")) {
+			handleDelete(exchange, params.get("path"));
+		}
+		else if (requestPath.equals("/1/fileops/create_folder")) {
+			handleCreateFolder(exchange, params.get("path"));
+		}
+		else if (requestPath.equals("/1/delta")) {
+			handleDelta(exchange, params.get("cursor"), params.get("path_prefix"));
+		}
+		else {
+			sendError(exchange, 404, "Unknown endpoint: " + method + " " + requestPath);
+		}
+	}
+
+	private void handleMetadata(HttpExchange exchange, String path, Map<String, String> params) throws IOException, InterruptedException {
+		String json;
+
+		synchronized (this) {
+			Node node = nodes.get(toKey(path));
+
+			if (node == null) {
+				json = null;
+			}
+			else if (node.folder && "true".equals(params.get("list"))) {
+				StringBuilder contents = new StringBuilder();
+
+				for (Node child : getChildren(node)) {
+					contents.append((contents.length() > 0) ? ", " : "").append(toJson(child));
+				}
+
+				json = toJson(node, "\"hash\": \"" + Long.toHexString(revisionCounter) + "\", \"contents\": [" + contents + "]");
+			}
+			else {
+				json = toJson(node);
+			}
+		}
+
+		if (json == null) {
+			sendError(exchange, 404, "Path '" + path + "' not found");
+		}
+		else {
+			sendJson(exchange, 200, json);
+		}
+	}
+
+	private void handleGetFile(HttpExchange exchange, String path) throws IOException, InterruptedException {
+		Node node;
+
+		synchronized (this) {
+			node = nodes.get(toKey(path));
+		}
+
+		if (node == null || node.folder) {
+			sendError(exchange, 404, "File not found: " + path);
+		}
+		else {
+			exchange.getResponseHeaders().add("Content-Type", "application/octet-stream");
+			exchange.getResponseHeaders().add("x-dropbox-metadata", toJson(node));
+
+			sendBody(exchange, 200, node.content);
+		}
+	}
+
+	private void handlePutFile(HttpExchange exchange, String path, Map<String, String> params, byte[] content) throws IOException,
+			InterruptedException {
+
+		boolean overwrite = !"false".equals(params.get("overwrite"));
+		sendJson(exchange, 200, toJson(putFile(path, content, overwrite)));
+	}
+
+	private void handleChunkedUpload(HttpExchange exchange, Map<String, String> params, byte[] chunk) throws IOException, InterruptedException {
+		String uploadId = params.get("upload_id");
+		long offset = (params.containsKey("offset")) ? Long.parseLong(params.get("offset")) : 0;
+
+		int statusCode;
+		long sessionOffset;
+
+		synchronized (this) {
+			ByteArrayOutputStream session;
+
+			if (uploadId == null) {
+				uploadId = UUID.randomUUID().toString().replace("-", "");
+				session = new ByteArrayOutputStream();
+
+				uploadSessions.put(uploadId, session);
+			}
+			else {
+				session = uploadSessions.get(uploadId);
+			}
+
+			if (session == null) {
+				statusCode = 404;
+				sessionOffset = 0;
+			}
+			else if (session.size() != offset) {
+				statusCode = 400;
+				sessionOffset = session.size();
+			}
+			else {
+				session.write(chunk);
+
+				statusCode = 200;
+				sessionOffset = session.size();
+			}
+		}
+
+		if (statusCode == 404) {
+			sendError(exchange, 404, "Upload session not found: " + uploadId);
+		}
+		else {
+			sendJson(exchange, statusCode, "{\"upload_id\": \"" + uploadId + "\", \"offset\": " + sessionOffset + ", \"expires\": \""
+					+ formatDate(new Date(System.currentTimeMillis() + TimeUnit.DAYS.toMillis(1))) + "\"}");
+		}
+	}
+
+	private void handleCommitChunkedUpload(HttpExchange exchange, String path, Map<String, String> params) throws IOException,
+			InterruptedException {
+
+		ByteArrayOutputStream session;
+
+		synchronized (this) {
+			session = uploadSessions.remove(params.get("upload_id"));
+		}
+
+		if (session == null) {
+			sendError(exchange, 400, "Invalid upload_id");
+		}
+		else {
+			boolean overwrite = !"false".equals(params.get("overwrite"));
+			sendJson(exchange, 200, toJson(putFile(path, session.toByteArray(), overwrite)));
+		}
+	}
+
+	private void handleMove(HttpExchange exchange, String fromPath, String toPath) throws IOException, InterruptedException {
+		String json;
+		int statusCode;
+
+		synchronized (this) {
+			Node source = nodes.get(toKey(fromPath));
+
+			if (source == null) {
+				statusCode = 404;
+				json = null;
+			}
+			else if (nodes.containsKey(toKey(toPath))) {
+				statusCode = 403;
+				json = null;
+			}
+			else {
+				createParents(toPath);
+
+				for (Node node : removeSubtree(fromPath)) {
+					addNode(new Node(toPath + node.path.substring(fromPath.length()), node.folder, node.content, new Date()));
+				}
+
+				statusCode = 200;
+				json = toJson(nodes.get(toKey(toPath)));
+			}
+		}
+
+		if (statusCode == 200) {
+			sendJson(exchange, statusCode, json);
+		}
+		else {
+			sendError(exchange, statusCode, (statusCode == 404) ? "Path '" + fromPath + "' not found" : "A file already exists at " + toPath);
+		}
+	}
+
+	private void handleDelete(HttpExchange exchange, String path) throws IOException, InterruptedException {
+		String json;
+
+		synchronized (this) {
+			Node node = nodes.get(toKey(path));
+			json = (node != null && !node.path.equals("/")) ? toJson(node) : null;
+
+			if (json != null) {
+				removeSubtree(node.path);
+			}
+		}
+
+		if (json == null) {
+			sendError(exchange, 404, "Path '" + path + "' not found");
+		}
+		else {
+			sendJson(exchange, 200, json);
+		}
+	}
+
+	private void handleCreateFolder(HttpExchange exchange, String path) throws IOException, InterruptedException {
+		String json;
+
+		synchronized (this) {
+			if (nodes.containsKey(toKey(path))) {
+				json = null;
+			}
+			else {
+				createParents(path);
+				json = toJson(addNode(new Node(path, true, null, new Date())));
+			}
+		}
+
+		if (json == null) {
+			sendError(exchange, 403, "A folder already exists at " + path);
+		}
+		else {
+			sendJson(exchange, 200, json);
+		}
+	}
+
+	private void handleDelta(HttpExchange exchange, String cursor, String pathPrefix) throws IOException, InterruptedException {
+		String prefixKey = (pathPrefix != null) ? toKey(pathPrefix) : "/";
+		StringBuilder entries = new StringBuilder();
+
+		boolean reset;
+		boolean hasMore;
+		long newCursor;
+
+		synchronized (this) {
+			if (cursor == null) {
+				// Full snapshot of the (prefixed) tree, parents before children
+				for (Node node : nodes.values()) {
+					if (!node.path.equals("/") && isBelow(node.key, prefixKey)) {
+						appendDeltaEntry(entries, node.key, node);
+					}
+				}
+
+				reset = true;
+				hasMore = false;
+				newCursor = deltaLog.size();
+			}
+			else {
+				int start = Integer.parseInt(cursor.substring(1));
+				int end = Math.min(deltaLog.size(), start + DELTA_PAGE_SIZE);
+
+				for (int i = start; i < end; i++) {
+					DeltaEntry deltaEntry = deltaLog.get(i);
+
+					if (isBelow(deltaEntry.key, prefixKey)) {
+						appendDeltaEntry(entries, deltaEntry.key, deltaEntry.node);
+					}
+				}
+
+				reset = false;
+				hasMore = end < deltaLog.size();
+				newCursor = end;
+			}
+		}
+
+		sendJson(exchange, 200, "{\"entries\": [" + entries + "], \"reset\": " + reset + ", \"cursor\": \"c" + newCursor + "\", \"has_more\": "
+				+ hasMore + "}");
+	}
+
+	private void appendDeltaEntry(StringBuilder entries, String key, Node node) {
+		entries.append((entries.length() > 0) ? ", " : "").append("[\"").append(escape(key)).append("\", ");
+		entries.append((node != null) ? toJson(node) : "null").append("]");
+	}
+
+	private synchronized Node putFile(String path, byte[] content, boolean overwrite) {
+		Node existingNode = nodes.get(toKey(path));
+
+		if (existingNode != null && !overwrite) {
+			int dotIndex = path.lastIndexOf('.');
+			boolean hasExtension = dotIndex > path.lastIndexOf('/');
+
+			for (int i = 1; nodes.containsKey(toKey(path)); i++) {
+				path = (hasExtension) ? existingNode.path.substring(0, dotIndex) + " (" + i + ")" + existingNode.path.substring(dotIndex)
+						: existingNode.path + " (" + i + ")";
+			}
+		}
+
+		createParents(path);
+		return addNode(new Node(path, false, content, new Date()));
+	}
+
+	private void createParents(String path) {
+		String parentPath = getParent(path);
+
+		if (!nodes.containsKey(toKey(parentPath))) {
+			createParents(parentPath);
+			addNode(new Node(parentPath, true, null, new Date()));
+		}
+	}
+
+	private Node addNode(Node node) {
+		node.rev = (node.folder) ? null : Long.toHexString(++revisionCounter);
+
+		nodes.put(node.key, node);
+		deltaLog.add(new DeltaEntry(node.key, node));
+
+		return node;
+	}
+
+	private List<Node> removeSubtree(String path) {
+		String key = toKey(path);
+		List<Node> removedNodes = new ArrayList<Node>();
+
+		for (Node node : new ArrayList<Node>(nodes.values())) {
+			if (node.key.equals(key) || node.key.startsWith(key + "/")) {
+				removedNodes.add(nodes.remove(node.key));
+			}
+		}
+
+		deltaLog.add(new DeltaEntry(key, null));
+		return removedNodes;
+	}
+
+	private List<Node> getChildren(Node folder) {
+		List<Node> children = new ArrayList<Node>();
+
+		for (Node node : nodes.values()) {
+			if (!node.path.equals("/") && getParent(node.key).equals(folder.key)) {
+				children.add(node);
+			}
+		}
+
+		return children;
+	}
+
+	private String toJson(Node node) {
+		return toJson(node, null);
+	}
+
+	private String toJson(Node node, String additionalFields) {
+		StringBuilder json = new StringBuilder();
+		long bytes = (node.folder) ? 0 : node.content.length;
+
+		json.append("{\"size\": \"").append(bytes).append(" bytes\", \"bytes\": ").append(bytes);
+		json.append(", \"path\": \"").append(escape(node.path)).append("\", \"is_dir\": ").append(node.folder);
+		json.append(", \"thumb_exists\": false, \"icon\": \"").append((node.folder) ? "folder" : "page_white").append("\"");
+		json.append(", \"modified\": \"").append(formatDate(node.modified)).append("\"");
+
+		if (!node.folder) {
+			json.append(", \"client_mtime\": \"").append(formatDate(node.modified)).append("\"");
+			json.append(", \"rev\": \"").append(node.rev).append("\"");
+		}
+
+		if (additionalFields != null) {
+			json.append(", ").append(additionalFields);
+		}
+
+		return json.append("}").toString();
+	}
+
+	private void sendJson(HttpExchange exchange, int statusCode, String json) throws IOException, InterruptedException {
+		exchange.getResponseHeaders().add("Content-Type", "application/json");
+		sendBody(exchange, statusCode, json.getBytes(Charsets.UTF_8));
+	}
+
+	private void sendError(HttpExchange exchange, int statusCode, String message) throws IOException {
+		try {
+			sendJson(exchange, statusCode, "{\"error\": \"" + escape(message) + "\"}");
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void sendBody(HttpExchange exchange, int statusCode, byte[] body) throws IOException, InterruptedException {
+		exchange.sendResponseHeaders(statusCode, (body.length > 0) ? body.length : -1);
+
+		if (body.length > 0) {
+			try (OutputStream responseBody = exchange.getResponseBody()) {
+				long startTime = System.currentTimeMillis();
+
+				for (int offset = 0; offset < body.length; offset += BANDWIDTH_BLOCK_SIZE) {
+					int length = Math.min(BANDWIDTH_BLOCK_SIZE, body.length - offset);
+
+					responseBody.write(body, offset, length);
+					throttle(startTime, offset + length);
+				}
+			}
+		}
+	}
+
+	private byte[] readFully(InputStream inputStream) throws IOException, InterruptedException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		byte[] buffer = new byte[BANDWIDTH_BLOCK_SIZE];
+		long startTime = System.currentTimeMillis();
+		int read;
+
+		while ((read = inputStream.read(buffer)) != -1) {
+			bytes.write(buffer, 0, read);
+			throttle(startTime, bytes.size());
+		}
+
+		return bytes.toByteArray();
+	}
+
+	private void throttle(long startTime, long transferredBytes) throws InterruptedException {
+		long bandwidth = bandwidthBytesPerSecond;
+
+		if (bandwidth > 0) {
+			long expectedMillis = transferredBytes * 1000 / bandwidth;
+			long elapsedMillis = System.currentTimeMillis() - startTime;
+
+			if (expectedMillis > elapsedMillis) {
+				Thread.sleep(expectedMillis - elapsedMillis);
+			}
+		}
+	}
+
+	private static Map<String, String> parseParams(String encodedParams) throws IOException {
+		Map<String, String> params = Maps.newHashMap();
+
+		if (encodedParams != null && !encodedParams.isEmpty()) {
+			for (String param : encodedParams.split("&")) {
+				int equalsIndex = param.indexOf('=');
+
+				if (equalsIndex > 0) {
+					params.put(URLDecoder.decode(param.substring(0, equalsIndex), "UTF-8"), URLDecoder.decode(param.substring(equalsIndex + 1), "UTF-8"));
+				}
+			}
+		}
+
+		return params;
+	}
+
+	private static String getPathParam(String requestPath, String endpoint) {
+		String path = requestPath.substring(endpoint.length());
+		return (path.isEmpty()) ? "/" : path;
+	}
+
+	private static boolean isBelow(String key, String prefixKey) {
+		return prefixKey.equals("/") || key.equals(prefixKey) || key.startsWith(prefixKey + "/");
+	}
+
+	private static String getParent(String path) {
+		int lastSlash = path.lastIndexOf('/');
+		return (lastSlash > 0) ? path.substring(0, lastSlash) : "/";
+	}
+
+	private static String toKey(String path) {
+		String key = path.replaceAll("/{2,}", "/").toLowerCase(Locale.ROOT);
+		return (key.length() > 1 && key.endsWith("/")) ? key.substring(0, key.length() - 1) : key;
+	}
+
+	private static String formatDate(Date date) {
+		SimpleDateFormat dateFormat = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss '+0000'", Locale.US);
+		dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+		return dateFormat.format(date);
+	}
+
+	private static String escape(String value) {
+		return value.replace("\\", "\\\\").replace("\"", "\\\"");
+	}
+
+	private static class Node {
+		private final String key;
+		private final String path;
+		private final boolean folder;
+		private final byte[] content;
+		private final Date modified;
+		private String rev;
+
+		public Node(String path, boolean folder, byte[] content, Date modified) {
+			this.key = toKey(path);
+			this.path = (key.equals("/")) ? "/" : path;
+			this.folder = folder;
+			this.content = content;
+			this.modified = modified;
+		}
+	}
+
+	private static class DeltaEntry {
+		private final String key;
+		private final Node node;
+
+		public DeltaEntry(String key, Node node) {
+			this.key = key;
+			this.node = node;
+		}
+	}
+}
@@ -0,0 +1,165 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.plugins.dropbox;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.Map;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.syncany.plugins.Plugins;
+import org.syncany.plugins.transfer.StorageException;
+import org.syncany.plugins.transfer.TransferManager;
+import org.syncany.plugins.transfer.TransferPlugin;
+import org.syncany.plugins.transfer.TransferSettings;
+import org.syncany.plugins.transfer.files.DatabaseRemoteFile;
+import org.syncany.tests.integration.plugins.AbstractTransferManagerTest;
+import org.syncany.tests.unit.util.TestFileUtil;
+
+import com.google.common.collect.Maps;
+
+/**
+ * Runs the transfer manager test suite against the {@link DropboxStandInServer}. The
+ * upload chunk size is lowered, so that the chunked upload API is used as well.
+ */
+public class DropboxTransferManagerTest extends AbstractTransferManagerTest {
+	private static final String ACCESS_TOKEN = "standin-access-token";
+	private static final String REPO_PATH = "/Syncany/Repo";
+
+	private static DropboxStandInServer server;
+
+	@BeforeClass
+	public static void startServer() throws Exception {
+		server = new DropboxStandInServer(ACCESS_TOKEN);
+		server.start();
+
+		DropboxClientFactory.setEndpoint(server.getRequestConfig(), server.getHost());
+	}
+
+	@AfterClass
+	public static void stopServer() {
+		DropboxClientFactory.resetEndpoint();
+		server.stop();
+	}
+
+	@Override
+	public Map<String, String> createPluginSettings() {
+		Map<String, String> pluginSettings = Maps.newHashMap();
+
+		pluginSettings.put("accessToken", ACCESS_TOKEN);
+		pluginSettings.put("path", REPO_PATH);
+		pluginSettings.put("uploadChunkSize", "2048");
+
+		return pluginSettings;
+	}
+
+	@Override
+	public String getPluginId() {
+		return "dropbox";
+	}
+
+	@Test
+	public void testInitCreatesRepoFolders() throws Exception {
+		TransferManager transferManager = createTransferManager(createPluginSettings());
+		transferManager.init(true);
+
+		assertTrue(server.exists(REPO_PATH + "/multichunks"));
+		assertTrue(server.exists(REPO_PATH + "/temporary"));
+		assertEquals(0, server.getUploadSessionCount());
+	}
+
+	@Test(expected = StorageException.class)
+	public void testConnectWithInvalidAccessToken() throws Exception {
+		Map<String, String> pluginSettings = createPluginSettings();
+		pluginSettings.put("accessToken", "invalid-access-token");
+
+		createTransferManager(pluginSettings).connect();
+	}
+
+	@Test
+	public void testInjectedErrorFailsOperation() throws Exception {
+		File localFile = TestFileUtil.createRandomFileInDirectory(TestFileUtil.createTempDirectoryInSystemTemp(), 1024);
+		TransferManager transferManager = createTransferManager(createPluginSettings());
+
+		transferManager.init(true);
+		server.failNextRequests(1, 500);
+
+		try {
+			transferManager.upload(localFile, new DatabaseRemoteFile("database-A-0000000001"));
+			fail("Upload should have failed");
+		}
+		catch (StorageException e) {
+			// Expected
+		}
+
+		transferManager.upload(localFile, new DatabaseRemoteFile("database-A-0000000001"));
+		assertTrue(server.getErrorCount() >= 1);
+
+		TestFileUtil.deleteDirectory(localFile.getParentFile());
+	}
+
+	@Test
+	public void testThrottledRequestsAreRetried() throws Exception {
+		File localFile = TestFileUtil.createRandomFileInDirectory(TestFileUtil.createTempDirectoryInSystemTemp(), 1024);
+		TransferManager transferManager = createTransferManager(createPluginSettings());
+
+		transferManager.init(true);
+
+		int errorCountBefore = server.getErrorCount();
+
+		server.setRetryAfterSeconds(0);
+		server.failNextRequests(3, 429);
+
+		transferManager.upload(localFile, new DatabaseRemoteFile("database-A-0000000002"));
+
+		assertEquals(errorCountBefore + 3, server.getErrorCount());
+		assertTrue(server.exists(REPO_PATH + "/databases/database-A-0000000002"));
+
+		server.setRetryAfterSeconds(1);
+		TestFileUtil.deleteDirectory(localFile.getParentFile());
+	}
+
+	@Test
+	public void testRateLimitSettingsAreUsed() throws Exception {
+		Map<String, String> pluginSettings = createPluginSettings();
+
+		pluginSettings.put("accessToken", "rate-limit-access-token");
+		pluginSettings.put("maxRequestsPerSecond", "40");
+		pluginSettings.put("requestBurstSize", "5");
+
+		createTransferManager(pluginSettings);
+
+		assertEquals(40, DropboxClientFactory.getScheduler("rate-limit-access-token").getRequestsPerSecond(), 0.001);
+	}
+
+	private TransferManager createTransferManager(Map<String, String> pluginSettings) throws StorageException {
+		TransferPlugin plugin = Plugins.get(getPluginId(), TransferPlugin.class);
+		TransferSettings transferSettings = plugin.createEmptySettings();
+
+		for (Map.Entry<String, String> pluginSetting : pluginSettings.entrySet()) {
+			transferSettings.setField(pluginSetting.getKey(), pluginSetting.getValue());
+		}
+
+		return plugin.createTransferManager(transferSettings, null);
+	}
+}